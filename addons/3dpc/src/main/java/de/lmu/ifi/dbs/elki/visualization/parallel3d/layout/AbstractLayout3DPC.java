@@ -32,6 +32,7 @@ import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.math.geometry.PrimsMinimumSpanningTree;
 import de.lmu.ifi.dbs.elki.math.statistics.dependence.CorrelationDependenceMeasure;
 import de.lmu.ifi.dbs.elki.math.statistics.dependence.DependenceMeasure;
+import de.lmu.ifi.dbs.elki.math.statistics.dependence.ParallelDependenceMatrix;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArrayAdapter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
@@ -91,7 +92,7 @@ public abstract class AbstractLayout3DPC<N extends Layout.Node> implements Simil
         data[d][r] = v.doubleValue(d);
       }
     }
-    return sim.dependence(DoubleArrayAdapter.STATIC, Arrays.asList(data));
+    return ParallelDependenceMatrix.dependence(sim, DoubleArrayAdapter.STATIC, Arrays.asList(data));
   }
 
   @Override
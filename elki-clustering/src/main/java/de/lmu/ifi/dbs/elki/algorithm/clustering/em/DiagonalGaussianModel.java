@@ -68,6 +68,11 @@ public class DiagonalGaussianModel implements EMClusterModel<EMModel> {
    */
   double norm, normDistrFactor;
 
+  /**
+   * Logarithms of the normalization factor and the weight.
+   */
+  double logNormDistrFactor, logWeight;
+
   /**
    * Weight aggregation sum
    */
@@ -103,10 +108,12 @@ public class DiagonalGaussianModel implements EMClusterModel<EMModel> {
    */
   public DiagonalGaussianModel(double weight, double[] mean, double norm, double[] variances) {
     this.weight = weight;
+    this.logWeight = FastMath.log(weight);
     final int dim = mean.length;
     this.mean = mean;
     this.norm = norm;
     this.normDistrFactor = 1. / FastMath.sqrt(norm); // assume det=1
+    this.logNormDistrFactor = -.5 * FastMath.log(norm);
     this.nmea = new double[dim];
     if(variances == null) {
       variances = new double[dim];
@@ -149,19 +156,44 @@ public class DiagonalGaussianModel implements EMClusterModel<EMModel> {
   public void finalizeEStep() {
     if(wsum > 0.) {
       final double s = 1. / wsum;
-      double det = 1.;
+      double det = 1., logdet = 0.;
       for(int i = 0; i < variances.length; i++) {
         double v = variances[i];
         v = v > 0 ? v * s : SINGULARITY_CHEAT;
         variances[i] = v;
         det *= v;
+        logdet += FastMath.log(v);
       }
       normDistrFactor = 1. / FastMath.sqrt(norm * det);
+      logNormDistrFactor = -.5 * (FastMath.log(norm) + logdet);
     }
     else {
       // Degenerate
       normDistrFactor = 1. / FastMath.sqrt(norm);
+      logNormDistrFactor = -.5 * FastMath.log(norm);
+    }
+  }
+
+  @Override
+  public DiagonalGaussianModel newPartialModel() {
+    return new DiagonalGaussianModel(weight, new double[mean.length], norm, new double[mean.length]);
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<EMModel> other) {
+    DiagonalGaussianModel o = (DiagonalGaussianModel) other;
+    if(!(o.wsum > 0.)) {
+      return;
+    }
+    final double nwsum = wsum + o.wsum;
+    // Shift of the mean, and correction of the variances.
+    final double f = o.wsum / nwsum, s = wsum * f;
+    for(int i = 0; i < mean.length; i++) {
+      final double delta = o.mean[i] - mean[i];
+      variances[i] += o.variances[i] + delta * delta * s;
+      mean[i] += delta * f;
     }
+    wsum = nwsum;
   }
 
   /**
@@ -190,6 +222,11 @@ public class DiagonalGaussianModel implements EMClusterModel<EMModel> {
     return prob * weight;
   }
 
+  @Override
+  public double estimateLogDensity(NumberVector vec) {
+    return logNormDistrFactor - .5 * mahalanobisDistance(vec) + logWeight;
+  }
+
   @Override
   public double getWeight() {
     return weight;
@@ -198,6 +235,7 @@ public class DiagonalGaussianModel implements EMClusterModel<EMModel> {
   @Override
   public void setWeight(double weight) {
     this.weight = weight;
+    this.logWeight = FastMath.log(weight);
   }
 
   @Override
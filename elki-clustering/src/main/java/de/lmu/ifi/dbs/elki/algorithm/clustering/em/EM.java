@@ -23,7 +23,9 @@ package de.lmu.ifi.dbs.elki.algorithm.clustering.em;
 import static de.lmu.ifi.dbs.elki.math.linearalgebra.VMath.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.ClusteringAlgorithm;
@@ -39,6 +41,8 @@ import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
@@ -48,6 +52,8 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanD
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
@@ -225,69 +231,179 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
 
   /**
    * Recompute the covariance matrixes.
+   * <p>
+   * The data is split into blocks, one per thread; each block collects its
+   * statistics in partial models, which are merged into the models afterwards.
    * 
    * @param relation Vector data
    * @param probClusterIGivenX Object probabilities
    * @param models Cluster models to update
    */
-  public static void recomputeCovarianceMatrices(Relation<? extends NumberVector> relation, WritableDataStore<double[]> probClusterIGivenX, List<? extends EMClusterModel<?>> models) {
-    for(EMClusterModel<?> m : models) {
-      m.beginEStep();
+  public static void recomputeCovarianceMatrices(final Relation<? extends NumberVector> relation, final WritableDataStore<double[]> probClusterIGivenX, List<? extends EMClusterModel<?>> models) {
+    final int k = models.size();
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int numblocks = numBlocks(ids.size());
+    final EMClusterModel<?>[][] partial = new EMClusterModel<?>[numblocks][];
+    partial[0] = models.toArray(new EMClusterModel<?>[k]);
+    for(int b = 1; b < numblocks; b++) {
+      partial[b] = new EMClusterModel<?>[k];
+      for(int i = 0; i < k; i++) {
+        partial[b][i] = models.get(i).newPartialModel();
+      }
     }
-    double[] wsum = new double[models.size()];
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      double[] clusterProbabilities = probClusterIGivenX.get(iditer);
-      NumberVector instance = relation.get(iditer);
-      for(int i = 0; i < clusterProbabilities.length; i++) {
-        final double prior = clusterProbabilities[i];
-        if(prior > 0.) {
-          models.get(i).updateE(instance, prior);
+    final double[][] wsums = new double[numblocks][k];
+    List<Callable<Void>> tasks = new ArrayList<>(numblocks);
+    for(int b = 0; b < numblocks; b++) {
+      final int start = blockStart(b, numblocks, ids.size()), end = blockStart(b + 1, numblocks, ids.size());
+      final EMClusterModel<?>[] bmodels = partial[b];
+      final double[] wsum = wsums[b];
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for(EMClusterModel<?> m : bmodels) {
+            m.beginEStep();
+          }
+          DBIDArrayIter iditer = ids.iter();
+          for(int o = start; o < end; o++) {
+            iditer.seek(o);
+            double[] clusterProbabilities = probClusterIGivenX.get(iditer);
+            NumberVector instance = relation.get(iditer);
+            for(int i = 0; i < clusterProbabilities.length; i++) {
+              final double prior = clusterProbabilities[i];
+              if(prior > 0.) {
+                bmodels[i].updateE(instance, prior);
+              }
+              wsum[i] += prior;
+            }
+          }
+          return null;
         }
-        wsum[i] += prior;
+      });
+    }
+    ParallelExecutor.run(tasks);
+    // Merge in a fixed order, for reproducibility.
+    for(int b = 1; b < numblocks; b++) {
+      for(int i = 0; i < k; i++) {
+        merge(partial[0][i], partial[b][i]);
+        wsums[0][i] += wsums[b][i];
       }
     }
     int i = 0;
     for(EMClusterModel<?> m : models) {
       m.finalizeEStep();
-      m.setWeight(wsum[i++] / relation.size());
+      m.setWeight(wsums[0][i++] / relation.size());
     }
   }
 
+  /**
+   * Merge the statistics of a partial model.
+   *
+   * @param model Model to update
+   * @param partial Partial model of the same type
+   */
+  @SuppressWarnings("unchecked")
+  private static <M extends MeanModel> void merge(EMClusterModel<M> model, EMClusterModel<?> partial) {
+    model.mergeE((EMClusterModel<M>) partial);
+  }
+
   /**
    * Assigns the current probability values to the instances in the database and
    * compute the expectation value of the current mixture of distributions.
    * 
    * Computed as the sum of the logarithms of the prior probability of each
-   * instance.
+   * instance. The probabilities are computed in log space, and normalized using
+   * the log-sum-exp trick, so that distant points do not underflow to zero.
+   * Existing probability arrays are reused.
    * 
    * @param relation the database used for assignment to instances
    * @param models Cluster models
    * @param probClusterIGivenX Output storage for cluster probabilities
    * @return the expectation value of the current mixture of distributions
    */
-  public static double assignProbabilitiesToInstances(Relation<? extends NumberVector> relation, List<? extends EMClusterModel<?>> models, WritableDataStore<double[]> probClusterIGivenX) {
+  public static double assignProbabilitiesToInstances(final Relation<? extends NumberVector> relation, final List<? extends EMClusterModel<?>> models, final WritableDataStore<double[]> probClusterIGivenX) {
     final int k = models.size();
-    double emSum = 0.;
-
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      NumberVector vec = relation.get(iditer);
-      double[] probabilities = new double[k];
-      for(int i = 0; i < k; i++) {
-        probabilities[i] = models.get(i).estimateDensity(vec);
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    // Allocate missing storage first, as the data store need not be
+    // thread-safe for insertions.
+    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+      double[] probabilities = probClusterIGivenX.get(iditer);
+      if(probabilities == null || probabilities.length != k) {
+        probClusterIGivenX.put(iditer, new double[k]);
       }
-      double priorProbability = sum(probabilities);
-      double logP = FastMath.log(priorProbability);
-      emSum += logP > MIN_LOGLIKELIHOOD ? logP : MIN_LOGLIKELIHOOD;
-
-      if(priorProbability > 0.) {
-        // do not divide by zero!
-        timesEquals(probabilities, 1. / priorProbability);
-      }
-      probClusterIGivenX.put(iditer, probabilities);
+    }
+    final int numblocks = numBlocks(ids.size());
+    final double[] emSums = new double[numblocks];
+    List<Callable<Void>> tasks = new ArrayList<>(numblocks);
+    for(int b = 0; b < numblocks; b++) {
+      final int block = b;
+      final int start = blockStart(b, numblocks, ids.size()), end = blockStart(b + 1, numblocks, ids.size());
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          double emSum = 0.;
+          DBIDArrayIter iditer = ids.iter();
+          for(int o = start; o < end; o++) {
+            iditer.seek(o);
+            NumberVector vec = relation.get(iditer);
+            double[] probabilities = probClusterIGivenX.get(iditer);
+            double max = Double.NEGATIVE_INFINITY;
+            for(int i = 0; i < k; i++) {
+              final double v = models.get(i).estimateLogDensity(vec);
+              probabilities[i] = v == v ? v : Double.NEGATIVE_INFINITY; // NaN
+              max = v > max ? v : max;
+            }
+            if(max == Double.NEGATIVE_INFINITY) {
+              // Zero density for all clusters.
+              Arrays.fill(probabilities, 0.);
+              emSum += MIN_LOGLIKELIHOOD;
+              continue;
+            }
+            double sum = 0.;
+            for(int i = 0; i < k; i++) {
+              sum += FastMath.exp(probabilities[i] - max);
+            }
+            final double logP = max + FastMath.log(sum);
+            emSum += logP > MIN_LOGLIKELIHOOD ? logP : MIN_LOGLIKELIHOOD;
+            for(int i = 0; i < k; i++) {
+              probabilities[i] = FastMath.exp(probabilities[i] - logP);
+            }
+          }
+          emSums[block] = emSum;
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    double emSum = 0.;
+    for(double v : emSums) {
+      emSum += v;
     }
     return emSum / relation.size();
   }
 
+  /**
+   * Number of blocks to split the data into, for parallel processing.
+   *
+   * @param size Data set size
+   * @return Number of blocks
+   */
+  private static int numBlocks(int size) {
+    // Avoid tiny blocks.
+    return Math.max(1, Math.min(ParallelCore.getCore().getParallelism(), size >>> 10));
+  }
+
+  /**
+   * Start of a block.
+   *
+   * @param block Block number
+   * @param numblocks Number of blocks
+   * @param size Total size
+   * @return Start offset of the block
+   */
+  private static int blockStart(int block, int numblocks, int size) {
+    return (int) (block * (long) size / numblocks);
+  }
+
   @Override
   public TypeInformation[] getInputTypeRestriction() {
     return TypeUtil.array(TypeUtil.NUMBER_VECTOR_FIELD);
@@ -48,6 +48,22 @@ public interface EMClusterModel<M extends MeanModel> {
    */
   void finalizeEStep();
 
+  /**
+   * Create a model of the same type and dimensionality, for collecting the
+   * statistics of a part of the data in parallel. The statistics are then
+   * combined with {@link #mergeE} before finalizing the E step.
+   *
+   * @return New model, with empty statistics
+   */
+  EMClusterModel<M> newPartialModel();
+
+  /**
+   * Merge the statistics collected by a partial model into this model.
+   *
+   * @param other Partial model, obtained from {@link #newPartialModel}
+   */
+  void mergeE(EMClusterModel<M> other);
+
   /**
    * Estimate the likelihood of a vector.
    * 
@@ -56,6 +72,17 @@ public interface EMClusterModel<M extends MeanModel> {
    */
   double estimateDensity(NumberVector vec);
 
+  /**
+   * Estimate the log likelihood of a vector.
+   *
+   * This must not modify the model, as it is called concurrently, and should
+   * not underflow for points far away from the model.
+   *
+   * @param vec Vector
+   * @return Log likelihood, including the cluster weight.
+   */
+  double estimateLogDensity(NumberVector vec);
+
   /**
    * Finalize a cluster model.
    * 
@@ -28,7 +28,6 @@ import de.lmu.ifi.dbs.elki.data.model.EMModel;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.LUDecomposition;
-import de.lmu.ifi.dbs.elki.math.linearalgebra.VMath;
 
 import net.jafama.FastMath;
 
@@ -69,6 +68,11 @@ public class MultivariateGaussianModel implements EMClusterModel<EMModel> {
    */
   double norm, normDistrFactor;
 
+  /**
+   * Logarithms of the normalization factor and the weight.
+   */
+  double logNormDistrFactor, logWeight;
+
   /**
    * Weight aggregation sum
    */
@@ -105,9 +109,11 @@ public class MultivariateGaussianModel implements EMClusterModel<EMModel> {
    */
   public MultivariateGaussianModel(double weight, double[] mean, double norm, double[][] covariance) {
     this.weight = weight;
+    this.logWeight = FastMath.log(weight);
     this.mean = mean;
     this.norm = norm;
     this.normDistrFactor = 1. / FastMath.sqrt(norm);
+    this.logNormDistrFactor = -.5 * FastMath.log(norm);
     this.nmea = new double[mean.length];
     if(covariance == null) {
       this.covariance = new double[mean.length][mean.length];
@@ -172,6 +178,37 @@ public class MultivariateGaussianModel implements EMClusterModel<EMModel> {
     robustInvert();
   }
 
+  @Override
+  public MultivariateGaussianModel newPartialModel() {
+    return new MultivariateGaussianModel(weight, new double[mean.length], norm, null);
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<EMModel> other) {
+    MultivariateGaussianModel o = (MultivariateGaussianModel) other;
+    if(!(o.wsum > 0.)) {
+      return;
+    }
+    final int dim = mean.length;
+    final double nwsum = wsum + o.wsum;
+    // Shift of the mean, and correction of the scatter (lower half only).
+    final double f = o.wsum / nwsum, s = wsum * f;
+    for(int i = 0; i < dim; i++) {
+      nmea[i] = o.mean[i] - mean[i];
+    }
+    for(int i = 0; i < dim; i++) {
+      final double[] cov_i = covariance[i], ocov_i = o.covariance[i];
+      final double di = nmea[i] * s;
+      for(int j = 0; j <= i; j++) {
+        cov_i[j] += ocov_i[j] + di * nmea[j];
+      }
+    }
+    for(int i = 0; i < dim; i++) {
+      mean[i] += nmea[i] * f;
+    }
+    wsum = nwsum;
+  }
+
   /**
    * Robust computation of the inverse covariance matrix.
    */
@@ -193,6 +230,7 @@ public class MultivariateGaussianModel implements EMClusterModel<EMModel> {
       }
     }
     normDistrFactor = 1. / FastMath.sqrt(norm * det);
+    logNormDistrFactor = -.5 * (FastMath.log(norm) + FastMath.log(det));
     invCovMatr = lu.solve(identity(dim, dim));
   }
 
@@ -207,6 +245,11 @@ public class MultivariateGaussianModel implements EMClusterModel<EMModel> {
     return prob * weight;
   }
 
+  @Override
+  public double estimateLogDensity(NumberVector vec) {
+    return logNormDistrFactor - .5 * mahalanobisDistance(vec) + logWeight;
+  }
+
   /**
    * Compute the Mahalanobis distance of a vector.
    * 
@@ -217,7 +260,19 @@ public class MultivariateGaussianModel implements EMClusterModel<EMModel> {
    * @return Mahalanobis distance
    */
   public double mahalanobisDistance(NumberVector vec) {
-    return VMath.mahalanobisDistance(invCovMatr, vec.toArray(), mean);
+    // Allocation-free, as this is called concurrently.
+    final int dim = mean.length;
+    double agg = 0.;
+    for(int i = 0; i < dim; i++) {
+      final double[] inv_i = invCovMatr[i];
+      final double di = vec.doubleValue(i) - mean[i];
+      double sum = 0.;
+      for(int j = 0; j < dim; j++) {
+        sum += inv_i[j] * (vec.doubleValue(j) - mean[j]);
+      }
+      agg += di * sum;
+    }
+    return agg;
   }
 
   @Override
@@ -228,6 +283,7 @@ public class MultivariateGaussianModel implements EMClusterModel<EMModel> {
   @Override
   public void setWeight(double weight) {
     this.weight = weight;
+    this.logWeight = FastMath.log(weight);
   }
 
   @Override
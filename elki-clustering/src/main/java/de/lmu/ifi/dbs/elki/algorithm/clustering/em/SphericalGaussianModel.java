@@ -61,6 +61,11 @@ public class SphericalGaussianModel implements EMClusterModel<EMModel> {
    */
   double norm, normDistrFactor;
 
+  /**
+   * Logarithms of the normalization factor and the weight.
+   */
+  double logNormDistrFactor, logWeight;
+
   /**
    * Weight aggregation sum
    */
@@ -96,9 +101,11 @@ public class SphericalGaussianModel implements EMClusterModel<EMModel> {
    */
   public SphericalGaussianModel(double weight, double[] mean, double norm, double var) {
     this.weight = weight;
+    this.logWeight = FastMath.log(weight);
     this.mean = mean;
     this.norm = norm;
     this.normDistrFactor = 1. / FastMath.sqrt(norm); // assume det=1
+    this.logNormDistrFactor = -.5 * FastMath.log(norm);
     this.nmea = new double[mean.length];
     this.variance = var;
     this.wsum = 0.;
@@ -137,11 +144,37 @@ public class SphericalGaussianModel implements EMClusterModel<EMModel> {
     if(wsum > 0.) {
       variance = variance / (wsum * mean.length);
       normDistrFactor = 1. / FastMath.sqrt(norm * variance);
+      logNormDistrFactor = -.5 * (FastMath.log(norm) + FastMath.log(variance));
     }
     else {
       // Degenerate
       normDistrFactor = 1. / FastMath.sqrt(norm);
+      logNormDistrFactor = -.5 * FastMath.log(norm);
+    }
+  }
+
+  @Override
+  public SphericalGaussianModel newPartialModel() {
+    return new SphericalGaussianModel(weight, new double[mean.length], norm, 0.);
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<EMModel> other) {
+    SphericalGaussianModel o = (SphericalGaussianModel) other;
+    if(!(o.wsum > 0.)) {
+      return;
+    }
+    final double nwsum = wsum + o.wsum;
+    // Shift of the mean, and correction of the variance.
+    final double f = o.wsum / nwsum, s = wsum * f;
+    double sqdelta = 0.;
+    for(int i = 0; i < mean.length; i++) {
+      final double delta = o.mean[i] - mean[i];
+      sqdelta += delta * delta;
+      mean[i] += delta * f;
     }
+    variance += o.variance + sqdelta * s;
+    wsum = nwsum;
   }
 
   /**
@@ -185,6 +218,11 @@ public class SphericalGaussianModel implements EMClusterModel<EMModel> {
     return prob * weight;
   }
 
+  @Override
+  public double estimateLogDensity(NumberVector vec) {
+    return logNormDistrFactor - .5 * mahalanobisDistance(vec) + logWeight;
+  }
+
   @Override
   public double getWeight() {
     return weight;
@@ -193,6 +231,7 @@ public class SphericalGaussianModel implements EMClusterModel<EMModel> {
   @Override
   public void setWeight(double weight) {
     this.weight = weight;
+    this.logWeight = FastMath.log(weight);
   }
 
   @Override
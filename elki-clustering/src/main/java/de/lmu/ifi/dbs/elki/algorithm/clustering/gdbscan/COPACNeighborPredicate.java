@@ -23,6 +23,11 @@ package de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan;
 import static de.lmu.ifi.dbs.elki.math.linearalgebra.VMath.minusEquals;
 import static de.lmu.ifi.dbs.elki.math.linearalgebra.VMath.transposeTimesTimes;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+
 import de.lmu.ifi.dbs.elki.algorithm.clustering.correlation.COPAC;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
@@ -33,6 +38,8 @@ import de.lmu.ifi.dbs.elki.database.datastore.DataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -43,12 +50,15 @@ import de.lmu.ifi.dbs.elki.database.ids.SetDBIDs;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.pca.PCAFilteredResult;
+import de.lmu.ifi.dbs.elki.math.linearalgebra.pca.PCARunner;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.pca.SortedEigenPairs;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
@@ -93,6 +103,11 @@ public class COPACNeighborPredicate<V extends NumberVector> implements NeighborP
    */
   protected double epsilonsq;
 
+  /**
+   * Number of objects to process in one task.
+   */
+  private static final int CHUNK_SIZE = 64;
+
   /**
    * Constructor.
    * 
@@ -116,18 +131,37 @@ public class COPACNeighborPredicate<V extends NumberVector> implements NeighborP
    * @param relation Vector relation
    * @return Instance
    */
-  public COPACNeighborPredicate.Instance instantiate(Database database, Relation<V> relation) {
+  public COPACNeighborPredicate.Instance instantiate(Database database, final Relation<V> relation) {
     DistanceQuery<V> dq = database.getDistanceQuery(relation, EuclideanDistanceFunction.STATIC);
-    KNNQuery<V> knnq = database.getKNNQuery(dq, settings.k);
+    final KNNQuery<V> knnq = database.getKNNQuery(dq, settings.k);
 
     WritableDataStore<COPACModel> storage = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, COPACModel.class);
-    
+
     Duration time = LOG.newDuration(this.getClass().getName() + ".preprocessing-time").begin();
-    FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress(this.getClass().getName(), relation.size(), LOG) : null;
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      DoubleDBIDList ref = knnq.getKNNForDBID(iditer, settings.k);
-      storage.put(iditer, computeLocalModel(iditer, ref, relation));
-      LOG.incrementProcessed(progress);
+    final FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress(this.getClass().getName(), relation.size(), LOG) : null;
+    // Compute the local models in parallel, each task with its own workspace.
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final COPACModel[] models = new COPACModel[ids.size()];
+    final int dim = RelationUtil.dimensionality(relation);
+    List<Callable<Void>> tasks = new ArrayList<>((ids.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    for(int begin = 0; begin < ids.size(); begin += CHUNK_SIZE) {
+      final int b = begin, e = Math.min(begin + CHUNK_SIZE, ids.size());
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          PCARunner.Workspace ws = settings.pca.newWorkspace(dim);
+          for(DBIDArrayIter iditer = ids.iter().seek(b); iditer.getOffset() < e; iditer.advance()) {
+            DoubleDBIDList ref = knnq.getKNNForDBID(iditer, settings.k);
+            models[iditer.getOffset()] = computeLocalModel(iditer, ref, relation, ws);
+            LOG.incrementProcessed(progress);
+          }
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+      storage.put(iditer, models[iditer.getOffset()]);
     }
     LOG.ensureCompleted(progress);
     LOG.statistics(time.end());
@@ -140,10 +174,11 @@ public class COPACNeighborPredicate<V extends NumberVector> implements NeighborP
    * @param id Query object
    * @param knnneighbors k nearest neighbors
    * @param relation Data relation
+   * @param ws PCA workspace
    * @return COPAC object model
    */
-  protected COPACModel computeLocalModel(DBIDRef id, DoubleDBIDList knnneighbors, Relation<V> relation) {
-    SortedEigenPairs epairs = settings.pca.processIds(knnneighbors, relation).getEigenPairs();
+  protected COPACModel computeLocalModel(DBIDRef id, DoubleDBIDList knnneighbors, Relation<V> relation, PCARunner.Workspace ws) {
+    SortedEigenPairs epairs = settings.pca.processIds(knnneighbors, relation, ws).getEigenPairs();
     int pdim = settings.filter.filter(epairs.eigenValues());
     PCAFilteredResult pcares = new PCAFilteredResult(epairs, pdim, 1., 0.);
 
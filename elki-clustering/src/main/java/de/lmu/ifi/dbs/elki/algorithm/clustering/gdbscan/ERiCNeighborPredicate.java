@@ -25,6 +25,10 @@ import static de.lmu.ifi.dbs.elki.math.linearalgebra.VMath.mahalanobisDistance;
 import static de.lmu.ifi.dbs.elki.math.linearalgebra.VMath.squareSum;
 import static de.lmu.ifi.dbs.elki.math.linearalgebra.VMath.transposeTimesTimes;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import de.lmu.ifi.dbs.elki.algorithm.clustering.correlation.ERiC;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
@@ -35,6 +39,8 @@ import de.lmu.ifi.dbs.elki.database.datastore.DataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -44,6 +50,7 @@ import de.lmu.ifi.dbs.elki.database.ids.HashSetModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
@@ -52,6 +59,7 @@ import de.lmu.ifi.dbs.elki.math.linearalgebra.pca.PCAFilteredResult;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.pca.PCAResult;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.pca.PCARunner;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.pca.filter.EigenPairFilter;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
@@ -91,6 +99,11 @@ public class ERiCNeighborPredicate<V extends NumberVector> implements NeighborPr
    */
   protected final ERiC.Settings settings;
 
+  /**
+   * Number of objects to process in one task.
+   */
+  private static final int CHUNK_SIZE = 64;
+
   /**
    * Squared delta value.
    */
@@ -119,21 +132,40 @@ public class ERiCNeighborPredicate<V extends NumberVector> implements NeighborPr
    * @param relation Relation
    * @return Instance
    */
-  public Instance instantiate(Database database, Relation<V> relation) {
+  public Instance instantiate(Database database, final Relation<V> relation) {
     DistanceQuery<V> dq = database.getDistanceQuery(relation, EuclideanDistanceFunction.STATIC);
-    KNNQuery<V> knnq = database.getKNNQuery(dq, settings.k);
+    final KNNQuery<V> knnq = database.getKNNQuery(dq, settings.k);
 
     WritableDataStore<PCAFilteredResult> storage = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, PCAFilteredResult.class);
 
-    PCARunner pca = settings.pca;
-    EigenPairFilter filter = settings.filter;
+    final PCARunner pca = settings.pca;
+    final EigenPairFilter filter = settings.filter;
     Duration time = LOG.newDuration(this.getClass().getName() + ".preprocessing-time").begin();
-    FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress(this.getClass().getName(), relation.size(), LOG) : null;
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      DoubleDBIDList ref = knnq.getKNNForDBID(iditer, settings.k);
-      PCAResult pcares = pca.processQueryResult(ref, relation);
-      storage.put(iditer, new PCAFilteredResult(pcares.getEigenPairs(), filter.filter(pcares.getEigenvalues()), 1., 0.));
-      LOG.incrementProcessed(progress);
+    final FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress(this.getClass().getName(), relation.size(), LOG) : null;
+    // Compute the local PCAs in parallel, each task with its own workspace.
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final PCAFilteredResult[] results = new PCAFilteredResult[ids.size()];
+    final int dim = RelationUtil.dimensionality(relation);
+    List<Callable<Void>> tasks = new ArrayList<>((ids.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    for(int begin = 0; begin < ids.size(); begin += CHUNK_SIZE) {
+      final int b = begin, e = Math.min(begin + CHUNK_SIZE, ids.size());
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          PCARunner.Workspace ws = pca.newWorkspace(dim);
+          for(DBIDArrayIter iditer = ids.iter().seek(b); iditer.getOffset() < e; iditer.advance()) {
+            DoubleDBIDList ref = knnq.getKNNForDBID(iditer, settings.k);
+            PCAResult pcares = pca.processQueryResult(ref, relation, ws);
+            results[iditer.getOffset()] = new PCAFilteredResult(pcares.getEigenPairs(), filter.filter(pcares.getEigenvalues()), 1., 0.);
+            LOG.incrementProcessed(progress);
+          }
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+      storage.put(iditer, results[iditer.getOffset()]);
     }
     LOG.ensureCompleted(progress);
     LOG.statistics(time.end());
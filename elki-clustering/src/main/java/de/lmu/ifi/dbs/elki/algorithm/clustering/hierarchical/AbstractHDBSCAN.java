@@ -31,9 +31,11 @@ import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
@@ -41,6 +43,12 @@ import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.math.geometry.PrimsMinimumSpanningTree;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KDistanceProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
 import de.lmu.ifi.dbs.elki.result.Result;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleLongHeap;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
@@ -95,7 +103,7 @@ public abstract class AbstractHDBSCAN<O, R extends Result> extends AbstractDista
   }
 
   /**
-   * Compute the core distances for all objects.
+   * Compute the core distances for all objects, in parallel.
    *
    * @param ids Objects
    * @param knnQ kNN query
@@ -103,14 +111,28 @@ public abstract class AbstractHDBSCAN<O, R extends Result> extends AbstractDista
    * @return Data store with core distances
    */
   protected WritableDoubleDataStore computeCoreDists(DBIDs ids, KNNQuery<O> knnQ, int minPts) {
-    final Logging LOG = getLogger();
     final WritableDoubleDataStore coredists = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_DB);
-    FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Computing core sizes", ids.size(), LOG) : null;
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      coredists.put(iter, knnQ.getKNNForDBID(iter, minPts).getKNNDistance());
-      LOG.incrementProcessed(cprog);
+    if(!(ids instanceof DBIDRange)) {
+      // Insert all keys first; the map-based storage is not safe for
+      // concurrent insertion, only for concurrent updates.
+      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        coredists.putDouble(iter, Double.NaN);
+      }
     }
-    LOG.ensureCompleted(cprog);
+    // Compute the kNN
+    KNNProcessor<O> knnm = new KNNProcessor<>(minPts, knnQ);
+    SharedObject<KNNList> knnv = new SharedObject<>();
+    knnm.connectKNNOutput(knnv);
+    // Extract the k-distance
+    KDistanceProcessor kdistm = new KDistanceProcessor(minPts);
+    SharedDouble kdistv = new SharedDouble();
+    kdistm.connectKNNInput(knnv);
+    kdistm.connectOutput(kdistv);
+    // Store the core distances
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(coredists);
+    storem.connectInput(kdistv);
+    getLogger().verbose("Computing core sizes.");
+    ParallelExecutor.run(ids, knnm, kdistm, storem);
     return coredists;
   }
 
@@ -226,7 +248,21 @@ public abstract class AbstractHDBSCAN<O, R extends Result> extends AbstractDista
    * @param lambda Distance array
    */
   protected void convertToPointerRepresentation(ArrayDBIDs ids, DoubleLongHeap heap, WritableDBIDDataStore pi, WritableDoubleDataStore lambda) {
-    final Logging LOG = getLogger();
+    convertToPointerRepresentation(ids, heap, pi, lambda, getLogger());
+  }
+
+  /**
+   * Convert spanning tree to a pointer representation.
+   *
+   * Note: the heap must use the correct encoding of indexes.
+   *
+   * @param ids IDs indexed
+   * @param heap Heap
+   * @param pi Parent array
+   * @param lambda Distance array
+   * @param LOG Logger for progress
+   */
+  protected static void convertToPointerRepresentation(ArrayDBIDs ids, DoubleLongHeap heap, WritableDBIDDataStore pi, WritableDoubleDataStore lambda, Logging LOG) {
     // Initialize parent array:
     for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
       pi.put(iter, iter); // Initialize
@@ -0,0 +1,163 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
+
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDBIDDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleLongHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleLongMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+
+/**
+ * HDBSCAN clustering, computing the minimum spanning tree with Boruvka's
+ * algorithm instead of Prim's.
+ *
+ * In every round, each component is connected to its closest other component
+ * with respect to the mutual reachability distance, roughly halving the number
+ * of components. The closest edges are found by (incrementally enlarged) kNN
+ * queries, which are run in parallel for all points. Because the mutual
+ * reachability distance is bounded from below by both the core distance and
+ * the distance, most points can be pruned once a candidate edge of their
+ * component is known.
+ *
+ * This is only beneficial when the database has an index to accelerate kNN
+ * queries; without an index, {@link HDBSCANLinearMemory} is faster.
+ *
+ * The result is the same pointer representation as produced by
+ * {@link HDBSCANLinearMemory}; with tied distances, a different (but equally
+ * minimal) spanning tree may be chosen, yielding the same hierarchy.
+ *
+ * Reference:
+ * <p>
+ * R. J. G. B. Campello, D. Moulavi, and J. Sander<br />
+ * Density-Based Clustering Based on Hierarchical Density Estimates<br />
+ * Pacific-Asia Conference on Advances in Knowledge Discovery and Data Mining,
+ * PAKDD
+ * </p>
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @param <O> Object type
+ *
+ * @apiviz.has PointerDensityHierarchyRepresentationResult
+ * @apiviz.uses BoruvkaMinimumSpanningTree
+ */
+@Title("HDBSCAN: Hierarchical Density-Based Spatial Clustering of Applications with Noise")
+@Description("Density-Based Clustering Based on Hierarchical Density Estimates, using Boruvka's minimum spanning tree algorithm")
+@Reference(authors = "R. J. G. B. Campello, D. Moulavi, and J. Sander", //
+    title = "Density-Based Clustering Based on Hierarchical Density Estimates", //
+    booktitle = "Pacific-Asia Conference on Advances in Knowledge Discovery and Data Mining, PAKDD", //
+    url = "http://dx.doi.org/10.1007/978-3-642-37456-2_14")
+public class BoruvkaHDBSCAN<O> extends AbstractHDBSCAN<O, PointerDensityHierarchyRepresentationResult> implements HierarchicalClusteringAlgorithm {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(BoruvkaHDBSCAN.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param minPts Minimum number of points for density
+   */
+  public BoruvkaHDBSCAN(DistanceFunction<? super O> distanceFunction, int minPts) {
+    super(distanceFunction, minPts);
+  }
+
+  /**
+   * Run the algorithm
+   *
+   * @param db Database
+   * @param relation Relation
+   * @return Clustering hierarchy
+   */
+  public PointerDensityHierarchyRepresentationResult run(Database db, Relation<O> relation) {
+    final DistanceQuery<O> distQ = db.getDistanceQuery(relation, getDistanceFunction());
+    final KNNQuery<O> knnQ = db.getKNNQuery(distQ, minPts);
+    // We need array addressing later.
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+
+    // 1. Compute the core distances
+    final WritableDoubleDataStore coredists = computeCoreDists(ids, knnQ, minPts);
+
+    // 2. Build the spanning tree.
+    // The searches may need much larger k than minPts:
+    final KNNQuery<O> searchQ = db.getKNNQuery(distQ, size, DatabaseQuery.HINT_HEAVY_USE);
+    final int numedges = size > 0 ? size - 1 : 0;
+    DoubleLongHeap heap = new DoubleLongMinHeap(numedges);
+    double[] core = new double[size];
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      core[it.getOffset()] = coredists.doubleValue(it);
+    }
+    new BoruvkaMinimumSpanningTree(ids, core, searchQ, searchQ, minPts << 1, false).run(heap);
+
+    // Storage for pointer representation:
+    WritableDBIDDataStore pi = DataStoreUtil.makeDBIDStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC);
+    WritableDoubleDataStore lambda = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC, Double.POSITIVE_INFINITY);
+    convertToPointerRepresentation(ids, heap, pi, lambda);
+
+    return new PointerDensityHierarchyRepresentationResult(ids, pi, lambda, distQ.getDistanceFunction().isSquared(), coredists);
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(getDistanceFunction().getInputTypeRestriction());
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class
+   *
+   * @author agent
+   *
+   * @apiviz.exclude
+   *
+   * @param <O> Object type
+   */
+  public static class Parameterizer<O> extends AbstractHDBSCAN.Parameterizer<O> {
+    @Override
+    protected BoruvkaHDBSCAN<O> makeInstance() {
+      return new BoruvkaHDBSCAN<>(distanceFunction, minPts);
+    }
+  }
+}
@@ -0,0 +1,465 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleLongHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.unionfind.WeightedQuickUnionInteger;
+
+/**
+ * Boruvka's minimum spanning tree algorithm, with candidate edges found by kNN
+ * queries, for single-link and HDBSCAN hierarchies.
+ *
+ * Edge lengths are the mutual reachability distances
+ * {@code max(core(i), core(j), d(i,j))}; with all core distances zero, this is
+ * the distance itself. In every round, each component is connected to its
+ * closest other component, roughly halving the number of components. The k
+ * nearest neighbors of every object are computed once, in parallel, and
+ * reused in every round; only objects whose neighbors all belong to their own
+ * component query further neighbors. Because edge lengths are bounded from
+ * below by both the core distance and the distance, most objects can be pruned
+ * once a candidate edge of their component is known.
+ *
+ * In approximate mode, the best edge to another component among the cached
+ * neighbors is accepted without checking farther objects, i.e., the spanning
+ * tree is computed on the kNN graph, and further neighbors are only searched
+ * for components without any edge in the kNN graph. The result is a spanning
+ * tree, but not necessarily a minimal one.
+ *
+ * Edges are added to the heap encoded as {@code (i << 31) | j}, as expected by
+ * {@link AbstractHDBSCAN#convertToPointerRepresentation}.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class BoruvkaMinimumSpanningTree {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(BoruvkaMinimumSpanningTree.class);
+
+  /**
+   * Number of points to process at once, for load balancing.
+   */
+  private static final int CHUNK_SIZE = 256;
+
+  /**
+   * Objects to process.
+   */
+  final ArrayDBIDs ids;
+
+  /**
+   * Core distances, by offset.
+   */
+  final double[] core;
+
+  /**
+   * kNN query for the cached neighbors.
+   */
+  final KNNQuery<?> cacheQ;
+
+  /**
+   * kNN query for finding further candidate edges.
+   */
+  final KNNQuery<?> searchQ;
+
+  /**
+   * Number of neighbors to cache.
+   */
+  final int k;
+
+  /**
+   * Accept edges from the cached neighbors without further search.
+   */
+  final boolean approximate;
+
+  /**
+   * Map from objects to offsets.
+   */
+  final WritableIntegerDataStore offsets;
+
+  /**
+   * Cached neighbor offsets of each object, sorted by distance.
+   */
+  int[][] nnj;
+
+  /**
+   * Cached neighbor distances of each object.
+   */
+  double[][] nnd;
+
+  /**
+   * Component of each object in the current round.
+   */
+  final int[] component;
+
+  /**
+   * Number of neighbors to query for each object. Only grows.
+   */
+  final int[] ks;
+
+  /**
+   * Best edge of each object in the current round.
+   */
+  final double[] bestd;
+
+  /**
+   * Target of the best edge of each object in the current round.
+   */
+  final int[] bestj;
+
+  /**
+   * Objects that need to search beyond their cached neighbors.
+   */
+  final boolean[] search;
+
+  /**
+   * Best known edge length of each component, as long bits for atomic
+   * updates. Only used for pruning.
+   */
+  final AtomicLongArray bounds;
+
+  /**
+   * Constructor.
+   *
+   * @param ids Objects
+   * @param core Core distances by offset, all zero for single-link
+   * @param cacheQ kNN query for the cached neighbors
+   * @param searchQ kNN query for further neighbors, must support large k
+   * @param k Number of neighbors to cache
+   * @param approximate Accept edges from the cached neighbors
+   */
+  public BoruvkaMinimumSpanningTree(ArrayDBIDs ids, double[] core, KNNQuery<?> cacheQ, KNNQuery<?> searchQ, int k, boolean approximate) {
+    final int size = ids.size();
+    this.ids = ids;
+    this.core = core;
+    this.cacheQ = cacheQ;
+    this.searchQ = searchQ;
+    this.k = Math.max(1, Math.min(k, size));
+    this.approximate = approximate;
+    this.offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      offsets.putInt(it, it.getOffset());
+    }
+    this.component = new int[size];
+    this.ks = new int[size];
+    Arrays.fill(ks, Math.min(this.k << 1, size));
+    this.bestd = new double[size];
+    this.bestj = new int[size];
+    this.search = new boolean[size];
+    this.bounds = new AtomicLongArray(size);
+  }
+
+  /**
+   * Build the spanning tree.
+   *
+   * @param heap Output heap of edges.
+   */
+  public void run(DoubleLongHeap heap) {
+    final int size = ids.size();
+    cacheNeighbors();
+    WeightedQuickUnionInteger uf = new WeightedQuickUnionInteger();
+    for(int i = 0; i < size; i++) {
+      uf.nextIndex(1);
+      component[i] = i;
+    }
+    // Best edge of each component.
+    final double[] compd = new double[size];
+    final int[] compi = new int[size];
+    FiniteProgress mprog = LOG.isVerbose() ? new FiniteProgress("Computing minimum spanning tree (n-1 edges)", size > 0 ? size - 1 : 0, LOG) : null;
+    int components = size, rounds = 0;
+    while(components > 1) {
+      ++rounds;
+      final long inf = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+      for(int i = 0; i < size; i++) {
+        bounds.set(i, inf);
+      }
+      findEdges(false);
+      if(approximate) {
+        // Search further only for components without an edge.
+        for(int i = 0; i < size; i++) {
+          search[i] &= bound(component[i]) == Double.POSITIVE_INFINITY;
+        }
+        findEdges(true);
+      }
+      // Choose the best edge of each component, deterministically.
+      Arrays.fill(compd, Double.POSITIVE_INFINITY);
+      Arrays.fill(compi, -1);
+      for(int i = 0; i < size; i++) {
+        if(bestj[i] < 0) {
+          continue;
+        }
+        final int c = component[i], o = compi[c];
+        if(o < 0 || bestd[i] < compd[c] || (bestd[i] == compd[c] && smallerPair(i, bestj[i], o, bestj[o]))) {
+          compd[c] = bestd[i];
+          compi[c] = i;
+        }
+      }
+      final int before = components;
+      for(int c = 0; c < size; c++) {
+        final int i = compi[c];
+        if(i < 0) {
+          continue;
+        }
+        final int j = bestj[i];
+        if(uf.find(i) != uf.find(j)) {
+          uf.union(i, j);
+          heap.add(compd[c], (((long) i) << 31) | j);
+          --components;
+          LOG.incrementProcessed(mprog);
+        }
+      }
+      if(components == before) {
+        throw new IllegalStateException("Boruvka's algorithm did not make progress.");
+      }
+      for(int i = 0; i < size; i++) {
+        component[i] = uf.find(i);
+      }
+    }
+    LOG.ensureCompleted(mprog);
+    LOG.statistics(new LongStatistic(BoruvkaMinimumSpanningTree.class.getName() + ".rounds", rounds));
+    nnj = null;
+    nnd = null;
+    offsets.destroy();
+  }
+
+  /**
+   * Compute the k nearest neighbors of every object, in parallel.
+   */
+  private void cacheNeighbors() {
+    final int size = ids.size();
+    nnj = new int[size][];
+    nnd = new double[size][];
+    parallel(new ChunkTask() {
+      @Override
+      public void process(DBIDArrayIter it, int i) {
+        KNNList knn = cacheQ.getKNNForDBID(it, k);
+        final int[] js = nnj[i] = new int[knn.size()];
+        final double[] ds = nnd[i] = new double[knn.size()];
+        for(DoubleDBIDListIter n = knn.iter(); n.valid(); n.advance()) {
+          js[n.getOffset()] = offsets.intValue(n);
+          ds[n.getOffset()] = n.doubleValue();
+        }
+      }
+    });
+  }
+
+  /**
+   * Find the closest object of another component, for every object.
+   *
+   * @param query Search beyond the cached neighbors; in approximate mode, only
+   *        for objects marked for search.
+   */
+  private void findEdges(final boolean query) {
+    parallel(new ChunkTask() {
+      @Override
+      public void process(DBIDArrayIter it, int i) {
+        if(!query) {
+          findEdge(it, i, !approximate);
+        }
+        else if(search[i]) {
+          findEdge(it, i, true);
+        }
+      }
+    });
+  }
+
+  /**
+   * Task processing single objects.
+   *
+   * @author agent
+   *
+   * @apiviz.exclude
+   */
+  private interface ChunkTask {
+    /**
+     * Process one object.
+     *
+     * @param it Iterator positioned at the object
+     * @param i Object offset
+     */
+    void process(DBIDArrayIter it, int i);
+  }
+
+  /**
+   * Process all objects in parallel, in dynamically assigned chunks.
+   *
+   * @param task Task
+   */
+  private void parallel(final ChunkTask task) {
+    final int size = ids.size();
+    final AtomicInteger next = new AtomicInteger();
+    final int threads = Math.max(1, Math.min(ParallelCore.getCore().getParallelism(), size / CHUNK_SIZE));
+    List<Callable<Void>> tasks = new ArrayList<>(threads);
+    for(int t = 0; t < threads; t++) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          DBIDArrayIter it = ids.iter();
+          for(int start = next.getAndAdd(CHUNK_SIZE); start < size; start = next.getAndAdd(CHUNK_SIZE)) {
+            for(int i = start, end = Math.min(start + CHUNK_SIZE, size); i < end; i++) {
+              task.process(it.seek(i), i);
+            }
+          }
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+  }
+
+  /**
+   * Tie breaking for edges of the same length.
+   *
+   * @param i1 First edge source
+   * @param j1 First edge target
+   * @param i2 Second edge source
+   * @param j2 Second edge target
+   * @return {@code true} if the first edge is preferred.
+   */
+  private static boolean smallerPair(int i1, int j1, int i2, int j2) {
+    final int a1 = Math.min(i1, j1), a2 = Math.min(i2, j2);
+    return a1 < a2 || (a1 == a2 && Math.max(i1, j1) < Math.max(i2, j2));
+  }
+
+  /**
+   * Find the closest object of another component.
+   *
+   * @param it Iterator positioned at the object
+   * @param i Object offset
+   * @param query Search beyond the cached neighbors if necessary
+   */
+  private void findEdge(DBIDArrayIter it, int i, boolean query) {
+    final int c = component[i];
+    final double lb = core[i];
+    bestd[i] = Double.POSITIVE_INFINITY;
+    bestj[i] = -1;
+    search[i] = false;
+    // The mutual reachability distance is at least the core distance.
+    if(lb > bound(c)) {
+      return;
+    }
+    double best = Double.POSITIVE_INFINITY;
+    int bj = -1;
+    // Cached neighbors first:
+    final int[] js = nnj[i];
+    final double[] ds = nnd[i];
+    // Fewer neighbors than requested means we have seen all objects.
+    boolean complete = js.length < k;
+    for(int n = 0; n < js.length; n++) {
+      final double d = ds[n];
+      // Further neighbors cannot improve.
+      if(d > best || d > bound(c)) {
+        complete = true;
+        break;
+      }
+      final int j = js[n];
+      if(component[j] == c) {
+        continue;
+      }
+      final double m = Math.max(Math.max(lb, core[j]), d);
+      if(bj < 0 || m < best || (m == best && j < bj)) {
+        best = m;
+        bj = j;
+      }
+    }
+    if(!complete && !(approximate && bj >= 0)) {
+      if(!query) {
+        search[i] = true;
+        return;
+      }
+      while(true) {
+        final int kk = ks[i];
+        KNNList knn = searchQ.getKNNForDBID(it, kk);
+        complete = knn.size() < kk;
+        for(DoubleDBIDListIter n = knn.iter(); n.valid(); n.advance()) {
+          final double d = n.doubleValue();
+          // Further neighbors cannot improve.
+          if(d > best || d > bound(c)) {
+            complete = true;
+            break;
+          }
+          final int j = offsets.intValue(n);
+          if(component[j] == c) {
+            continue;
+          }
+          final double m = Math.max(Math.max(lb, core[j]), d);
+          if(bj < 0 || m < best || (m == best && j < bj)) {
+            best = m;
+            bj = j;
+          }
+        }
+        if(complete || kk >= ids.size()) {
+          break;
+        }
+        ks[i] = Math.min(kk << 1, ids.size());
+      }
+    }
+    bestd[i] = best;
+    bestj[i] = bj;
+    if(bj >= 0) {
+      updateBound(c, best);
+    }
+  }
+
+  /**
+   * Get the current bound of a component.
+   *
+   * @param c Component
+   * @return Bound
+   */
+  private double bound(int c) {
+    return Double.longBitsToDouble(bounds.get(c));
+  }
+
+  /**
+   * Lower the bound of a component.
+   *
+   * @param c Component
+   * @param d New bound candidate
+   */
+  private void updateBound(int c, double d) {
+    final long bits = Double.doubleToLongBits(d);
+    long cur = bounds.get(c);
+    while(d < Double.longBitsToDouble(cur) && !bounds.compareAndSet(c, cur, bits)) {
+      cur = bounds.get(c);
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractDistanceBasedAlgorithm;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDBIDDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleLongHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleLongMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+
+/**
+ * Single-link clustering via the minimum spanning tree, computed in parallel
+ * with Boruvka's algorithm from kNN queries.
+ *
+ * The k nearest neighbors of all objects are computed in parallel, and the
+ * spanning tree is built from these candidate edges, querying further
+ * neighbors only where necessary. The result is the same pointer
+ * representation as produced by {@link SLINK}; with tied distances, a
+ * different (but equally minimal) spanning tree may be chosen, yielding the
+ * same hierarchy.
+ *
+ * This is only beneficial when the database has an index to accelerate kNN
+ * queries; without an index, each query is a linear scan. In approximate mode,
+ * the spanning tree is computed on the kNN graph (e.g., from an approximate
+ * index such as NN-Descent) and is not necessarily minimal, but needs few
+ * queries beyond the k nearest neighbors. The cached neighbors need memory
+ * linear in the number of objects and k.
+ *
+ * Reference:
+ * <p>
+ * R. Sibson:<br />
+ * SLINK: An optimally efficient algorithm for the single-link cluster method.
+ * <br/>
+ * In: The Computer Journal 16 (1973), No. 1, p. 30-34.
+ * </p>
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.uses BoruvkaMinimumSpanningTree
+ *
+ * @param <O> the type of DatabaseObject the algorithm is applied on
+ */
+@Title("Single-Link Clustering via Boruvka's Minimum Spanning Tree")
+@Description("Hierarchical clustering algorithm based on single-link connectivity, using a parallel minimum spanning tree on kNN queries.")
+@Reference(authors = "R. Sibson", //
+    title = "SLINK: An optimally efficient algorithm for the single-link cluster method", //
+    booktitle = "The Computer Journal 16 (1973), No. 1, p. 30-34.", //
+    url = "http://dx.doi.org/10.1093/comjnl/16.1.30")
+public class BoruvkaSingleLink<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchyRepresentationResult> implements HierarchicalClusteringAlgorithm {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(BoruvkaSingleLink.class);
+
+  /**
+   * Number of neighbors to precompute.
+   */
+  protected int k;
+
+  /**
+   * Use the kNN graph only, where possible.
+   */
+  protected boolean approximate;
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param k Number of neighbors to precompute
+   * @param approximate Build the spanning tree on the kNN graph
+   */
+  public BoruvkaSingleLink(DistanceFunction<? super O> distanceFunction, int k, boolean approximate) {
+    super(distanceFunction);
+    this.k = k;
+    this.approximate = approximate;
+  }
+
+  /**
+   * Run the algorithm
+   *
+   * @param db Database
+   * @param relation Relation
+   * @return Clustering hierarchy
+   */
+  public PointerHierarchyRepresentationResult run(Database db, Relation<O> relation) {
+    final DistanceQuery<O> distQ = db.getDistanceQuery(relation, getDistanceFunction());
+    // We need array addressing later.
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    // Exact mode must not use approximate indexes.
+    final KNNQuery<O> cacheQ = approximate ? db.getKNNQuery(distQ, k) : db.getKNNQuery(distQ, k, DatabaseQuery.HINT_EXACT);
+    // The searches may need much larger k:
+    final KNNQuery<O> searchQ = db.getKNNQuery(distQ, size, DatabaseQuery.HINT_HEAVY_USE, DatabaseQuery.HINT_EXACT);
+
+    final int numedges = size > 0 ? size - 1 : 0;
+    DoubleLongHeap heap = new DoubleLongMinHeap(numedges);
+    new BoruvkaMinimumSpanningTree(ids, new double[size], cacheQ, searchQ, k, approximate).run(heap);
+
+    // Storage for pointer representation:
+    WritableDBIDDataStore pi = DataStoreUtil.makeDBIDStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC);
+    WritableDoubleDataStore lambda = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC, Double.POSITIVE_INFINITY);
+    AbstractHDBSCAN.convertToPointerRepresentation(ids, heap, pi, lambda, LOG);
+    return new PointerHierarchyRepresentationResult(ids, pi, lambda, distQ.getDistanceFunction().isSquared());
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(getDistanceFunction().getInputTypeRestriction());
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class
+   *
+   * @author agent
+   *
+   * @apiviz.exclude
+   *
+   * @param <O> Object type
+   */
+  public static class Parameterizer<O> extends AbstractDistanceBasedAlgorithm.Parameterizer<O> {
+    /**
+     * Number of neighbors to precompute for each object.
+     */
+    public static final OptionID K_ID = new OptionID("boruvka.k", "Number of nearest neighbors to precompute for each object.");
+
+    /**
+     * Flag to build the spanning tree on the kNN graph.
+     */
+    public static final OptionID APPROXIMATE_ID = new OptionID("boruvka.approximate", "Build the spanning tree on the kNN graph, searching further neighbors only for disconnected components. Faster, but the tree may not be minimal.");
+
+    /**
+     * Number of neighbors to precompute.
+     */
+    protected int k;
+
+    /**
+     * Use the kNN graph only, where possible.
+     */
+    protected boolean approximate;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      IntParameter kP = new IntParameter(K_ID, 16) //
+          .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT);
+      if(config.grab(kP)) {
+        k = kP.intValue();
+      }
+      Flag approximateF = new Flag(APPROXIMATE_ID);
+      if(config.grab(approximateF)) {
+        approximate = approximateF.isTrue();
+      }
+    }
+
+    @Override
+    protected BoruvkaSingleLink<O> makeInstance() {
+      return new BoruvkaSingleLink<>(distanceFunction, k, approximate);
+    }
+  }
+}
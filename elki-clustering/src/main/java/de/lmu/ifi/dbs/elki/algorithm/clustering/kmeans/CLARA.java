@@ -20,7 +20,10 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.algorithm.clustering.ClusteringAlgorithmUtil;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.KMedoidsInitialization;
@@ -37,6 +40,7 @@ import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -110,34 +114,64 @@ public class CLARA<V> extends KMedoidsPAM<V> {
     if(relation.size() <= 0) {
       return new Clustering<>("CLARA Clustering", "clara-clustering");
     }
-    DBIDs ids = relation.getDBIDs();
-    DistanceQuery<V> distQ = database.getDistanceQuery(relation, getDistanceFunction());
-
-    double best = Double.POSITIVE_INFINITY;
-    ArrayModifiableDBIDs bestmedoids = null;
-    WritableIntegerDataStore bestclusters = null;
+    final DBIDs ids = relation.getDBIDs();
+    final DistanceQuery<V> distQ = database.getDistanceQuery(relation, getDistanceFunction());
 
+    // Draw the samples and initial medoids serially, for reproducibility:
     Random rnd = random.getSingleThreadedRandom();
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Processing random samples", numsamples, LOG) : null;
+    final DBIDs[] samples = new DBIDs[numsamples];
+    final ArrayModifiableDBIDs[] medoids = new ArrayModifiableDBIDs[numsamples];
     for(int j = 0; j < numsamples; j++) {
-      DBIDs rids = DBIDUtil.randomSample(ids, sampling, rnd);
+      samples[j] = DBIDUtil.randomSample(ids, sampling, rnd);
       // FIXME: precompute and use a distance matrix for this sample!
 
       // Choose initial medoids
-      ArrayModifiableDBIDs medoids = DBIDUtil.newArray(initializer.chooseInitialMedoids(k, rids, distQ));
-      // Setup cluster assignment store
-      WritableIntegerDataStore assignment = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
-      new /* PAM */Instance(distQ, rids, assignment).run(medoids, maxiter);
-      double score = assignRemainingToNearestCluster(medoids, ids, rids, assignment, distQ);
-      if(score < best) {
-        best = score;
-        bestmedoids = medoids;
-        bestclusters = assignment;
-      }
-      LOG.incrementProcessed(prog);
+      medoids[j] = DBIDUtil.newArray(initializer.chooseInitialMedoids(k, samples[j], distQ));
+    }
+    // Optimize and evaluate the samples concurrently, keeping only the
+    // assignment of the best sample so far:
+    final WritableIntegerDataStore[] assignments = new WritableIntegerDataStore[numsamples];
+    final double[] scores = new double[numsamples];
+    final int[] best = { -1 };
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Processing random samples", numsamples, LOG) : null;
+    List<Callable<Void>> tasks = new ArrayList<>(numsamples);
+    for(int j = 0; j < numsamples; j++) {
+      final int sample = j;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          // Setup cluster assignment store
+          WritableIntegerDataStore assignment = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
+          new /* PAM */Instance(distQ, samples[sample], assignment).run(medoids[sample], maxiter);
+          final double score = assignRemainingToNearestCluster(medoids[sample], ids, samples[sample], assignment, distQ);
+          synchronized(best) {
+            scores[sample] = score;
+            final int prev = best[0];
+            // Prefer earlier samples on ties, independent of completion order:
+            if(prev < 0 || score < scores[prev] || (score == scores[prev] && sample < prev)) {
+              if(prev >= 0) {
+                assignments[prev].destroy();
+                assignments[prev] = null;
+              }
+              assignments[sample] = assignment;
+              best[0] = sample;
+            }
+            else {
+              assignment.destroy();
+            }
+          }
+          LOG.incrementProcessed(prog);
+          return null;
+        }
+      });
     }
+    ParallelExecutor.runOuter(tasks);
     LOG.ensureCompleted(prog);
 
+    final int bestsample = best[0];
+    ArrayModifiableDBIDs bestmedoids = medoids[bestsample];
+    WritableIntegerDataStore bestclusters = assignments[bestsample];
+
     ArrayModifiableDBIDs[] clusters = ClusteringAlgorithmUtil.partitionsFromIntegerLabels(ids, bestclusters, k);
 
     // Wrap result
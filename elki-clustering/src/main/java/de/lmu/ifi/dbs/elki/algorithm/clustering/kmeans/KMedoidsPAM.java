@@ -20,6 +20,11 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import de.lmu.ifi.dbs.elki.algorithm.AbstractDistanceBasedAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.ClusteringAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.ClusteringAlgorithmUtil;
@@ -45,6 +50,7 @@ import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.StringStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
@@ -91,6 +97,11 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
    */
   private static final String KEY = KMedoidsPAM.class.getName();
 
+  /**
+   * Number of swap candidates to evaluate in one task.
+   */
+  private static final int CHUNK_SIZE = 256;
+
   /**
    * The number of clusters to produce.
    */
@@ -180,13 +191,18 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
    * nearest, but only the assignments. The matrix lookup was more expensive, so
    * this is probably worth the 2*n doubles in storage.
    *
+   * These cached distances also allow evaluating the swaps of a non-medoid
+   * with all k medoids in a single pass over the data (as in FastPAM1), which
+   * finds the same best swap as trying each pair separately, but k times
+   * faster.
+   *
    * @author Erich Schubert
    */
   protected static class Instance {
     /**
      * Ids to process.
      */
-    DBIDs ids;
+    ArrayDBIDs ids;
 
     /**
      * Distance function to use.
@@ -217,7 +233,7 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
      */
     public Instance(DistanceQuery<?> distQ, DBIDs ids, WritableIntegerDataStore assignment) {
       this.distQ = distQ;
-      this.ids = ids;
+      this.ids = DBIDUtil.ensureArray(ids);
       this.assignment = assignment;
       this.nearest = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
       this.second = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
@@ -230,8 +246,7 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
      * @param maxiter
      * @return this
      */
-    protected Instance run(ArrayModifiableDBIDs medoids, int maxiter) {
-      final int k = medoids.size();
+    protected Instance run(final ArrayModifiableDBIDs medoids, int maxiter) {
       // Initial assignment to nearest medoids
       // TODO: reuse distance information, from the build phase, when possible?
       double tc = assignToNearestCluster(medoids);
@@ -244,32 +259,34 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
       IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("PAM iteration", LOG) : null;
       // Swap phase
       DBIDVar bestid = DBIDUtil.newVar();
-      DBIDArrayIter m = medoids.iter();
+      final int nchunks = (ids.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      final double[] cbest = new double[nchunks];
+      final int[] cbestid = new int[nchunks], cbestcluster = new int[nchunks];
+      List<Callable<Void>> tasks = new ArrayList<>(nchunks);
+      for(int c = 0; c < nchunks; c++) {
+        final int chunk = c;
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            cbest[chunk] = findBestSwap(medoids, metric, chunk * CHUNK_SIZE, Math.min((chunk + 1) * CHUNK_SIZE, ids.size()), cbestid, cbestcluster, chunk);
+            return null;
+          }
+        });
+      }
       int iteration = 1;
       for(; maxiter <= 0 || iteration <= maxiter; iteration++) {
         LOG.incrementProcessed(prog);
-        // Try to swap a non-medoid with a medoid member:
+        // Try to swap a non-medoid with a medoid member, scanning the
+        // candidates in parallel:
+        ParallelExecutor.run(tasks);
+        // Combine in a fixed order, to obtain the same result as a serial scan:
         double best = Double.POSITIVE_INFINITY;
         int bestcluster = -1;
-        // Iterate over all non-medoids:
-        for(DBIDIter h = ids.iter(); h.valid(); h.advance()) {
-          // Compare object to its own medoid.
-          if(DBIDUtil.equal(m.seek(assignment.intValue(h)), h)) {
-            continue; // This is a medoid.
-          }
-          final double hdist = nearest.doubleValue(h); // Current cost of h.
-          if(metric && hdist <= 0.) {
-            continue; // Duplicate of a medoid.
-          }
-          // Find the best possible swap for h:
-          for(int pi = 0; pi < k; pi++) {
-            // hdist is the cost we get back by making the non-medoid h medoid.
-            final double cpi = computeReassignmentCost(h, pi) - hdist;
-            if(cpi < best) {
-              best = cpi;
-              bestid.set(h);
-              bestcluster = pi;
-            }
+        for(int c = 0; c < nchunks; c++) {
+          if(cbest[c] < best) {
+            best = cbest[c];
+            bestid.set(ids.iter().seek(cbestid[c]));
+            bestcluster = cbestcluster[c];
           }
         }
         if(best >= 0.) {
@@ -299,14 +316,58 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
     }
 
     /**
-     * Compute the reassignment cost, for all medoids in one pass.
+     * Find the best swap for a range of candidate non-medoids.
+     *
+     * @param medoids Current medoids
+     * @param metric Distance is metric, so duplicates of medoids can be skipped
+     * @param begin First candidate offset
+     * @param end Candidate offset end (exclusive)
+     * @param bestids Output array for the offset of the best candidate
+     * @param bestclusters Output array for the medoid to replace
+     * @param pos Output position
+     * @return Cost change of the best swap
+     */
+    protected double findBestSwap(ArrayDBIDs medoids, boolean metric, int begin, int end, int[] bestids, int[] bestclusters, int pos) {
+      final int k = medoids.size();
+      DBIDArrayIter m = medoids.iter();
+      double[] cost = new double[k];
+      double best = Double.POSITIVE_INFINITY;
+      for(DBIDArrayIter h = ids.iter().seek(begin); h.getOffset() < end; h.advance()) {
+        // Compare object to its own medoid.
+        if(DBIDUtil.equal(m.seek(assignment.intValue(h)), h)) {
+          continue; // This is a medoid.
+        }
+        final double hdist = nearest.doubleValue(h); // Current cost of h.
+        if(metric && hdist <= 0.) {
+          continue; // Duplicate of a medoid.
+        }
+        // Find the best possible swap for h, for all medoids at once:
+        computeReassignmentCost(h, cost);
+        for(int pi = 0; pi < k; pi++) {
+          // hdist is the cost we get back by making the non-medoid h medoid.
+          final double cpi = cost[pi] - hdist;
+          if(cpi < best) {
+            best = cpi;
+            bestids[pos] = h.getOffset();
+            bestclusters[pos] = pi;
+          }
+        }
+      }
+      return best;
+    }
+
+    /**
+     * Compute the reassignment cost of swapping h with each medoid, in a
+     * single pass over the data, using the cached distances to the nearest and
+     * second nearest medoid.
      *
      * @param h Current object to swap with any medoid.
-     * @param mnum Medoid number to be replaced
-     * @return cost
+     * @param cost Output array of cost changes, one per medoid
      */
-    protected double computeReassignmentCost(DBIDRef h, int mnum) {
-      double cost = 0.;
+    protected void computeReassignmentCost(DBIDRef h, double[] cost) {
+      Arrays.fill(cost, 0.);
+      // Cost change shared by all medoids not removed:
+      double shared = 0.;
       // Compute costs of reassigning other objects j:
       for(DBIDIter j = ids.iter(); j.valid(); j.advance()) {
         if(DBIDUtil.equal(h, j)) {
@@ -316,19 +377,22 @@ public class KMedoidsPAM<V> extends AbstractDistanceBasedAlgorithm<V, Clustering
         final double distcur = nearest.doubleValue(j);
         // distance(j, h) to new medoid
         final double dist_h = distQ.distance(h, j);
-        // Check if current medoid of j is removed:
-        if(assignment.intValue(j) == mnum) {
-          // distance(j, o) to second nearest / possible reassignment
+        if(dist_h < distcur) {
+          // Case 1c: j is closer to h than its current medoid, and hence also
+          // than its second nearest, whichever medoid is removed.
+          shared += dist_h - distcur;
+        }
+        else {
+          // Case 1b: if the current medoid of j is removed, j switches to the
+          // new medoid, or to the second nearest.
+          // Case 1a: otherwise, no change.
           final double distsec = second.doubleValue(j);
-          // Case 1b: j switches to new medoid, or to the second nearest:
-          cost += Math.min(dist_h, distsec) - distcur;
+          cost[assignment.intValue(j)] += (dist_h < distsec ? dist_h : distsec) - distcur;
         }
-        else if(dist_h < distcur) {
-          // Case 1c: j is closer to h than its current medoid
-          cost += dist_h - distcur;
-        } // else Case 1a): j is closer to i than h and m, so no change.
       }
-      return cost;
+      for(int i = 0; i < cost.length; i++) {
+        cost[i] += shared;
+      }
     }
 
     /**
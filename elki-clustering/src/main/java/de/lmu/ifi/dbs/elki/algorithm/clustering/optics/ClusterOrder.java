@@ -20,11 +20,16 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.optics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDBIDDataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
@@ -180,4 +185,62 @@ public class ClusterOrder extends BasicResult implements OrderingResult {
     }
     predecessor.assignVar(id, out);
   }
+
+  /**
+   * Write the cluster order to a stream. Objects are stored by their offset in
+   * the given array of object ids, so the order can be read back for a
+   * different database containing the same data.
+   *
+   * @param out Output stream
+   * @param all All object ids, defining the offsets
+   * @throws IOException on I/O errors
+   */
+  public void write(DataOutput out, ArrayDBIDs all) throws IOException {
+    WritableIntegerDataStore offsets = DataStoreUtil.makeIntegerStorage(all, DataStoreFactory.HINT_TEMP, -1);
+    for(DBIDArrayIter it = all.iter(); it.valid(); it.advance()) {
+      offsets.putInt(it, it.getOffset());
+    }
+    DBIDVar pre = DBIDUtil.newVar();
+    out.writeInt(ids.size());
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      out.writeInt(offsets.intValue(it));
+      out.writeDouble(reachability.doubleValue(it));
+      getPredecessor(it, pre);
+      out.writeInt(pre.isSet() && !DBIDUtil.equal(pre, DBIDUtil.invalid()) ? offsets.intValue(pre) : -1);
+    }
+    offsets.destroy();
+  }
+
+  /**
+   * Read a cluster order written by {@link #write}.
+   *
+   * @param in Input stream
+   * @param all All object ids, defining the offsets
+   * @param name The long name (for pretty printing)
+   * @param shortname the short name (for filenames etc.)
+   * @return Cluster order
+   * @throws IOException on I/O errors, or if the data does not match
+   */
+  public static ClusterOrder read(DataInput in, ArrayDBIDs all, String name, String shortname) throws IOException {
+    final int size = in.readInt();
+    if(size < 0 || size > all.size()) {
+      throw new IOException("Cluster order does not match the data set.");
+    }
+    ClusterOrder order = new ClusterOrder(all, name, shortname);
+    DBIDVar cur = DBIDUtil.newVar(), pre = DBIDUtil.newVar();
+    for(int i = 0; i < size; i++) {
+      final int off = in.readInt();
+      final double reach = in.readDouble();
+      final int preoff = in.readInt();
+      if(off < 0 || off >= all.size() || preoff < -1 || preoff >= all.size()) {
+        throw new IOException("Cluster order does not match the data set.");
+      }
+      all.assignVar(off, cur);
+      if(preoff >= 0) {
+        all.assignVar(preoff, pre);
+      }
+      order.add(cur, reach, preoff >= 0 ? pre : null);
+    }
+    return order;
+  }
 }
@@ -20,6 +20,14 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.optics;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -28,6 +36,7 @@ import java.util.List;
 import java.util.ListIterator;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.AbstractDistanceBasedAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.ClusteringAlgorithm;
 import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
@@ -48,12 +57,15 @@ import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.result.IterableResult;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
+import de.lmu.ifi.dbs.elki.utilities.io.Fingerprint;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.TrackParameters;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ClassParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 
 /**
@@ -63,6 +75,13 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
  * elements from a steep up area that don't have the predecessor in the cluster.
  * This removes a popular type of artifacts.
  *
+ * The cluster order can be stored in a file, and is then reused when the
+ * extraction is repeated on the same data with the same OPTICS algorithm and
+ * parameters, for example with a different xi. The file records minPts,
+ * epsilon, the distance function with its parameters, a fingerprint of all
+ * other parameters of the OPTICS algorithm, and a fingerprint of the data; if
+ * any of these differ, the cluster order is recomputed.
+ *
  * @author Erich Schubert
  * @since 0.7.0
  *
@@ -78,6 +97,16 @@ public class OPTICSXi extends AbstractAlgorithm<Clustering<OPTICSModel>> impleme
    */
   private static final Logging LOG = Logging.getLogger(OPTICSXi.class);
 
+  /**
+   * Cluster order file magic.
+   */
+  private static final int MAGIC = 0x454C4B4F;
+
+  /**
+   * Cluster order file format version.
+   */
+  private static final int VERSION = 3;
+
   /**
    * The actual algorithm we use.
    */
@@ -98,6 +127,16 @@ public class OPTICSXi extends AbstractAlgorithm<Clustering<OPTICSModel>> impleme
    */
   boolean keepsteep;
 
+  /**
+   * File to store the cluster order in, may be {@code null}.
+   */
+  File file;
+
+  /**
+   * Fingerprint of the parameters of the OPTICS algorithm.
+   */
+  long fingerprint;
+
   /**
    * Constructor.
    *
@@ -105,13 +144,32 @@ public class OPTICSXi extends AbstractAlgorithm<Clustering<OPTICSModel>> impleme
    * @param xi Xi value
    * @param nocorrect Disable the predecessor correction
    * @param keepsteep Keep the steep areas for visualization
+   * @param file File to store and reuse the cluster order, may be
+   *        {@code null}
+   * @param fingerprint Fingerprint of the parameters of the OPTICS algorithm
+   *        (see {@link Fingerprint#parameters}); a stored cluster order is
+   *        only reused if it was computed with the same parameters
    */
-  public OPTICSXi(OPTICSTypeAlgorithm optics, double xi, boolean nocorrect, boolean keepsteep) {
+  public OPTICSXi(OPTICSTypeAlgorithm optics, double xi, boolean nocorrect, boolean keepsteep, File file, long fingerprint) {
     super();
     this.optics = optics;
     this.xi = xi;
     this.nocorrect = nocorrect;
     this.keepsteep = keepsteep;
+    this.file = file;
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param optics OPTICS algorithm to use
+   * @param xi Xi value
+   * @param nocorrect Disable the predecessor correction
+   * @param keepsteep Keep the steep areas for visualization
+   */
+  public OPTICSXi(OPTICSTypeAlgorithm optics, double xi, boolean nocorrect, boolean keepsteep) {
+    this(optics, xi, nocorrect, keepsteep, null, 0L);
   }
 
   /**
@@ -126,11 +184,109 @@ public class OPTICSXi extends AbstractAlgorithm<Clustering<OPTICSModel>> impleme
 
   public Clustering<OPTICSModel> run(Database database, Relation<?> relation) {
     // TODO: ensure we are using the same relation?
-    ClusterOrder opticsresult = optics.run(database);
+    final long distance = file != null ? distanceFingerprint() : 0L;
+    ClusterOrder opticsresult = file != null ? readClusterOrder(relation, distance, fingerprint) : null;
+    if(opticsresult == null) {
+      opticsresult = optics.run(database);
+      if(file != null) {
+        writeClusterOrder(opticsresult, relation, distance, fingerprint);
+      }
+    }
+    return extractClusters(opticsresult, relation);
+  }
+
+  /**
+   * Extract clusters from an existing cluster order, e.g., to repeat the
+   * extraction with a different xi without recomputing the cluster order.
+   *
+   * @param clusterOrderResult Cluster order, computed with the minPts of the
+   *        OPTICS algorithm of this instance
+   * @param relation Relation
+   * @return Clustering
+   */
+  public Clustering<OPTICSModel> extractClusters(ClusterOrder clusterOrderResult, Relation<?> relation) {
     if(LOG.isVerbose()) {
       LOG.verbose("Extracting clusters with Xi: " + xi);
     }
-    return extractClusters(opticsresult, relation, 1.0 - xi, optics.getMinPts());
+    return extractClusters(clusterOrderResult, relation, 1.0 - xi, optics.getMinPts());
+  }
+
+  /**
+   * Read the cluster order from the file, if it was written for the same data,
+   * algorithm, and parameters.
+   *
+   * @param relation Relation
+   * @param distance Fingerprint of the distance function
+   * @param config Fingerprint of the algorithm configuration
+   * @return Cluster order, or {@code null}
+   */
+  private ClusterOrder readClusterOrder(Relation<?> relation, long distance, long config) {
+    if(!file.exists()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if(in.readInt() != MAGIC || in.readInt() != VERSION //
+          || !optics.getClass().getName().equals(in.readUTF()) //
+          || in.readInt() != optics.getMinPts() //
+          || Double.doubleToLongBits(in.readDouble()) != Double.doubleToLongBits(epsilon()) //
+          || in.readLong() != distance || in.readLong() != config //
+          || in.readLong() != Fingerprint.data(relation)) {
+        LOG.warning("Cluster order file " + file + " does not match the data or algorithm, recomputing.");
+        return null;
+      }
+      ClusterOrder order = ClusterOrder.read(in, DBIDUtil.ensureArray(relation.getDBIDs()), "OPTICS Clusterorder", "optics-clusterorder");
+      if(LOG.isVerbose()) {
+        LOG.verbose("Restored cluster order from " + file);
+      }
+      return order;
+    }
+    catch(IOException e) {
+      LOG.warning("Could not read cluster order " + file + ", recomputing: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Write the cluster order to the file.
+   *
+   * @param order Cluster order
+   * @param relation Relation
+   * @param distance Fingerprint of the distance function
+   * @param config Fingerprint of the algorithm configuration
+   */
+  private void writeClusterOrder(ClusterOrder order, Relation<?> relation, long distance, long config) {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(optics.getClass().getName());
+      out.writeInt(optics.getMinPts());
+      out.writeDouble(epsilon());
+      out.writeLong(distance);
+      out.writeLong(config);
+      out.writeLong(Fingerprint.data(relation));
+      order.write(out, DBIDUtil.ensureArray(relation.getDBIDs()));
+    }
+    catch(IOException e) {
+      LOG.warning("Could not write cluster order " + file + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Fingerprint of the distance function, including its parameters.
+   *
+   * @return Fingerprint, 0 if the algorithm is not distance-based
+   */
+  private long distanceFingerprint() {
+    return optics instanceof AbstractDistanceBasedAlgorithm ? Fingerprint.configuration(((AbstractDistanceBasedAlgorithm<?, ?>) optics).getDistanceFunction()) : 0L;
+  }
+
+  /**
+   * Epsilon (maximum radius) of the OPTICS algorithm.
+   *
+   * @return Epsilon, NaN if the algorithm has no epsilon parameter
+   */
+  private double epsilon() {
+    return optics instanceof AbstractOPTICS ? ((AbstractOPTICS<?>) optics).epsilon : Double.NaN;
   }
 
   /**
@@ -694,12 +850,21 @@ public class OPTICSXi extends AbstractAlgorithm<Clustering<OPTICSModel>> impleme
      */
     public static final OptionID KEEPSTEEP_ID = new OptionID("opticsxi.keepsteep", "Keep the steep up/down areas of the plot.");
 
+    /**
+     * Parameter to store and reuse the cluster order.
+     */
+    public static final OptionID FILE_ID = new OptionID("opticsxi.clusterorder", "File to store the cluster order in, and to reuse it from when running again on the same data with the same algorithm and minPts.");
+
     protected OPTICSTypeAlgorithm optics;
 
     protected double xi = 0.;
 
     protected boolean nocorrect = false, keepsteep = false;
 
+    protected File file = null;
+
+    protected long fingerprint = 0L;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -712,7 +877,10 @@ public class OPTICSXi extends AbstractAlgorithm<Clustering<OPTICSModel>> impleme
 
       ClassParameter<OPTICSTypeAlgorithm> opticsP = new ClassParameter<>(XIALG_ID, OPTICSTypeAlgorithm.class, OPTICSHeap.class);
       if(config.grab(opticsP)) {
-        optics = opticsP.instantiateClass(config);
+        // Track the parameters of the algorithm, to validate stored orders.
+        TrackParameters track = new TrackParameters(config);
+        optics = opticsP.instantiateClass(track);
+        fingerprint = Fingerprint.parameters(track.getAllParameters());
       }
 
       Flag nocorrectF = new Flag(NOCORRECT_ID);
@@ -724,11 +892,17 @@ public class OPTICSXi extends AbstractAlgorithm<Clustering<OPTICSModel>> impleme
       if(config.grab(keepsteepF)) {
         keepsteep = keepsteepF.isTrue();
       }
+
+      FileParameter fileP = new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE) //
+          .setOptional(true);
+      if(config.grab(fileP)) {
+        file = fileP.getValue();
+      }
     }
 
     @Override
     protected OPTICSXi makeInstance() {
-      return new OPTICSXi(optics, xi, nocorrect, keepsteep);
+      return new OPTICSXi(optics, xi, nocorrect, keepsteep, file, fingerprint);
     }
   }
 }
@@ -0,0 +1,270 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.optics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.math.MathUtil;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.UpdatableHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+
+/**
+ * The OPTICS algorithm for density-based hierarchical clustering, with the
+ * epsilon-neighborhoods of all objects computed in parallel up front.
+ *
+ * The range queries are run in parallel, and the sorted neighborhoods of the
+ * core objects are kept in a compact array store. The cluster order is then
+ * computed with a heap as in {@link OPTICSHeap}, without further queries, and
+ * is identical to its result. The neighborhoods need memory proportional to
+ * their total size, so epsilon should be chosen small enough.
+ *
+ * Reference:
+ * <p>
+ * M. Ankerst, M. Breunig, H.-P. Kriegel, and J. Sander:<br />
+ * OPTICS: Ordering Points to Identify the Clustering Structure. <br/>
+ * In: Proc. ACM SIGMOD Int. Conf. on Management of Data (SIGMOD '99).
+ * </p>
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.composedOf Instance
+ *
+ * @param <O> the type of DatabaseObjects handled by the algorithm
+ */
+@Title("OPTICS: Density-Based Hierarchical Clustering")
+@Description("OPTICS with the epsilon-neighborhoods computed in parallel before ordering.")
+@Reference(authors = "M. Ankerst, M. Breunig, H.-P. Kriegel, and J. Sander", //
+title = "OPTICS: Ordering Points to Identify the Clustering Structure", //
+booktitle = "Proc. ACM SIGMOD Int. Conf. on Management of Data (SIGMOD '99)", //
+url = "http://dx.doi.org/10.1145/304181.304187")
+public class ParallelOPTICS<O> extends AbstractOPTICS<O> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelOPTICS.class);
+
+  /**
+   * Number of objects per parallel task.
+   */
+  private static final int CHUNK_SIZE = 64;
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param epsilon Epsilon value
+   * @param minpts Minpts value
+   */
+  public ParallelOPTICS(DistanceFunction<? super O> distanceFunction, double epsilon, int minpts) {
+    super(distanceFunction, epsilon, minpts);
+  }
+
+  @Override
+  public ClusterOrder run(Database db, Relation<O> relation) {
+    return new Instance(db, relation).run();
+  }
+
+  /**
+   * Instance for processing a single data set.
+   *
+   * @author agent
+   */
+  private class Instance {
+    /**
+     * IDs to process.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Offsets of the objects in {@link #ids}.
+     */
+    WritableIntegerDataStore offsets;
+
+    /**
+     * Neighbor offsets of the core objects, sorted by distance.
+     */
+    int[][] neighbors;
+
+    /**
+     * Neighbor distances of the core objects.
+     */
+    double[][] distances;
+
+    /**
+     * Range query.
+     */
+    RangeQuery<O> rangeQuery;
+
+    /**
+     * Constructor for a single data set.
+     *
+     * @param db Database
+     * @param relation Data relation
+     */
+    public Instance(Database db, Relation<O> relation) {
+      ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      DistanceQuery<O> dq = db.getDistanceQuery(relation, getDistanceFunction());
+      rangeQuery = db.getRangeQuery(dq, epsilon);
+    }
+
+    /**
+     * Process the data set.
+     *
+     * @return Cluster order result.
+     */
+    public ClusterOrder run() {
+      offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
+      for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+        offsets.putInt(it, it.getOffset());
+      }
+      computeNeighborhoods();
+
+      ClusterOrder clusterOrder = new ClusterOrder(ids, "OPTICS Clusterorder", "optics-clusterorder");
+      boolean[] processed = new boolean[ids.size()];
+      UpdatableHeap<OPTICSHeapEntry> heap = new UpdatableHeap<>();
+      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("OPTICS", ids.size(), LOG) : null;
+      DBIDArrayIter neighbor = ids.iter();
+      for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+        if(processed[iditer.getOffset()]) {
+          continue;
+        }
+        heap.add(new OPTICSHeapEntry(DBIDUtil.deref(iditer), null, Double.POSITIVE_INFINITY));
+        while(!heap.isEmpty()) {
+          final OPTICSHeapEntry current = heap.poll();
+          clusterOrder.add(current.objectID, current.reachability, current.predecessorID);
+          final int off = offsets.intValue(current.objectID);
+          processed[off] = true;
+          final int[] neigh = neighbors[off];
+          if(neigh != null) {
+            final double[] dists = distances[off];
+            final double coreDistance = dists[minpts - 1];
+            for(int i = 0; i < neigh.length; i++) {
+              if(processed[neigh[i]]) {
+                continue;
+              }
+              double reachability = MathUtil.max(dists[i], coreDistance);
+              heap.add(new OPTICSHeapEntry(DBIDUtil.deref(neighbor.seek(neigh[i])), current.objectID, reachability));
+            }
+            // No longer needed.
+            neighbors[off] = null;
+            distances[off] = null;
+          }
+          LOG.incrementProcessed(progress);
+        }
+      }
+      LOG.ensureCompleted(progress);
+      offsets.destroy();
+      return clusterOrder;
+    }
+
+    /**
+     * Run the range queries in parallel, and store the sorted neighborhoods of
+     * all core objects.
+     */
+    private void computeNeighborhoods() {
+      final int size = ids.size();
+      neighbors = new int[size][];
+      distances = new double[size][];
+      final long[] stored = new long[(size + CHUNK_SIZE - 1) / CHUNK_SIZE];
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for(int start = 0; start < size; start += CHUNK_SIZE) {
+        final int begin = start, end = Math.min(start + CHUNK_SIZE, size);
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            ModifiableDoubleDBIDList list = DBIDUtil.newDistanceDBIDList();
+            DoubleDBIDListIter li = list.iter();
+            long count = 0;
+            for(DBIDArrayIter it = ids.iter().seek(begin); it.getOffset() < end; it.advance()) {
+              list.clear();
+              rangeQuery.getRangeForDBID(it, epsilon, list);
+              // Only core objects are ever expanded.
+              if(list.size() < minpts) {
+                continue;
+              }
+              list.sort();
+              final int[] neigh = new int[list.size()];
+              final double[] dists = new double[list.size()];
+              for(li.seek(0); li.valid(); li.advance()) {
+                neigh[li.getOffset()] = offsets.intValue(li);
+                dists[li.getOffset()] = li.doubleValue();
+              }
+              neighbors[it.getOffset()] = neigh;
+              distances[it.getOffset()] = dists;
+              count += neigh.length;
+            }
+            stored[begin / CHUNK_SIZE] = count;
+            return null;
+          }
+        });
+      }
+      ParallelExecutor.run(tasks);
+      if(LOG.isStatistics()) {
+        long total = 0;
+        for(long c : stored) {
+          total += c;
+        }
+        LOG.statistics(new LongStatistic(ParallelOPTICS.class.getName() + ".stored-neighbors", total));
+      }
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author agent
+   *
+   * @apiviz.exclude
+   */
+  public static class Parameterizer<O> extends AbstractOPTICS.Parameterizer<O> {
+    @Override
+    protected ParallelOPTICS<O> makeInstance() {
+      return new ParallelOPTICS<>(distanceFunction, epsilon, minpts);
+    }
+  }
+}
@@ -20,11 +20,15 @@
  */
 package de.lmu.ifi.dbs.elki.evaluation.clustering.internal;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
@@ -37,6 +41,7 @@ import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.StringStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.EvaluationResult;
 import de.lmu.ifi.dbs.elki.result.EvaluationResult.MeasurementGroup;
 import de.lmu.ifi.dbs.elki.result.Result;
@@ -97,6 +102,11 @@ public class EvaluateCIndex<O> implements Evaluator {
    */
   private String key = EvaluateCIndex.class.getName();
 
+  /**
+   * Number of objects to process in one task.
+   */
+  private static final int CHUNK_SIZE = 64;
+
   /**
    * Constructor.
    *
@@ -200,48 +210,160 @@ public class EvaluateCIndex<O> implements Evaluator {
     return cIndex;
   }
 
-  protected double processCluster(Cluster<?> cluster, List<? extends Cluster<?>> clusters, int i, DistanceQuery<O> dq, DoubleHeap maxDists, DoubleHeap minDists, int w) {
-    double theta = 0.;
-    for(DBIDIter it1 = cluster.getIDs().iter(); it1.valid(); it1.advance()) {
-      // Compare object to every cluster, but only once
-      for(int j = i; j < clusters.size(); j++) {
-        Cluster<?> ocluster = clusters.get(j);
-        if(ocluster.size() <= 1 || ocluster.isNoise()) {
-          switch(noiseOption){
-          case IGNORE_NOISE:
-            continue; // Ignore this cluster.
-          case TREAT_NOISE_AS_SINGLETONS:
-            break; // Treat like a cluster
-          case MERGE_NOISE:
-            break; // Treat like a cluster
-          }
-        }
-        for(DBIDIter it2 = ocluster.getIDs().iter(); it2.valid(); it2.advance()) {
-          if(DBIDUtil.compare(it1, it2) <= 0) { // Only once.
-            continue;
+  /**
+   * Process the distances of a cluster to itself and all later clusters.
+   *
+   * The objects of the cluster are processed in parallel chunks, each of which
+   * collects its extreme distances locally before merging them. The local
+   * heaps are bounded by the number of pairs of the chunk, and distances that
+   * cannot enter the shared heaps any more are skipped.
+   *
+   * @param cluster Cluster
+   * @param clusters All clusters
+   * @param i Index of the cluster
+   * @param dq Distance query
+   * @param maxDists Heap of the largest distances
+   * @param minDists Heap of the smallest distances
+   * @param w Number of within-cluster distances
+   * @return Sum of within-cluster distances
+   */
+  protected double processCluster(final Cluster<?> cluster, final List<? extends Cluster<?>> clusters, final int i, final DistanceQuery<O> dq, final DoubleHeap maxDists, final DoubleHeap minDists, final int w) {
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(cluster.getIDs());
+    final int nchunks = (ids.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    final double[] thetas = new double[nchunks];
+    // Number of objects to compare with:
+    long others = 0;
+    for(int j = i; j < clusters.size(); j++) {
+      Cluster<?> ocluster = clusters.get(j);
+      if(noiseOption != NoiseHandling.IGNORE_NOISE || !(ocluster.size() <= 1 || ocluster.isNoise())) {
+        others += ocluster.size();
+      }
+    }
+    final long candidates = others;
+    List<Callable<Void>> tasks = new ArrayList<>(nchunks);
+    for(int c = 0; c < nchunks; c++) {
+      final int chunk = c;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          final int begin = chunk * CHUNK_SIZE, end = Math.min(begin + CHUNK_SIZE, ids.size());
+          final int k = (int) Math.min(w, (end - begin) * candidates);
+          final double maxt, mint;
+          synchronized(maxDists) {
+            maxt = maxDists.isEmpty() || maxDists.size() < w ? Double.NEGATIVE_INFINITY : maxDists.peek();
+            mint = minDists.isEmpty() || minDists.size() < w ? Double.POSITIVE_INFINITY : minDists.peek();
           }
-          double dist = dq.distance(it1, it2);
-          minDists.add(dist, w);
-          maxDists.add(dist, w);
-          if(ocluster == cluster) { // Within-cluster distances.
-            theta += dist;
+          DoubleHeap lmax = new DoubleMinHeap(), lmin = new DoubleMaxHeap();
+          double theta = 0.;
+          for(DBIDArrayIter it1 = ids.iter().seek(begin); it1.getOffset() < end; it1.advance()) {
+            // Compare object to every cluster, but only once
+            for(int j = i; j < clusters.size(); j++) {
+              Cluster<?> ocluster = clusters.get(j);
+              if(ocluster.size() <= 1 || ocluster.isNoise()) {
+                switch(noiseOption){
+                case IGNORE_NOISE:
+                  continue; // Ignore this cluster.
+                case TREAT_NOISE_AS_SINGLETONS:
+                  break; // Treat like a cluster
+                case MERGE_NOISE:
+                  break; // Treat like a cluster
+                }
+              }
+              for(DBIDIter it2 = ocluster.getIDs().iter(); it2.valid(); it2.advance()) {
+                if(DBIDUtil.compare(it1, it2) <= 0) { // Only once.
+                  continue;
+                }
+                double dist = dq.distance(it1, it2);
+                if(dist < mint) {
+                  lmin.add(dist, k);
+                }
+                if(dist > maxt) {
+                  lmax.add(dist, k);
+                }
+                if(ocluster == cluster) { // Within-cluster distances.
+                  theta += dist;
+                }
+              }
+            }
           }
+          thetas[chunk] = theta;
+          merge(lmax, maxDists, lmin, minDists, w);
+          return null;
         }
-      }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    double theta = 0.;
+    for(double t : thetas) {
+      theta += t;
     }
     return theta;
   }
 
-  protected void processSingleton(Cluster<?> cluster, Relation<? extends O> rel, DistanceQuery<O> dq, DoubleHeap maxDists, DoubleHeap minDists, int w) {
-    // All other objects are in other clusters!
-    for(DBIDIter it1 = cluster.getIDs().iter(); it1.valid(); it1.advance()) {
-      for(DBIDIter it2 = rel.iterDBIDs(); it2.valid(); it2.advance()) {
-        if(DBIDUtil.compare(it1, it2) <= 0) { // Only once.
-          continue;
+  /**
+   * Process the distances of noise objects treated as singletons.
+   *
+   * @param cluster Noise cluster
+   * @param rel Data relation
+   * @param dq Distance query
+   * @param maxDists Heap of the largest distances
+   * @param minDists Heap of the smallest distances
+   * @param w Number of within-cluster distances
+   */
+  protected void processSingleton(Cluster<?> cluster, final Relation<? extends O> rel, final DistanceQuery<O> dq, final DoubleHeap maxDists, final DoubleHeap minDists, final int w) {
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(cluster.getIDs());
+    List<Callable<Void>> tasks = new ArrayList<>((ids.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    for(int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+      final int begin = start, end = Math.min(start + CHUNK_SIZE, ids.size());
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          final int k = (int) Math.min(w, (end - begin) * (long) rel.size());
+          final double maxt, mint;
+          synchronized(maxDists) {
+            maxt = maxDists.isEmpty() || maxDists.size() < w ? Double.NEGATIVE_INFINITY : maxDists.peek();
+            mint = minDists.isEmpty() || minDists.size() < w ? Double.POSITIVE_INFINITY : minDists.peek();
+          }
+          DoubleHeap lmax = new DoubleMinHeap(), lmin = new DoubleMaxHeap();
+          // All other objects are in other clusters!
+          for(DBIDArrayIter it1 = ids.iter().seek(begin); it1.getOffset() < end; it1.advance()) {
+            for(DBIDIter it2 = rel.iterDBIDs(); it2.valid(); it2.advance()) {
+              if(DBIDUtil.compare(it1, it2) <= 0) { // Only once.
+                continue;
+              }
+              double dist = dq.distance(it1, it2);
+              if(dist < mint) {
+                lmin.add(dist, k);
+              }
+              if(dist > maxt) {
+                lmax.add(dist, k);
+              }
+            }
+          }
+          merge(lmax, maxDists, lmin, minDists, w);
+          return null;
         }
-        double dist = dq.distance(it1, it2);
-        minDists.add(dist, w);
-        maxDists.add(dist, w);
+      });
+    }
+    ParallelExecutor.run(tasks);
+  }
+
+  /**
+   * Merge thread-local heaps into the shared heaps.
+   *
+   * @param lmax Local heap of the largest distances
+   * @param maxDists Shared heap of the largest distances
+   * @param lmin Local heap of the smallest distances
+   * @param minDists Shared heap of the smallest distances
+   * @param w Number of distances to keep
+   */
+  private static void merge(DoubleHeap lmax, DoubleHeap maxDists, DoubleHeap lmin, DoubleHeap minDists, int w) {
+    synchronized(maxDists) {
+      for(DoubleHeap.UnsortedIter it = lmax.unsortedIter(); it.valid(); it.advance()) {
+        maxDists.add(it.get(), w);
+      }
+      for(DoubleHeap.UnsortedIter it = lmin.unsortedIter(); it.valid(); it.advance()) {
+        minDists.add(it.get(), w);
       }
     }
   }
@@ -20,7 +20,9 @@
  */
 package de.lmu.ifi.dbs.elki.evaluation.clustering.internal;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
@@ -40,6 +42,7 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistance
 import de.lmu.ifi.dbs.elki.evaluation.Evaluator;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.math.geometry.PrimsMinimumSpanningTree;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.EvaluationResult;
 import de.lmu.ifi.dbs.elki.result.EvaluationResult.MeasurementGroup;
 import de.lmu.ifi.dbs.elki.result.Result;
@@ -78,6 +81,11 @@ public class EvaluateDBCV<O> implements Evaluator {
    */
   private DistanceFunction<? super O> distanceFunction;
 
+  /**
+   * Number of objects to process in one task.
+   */
+  private static final int CHUNK_SIZE = 64;
+
   /**
    * Constructor.
    *
@@ -98,9 +106,10 @@ public class EvaluateDBCV<O> implements Evaluator {
    * @return dbcv DBCV-index
    */
   public double evaluateClustering(Database db, Relation<O> rel, Clustering<?> cl) {
-    final DistanceQuery<O> dq = rel.getDistanceQuery(distanceFunction);
+    // Uses a precomputed distance matrix, if available.
+    final DistanceQuery<O> dq = db.getDistanceQuery(rel, distanceFunction);
 
-    List<? extends Cluster<?>> clusters = cl.getAllClusters();
+    final List<? extends Cluster<?>> clusters = cl.getAllClusters();
     final int numc = clusters.size();
 
     // DBCV needs a "dimensionality".
@@ -109,8 +118,9 @@ public class EvaluateDBCV<O> implements Evaluator {
     final int dim = RelationUtil.dimensionality(vrel);
 
     // precompute all core distances
-    ArrayDBIDs[] cids = new ArrayDBIDs[numc];
-    double[][] coreDists = new double[numc][];
+    final ArrayDBIDs[] cids = new ArrayDBIDs[numc];
+    final double[][] coreDists = new double[numc][];
+    List<Callable<Void>> tasks = new ArrayList<>();
     for(int c = 0; c < numc; c++) {
       Cluster<?> cluster = clusters.get(c);
       // Singletons are considered as Noise, because they have no sparseness
@@ -119,33 +129,43 @@ public class EvaluateDBCV<O> implements Evaluator {
         continue;
       }
       // Store for use below:
-      ArrayDBIDs ids = cids[c] = DBIDUtil.ensureArray(cluster.getIDs());
-      double[] clusterCoreDists = coreDists[c] = new double[ids.size()];
-      for(DBIDArrayIter it = ids.iter(), it2 = ids.iter(); it.valid(); it.advance()) {
-        double currentCoreDist = 0;
-        int neighbors = 0;
-        for(it2.seek(0); it2.valid(); it2.advance()) {
-          if(DBIDUtil.equal(it, it2)) {
-            continue;
-          }
-          double dist = dq.distance(it, it2);
-          // Unfortunately, the DBCV definition has a division by zero.
-          // We ignore such objects.
-          if(dist > 0) {
-            currentCoreDist += MathUtil.powi(1. / dist, dim);
-            ++neighbors;
+      final ArrayDBIDs ids = cids[c] = DBIDUtil.ensureArray(cluster.getIDs());
+      final double[] clusterCoreDists = coreDists[c] = new double[ids.size()];
+      for(int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+        final int begin = start, end = Math.min(start + CHUNK_SIZE, ids.size());
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for(DBIDArrayIter it = ids.iter().seek(begin), it2 = ids.iter(); it.getOffset() < end; it.advance()) {
+              double currentCoreDist = 0;
+              int neighbors = 0;
+              for(it2.seek(0); it2.valid(); it2.advance()) {
+                if(DBIDUtil.equal(it, it2)) {
+                  continue;
+                }
+                double dist = dq.distance(it, it2);
+                // Unfortunately, the DBCV definition has a division by zero.
+                // We ignore such objects.
+                if(dist > 0) {
+                  currentCoreDist += MathUtil.powi(1. / dist, dim);
+                  ++neighbors;
+                }
+              }
+              // Average, and undo power.
+              clusterCoreDists[it.getOffset()] = FastMath.pow(currentCoreDist / neighbors, -1. / dim);
+            }
+            return null;
           }
-        }
-        // Average, and undo power.
-        clusterCoreDists[it.getOffset()] = FastMath.pow(currentCoreDist / neighbors, -1. / dim);
+        });
       }
     }
+    ParallelExecutor.run(tasks);
 
     // compute density sparseness of all clusters
-    int[][] clusterDegrees = new int[numc][];
+    final int[][] clusterDegrees = new int[numc][];
     double[] clusterDscMax = new double[numc];
     // describes if a cluster contains any internal edges
-    boolean[] internalEdges = new boolean[numc];
+    final boolean[] internalEdges = new boolean[numc];
     for(int c = 0; c < numc; c++) {
       Cluster<?> cluster = clusters.get(c);
       if(cluster.isNoise() || cluster.size() < 2) {
@@ -153,20 +173,31 @@ public class EvaluateDBCV<O> implements Evaluator {
         clusterDscMax[c] = Double.NaN;
         continue;
       }
-      double[] clusterCoreDists = coreDists[c];
-      ArrayDBIDs ids = cids[c];
+      final double[] clusterCoreDists = coreDists[c];
+      final ArrayDBIDs ids = cids[c];
       double dscMax = 0; // Density Sparseness of the Cluster
-      double[][] distances = new double[cluster.size()][cluster.size()];
+      final double[][] distances = new double[cluster.size()][cluster.size()];
 
       // create mutability distance matrix for Minimum Spanning Tree
-      for(DBIDArrayIter it = ids.iter(), it2 = ids.iter(); it.valid(); it.advance()) {
-        double currentCoreDist = clusterCoreDists[it.getOffset()];
-        for(it2.seek(it.getOffset() + 1); it2.valid(); it2.advance()) {
-          double mutualReachDist = MathUtil.max(currentCoreDist, clusterCoreDists[it2.getOffset()], dq.distance(it, it2));
-          distances[it.getOffset()][it2.getOffset()] = mutualReachDist;
-          distances[it2.getOffset()][it.getOffset()] = mutualReachDist;
-        }
+      tasks.clear();
+      for(int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+        final int begin = start, end = Math.min(start + CHUNK_SIZE, ids.size());
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for(DBIDArrayIter it = ids.iter().seek(begin), it2 = ids.iter(); it.getOffset() < end; it.advance()) {
+              double currentCoreDist = clusterCoreDists[it.getOffset()];
+              for(it2.seek(it.getOffset() + 1); it2.valid(); it2.advance()) {
+                double mutualReachDist = MathUtil.max(currentCoreDist, clusterCoreDists[it2.getOffset()], dq.distance(it, it2));
+                distances[it.getOffset()][it2.getOffset()] = mutualReachDist;
+                distances[it2.getOffset()][it.getOffset()] = mutualReachDist;
+              }
+            }
+            return null;
+          }
+        });
       }
+      ParallelExecutor.run(tasks);
 
       // generate Minimum Spanning Tree
       int[] nodes = PrimsMinimumSpanningTree.processDense(distances);
@@ -200,38 +231,59 @@ public class EvaluateDBCV<O> implements Evaluator {
     // compute density separation of all clusters
     double dbcv = 0;
     for(int c = 0; c < numc; c++) {
-      Cluster<?> cluster = clusters.get(c);
+      final Cluster<?> cluster = clusters.get(c);
       if(cluster.isNoise() || cluster.size() < 2) {
         continue;
       }
       double currentDscMax = clusterDscMax[c];
-      double[] clusterCoreDists = coreDists[c];
-      int[] currentDegree = clusterDegrees[c];
+      final double[] clusterCoreDists = coreDists[c];
+      final int[] currentDegree = clusterDegrees[c];
+      final ArrayDBIDs ids = cids[c];
+      final boolean internal = internalEdges[c];
 
-      // minimal Density Separation of the Cluster
-      double dspcMin = Double.POSITIVE_INFINITY;
-      for(DBIDArrayIter it = cids[c].iter(); it.valid(); it.advance()) {
-        // We again ignore external nodes, if the cluster has any internal
-        // nodes.
-        if(currentDegree[it.getOffset()] < 2 && internalEdges[c]) {
-          continue;
-        }
-        double currentCoreDist = clusterCoreDists[it.getOffset()];
-        for(int oc = 0; oc < numc; oc++) {
-          Cluster<?> ocluster = clusters.get(oc);
-          if(ocluster.isNoise() || ocluster.size() < 2 || cluster == ocluster) {
-            continue;
-          }
-          int[] oDegree = clusterDegrees[oc];
-          double[] oclusterCoreDists = coreDists[oc];
-          for(DBIDArrayIter it2 = cids[oc].iter(); it2.valid(); it2.advance()) {
-            if(oDegree[it2.getOffset()] < 2 && internalEdges[oc]) {
-              continue;
+      // minimal Density Separation of the Cluster, per chunk
+      final int nchunks = (ids.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      final double[] dspcMins = new double[nchunks];
+      tasks.clear();
+      for(int ch = 0; ch < nchunks; ch++) {
+        final int chunk = ch;
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            double dspcMin = Double.POSITIVE_INFINITY;
+            final int end = Math.min((chunk + 1) * CHUNK_SIZE, ids.size());
+            for(DBIDArrayIter it = ids.iter().seek(chunk * CHUNK_SIZE); it.getOffset() < end; it.advance()) {
+              // We again ignore external nodes, if the cluster has any
+              // internal nodes.
+              if(currentDegree[it.getOffset()] < 2 && internal) {
+                continue;
+              }
+              double currentCoreDist = clusterCoreDists[it.getOffset()];
+              for(int oc = 0; oc < numc; oc++) {
+                Cluster<?> ocluster = clusters.get(oc);
+                if(ocluster.isNoise() || ocluster.size() < 2 || cluster == ocluster) {
+                  continue;
+                }
+                int[] oDegree = clusterDegrees[oc];
+                double[] oclusterCoreDists = coreDists[oc];
+                for(DBIDArrayIter it2 = cids[oc].iter(); it2.valid(); it2.advance()) {
+                  if(oDegree[it2.getOffset()] < 2 && internalEdges[oc]) {
+                    continue;
+                  }
+                  double mutualReachDist = MathUtil.max(currentCoreDist, oclusterCoreDists[it2.getOffset()], dq.distance(it, it2));
+                  dspcMin = mutualReachDist < dspcMin ? mutualReachDist : dspcMin;
+                }
+              }
             }
-            double mutualReachDist = MathUtil.max(currentCoreDist, oclusterCoreDists[it2.getOffset()], dq.distance(it, it2));
-            dspcMin = mutualReachDist < dspcMin ? mutualReachDist : dspcMin;
+            dspcMins[chunk] = dspcMin;
+            return null;
           }
-        }
+        });
+      }
+      ParallelExecutor.run(tasks);
+      double dspcMin = Double.POSITIVE_INFINITY;
+      for(double d : dspcMins) {
+        dspcMin = d < dspcMin ? d : dspcMin;
       }
 
       // compute DBCV
@@ -20,7 +20,10 @@
  */
 package de.lmu.ifi.dbs.elki.evaluation.clustering.internal;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
@@ -28,6 +31,7 @@ import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
@@ -40,6 +44,9 @@ import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.StringStatistic;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
+import de.lmu.ifi.dbs.elki.math.statistics.distribution.NormalDistribution;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.EvaluationResult;
 import de.lmu.ifi.dbs.elki.result.EvaluationResult.MeasurementGroup;
 import de.lmu.ifi.dbs.elki.result.Result;
@@ -49,10 +56,16 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.io.FormatUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.EnumParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+import net.jafama.FastMath;
 
 /**
  * Compute the silhouette of a data set.
@@ -99,23 +112,53 @@ public class EvaluateSilhouette<O> implements Evaluator {
    */
   private boolean penalize = true;
 
+  /**
+   * Sample size for estimating the silhouette, 0 to compute the exact value.
+   */
+  private int sample;
+
+  /**
+   * Random generator for sampling.
+   */
+  private RandomFactory random;
+
   /**
    * Key for logging statistics.
    */
   private String key = EvaluateSilhouette.class.getName();
 
+  /**
+   * Number of objects to process in one task.
+   */
+  private static final int CHUNK_SIZE = 64;
+
   /**
    * Constructor.
    *
    * @param distance Distance function
    * @param noiseOption Handling of "noise" clusters.
    * @param penalize noise, if {@link NoiseHandling#IGNORE_NOISE} is set.
+   * @param sample Sample size for a stratified estimate, 0 for exact values
+   * @param random Random generator for sampling
    */
-  public EvaluateSilhouette(DistanceFunction<? super O> distance, NoiseHandling noiseOption, boolean penalize) {
+  public EvaluateSilhouette(DistanceFunction<? super O> distance, NoiseHandling noiseOption, boolean penalize, int sample, RandomFactory random) {
     super();
     this.distance = distance;
     this.noiseOption = noiseOption;
     this.penalize = penalize;
+    this.sample = sample;
+    this.random = random;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param noiseOption Handling of "noise" clusters.
+   * @param penalize noise, if {@link NoiseHandling#IGNORE_NOISE} is set.
+   */
+  public EvaluateSilhouette(DistanceFunction<? super O> distance, NoiseHandling noiseOption, boolean penalize) {
+    this(distance, noiseOption, penalize, 0, RandomFactory.DEFAULT);
   }
 
   /**
@@ -142,6 +185,11 @@ public class EvaluateSilhouette<O> implements Evaluator {
     List<? extends Cluster<?>> clusters = c.getAllClusters();
     MeanVariance msil = new MeanVariance();
     int ignorednoise = 0;
+    // Sampling rate, and stratified estimate.
+    final double rate = sample > 0 ? Math.min(1., sample / (double) rel.size()) : 1.;
+    final Random rnd = rate < 1. ? random.getSingleThreadedRandom() : null;
+    double ssum = 0., svar = 0.;
+    long scount = 0;
     for(Cluster<?> cluster : clusters) {
       // Note: we treat 1-element clusters the same as noise.
       if(cluster.size() <= 1 || cluster.isNoise()) {
@@ -152,55 +200,23 @@ public class EvaluateSilhouette<O> implements Evaluator {
         case TREAT_NOISE_AS_SINGLETONS:
           // As suggested in Rousseeuw, we use 0 for singletons.
           msil.put(0., cluster.size());
+          scount += cluster.size();
           continue;
         case MERGE_NOISE:
           break; // Treat as cluster below
         }
       }
-      ArrayDBIDs ids = DBIDUtil.ensureArray(cluster.getIDs());
-      double[] as = new double[ids.size()]; // temporary storage.
-      DBIDArrayIter it1 = ids.iter(), it2 = ids.iter();
-      for(it1.seek(0); it1.valid(); it1.advance()) {
-        // a: In-cluster distances
-        double a = as[it1.getOffset()]; // Already computed distances
-        for(it2.seek(it1.getOffset() + 1); it2.valid(); it2.advance()) {
-          final double dist = dq.distance(it1, it2);
-          a += dist;
-          as[it2.getOffset()] += dist;
-        }
-        a /= (ids.size() - 1);
-        // b: minimum average distance to other clusters:
-        double b = Double.POSITIVE_INFINITY;
-        for(Cluster<?> ocluster : clusters) {
-          if(ocluster == /* yes, reference identity */cluster) {
-            continue; // Same cluster
-          }
-          if(ocluster.size() <= 1 || ocluster.isNoise()) {
-            switch(noiseOption){
-            case IGNORE_NOISE:
-              continue; // Ignore noise elements
-            case TREAT_NOISE_AS_SINGLETONS:
-              // Treat noise cluster as singletons:
-              for(DBIDIter it3 = ocluster.getIDs().iter(); it3.valid(); it3.advance()) {
-                final double dist = dq.distance(it1, it3);
-                b = dist < b ? dist : b; // Minimum average
-              }
-              continue;
-            case MERGE_NOISE:
-              break; // Treat as cluster below
-            }
-          }
-          final DBIDs oids = ocluster.getIDs();
-          double btmp = 0.;
-          for(DBIDIter it3 = oids.iter(); it3.valid(); it3.advance()) {
-            btmp += dq.distance(it1, it3);
-          }
-          btmp /= oids.size(); // Average
-          b = btmp < b ? btmp : b; // Minimum average
-        }
-        // One cluster only?
-        b = b < Double.POSITIVE_INFINITY ? b : a;
-        msil.put((b - a) / (b > a ? b : a));
+      final int size = cluster.size();
+      final int ssize = Math.min(size, Math.max(2, (int) Math.ceil(rate * size)));
+      final ArrayDBIDs ids = DBIDUtil.ensureArray(ssize < size ? DBIDUtil.randomSample(cluster.getIDs(), ssize, rnd) : cluster.getIDs());
+      double[] sil = computeSilhouettes(ids, cluster, clusters, dq);
+      msil.put(sil);
+      // Stratified estimation:
+      MeanVariance cmv = new MeanVariance().put(sil);
+      ssum += cmv.getMean() * size;
+      scount += size;
+      if(ssize < size) {
+        svar += size * (double) size * (1. - ssize / (double) size) * cmv.getSampleVariance() / ssize;
       }
     }
     double penalty = 1.;
@@ -208,8 +224,11 @@ public class EvaluateSilhouette<O> implements Evaluator {
     if(penalize && ignorednoise > 0) {
       penalty = (rel.size() - ignorednoise) / (double) rel.size();
     }
-    final double meansil = penalty * msil.getMean();
+    final boolean sampled = rate < 1.;
+    final double meansil = penalty * (sampled ? ssum / scount : msil.getMean());
     final double stdsil = penalty * msil.getSampleStddev();
+    // Half width of the 95% confidence interval of the estimate.
+    final double ci = sampled ? penalty * NormalDistribution.standardNormalQuantile(.975) * FastMath.sqrt(svar) / scount : 0.;
     if(LOG.isStatistics()) {
       LOG.statistics(new StringStatistic(key + ".silhouette.noise-handling", noiseOption.toString()));
       if(ignorednoise > 0) {
@@ -217,15 +236,142 @@ public class EvaluateSilhouette<O> implements Evaluator {
       }
       LOG.statistics(new DoubleStatistic(key + ".silhouette.mean", meansil));
       LOG.statistics(new DoubleStatistic(key + ".silhouette.stddev", stdsil));
+      if(sampled) {
+        LOG.statistics(new LongStatistic(key + ".silhouette.sampled", (long) msil.getCount()));
+        LOG.statistics(new DoubleStatistic(key + ".silhouette.ci95", ci));
+      }
     }
 
     EvaluationResult ev = EvaluationResult.findOrCreate(db.getHierarchy(), c, "Internal Clustering Evaluation", "internal evaluation");
     MeasurementGroup g = ev.findOrCreateGroup("Distance-based Evaluation");
     g.addMeasure("Silhouette +-" + FormatUtil.NF2.format(stdsil), meansil, -1., 1., 0., false);
+    if(sampled) {
+      g.addMeasure("Silhouette 95% confidence +-", ci, 0., 2., 0., true);
+    }
     db.getHierarchy().resultChanged(ev);
     return meansil;
   }
 
+  /**
+   * Compute the silhouettes of the given objects of one cluster, in parallel.
+   *
+   * In-cluster distances among the given objects are symmetric, and each pair
+   * is computed only once: every task handles an interleaved subset of the
+   * rows of the triangle, and accumulates into its own partial sums, which
+   * are merged afterwards. This needs one array of partial sums per task.
+   *
+   * @param ids Objects to compute the silhouette of
+   * @param cluster Cluster of these objects
+   * @param clusters All clusters
+   * @param dq Distance query
+   * @return Silhouette values, in the order of {@code ids}
+   */
+  private double[] computeSilhouettes(final ArrayDBIDs ids, final Cluster<?> cluster, final List<? extends Cluster<?>> clusters, final DistanceQuery<O> dq) {
+    final int size = ids.size();
+    // a: In-cluster distances, within the sample
+    final int numtasks = Math.max(1, Math.min(ParallelCore.getCore().getParallelism(), size / CHUNK_SIZE));
+    final double[][] partial = new double[numtasks][];
+    List<Callable<Void>> tasks = new ArrayList<>(numtasks);
+    for(int t = 0; t < numtasks; t++) {
+      final int first = t;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          final double[] as = partial[first] = new double[size];
+          DBIDArrayIter it1 = ids.iter(), it2 = ids.iter();
+          for(int i = first; i < size; i += numtasks) {
+            double a = 0.;
+            it1.seek(i);
+            for(it2.seek(i + 1); it2.valid(); it2.advance()) {
+              final double dist = dq.distance(it1, it2);
+              a += dist;
+              as[it2.getOffset()] += dist;
+            }
+            as[i] += a;
+          }
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    final double[] as = partial[0];
+    for(int t = 1; t < numtasks; t++) {
+      final double[] pas = partial[t];
+      for(int i = 0; i < size; i++) {
+        as[i] += pas[i];
+      }
+    }
+    // Cluster members that were not sampled:
+    final ArrayDBIDs rest = size < cluster.size() ? DBIDUtil.ensureArray(DBIDUtil.difference(cluster.getIDs(), ids)) : null;
+    final double[] sil = new double[size];
+    tasks = new ArrayList<>((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    for(int start = 0; start < size; start += CHUNK_SIZE) {
+      final int begin = start, end = Math.min(start + CHUNK_SIZE, size);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for(DBIDArrayIter it = ids.iter().seek(begin); it.getOffset() < end; it.advance()) {
+            double a = as[it.getOffset()];
+            if(rest != null) {
+              for(DBIDIter it2 = rest.iter(); it2.valid(); it2.advance()) {
+                a += dq.distance(it, it2);
+              }
+            }
+            sil[it.getOffset()] = silhouette(it, a / (cluster.size() - 1), cluster, clusters, dq);
+          }
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    return sil;
+  }
+
+  /**
+   * Compute the silhouette of a single object.
+   *
+   * @param it1 Object
+   * @param a Average distance to the other objects of its cluster
+   * @param cluster Cluster of the object
+   * @param clusters All clusters
+   * @param dq Distance query
+   * @return Silhouette
+   */
+  private double silhouette(DBIDRef it1, double a, Cluster<?> cluster, List<? extends Cluster<?>> clusters, DistanceQuery<O> dq) {
+    // b: minimum average distance to other clusters:
+    double b = Double.POSITIVE_INFINITY;
+    for(Cluster<?> ocluster : clusters) {
+      if(ocluster == /* yes, reference identity */cluster) {
+        continue; // Same cluster
+      }
+      if(ocluster.size() <= 1 || ocluster.isNoise()) {
+        switch(noiseOption){
+        case IGNORE_NOISE:
+          continue; // Ignore noise elements
+        case TREAT_NOISE_AS_SINGLETONS:
+          // Treat noise cluster as singletons:
+          for(DBIDIter it3 = ocluster.getIDs().iter(); it3.valid(); it3.advance()) {
+            final double dist = dq.distance(it1, it3);
+            b = dist < b ? dist : b; // Minimum average
+          }
+          continue;
+        case MERGE_NOISE:
+          break; // Treat as cluster below
+        }
+      }
+      final DBIDs oids = ocluster.getIDs();
+      double btmp = 0.;
+      for(DBIDIter it3 = oids.iter(); it3.valid(); it3.advance()) {
+        btmp += dq.distance(it1, it3);
+      }
+      btmp /= oids.size(); // Average
+      b = btmp < b ? btmp : b; // Minimum average
+    }
+    // One cluster only?
+    b = b < Double.POSITIVE_INFINITY ? b : a;
+    return (b - a) / (b > a ? b : a);
+  }
+
   @Override
   public void processNewResult(ResultHierarchy hier, Result result) {
     List<Clustering<?>> crs = Clustering.getClusteringResults(result);
@@ -263,6 +409,16 @@ public class EvaluateSilhouette<O> implements Evaluator {
      */
     public static final OptionID NO_PENALIZE_ID = new OptionID("silhouette.no-penalize-noise", "Do not penalize ignored noise.");
 
+    /**
+     * Sample size for estimating the silhouette.
+     */
+    public static final OptionID SAMPLE_ID = new OptionID("silhouette.sample", "Estimate the silhouette from a stratified sample of this size, and report a confidence interval.");
+
+    /**
+     * Random seed for sampling.
+     */
+    public static final OptionID SEED_ID = new OptionID("silhouette.seed", "Random seed for sampling.");
+
     /**
      * Distance function to use.
      */
@@ -278,6 +434,16 @@ public class EvaluateSilhouette<O> implements Evaluator {
      */
     private boolean penalize = true;
 
+    /**
+     * Sample size, 0 for exact values.
+     */
+    private int sample = 0;
+
+    /**
+     * Random generator for sampling.
+     */
+    private RandomFactory random;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -297,11 +463,24 @@ public class EvaluateSilhouette<O> implements Evaluator {
           penalize = penalizeP.isFalse();
         }
       }
+
+      IntParameter sampleP = new IntParameter(SAMPLE_ID) //
+          .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
+          .setOptional(true);
+      if(config.grab(sampleP)) {
+        sample = sampleP.getValue();
+      }
+      if(sample > 0) {
+        RandomParameter randomP = new RandomParameter(SEED_ID);
+        if(config.grab(randomP)) {
+          random = randomP.getValue();
+        }
+      }
     }
 
     @Override
     protected EvaluateSilhouette<O> makeInstance() {
-      return new EvaluateSilhouette<>(distance, noiseOption, penalize);
+      return new EvaluateSilhouette<>(distance, noiseOption, penalize, sample, random);
     }
   }
 }
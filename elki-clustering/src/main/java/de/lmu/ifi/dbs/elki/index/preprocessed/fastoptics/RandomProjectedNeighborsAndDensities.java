@@ -26,7 +26,9 @@ package de.lmu.ifi.dbs.elki.index.preprocessed.fastoptics;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.algorithm.clustering.optics.FastOPTICS;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
@@ -39,6 +41,7 @@ import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
@@ -102,6 +105,11 @@ public class RandomProjectedNeighborsAndDensities<V extends NumberVector> {
    */
   private static final float sizeTolerance = 2f / 3;
 
+  /**
+   * Number of split sets per parallel task.
+   */
+  private static final int CHUNK_SIZE = 64;
+
   /**
    * minimum size for which a point set is further partitioned (roughly
    * corresponds to minPts in OPTICS)
@@ -172,8 +180,10 @@ public class RandomProjectedNeighborsAndDensities<V extends NumberVector> {
 
     Random rand = rnd.getSingleThreadedRandom();
     FiniteProgress projp = LOG.isVerbose() ? new FiniteProgress("Random projections", nProject1d, LOG) : null;
+    // Draw the random directions first, then project in parallel.
+    final double[][] rps = new double[nProject1d][dim];
     for(int j = 0; j < nProject1d; j++) {
-      double[] currRp = new double[dim];
+      double[] currRp = rps[j];
       double sum = 0;
       for(int i = 0; i < dim; i++) {
         double fl = rand.nextDouble() - 0.5;
@@ -184,19 +194,33 @@ public class RandomProjectedNeighborsAndDensities<V extends NumberVector> {
       for(int i = 0; i < dim; i++) {
         currRp[i] /= sum;
       }
-      WritableDoubleDataStore currPro = DataStoreUtil.makeDoubleStorage(ptList, DataStoreFactory.HINT_HOT);
-
-      for(DBIDIter it = ptList.iter(); it.valid(); it.advance()) {
-        NumberVector vecPt = points.get(it);
-        // Dot product:
-        double sum2 = 0;
-        for(int i = 0; i < dim; i++) {
-          sum2 += currRp[i] * vecPt.doubleValue(i);
+    }
+    final DBIDs projIds = ptList;
+    List<Callable<Void>> tasks = new ArrayList<>(nProject1d);
+    for(int j = 0; j < nProject1d; j++) {
+      final int pj = j;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          final double[] currRp = rps[pj];
+          WritableDoubleDataStore currPro = DataStoreUtil.makeDoubleStorage(projIds, DataStoreFactory.HINT_HOT);
+          for(DBIDIter it = projIds.iter(); it.valid(); it.advance()) {
+            NumberVector vecPt = points.get(it);
+            // Dot product:
+            double sum2 = 0;
+            for(int i = 0; i < dim; i++) {
+              sum2 += currRp[i] * vecPt.doubleValue(i);
+            }
+            currPro.put(it, sum2);
+          }
+          projectedPoints[pj] = currPro;
+          return null;
         }
-        currPro.put(it, sum2);
-      }
-      projectedPoints[j] = currPro;
-      LOG.incrementProcessed(projp);
+      });
+    }
+    ParallelExecutor.run(tasks);
+    if(projp != null) {
+      projp.setProcessed(nProject1d, LOG);
     }
     LOG.ensureCompleted(projp);
     // Log the number of scalar projections performed.
@@ -409,18 +433,46 @@ public class RandomProjectedNeighborsAndDensities<V extends NumberVector> {
     WritableDoubleDataStore davg = DataStoreUtil.makeDoubleStorage(points.getDBIDs(), DataStoreFactory.HINT_HOT);
     WritableIntegerDataStore nDists = DataStoreUtil.makeIntegerStorage(points.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
     FiniteProgress splitp = LOG.isVerbose() ? new FiniteProgress("Processing splits for density estimation", splitsets.size(), LOG) : null;
+    // Compute the distances to the middle points in parallel, then aggregate
+    // them in the original order, for reproducible sums.
+    final double[][] dists = new double[splitsets.size()][];
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for(int start = 0; start < splitsets.size(); start += CHUNK_SIZE) {
+      final int begin = start, end = Math.min(start + CHUNK_SIZE, splitsets.size());
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          DBIDVar v = DBIDUtil.newVar();
+          for(int s = begin; s < end; s++) {
+            ArrayDBIDs pinSet = splitsets.get(s);
+            final int len = pinSet.size();
+            pinSet.assignVar(len >> 1, v);
+            V midpoint = points.get(v);
+            double[] sdists = dists[s] = new double[len];
+            for(DBIDArrayIter it = pinSet.iter(); it.getOffset() < len; it.advance()) {
+              if(!DBIDUtil.equal(it, v)) {
+                sdists[it.getOffset()] = EuclideanDistanceFunction.STATIC.distance(points.get(it), midpoint);
+              }
+            }
+          }
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
     DBIDVar v = DBIDUtil.newVar();
-    for(Iterator<ArrayDBIDs> it1 = splitsets.iterator(); it1.hasNext();) {
-      ArrayDBIDs pinSet = it1.next();
+    for(int s = 0; s < splitsets.size(); s++) {
+      ArrayDBIDs pinSet = splitsets.get(s);
       final int len = pinSet.size();
       final int indoff = len >> 1;
       pinSet.assignVar(indoff, v);
-      V midpoint = points.get(v);
+      final double[] sdists = dists[s];
+      dists[s] = null;
       for(DBIDArrayIter it = pinSet.iter(); it.getOffset() < len; it.advance()) {
         if(DBIDUtil.equal(it, v)) {
           continue;
         }
-        double dist = EuclideanDistanceFunction.STATIC.distance(points.get(it), midpoint);
+        double dist = sdists[it.getOffset()];
         ++distanceComputations;
         davg.increment(v, dist);
         nDists.increment(v, 1);
@@ -20,14 +20,21 @@
  */
 package de.lmu.ifi.dbs.elki.index.preprocessed.localpca;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.preprocessed.AbstractPreprocessorIndex;
@@ -37,6 +44,7 @@ import de.lmu.ifi.dbs.elki.math.linearalgebra.pca.PCARunner;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.pca.SortedEigenPairs;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.pca.filter.EigenPairFilter;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.pca.filter.PercentageEigenPairFilter;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.EmptyDataException;
@@ -59,6 +67,11 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 @Title("Local PCA Preprocessor")
 @Description("Materializes the local PCA and the locally weighted matrix of objects of a database.")
 public abstract class AbstractFilteredPCAIndex<NV extends NumberVector> extends AbstractPreprocessorIndex<NV, PCAFilteredResult> implements FilteredLocalPCAIndex<NV> {
+  /**
+   * Number of objects to process in one task.
+   */
+  private static final int CHUNK_SIZE = 64;
+
   /**
    * PCA utility object.
    */
@@ -97,19 +110,33 @@ public abstract class AbstractFilteredPCAIndex<NV extends NumberVector> extends
     storage = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, PCAFilteredResult.class);
 
     long start = System.currentTimeMillis();
-    FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Performing local PCA", relation.size(), getLogger()) : null;
-
-    // TODO: use a bulk operation?
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      DoubleDBIDList objects = objectsForPCA(iditer);
+    final FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Performing local PCA", relation.size(), getLogger()) : null;
 
-      SortedEigenPairs epairs = pca.processIds(objects, relation).getEigenPairs();
-      int numstrong = filter.filter(epairs.eigenValues());
-      PCAFilteredResult pcares = new PCAFilteredResult(epairs, numstrong, 1., 0.);
-
-      storage.put(iditer, pcares);
-
-      getLogger().incrementProcessed(progress);
+    // Compute the local PCAs in parallel, each task with its own workspace.
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final PCAFilteredResult[] results = new PCAFilteredResult[ids.size()];
+    final int dim = RelationUtil.dimensionality(relation);
+    List<Callable<Void>> tasks = new ArrayList<>((ids.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    for(int begin = 0; begin < ids.size(); begin += CHUNK_SIZE) {
+      final int b = begin, e = Math.min(begin + CHUNK_SIZE, ids.size());
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          PCARunner.Workspace ws = pca.newWorkspace(dim);
+          for(DBIDArrayIter iditer = ids.iter().seek(b); iditer.getOffset() < e; iditer.advance()) {
+            DoubleDBIDList objects = objectsForPCA(iditer);
+            SortedEigenPairs epairs = pca.processIds(objects, relation, ws).getEigenPairs();
+            int numstrong = filter.filter(epairs.eigenValues());
+            results[iditer.getOffset()] = new PCAFilteredResult(epairs, numstrong, 1., 0.);
+            getLogger().incrementProcessed(progress);
+          }
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+      storage.put(iditer, results[iditer.getOffset()]);
     }
     getLogger().ensureCompleted(progress);
 
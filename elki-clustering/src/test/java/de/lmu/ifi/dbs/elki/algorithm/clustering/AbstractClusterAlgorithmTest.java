@@ -23,15 +23,26 @@ package de.lmu.ifi.dbs.elki.algorithm.clustering;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.PointerHierarchyRepresentationResult;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.trivial.ByLabelClustering;
 import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.data.model.Model;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.datastore.DoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.datasource.MultipleObjectsBundleDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.evaluation.clustering.ClusterContingencyTable;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.result.Result;
@@ -98,4 +109,44 @@ public abstract class AbstractClusterAlgorithmTest extends AbstractSimpleAlgorit
       assertEquals("Cluster size does not match at position " + i + " in " + FormatUtil.format(sizes), expected[i], sizes[i]);
     }
   }
+
+  /**
+   * Get the sorted merge heights of a hierarchy, to compare the results of
+   * different algorithms independent of the tie breaking.
+   *
+   * @param result Hierarchy
+   * @return Heights
+   */
+  protected static double[] sortedHeights(PointerHierarchyRepresentationResult result) {
+    DBIDs ids = result.getDBIDs();
+    DoubleDataStore lambda = result.getParentDistanceStore();
+    double[] heights = new double[ids.size()];
+    int i = 0;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      heights[i++] = lambda.doubleValue(it);
+    }
+    Arrays.sort(heights);
+    return heights;
+  }
+
+  /**
+   * Generate random points on a small integer grid, with many duplicates and
+   * tied distances.
+   *
+   * @param size Number of points
+   * @param grid Grid width
+   * @param seed Random seed
+   * @return Database
+   */
+  protected static Database makeGridDatabase(int size, int grid, long seed) {
+    Random r = new Random(seed);
+    List<DoubleVector> data = new ArrayList<>(size);
+    for(int i = 0; i < size; i++) {
+      data.add(new DoubleVector(new double[] { r.nextInt(grid), r.nextInt(grid) }));
+    }
+    MultipleObjectsBundle bundle = MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(DoubleVector.FACTORY, 2), data);
+    Database db = new StaticArrayDatabase(new MultipleObjectsBundleDatabaseConnection(bundle), null);
+    db.initialize();
+    return db;
+  }
 }
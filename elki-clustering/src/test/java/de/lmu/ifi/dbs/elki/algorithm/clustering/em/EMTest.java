@@ -20,15 +20,23 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.em;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
 import org.junit.Test;
 
 import de.lmu.ifi.dbs.elki.algorithm.clustering.AbstractClusterAlgorithmTest;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeans;
 import de.lmu.ifi.dbs.elki.data.Clustering;
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.model.MeanModel;
 import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
 
+import net.jafama.FastMath;
+
 /**
  * Performs a full EM run, and compares the result with a clustering derived
  * from the data set labels. This test ensures that EM's performance doesn't
@@ -83,4 +91,48 @@ public class EMTest extends AbstractClusterAlgorithmTest {
     testFMeasure(db, result, 0.812082);
     testClusterSizes(result, new int[] { 87, 143, 163, 317 });
   }
+
+  /**
+   * Statistics collected in parallel must match the sequential statistics.
+   */
+  @Test
+  public void testPartialModels() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[100][3];
+    for(double[] row : data) {
+      for(int j = 0; j < row.length; j++) {
+        row[j] = rnd.nextGaussian() * (j + 1);
+      }
+    }
+    testPartialModels(new MultivariateGaussianModel(1., new double[3]), data);
+    testPartialModels(new DiagonalGaussianModel(1., new double[3]), data);
+    testPartialModels(new SphericalGaussianModel(1., new double[3]), data);
+  }
+
+  /**
+   * Compare sequential and merged statistics of a model.
+   *
+   * @param model Model
+   * @param data Data
+   */
+  private static <M extends MeanModel> void testPartialModels(EMClusterModel<M> model, double[][] data) {
+    EMClusterModel<M> seq = model.newPartialModel(), par = model.newPartialModel();
+    EMClusterModel<M> part = model.newPartialModel();
+    seq.beginEStep();
+    par.beginEStep();
+    part.beginEStep();
+    for(int i = 0; i < data.length; i++) {
+      final DoubleVector vec = DoubleVector.wrap(data[i]);
+      final double w = (i % 3 + 1) / 3.;
+      seq.updateE(vec, w);
+      (i < 30 ? par : part).updateE(vec, w);
+    }
+    par.mergeE(part);
+    seq.finalizeEStep();
+    par.finalizeEStep();
+    assertArrayEquals(seq.finalizeCluster().getMean(), par.finalizeCluster().getMean(), 1e-13);
+    double[] probe = { .5, -1., 2. };
+    assertEquals(seq.estimateLogDensity(DoubleVector.wrap(probe)), par.estimateLogDensity(DoubleVector.wrap(probe)), 1e-12);
+    assertEquals(FastMath.log(seq.estimateDensity(DoubleVector.wrap(probe))), seq.estimateLogDensity(DoubleVector.wrap(probe)), 1e-12);
+  }
 }
@@ -0,0 +1,88 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.AbstractClusterAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.extraction.CutDendrogramByNumberOfClusters;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Perform HDBSCAN unit test, using Boruvka's algorithm.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class BoruvkaHDBSCANTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Run HDBSCAN with fixed parameters and compare the result to a golden
+   * standard.
+   */
+  @Test
+  public void testHDBSCAN() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Clustering<?> clustering = new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+        .with(CutDendrogramByNumberOfClusters.Parameterizer.MINCLUSTERS_ID, 3) //
+        .with(AbstractAlgorithm.ALGORITHM_ID, BoruvkaHDBSCAN.class) //
+        .with(HDBSCANLinearMemory.Parameterizer.MIN_PTS_ID, 20) //
+        .build().run(db);
+    testFMeasure(db, clustering, 0.686953412);
+    testClusterSizes(clustering, new int[] { 1, 200, 437 });
+  }
+
+  /**
+   * The merge heights must agree with Prim's algorithm.
+   */
+  @Test
+  public void testSameHeights() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    PointerHierarchyRepresentationResult prim = new ELKIBuilder<HDBSCANLinearMemory<DoubleVector>>(HDBSCANLinearMemory.class) //
+        .with(HDBSCANLinearMemory.Parameterizer.MIN_PTS_ID, 5) //
+        .build().run(db);
+    PointerHierarchyRepresentationResult boruvka = new ELKIBuilder<BoruvkaHDBSCAN<DoubleVector>>(BoruvkaHDBSCAN.class) //
+        .with(HDBSCANLinearMemory.Parameterizer.MIN_PTS_ID, 5) //
+        .build().run(db);
+    assertArrayEquals(sortedHeights(prim), sortedHeights(boruvka), 0.);
+  }
+
+  /**
+   * Many points with tied distances and core distances, processed in several
+   * chunks.
+   */
+  @Test
+  public void testTiedDistances() {
+    Database db = makeGridDatabase(3000, 40, 1L);
+    PointerHierarchyRepresentationResult prim = new ELKIBuilder<HDBSCANLinearMemory<DoubleVector>>(HDBSCANLinearMemory.class) //
+        .with(HDBSCANLinearMemory.Parameterizer.MIN_PTS_ID, 5) //
+        .build().run(db);
+    PointerHierarchyRepresentationResult boruvka = new ELKIBuilder<BoruvkaHDBSCAN<DoubleVector>>(BoruvkaHDBSCAN.class) //
+        .with(HDBSCANLinearMemory.Parameterizer.MIN_PTS_ID, 5) //
+        .build().run(db);
+    assertArrayEquals(sortedHeights(prim), sortedHeights(boruvka), 0.);
+  }
+}
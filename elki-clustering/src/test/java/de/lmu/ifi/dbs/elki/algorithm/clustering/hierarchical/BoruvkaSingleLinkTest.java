@@ -0,0 +1,114 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.AbstractClusterAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.extraction.CutDendrogramByNumberOfClusters;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Test single-link clustering via Boruvka's minimum spanning tree.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class BoruvkaSingleLinkTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Run with fixed parameters and compare the result to a golden standard.
+   */
+  @Test
+  public void testSingleLinkResults() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Clustering<?> clustering = new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+        .with(CutDendrogramByNumberOfClusters.Parameterizer.MINCLUSTERS_ID, 3) //
+        .with(AbstractAlgorithm.ALGORITHM_ID, BoruvkaSingleLink.class) //
+        .build().run(db);
+    testFMeasure(db, clustering, 0.6829722);
+    testClusterSizes(clustering, new int[] { 9, 200, 429 });
+  }
+
+  /**
+   * The merge heights must agree with SLINK.
+   */
+  @Test
+  public void testSameHeights() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    PointerHierarchyRepresentationResult slink = new ELKIBuilder<SLINK<DoubleVector>>(SLINK.class) //
+        .build().run(db);
+    PointerHierarchyRepresentationResult boruvka = new ELKIBuilder<BoruvkaSingleLink<DoubleVector>>(BoruvkaSingleLink.class) //
+        .with(BoruvkaSingleLink.Parameterizer.K_ID, 5) //
+        .build().run(db);
+    assertArrayEquals(sortedHeights(slink), sortedHeights(boruvka), 0.);
+  }
+
+  /**
+   * The approximate spanning tree must connect all objects, and cannot be
+   * shorter than the minimum spanning tree.
+   */
+  @Test
+  public void testApproximate() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    double[] exact = sortedHeights(new ELKIBuilder<SLINK<DoubleVector>>(SLINK.class) //
+        .build().run(db));
+    double[] approx = sortedHeights(new ELKIBuilder<BoruvkaSingleLink<DoubleVector>>(BoruvkaSingleLink.class) //
+        .with(BoruvkaSingleLink.Parameterizer.K_ID, 3) //
+        .with(BoruvkaSingleLink.Parameterizer.APPROXIMATE_ID) //
+        .build().run(db));
+    assertEquals(Double.POSITIVE_INFINITY, approx[approx.length - 1], 0.);
+    assertTrue(approx[approx.length - 2] < Double.POSITIVE_INFINITY);
+    double sumexact = 0., sumapprox = 0.;
+    for(int i = 0; i < exact.length - 1; i++) {
+      sumexact += exact[i];
+      sumapprox += approx[i];
+    }
+    assertTrue(sumapprox >= sumexact * (1 - 1e-15));
+    // With enough neighbors, the approximation is exact.
+    assertArrayEquals(exact, sortedHeights(new ELKIBuilder<BoruvkaSingleLink<DoubleVector>>(BoruvkaSingleLink.class) //
+        .with(BoruvkaSingleLink.Parameterizer.K_ID, 330) //
+        .with(BoruvkaSingleLink.Parameterizer.APPROXIMATE_ID) //
+        .build().run(db)), 0.);
+  }
+
+  /**
+   * Many points with tied distances, processed in several chunks.
+   */
+  @Test
+  public void testTiedDistances() {
+    Database db = makeGridDatabase(3000, 40, 0L);
+    double[] exact = sortedHeights(new ELKIBuilder<SLINK<DoubleVector>>(SLINK.class) //
+        .build().run(db));
+    double[] boruvka = sortedHeights(new ELKIBuilder<BoruvkaSingleLink<DoubleVector>>(BoruvkaSingleLink.class) //
+        .with(BoruvkaSingleLink.Parameterizer.K_ID, 5) //
+        .build().run(db));
+    assertEquals("Expected duplicate points.", 0., exact[0], 0.);
+    assertArrayEquals(exact, boruvka, 0.);
+  }
+}
@@ -20,13 +20,20 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
 import org.junit.Test;
 
 import de.lmu.ifi.dbs.elki.algorithm.clustering.AbstractClusterAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.data.model.MedoidModel;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
 
 /**
@@ -58,4 +65,37 @@ public class CLARATest extends AbstractClusterAlgorithmTest {
     testFMeasure(db, result, 0.998005);
     testClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
   }
+
+  /**
+   * Samples are processed concurrently; with a fixed seed, the result must not
+   * depend on the order in which they complete.
+   */
+  @Test
+  public void testCLARADeterministic() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    List<Cluster<MedoidModel>> first = runSeeded(db).getAllClusters();
+    for(int i = 0; i < 3; i++) {
+      List<Cluster<MedoidModel>> other = runSeeded(db).getAllClusters();
+      assertEquals("Number of clusters differs.", first.size(), other.size());
+      for(int c = 0; c < first.size(); c++) {
+        assertTrue("Medoids differ.", DBIDUtil.equal(first.get(c).getModel().getMedoid(), other.get(c).getModel().getMedoid()));
+        assertEquals("Cluster sizes differ.", first.get(c).size(), other.get(c).size());
+      }
+    }
+  }
+
+  /**
+   * Run CLARA with many small samples and a fixed seed.
+   *
+   * @param db Database
+   * @return Clustering
+   */
+  private static Clustering<MedoidModel> runSeeded(Database db) {
+    return new ELKIBuilder<CLARA<DoubleVector>>(CLARA.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(CLARA.Parameterizer.RANDOM_ID, 2) //
+        .with(CLARA.Parameterizer.NUMSAMPLES_ID, 8) //
+        .with(CLARA.Parameterizer.SAMPLESIZE_ID, 30) //
+        .build().run(db);
+  }
 }
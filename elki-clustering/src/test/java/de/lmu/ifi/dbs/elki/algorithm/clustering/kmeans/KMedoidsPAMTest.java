@@ -20,13 +20,28 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
 import org.junit.Test;
 
 import de.lmu.ifi.dbs.elki.algorithm.clustering.AbstractClusterAlgorithmTest;
 import de.lmu.ifi.dbs.elki.data.Clustering;
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.model.MedoidModel;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
 
 /**
@@ -53,4 +68,70 @@ public class KMedoidsPAMTest extends AbstractClusterAlgorithmTest {
     testFMeasure(db, result, 0.998005);
     testClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
   }
+
+  /**
+   * Compare the swap costs computed for all medoids in one pass with the
+   * per-pair evaluation, and the best swap with an exhaustive search.
+   */
+  @Test
+  public void testSwapSelection() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    final int k = 5;
+    Random rnd = new Random(0L);
+    for(int run = 0; run < 3; run++) {
+      KMedoidsPAM.Instance inst = new KMedoidsPAM.Instance(db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC), rel.getDBIDs(), //
+          DataStoreUtil.makeIntegerStorage(rel.getDBIDs(), DataStoreFactory.HINT_TEMP, -1));
+      ArrayModifiableDBIDs medoids = DBIDUtil.newArray(DBIDUtil.randomSample(rel.getDBIDs(), k, rnd));
+      inst.assignToNearestCluster(medoids);
+
+      double[] cost = new double[k];
+      double best = Double.POSITIVE_INFINITY;
+      DBIDArrayIter m = medoids.iter();
+      for(DBIDArrayIter h = inst.ids.iter(); h.valid(); h.advance()) {
+        if(DBIDUtil.equal(m.seek(inst.assignment.intValue(h)), h)) {
+          continue;
+        }
+        final double hdist = inst.nearest.doubleValue(h);
+        inst.computeReassignmentCost(h, cost);
+        for(int pi = 0; pi < k; pi++) {
+          final double expect = reassignmentCost(inst, h, pi);
+          assertEquals("Swap cost differs.", expect, cost[pi], 1e-9 * Math.abs(expect) + 1e-9);
+          best = Math.min(best, expect - hdist);
+        }
+      }
+      int[] bestid = new int[1], bestcluster = new int[1];
+      double found = inst.findBestSwap(medoids, true, 0, inst.ids.size(), bestid, bestcluster, 0);
+      assertEquals("Best swap differs.", best, found, 1e-9 * Math.abs(best));
+      DBIDArrayIter h = inst.ids.iter().seek(bestid[0]);
+      assertEquals("Best swap differs.", best, reassignmentCost(inst, h, bestcluster[0]) - inst.nearest.doubleValue(h), 1e-9 * Math.abs(best));
+    }
+  }
+
+  /**
+   * Reassignment cost of swapping h with a single medoid, evaluating each pair
+   * separately.
+   *
+   * @param inst PAM instance
+   * @param h Object to swap with the medoid
+   * @param mnum Medoid number to be replaced
+   * @return Cost
+   */
+  private static double reassignmentCost(KMedoidsPAM.Instance inst, DBIDRef h, int mnum) {
+    double cost = 0.;
+    for(DBIDIter j = inst.ids.iter(); j.valid(); j.advance()) {
+      if(DBIDUtil.equal(h, j)) {
+        continue;
+      }
+      final double distcur = inst.nearest.doubleValue(j);
+      final double dist_h = inst.distQ.distance(h, j);
+      if(inst.assignment.intValue(j) == mnum) {
+        cost += Math.min(dist_h, inst.second.doubleValue(j)) - distcur;
+      }
+      else if(dist_h < distcur) {
+        cost += dist_h - distcur;
+      }
+    }
+    return cost;
+  }
 }
@@ -0,0 +1,175 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.optics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.DistanceBasedAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.AbstractClusterAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.model.OPTICSModel;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.preprocessed.fastoptics.RandomProjectedNeighborsAndDensities;
+import de.lmu.ifi.dbs.elki.result.ResultUtil;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Test reusing the cluster order of OPTICS Xi.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class OPTICSXiTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Store the cluster order, and extract clusters with a different xi from the
+   * stored order.
+   *
+   * @throws IOException on errors creating the temporary file
+   */
+  @Test
+  public void testClusterOrderFile() throws IOException {
+    File file = File.createTempFile("elki-clusterorder", ".bin");
+    file.delete();
+    try {
+      Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+      Clustering<OPTICSModel> first = new ELKIBuilder<>(OPTICSXi.class) //
+          .with(OPTICSHeap.Parameterizer.MINPTS_ID, 18) //
+          .with(OPTICSXi.Parameterizer.XI_ID, 0.038) //
+          .with(OPTICSXi.Parameterizer.FILE_ID, file) //
+          .build().run(db);
+      assertTrue("Cluster order file not written.", file.exists());
+      testFMeasure(db, first, 0.8819664);
+      testClusterSizes(first, new int[] { 108, 120, 209, 273 });
+
+      // Extract again with a different xi, reusing the stored cluster order.
+      assertTrue(file.setLastModified(0));
+      Clustering<OPTICSModel> second = new ELKIBuilder<>(OPTICSXi.class) //
+          .with(OPTICSHeap.Parameterizer.MINPTS_ID, 18) //
+          .with(OPTICSXi.Parameterizer.XI_ID, 0.1) //
+          .with(OPTICSXi.Parameterizer.FILE_ID, file) //
+          .build().run(db);
+      assertEquals("Cluster order file was rewritten.", 0, file.lastModified());
+      Clustering<OPTICSModel> direct = new ELKIBuilder<>(OPTICSXi.class) //
+          .with(OPTICSHeap.Parameterizer.MINPTS_ID, 18) //
+          .with(OPTICSXi.Parameterizer.XI_ID, 0.1) //
+          .build().run(db);
+      assertEquals(direct.getAllClusters().size(), second.getAllClusters().size());
+      for(int i = 0; i < direct.getAllClusters().size(); i++) {
+        assertEquals(direct.getAllClusters().get(i).size(), second.getAllClusters().get(i).size());
+      }
+
+      ClusterOrder o1 = ResultUtil.<ClusterOrder> filterResults(first.getHierarchy(), first, ClusterOrder.class).get(0);
+      ClusterOrder o2 = ResultUtil.<ClusterOrder> filterResults(second.getHierarchy(), second, ClusterOrder.class).get(0);
+      assertNotSame(o1, o2);
+      assertEquals(o1.size(), o2.size());
+      for(DBIDArrayIter it1 = o1.iter(), it2 = o2.iter(); it1.valid(); it1.advance(), it2.advance()) {
+        assertTrue(DBIDUtil.equal(it1, it2));
+        assertEquals(o1.getReachability(it1), o2.getReachability(it2), 0.);
+      }
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * A stored cluster order must not be used with a different epsilon or
+   * different distance parameters, but must be reused for a randomized
+   * algorithm with the same seed only.
+   *
+   * @throws IOException on errors creating the temporary file
+   */
+  @Test
+  public void testClusterOrderMismatch() throws IOException {
+    File file = File.createTempFile("elki-clusterorder", ".bin");
+    file.delete();
+    try {
+      Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+      new ELKIBuilder<>(OPTICSXi.class) //
+          .with(OPTICSHeap.Parameterizer.MINPTS_ID, 18) //
+          .with(OPTICSXi.Parameterizer.XI_ID, 0.038) //
+          .with(OPTICSXi.Parameterizer.FILE_ID, file) //
+          .build().run(db);
+      assertTrue("Cluster order file not written.", file.exists());
+
+      // Different epsilon:
+      assertTrue(file.setLastModified(0));
+      new ELKIBuilder<>(OPTICSXi.class) //
+          .with(OPTICSHeap.Parameterizer.MINPTS_ID, 18) //
+          .with(AbstractOPTICS.Parameterizer.EPSILON_ID, 0.1) //
+          .with(OPTICSXi.Parameterizer.XI_ID, 0.038) //
+          .with(OPTICSXi.Parameterizer.FILE_ID, file) //
+          .build().run(db);
+      assertTrue("Cluster order with a different epsilon was used.", file.lastModified() != 0);
+
+      // Different distance parameters:
+      for(int p = 0; p < 2; p++) {
+        assertTrue(file.setLastModified(0));
+        new ELKIBuilder<>(OPTICSXi.class) //
+            .with(OPTICSHeap.Parameterizer.MINPTS_ID, 18) //
+            .with(AbstractOPTICS.Parameterizer.EPSILON_ID, 0.1) //
+            .with(DistanceBasedAlgorithm.DISTANCE_FUNCTION_ID, LPNormDistanceFunction.class) //
+            .with(LPNormDistanceFunction.Parameterizer.P_ID, 3) //
+            .with(OPTICSXi.Parameterizer.XI_ID, 0.038) //
+            .with(OPTICSXi.Parameterizer.FILE_ID, file) //
+            .build().run(db);
+        // Rewritten the first time only:
+        assertEquals("Cluster order not reused, or reused for different parameters.", p == 0, file.lastModified() != 0);
+      }
+
+      // Randomized algorithm, with a fixed seed:
+      for(int p = 0; p < 2; p++) {
+        assertTrue(file.setLastModified(0));
+        new ELKIBuilder<>(OPTICSXi.class) //
+            .with(OPTICSList.Parameterizer.MINPTS_ID, 18) //
+            .with(OPTICSXi.Parameterizer.XI_ID, 0.038) //
+            .with(OPTICSXi.Parameterizer.XIALG_ID, FastOPTICS.class) //
+            .with(RandomProjectedNeighborsAndDensities.Parameterizer.RANDOM_ID, 0) //
+            .with(OPTICSXi.Parameterizer.FILE_ID, file) //
+            .build().run(db);
+        assertEquals("Cluster order not reused, or reused for different parameters.", p == 0, file.lastModified() != 0);
+      }
+      // Different seed:
+      assertTrue(file.setLastModified(0));
+      new ELKIBuilder<>(OPTICSXi.class) //
+          .with(OPTICSList.Parameterizer.MINPTS_ID, 18) //
+          .with(OPTICSXi.Parameterizer.XI_ID, 0.038) //
+          .with(OPTICSXi.Parameterizer.XIALG_ID, FastOPTICS.class) //
+          .with(RandomProjectedNeighborsAndDensities.Parameterizer.RANDOM_ID, 1) //
+          .with(OPTICSXi.Parameterizer.FILE_ID, file) //
+          .build().run(db);
+      assertTrue("Cluster order with a different seed was used.", file.lastModified() != 0);
+    }
+    finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.evaluation.clustering.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.trivial.ByLabelClustering;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Regression test for the distance-based internal evaluation measures.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class InternalEvaluationTest {
+  /**
+   * Test the silhouette, C-index and DBCV of the reference labeling.
+   */
+  @Test
+  public void testEvaluation() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase("elki/testdata/unittests/3clusters-and-noise-2d.csv", 330);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    DistanceQuery<NumberVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    Clustering<?> c = new ByLabelClustering(false, Pattern.compile("Noise")).run(db);
+
+    assertEquals("Silhouette", 0.6059249290665597, new EvaluateSilhouette<NumberVector>(EuclideanDistanceFunction.STATIC, NoiseHandling.TREAT_NOISE_AS_SINGLETONS, false).evaluateClustering(db, rel, dq, c), 1e-14);
+    assertEquals("Silhouette", 0.8492903289458958, new EvaluateSilhouette<NumberVector>(EuclideanDistanceFunction.STATIC, NoiseHandling.IGNORE_NOISE, true).evaluateClustering(db, rel, dq, c), 1e-14);
+    assertEquals("Silhouette", 0.799228462344818, new EvaluateSilhouette<NumberVector>(EuclideanDistanceFunction.STATIC, NoiseHandling.MERGE_NOISE, false).evaluateClustering(db, rel, dq, c), 1e-14);
+    assertEquals("C-Index", 5.373867814554105E-4, new EvaluateCIndex<NumberVector>(EuclideanDistanceFunction.STATIC, NoiseHandling.TREAT_NOISE_AS_SINGLETONS).evaluateClustering(db, rel, dq, c), 1e-14);
+    assertEquals("C-Index", 0.039671377839017447, new EvaluateCIndex<NumberVector>(EuclideanDistanceFunction.STATIC, NoiseHandling.MERGE_NOISE).evaluateClustering(db, rel, dq, c), 1e-14);
+    assertEquals("DBCV", 0.8715458237707665, new EvaluateDBCV<NumberVector>(EuclideanDistanceFunction.STATIC).evaluateClustering(db, rel, c), 1e-14);
+  }
+
+  /**
+   * Test the sampling-based estimate of the silhouette.
+   */
+  @Test
+  public void testSampledSilhouette() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase("elki/testdata/unittests/3clusters-and-noise-2d.csv", 330);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    DistanceQuery<NumberVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    Clustering<?> c = new ByLabelClustering(false, Pattern.compile("Noise")).run(db);
+
+    // Sample larger than the data set: exact result.
+    assertEquals("Silhouette", 0.6059249290665597, new EvaluateSilhouette<NumberVector>(EuclideanDistanceFunction.STATIC, NoiseHandling.TREAT_NOISE_AS_SINGLETONS, false, 1000, new RandomFactory(0L)).evaluateClustering(db, rel, dq, c), 1e-14);
+    double est = new EvaluateSilhouette<NumberVector>(EuclideanDistanceFunction.STATIC, NoiseHandling.TREAT_NOISE_AS_SINGLETONS, false, 100, new RandomFactory(0L)).evaluateClustering(db, rel, dq, c);
+    assertEquals("Sampled silhouette", 0.6059249290665597, est, 0.02);
+  }
+}
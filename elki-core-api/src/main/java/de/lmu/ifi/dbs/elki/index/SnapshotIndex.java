@@ -0,0 +1,64 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Index that can write its built state to a snapshot, and restore it from a
+ * snapshot of the same data instead of being initialized again.
+ * <p>
+ * The snapshot only contains the index itself; validating that the snapshot
+ * belongs to the same data set is the responsibility of the caller.
+ * Object identifiers are stored as integers, so the data must be loaded
+ * with the same identifiers again.
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.excludeSubtypes
+ */
+public interface SnapshotIndex extends Index {
+  /**
+   * Get the number of bytes needed to write the snapshot.
+   *
+   * @return Snapshot size in bytes
+   */
+  long getSnapshotSize();
+
+  /**
+   * Write the snapshot of an initialized index.
+   *
+   * @param buffer Buffer to write to, with at least
+   *        {@link #getSnapshotSize()} bytes remaining.
+   */
+  void writeSnapshot(ByteBuffer buffer);
+
+  /**
+   * Restore the index from a snapshot, instead of calling
+   * {@link #initialize()}.
+   *
+   * @param buffer Buffer to read from
+   * @return {@code false} if the snapshot was written with incompatible
+   *         parameters; the index is then left unmodified.
+   */
+  boolean readSnapshot(ByteBuffer buffer);
+}
@@ -0,0 +1,255 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.io;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.TrackedParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Parameter;
+
+/**
+ * Fingerprints to validate cached and persisted results, such as snapshots,
+ * caches and checkpoints, against the data and configuration they were
+ * computed from.
+ *
+ * The fingerprints are stable across program runs, but they are not
+ * cryptographic hashes.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public final class Fingerprint {
+  /**
+   * Initial hash value (FNV offset basis).
+   */
+  private static final long INITIAL = 0xCBF29CE484222325L;
+
+  /**
+   * Maximum nesting depth for configuration fingerprints.
+   */
+  private static final int MAX_DEPTH = 8;
+
+  /**
+   * Order fields by name, for stability.
+   */
+  private static final Comparator<Field> BY_NAME = new Comparator<Field>() {
+    @Override
+    public int compare(Field o1, Field o2) {
+      return o1.getName().compareTo(o2.getName());
+    }
+  };
+
+  /**
+   * Fake constructor: do not instantiate.
+   */
+  private Fingerprint() {
+    // Do not instantiate.
+  }
+
+  /**
+   * Fingerprint of a data relation: object identifiers and values.
+   *
+   * @param relation Relation
+   * @return Fingerprint
+   */
+  public static long data(Relation<?> relation) {
+    long hash = mix(INITIAL, relation.size());
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      hash = mix(hash, DBIDUtil.asInteger(it));
+      final Object obj = relation.get(it);
+      if(obj instanceof NumberVector) {
+        final NumberVector vec = (NumberVector) obj;
+        final int dim = vec.getDimensionality();
+        hash = mix(hash, dim);
+        for(int d = 0; d < dim; d++) {
+          hash = mix(hash, Double.doubleToLongBits(vec.doubleValue(d)));
+        }
+      }
+      else {
+        hash = mix(hash, obj != null ? obj.hashCode() : 0);
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Fingerprint of a parameterization: the option IDs and values of all
+   * defined parameters, e.g., as recorded by
+   * {@link de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.TrackParameters}.
+   *
+   * Objects passed as instances rather than by class name contribute their
+   * class name only.
+   *
+   * @param parameters Parameters
+   * @return Fingerprint
+   */
+  public static long parameters(Collection<TrackedParameter> parameters) {
+    long hash = mix(INITIAL, parameters.size());
+    for(TrackedParameter tracked : parameters) {
+      final Parameter<?> param = tracked.getParameter();
+      if(!param.isDefined()) {
+        continue;
+      }
+      hash = mix(hash, param.getOptionID().getName().hashCode());
+      hash = mix(hash, param.getValueAsString().hashCode());
+    }
+    return hash;
+  }
+
+  /**
+   * Fingerprint of a configured object, such as a distance function: its class
+   * and the values of its (non-static, non-transient) fields, including
+   * nested objects.
+   *
+   * Fields holding caches should be declared {@code transient}. Data
+   * relations, identifiers and maps are only included by their size, other
+   * classes of the Java runtime (e.g., buffers) only by their class name.
+   *
+   * @param obj Object
+   * @return Fingerprint
+   */
+  public static long configuration(Object obj) {
+    return configuration(INITIAL, obj, new IdentityHashMap<Object, Object>(), 0);
+  }
+
+  /**
+   * Recursive fingerprint of a configured object.
+   *
+   * @param hash Previous hash
+   * @param obj Object
+   * @param seen Objects already seen, to avoid cycles
+   * @param depth Nesting depth
+   * @return New hash
+   */
+  private static long configuration(long hash, Object obj, IdentityHashMap<Object, Object> seen, int depth) {
+    if(obj == null) {
+      return mix(hash, 0);
+    }
+    final Class<?> cls = obj.getClass();
+    hash = mix(hash, cls.getName().hashCode());
+    if(obj instanceof Double || obj instanceof Float) {
+      return mix(hash, Double.doubleToLongBits(((Number) obj).doubleValue()));
+    }
+    if(obj instanceof Number) {
+      return mix(hash, ((Number) obj).longValue());
+    }
+    if(obj instanceof Boolean) {
+      return mix(hash, ((Boolean) obj) ? 1 : 0);
+    }
+    if(obj instanceof Character || obj instanceof CharSequence) {
+      return mix(hash, obj.toString().hashCode());
+    }
+    if(obj instanceof Enum) {
+      return mix(hash, ((Enum<?>) obj).name().hashCode());
+    }
+    if(obj instanceof File) {
+      return mix(hash, ((File) obj).getPath().hashCode());
+    }
+    if(obj instanceof Class) {
+      return mix(hash, ((Class<?>) obj).getName().hashCode());
+    }
+    if(obj instanceof Relation) {
+      return mix(hash, ((Relation<?>) obj).size());
+    }
+    if(obj instanceof DBIDs) {
+      return mix(hash, ((DBIDs) obj).size());
+    }
+    if(obj instanceof Map) {
+      return mix(hash, ((Map<?, ?>) obj).size());
+    }
+    if(!cls.isArray() && !(obj instanceof Collection) && isSystemClass(cls)) {
+      return hash; // Runtime state such as buffers or streams: class only.
+    }
+    if(depth >= MAX_DEPTH || seen.put(obj, obj) != null) {
+      return mix(hash, -1);
+    }
+    if(cls.isArray()) {
+      final int len = Array.getLength(obj);
+      hash = mix(hash, len);
+      for(int i = 0; i < len; i++) {
+        hash = configuration(hash, Array.get(obj, i), seen, depth + 1);
+      }
+      return hash;
+    }
+    if(obj instanceof Collection) {
+      hash = mix(hash, ((Collection<?>) obj).size());
+      for(Object o : (Collection<?>) obj) {
+        hash = configuration(hash, o, seen, depth + 1);
+      }
+      return hash;
+    }
+    for(Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+      Field[] fields = c.getDeclaredFields();
+      Arrays.sort(fields, BY_NAME);
+      for(Field f : fields) {
+        final int mod = f.getModifiers();
+        if(Modifier.isStatic(mod) || Modifier.isTransient(mod) || f.isSynthetic()) {
+          continue;
+        }
+        hash = mix(hash, f.getName().hashCode());
+        try {
+          f.setAccessible(true);
+          hash = configuration(hash, f.get(obj), seen, depth + 1);
+        }
+        catch(IllegalAccessException | SecurityException e) {
+          hash = mix(hash, -2);
+        }
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Test for classes of the Java runtime, which are not inspected.
+   *
+   * @param cls Class
+   * @return {@code true} for system classes
+   */
+  private static boolean isSystemClass(Class<?> cls) {
+    final String name = cls.getName();
+    return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.");
+  }
+
+  /**
+   * Mix a value into a hash code.
+   *
+   * @param hash Previous hash
+   * @param value Value
+   * @return New hash
+   */
+  public static long mix(long hash, long value) {
+    hash = (hash ^ value) * 0x100000001B3L;
+    return hash ^ (hash >>> 29);
+  }
+}
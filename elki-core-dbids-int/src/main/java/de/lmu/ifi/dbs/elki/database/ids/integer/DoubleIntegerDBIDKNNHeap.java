@@ -22,6 +22,7 @@ package de.lmu.ifi.dbs.elki.database.ids.integer;
 
 import java.util.Arrays;
 
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDPair;
@@ -48,7 +49,7 @@ class DoubleIntegerDBIDKNNHeap implements KNNHeap {
   /**
    * The main heap.
    */
-  private final DoubleIntegerMaxHeap heap;
+  private final SortableHeap heap;
 
   /**
    * List to track ties.
@@ -65,11 +66,21 @@ class DoubleIntegerDBIDKNNHeap implements KNNHeap {
    */
   private double kdist = Double.POSITIVE_INFINITY;
 
+  /**
+   * Candidate buffer for bulk insertions.
+   */
+  private int[] candidates = EMPTY_CANDIDATES;
+
   /**
    * Initial size of ties array.
    */
   private static final int INITIAL_TIES_SIZE = 11;
 
+  /**
+   * Empty candidate buffer.
+   */
+  private static final int[] EMPTY_CANDIDATES = new int[0];
+
   /**
    * Constructor.
    *
@@ -79,7 +90,7 @@ class DoubleIntegerDBIDKNNHeap implements KNNHeap {
   protected DoubleIntegerDBIDKNNHeap(int k) {
     super();
     this.k = k;
-    this.heap = new DoubleIntegerMaxHeap(k);
+    this.heap = new SortableHeap(k);
     this.ties = new int[INITIAL_TIES_SIZE];
   }
 
@@ -134,6 +145,75 @@ class DoubleIntegerDBIDKNNHeap implements KNNHeap {
     updateHeap(distance, iid);
   }
 
+  @Override
+  public double insertAll(double[] distances, DBIDArrayIter ids, int start, int n) {
+    int i = 0;
+    // Fill the heap first:
+    for(; i < n && heap.size() < k; i++) {
+      insert(distances[i], ids.seek(start + i));
+    }
+    // Branch-free filtering against the current bound:
+    final int[] cand = candidateBuffer(n - i);
+    final double bound = kdist;
+    int c = 0;
+    for(; i < n; i++) {
+      cand[c] = i;
+      c += distances[i] <= bound ? 1 : 0;
+    }
+    for(int j = 0; j < c; j++) {
+      final int p = cand[j];
+      final double distance = distances[p];
+      if(distance < kdist) {
+        updateHeap(distance, ids.seek(start + p).internalGetIndex());
+      }
+      else if(distance == kdist) {
+        addToTies(ids.seek(start + p).internalGetIndex());
+      }
+    }
+    return kdist;
+  }
+
+  @Override
+  public double insertAll(double[] distances, DBIDArrayIter ids, int[] offsets, int n) {
+    int i = 0;
+    // Fill the heap first:
+    for(; i < n && heap.size() < k; i++) {
+      insert(distances[i], ids.seek(offsets[i]));
+    }
+    // Branch-free filtering against the current bound:
+    final int[] cand = candidateBuffer(n - i);
+    final double bound = kdist;
+    int c = 0;
+    for(; i < n; i++) {
+      cand[c] = i;
+      c += distances[i] <= bound ? 1 : 0;
+    }
+    for(int j = 0; j < c; j++) {
+      final int p = cand[j];
+      final double distance = distances[p];
+      if(distance < kdist) {
+        updateHeap(distance, ids.seek(offsets[p]).internalGetIndex());
+      }
+      else if(distance == kdist) {
+        addToTies(ids.seek(offsets[p]).internalGetIndex());
+      }
+    }
+    return kdist;
+  }
+
+  /**
+   * Get the candidate buffer, with at least the given size.
+   *
+   * @param size Minimum size
+   * @return Buffer
+   */
+  private int[] candidateBuffer(int size) {
+    if(candidates.length < size) {
+      candidates = new int[Math.max(size, candidates.length << 1)];
+    }
+    return candidates;
+  }
+
   /**
    * Do a full update for the heap.
    *
@@ -219,37 +299,28 @@ class DoubleIntegerDBIDKNNHeap implements KNNHeap {
   @Override
   public DoubleIntegerDBIDKNNList toKNNList() {
     final int hsize = heap.size();
-    DoubleIntegerDBIDKNNList ret = new DoubleIntegerDBIDKNNList(k, hsize + numties);
-    // Add ties:
+    // Sort in place, and copy, so the heap keeps its arrays for reuse:
+    heap.sortAscending();
+    final double[] dists = Arrays.copyOf(heap.keys(), hsize + numties);
+    final int[] ids = Arrays.copyOf(heap.values(), hsize + numties);
+    heap.reset();
     for(int i = 0; i < numties; i++) {
-      ret.dists[hsize + i] = kdist;
-      ret.ids[hsize + i] = ties[i];
-    }
-    for(int j = hsize - 1; j >= 0; j--) {
-      ret.dists[j] = heap.peekKey();
-      ret.ids[j] = heap.peekValue();
-      heap.poll();
+      dists[hsize + i] = kdist;
+      ids[hsize + i] = ties[i];
     }
-    ret.size = hsize + numties;
+    DoubleIntegerDBIDKNNList ret = new DoubleIntegerDBIDKNNList(k, dists, ids, hsize + numties);
+    numties = 0;
     return ret;
   }
 
   @Override
   public DoubleIntegerDBIDKNNList toKNNListSqrt() {
-    final int hsize = heap.size();
-    DoubleIntegerDBIDKNNList ret = new DoubleIntegerDBIDKNNList(k, hsize + numties);
-    // Add ties:
-    double kdist = numties > 0 ? FastMath.sqrt(this.kdist) : 0.;
-    for(int i = 0; i < numties; i++) {
-      ret.dists[hsize + i] = kdist;
-      ret.ids[hsize + i] = ties[i];
+    final int size = heap.size() + numties;
+    DoubleIntegerDBIDKNNList ret = toKNNList();
+    final double[] dists = ret.dists;
+    for(int i = 0; i < size; i++) {
+      dists[i] = FastMath.sqrt(dists[i]);
     }
-    for(int j = hsize - 1; j >= 0; j--) {
-      ret.dists[j] = FastMath.sqrt(heap.peekKey());
-      ret.ids[j] = heap.peekValue();
-      heap.poll();
-    }
-    ret.size = hsize + numties;
     return ret;
   }
 
@@ -287,6 +358,80 @@ class DoubleIntegerDBIDKNNHeap implements KNNHeap {
     return new UnorderedIter();
   }
 
+  /**
+   * Max heap that can be sorted in place, to convert it into a list without
+   * repeated polling.
+   *
+   * @author agent
+   */
+  private static class SortableHeap extends DoubleIntegerMaxHeap {
+    /**
+     * Constructor.
+     *
+     * @param minsize Minimum size
+     */
+    SortableHeap(int minsize) {
+      super(minsize);
+    }
+
+    /**
+     * Sort the heap ascending (heap sort). This destroys the heap order!
+     */
+    void sortAscending() {
+      final double[] keys = twoheap;
+      final int[] vals = twovals;
+      for(int end = size - 1; end > 0; end--) {
+        // Move the maximum to the end, and restore the heap before it.
+        final double cur = keys[end];
+        final int val = vals[end];
+        keys[end] = keys[0];
+        vals[end] = vals[0];
+        int pos = 0;
+        final int stop = end >>> 1;
+        while(pos < stop) {
+          int child = (pos << 1) + 1;
+          double best = keys[child];
+          if(child + 1 < end && best <= keys[child + 1]) {
+            best = keys[++child];
+          }
+          if(best <= cur) {
+            break;
+          }
+          keys[pos] = best;
+          vals[pos] = vals[child];
+          pos = child;
+        }
+        keys[pos] = cur;
+        vals[pos] = val;
+      }
+    }
+
+    /**
+     * Get the key array.
+     *
+     * @return Keys
+     */
+    double[] keys() {
+      return twoheap;
+    }
+
+    /**
+     * Get the value array.
+     *
+     * @return Values
+     */
+    int[] values() {
+      return twovals;
+    }
+
+    /**
+     * Empty the heap after sorting, keeping the arrays for reuse.
+     */
+    void reset() {
+      size = 0;
+    }
+  }
+
   /**
    * Iterate over all objects in the heap, not ordered.
    * 
@@ -54,6 +54,22 @@ public class DoubleIntegerDBIDKNNList extends DoubleIntegerDBIDList implements I
     this.k = k;
   }
 
+  /**
+   * Constructor, wrapping existing arrays (sorted ascending).
+   *
+   * @param k K parameter
+   * @param dists Distances
+   * @param ids Object ids
+   * @param size Actual size
+   */
+  DoubleIntegerDBIDKNNList(final int k, double[] dists, int[] ids, int size) {
+    super();
+    this.k = k;
+    this.dists = dists;
+    this.ids = ids;
+    this.size = size;
+  }
+
   @Override
   public int getK() {
     return k;
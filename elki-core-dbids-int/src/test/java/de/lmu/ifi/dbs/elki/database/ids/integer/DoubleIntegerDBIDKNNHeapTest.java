@@ -0,0 +1,151 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.database.ids.integer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+
+/**
+ * Test the bulk insertion into kNN heaps.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class DoubleIntegerDBIDKNNHeapTest {
+  /**
+   * Compare bulk insertion of contiguous candidates to single insertions.
+   */
+  @Test
+  public void testInsertAll() {
+    final int n = 1000, k = 10, block = 17;
+    Random r = new Random(0L);
+    double[] dists = new double[n];
+    for(int i = 0; i < n; i++) {
+      // Few distinct values, to produce ties.
+      dists[i] = r.nextInt(50);
+    }
+    IntegerDBIDRange range = new IntegerDBIDRange(0, n);
+    DBIDArrayIter iter = range.iter();
+    DoubleIntegerDBIDKNNHeap ref = new DoubleIntegerDBIDKNNHeap(k);
+    DoubleIntegerDBIDKNNHeap bulk = new DoubleIntegerDBIDKNNHeap(k);
+    double[] buf = new double[block];
+    for(int start = 0; start < n; start += block) {
+      final int len = Math.min(block, n - start);
+      for(int i = 0; i < len; i++) {
+        ref.insert(dists[start + i], iter.seek(start + i));
+        buf[i] = dists[start + i];
+      }
+      double kdist = bulk.insertAll(buf, iter, start, len);
+      assertEquals("k-distance differs", ref.getKNNDistance(), kdist, 0.);
+      assertEquals("Size differs", ref.size(), bulk.size());
+    }
+    assertSameList(ref.toKNNList(), bulk.toKNNList());
+    // The heaps must be reusable afterwards:
+    for(int i = 0; i < n; i++) {
+      ref.insert(dists[i] + 1, iter.seek(i));
+    }
+    for(int i = 0; i < n; i++) {
+      dists[i] += 1;
+    }
+    bulk.insertAll(dists, iter, 0, n);
+    assertSameList(ref.toKNNListSqrt(), bulk.toKNNListSqrt());
+  }
+
+  /**
+   * Compare bulk insertion with explicit offsets to single insertions.
+   */
+  @Test
+  public void testInsertAllOffsets() {
+    final int n = 500, k = 7;
+    Random r = new Random(1L);
+    double[] dists = new double[n];
+    int[] offsets = new int[n];
+    for(int i = 0; i < n; i++) {
+      dists[i] = r.nextInt(30);
+      offsets[i] = n - 1 - i;
+    }
+    IntegerDBIDRange range = new IntegerDBIDRange(0, n);
+    DBIDArrayIter iter = range.iter();
+    DoubleIntegerDBIDKNNHeap ref = new DoubleIntegerDBIDKNNHeap(k);
+    for(int i = 0; i < n; i++) {
+      ref.insert(dists[i], iter.seek(offsets[i]));
+    }
+    DoubleIntegerDBIDKNNHeap bulk = new DoubleIntegerDBIDKNNHeap(k);
+    bulk.insertAll(dists, iter, offsets, n);
+    assertSameList(ref.toKNNList(), bulk.toKNNList());
+  }
+
+  /**
+   * Reusing a heap after converting it to a list must not modify the list.
+   */
+  @Test
+  public void testReuse() {
+    final int n = 200, k = 10;
+    IntegerDBIDRange range = new IntegerDBIDRange(0, n);
+    DBIDArrayIter iter = range.iter();
+    DoubleIntegerDBIDKNNHeap heap = new DoubleIntegerDBIDKNNHeap(k);
+    for(int i = 0; i < n; i++) {
+      heap.insert(n - i, iter.seek(i));
+    }
+    KNNList first = heap.toKNNList();
+    assertEquals("Heap not empty", 0, heap.size());
+    for(int i = 0; i < n; i++) {
+      heap.insert(i, iter.seek(i));
+    }
+    KNNList second = heap.toKNNList();
+    int i = 0;
+    for(DoubleDBIDListIter it = first.iter(); it.valid(); it.advance(), i++) {
+      assertEquals("First list was modified", i + 1, it.doubleValue(), 0.);
+      assertEquals("First list was modified", n - 1 - i, it.internalGetIndex());
+    }
+    i = 0;
+    for(DoubleDBIDListIter it = second.iter(); it.valid(); it.advance(), i++) {
+      assertEquals("Second list is wrong", i, it.doubleValue(), 0.);
+      assertEquals("Second list is wrong", i, it.internalGetIndex());
+    }
+    assertEquals("Second list is wrong", k, i);
+  }
+
+  /**
+   * Verify two kNN lists agree in distances and set of ids.
+   *
+   * @param ref Reference list
+   * @param test List to test
+   */
+  private static void assertSameList(KNNList ref, KNNList test) {
+    assertEquals("List sizes differ", ref.size(), test.size());
+    long refsum = 0, testsum = 0;
+    for(DoubleDBIDListIter ri = ref.iter(), ti = test.iter(); ri.valid(); ri.advance(), ti.advance()) {
+      assertEquals("Distances differ", ri.doubleValue(), ti.doubleValue(), 0.);
+      refsum += ri.internalGetIndex();
+      testsum += ti.internalGetIndex();
+    }
+    // Tied neighbors may be ordered differently.
+    assertEquals("Neighbor ids differ", refsum, testsum);
+  }
+}
@@ -84,6 +84,47 @@ public interface KNNHeap {
    */
   void insert(DoubleDBIDPair e);
 
+  /**
+   * Add a batch of candidates, e.g., all objects of a leaf page. Candidates
+   * that are farther than the current k-distance are filtered out first.
+   *
+   * @param distances Distances of the candidates
+   * @param ids Candidate ids
+   * @param start Offset of the first candidate in {@code ids}
+   * @param n Number of candidates; {@code distances[i]} belongs to the
+   *        candidate at offset {@code start + i}.
+   * @return current k-distance
+   */
+  default double insertAll(double[] distances, DBIDArrayIter ids, int start, int n) {
+    double kdist = getKNNDistance();
+    for(int i = 0; i < n; i++) {
+      if(distances[i] <= kdist) {
+        kdist = insert(distances[i], ids.seek(start + i));
+      }
+    }
+    return kdist;
+  }
+
+  /**
+   * Add a batch of candidates, at arbitrary offsets. Candidates that are
+   * farther than the current k-distance are filtered out first.
+   *
+   * @param distances Distances of the candidates
+   * @param ids Candidate ids
+   * @param offsets Offsets of the candidates in {@code ids}
+   * @param n Number of candidates
+   * @return current k-distance
+   */
+  default double insertAll(double[] distances, DBIDArrayIter ids, int[] offsets, int n) {
+    double kdist = getKNNDistance();
+    for(int i = 0; i < n; i++) {
+      if(distances[i] <= kdist) {
+        kdist = insert(distances[i], ids.seek(offsets[i]));
+      }
+    }
+    return kdist;
+  }
+
   /**
    * Current size of heap.
    *
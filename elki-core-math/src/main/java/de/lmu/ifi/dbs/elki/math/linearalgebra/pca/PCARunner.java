@@ -20,16 +20,22 @@
  */
 package de.lmu.ifi.dbs.elki.math.linearalgebra.pca;
 
+import java.util.Arrays;
+
 import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.math.linearalgebra.CovarianceMatrix;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.EigenvalueDecomposition;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
+import net.jafama.FastMath;
+
 /**
  * Class to run PCA on given data.
  * 
@@ -85,6 +91,49 @@ public class PCARunner {
     return processCovarMatrix(covarianceMatrixBuilder.processQueryResults(results, database));
   }
 
+  /**
+   * Run PCA on a collection of database IDs, reusing a workspace.
+   * 
+   * This is meant for computing many small local PCAs (e.g., one per
+   * neighborhood), where each thread uses its own workspace.
+   * 
+   * @param ids a collection of ids
+   * @param database the database used
+   * @param workspace Workspace, from {@link #newWorkspace}
+   * @return PCA result
+   */
+  public PCAResult processIds(DBIDs ids, Relation<? extends NumberVector> database, Workspace workspace) {
+    if(!(covarianceMatrixBuilder instanceof StandardCovarianceMatrixBuilder)) {
+      return processIds(ids, database);
+    }
+    return workspace.process(ids, database);
+  }
+
+  /**
+   * Run PCA on a QueryResult Collection, reusing a workspace.
+   * 
+   * @param results a collection of QueryResults
+   * @param database the database used
+   * @param workspace Workspace, from {@link #newWorkspace}
+   * @return PCA result
+   */
+  public PCAResult processQueryResult(DoubleDBIDList results, Relation<? extends NumberVector> database, Workspace workspace) {
+    if(!(covarianceMatrixBuilder instanceof StandardCovarianceMatrixBuilder)) {
+      return processQueryResult(results, database);
+    }
+    return workspace.process(results, database);
+  }
+
+  /**
+   * Allocate a new workspace, for use by a single thread.
+   * 
+   * @param dim Dimensionality
+   * @return Workspace
+   */
+  public Workspace newWorkspace(int dim) {
+    return new Workspace(dim);
+  }
+
   /**
    * Process an existing covariance Matrix.
    * 
@@ -126,6 +175,218 @@ public class PCARunner {
     this.covarianceMatrixBuilder = covarianceBuilder;
   }
 
+  /**
+   * Reusable buffers for computing many local PCAs with the standard
+   * covariance matrix, to avoid reallocating matrices for every neighborhood.
+   * 
+   * Covariance matrices are symmetric, and for small dimensionality we use
+   * the cyclic Jacobi method to diagonalize them; it is simple, accurate, and
+   * converges in few sweeps for the small matrices of local PCA.
+   * Larger matrices are handled by {@link EigenvalueDecomposition}.
+   * 
+   * A workspace must not be shared across threads.
+   * 
+   * @author agent
+   */
+  public static class Workspace {
+    /**
+     * Largest dimensionality to use the Jacobi method for.
+     */
+    private static final int JACOBI_MAX_DIM = 16;
+
+    /**
+     * Maximum number of Jacobi sweeps.
+     */
+    private static final int MAX_SWEEPS = 50;
+
+    /**
+     * Mean, centered vector, and eigenvalue buffers.
+     */
+    private double[] mean, tmp, d, b, z;
+
+    /**
+     * Covariance matrix, and eigenvectors.
+     */
+    private double[][] a, v;
+
+    /**
+     * Constructor.
+     * 
+     * @param dim Dimensionality
+     */
+    protected Workspace(int dim) {
+      mean = new double[dim];
+      tmp = new double[dim];
+      d = new double[dim];
+      b = new double[dim];
+      z = new double[dim];
+      a = new double[dim][dim];
+      v = new double[dim][dim];
+    }
+
+    /**
+     * Compute the PCA of the given objects.
+     * 
+     * @param ids Object IDs
+     * @param relation Data relation
+     * @return PCA result
+     */
+    protected PCAResult process(DBIDs ids, Relation<? extends NumberVector> relation) {
+      final int dim = mean.length;
+      // Two-pass covariance, as in CovarianceMatrix:
+      Arrays.fill(mean, 0.);
+      int count = 0;
+      for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+        NumberVector vec = relation.get(iditer);
+        for(int i = 0; i < dim; i++) {
+          mean[i] += vec.doubleValue(i);
+        }
+        count++;
+      }
+      if(count == 0) {
+        throw new IllegalStateException(CovarianceMatrix.ERR_TOO_LITTLE_WEIGHT);
+      }
+      for(int i = 0; i < dim; i++) {
+        mean[i] /= count;
+        Arrays.fill(a[i], i, dim, 0.);
+      }
+      for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+        NumberVector vec = relation.get(iditer);
+        for(int i = 0; i < dim; i++) {
+          tmp[i] = vec.doubleValue(i) - mean[i];
+        }
+        for(int i = 0; i < dim; i++) {
+          final double tmpi = tmp[i];
+          final double[] ai = a[i];
+          for(int j = i; j < dim; j++) {
+            ai[j] += tmpi * tmp[j];
+          }
+        }
+      }
+      // Normalize, and keep a copy in the lower triangle, which the Jacobi
+      // method does not modify.
+      final double f = 1. / count;
+      for(int i = 0; i < dim; i++) {
+        final double[] ai = a[i];
+        for(int j = i; j < dim; j++) {
+          a[j][i] = ai[j] *= f;
+        }
+      }
+      if(dim > JACOBI_MAX_DIM || !jacobi()) {
+        double[][] full = new double[dim][dim];
+        for(int i = 0; i < dim; i++) {
+          for(int j = 0; j <= i; j++) {
+            full[i][j] = full[j][i] = a[i][j];
+          }
+        }
+        return new PCAResult(new SortedEigenPairs(new EigenvalueDecomposition(full), false));
+      }
+      EigenPair[] pairs = new EigenPair[dim];
+      for(int i = 0; i < dim; i++) {
+        double[] vec = new double[dim];
+        for(int j = 0; j < dim; j++) {
+          vec[j] = v[j][i];
+        }
+        pairs[i] = new EigenPair(vec, Math.abs(d[i]));
+      }
+      return new PCAResult(new SortedEigenPairs(Arrays.asList(pairs)));
+    }
+
+    /**
+     * Diagonalize the upper triangle of the symmetric matrix a with the cyclic
+     * Jacobi method. The eigenvalues are stored in d, the eigenvectors in the
+     * columns of v. The upper triangle of a is destroyed.
+     * 
+     * @return {@code false} if the method did not converge.
+     */
+    private boolean jacobi() {
+      final int n = d.length;
+      for(int i = 0; i < n; i++) {
+        Arrays.fill(v[i], 0.);
+        v[i][i] = 1.;
+        b[i] = d[i] = a[i][i];
+        z[i] = 0.;
+      }
+      for(int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+        double sm = 0.;
+        for(int p = 0; p < n - 1; p++) {
+          for(int q = p + 1; q < n; q++) {
+            sm += Math.abs(a[p][q]);
+          }
+        }
+        if(sm == 0.) {
+          return true;
+        }
+        // Only rotate large elements in the first sweeps.
+        final double thresh = sweep < 3 ? .2 * sm / (n * n) : 0.;
+        for(int p = 0; p < n - 1; p++) {
+          for(int q = p + 1; q < n; q++) {
+            final double apq = a[p][q], g = 100. * Math.abs(apq);
+            // After a few sweeps, skip rotations of negligible elements.
+            if(sweep > 3 && Math.abs(d[p]) + g == Math.abs(d[p]) && Math.abs(d[q]) + g == Math.abs(d[q])) {
+              a[p][q] = 0.;
+              continue;
+            }
+            if(Math.abs(apq) <= thresh) {
+              continue;
+            }
+            double h = d[q] - d[p], t;
+            if(Math.abs(h) + g == Math.abs(h)) {
+              t = apq / h;
+            }
+            else {
+              final double theta = .5 * h / apq;
+              t = 1. / (Math.abs(theta) + FastMath.sqrt(1. + theta * theta));
+              t = theta < 0. ? -t : t;
+            }
+            final double c = 1. / FastMath.sqrt(1 + t * t), s = t * c, tau = s / (1. + c);
+            h = t * apq;
+            z[p] -= h;
+            z[q] += h;
+            d[p] -= h;
+            d[q] += h;
+            a[p][q] = 0.;
+            for(int j = 0; j < p; j++) {
+              rotate(a, j, p, j, q, s, tau);
+            }
+            for(int j = p + 1; j < q; j++) {
+              rotate(a, p, j, j, q, s, tau);
+            }
+            for(int j = q + 1; j < n; j++) {
+              rotate(a, p, j, q, j, s, tau);
+            }
+            for(int j = 0; j < n; j++) {
+              rotate(v, j, p, j, q, s, tau);
+            }
+          }
+        }
+        for(int p = 0; p < n; p++) {
+          b[p] += z[p];
+          d[p] = b[p];
+          z[p] = 0.;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Apply a Jacobi rotation to a pair of matrix elements.
+     * 
+     * @param m Matrix
+     * @param i First row
+     * @param j First column
+     * @param k Second row
+     * @param l Second column
+     * @param s Sine of the rotation angle
+     * @param tau s / (1 + cos)
+     */
+    private static void rotate(double[][] m, int i, int j, int k, int l, double s, double tau) {
+      final double g = m[i][j], h = m[k][l];
+      m[i][j] = g - s * (h + g * tau);
+      m[k][l] = h + s * (g - h * tau);
+    }
+  }
+
   /**
    * Parameterization class.
    * 
@@ -20,6 +20,7 @@
  */
 package de.lmu.ifi.dbs.elki.math.statistics.dependence;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -67,6 +68,33 @@ public abstract class AbstractDependenceMeasure implements DependenceMeasure {
     return out;
   }
 
+  /**
+   * Compute the dependence matrix by preparing every variable once.
+   *
+   * @param measure Dependence measure
+   * @param adapter Data adapter
+   * @param data Data sets
+   * @param <A> Array type
+   * @param <P> Prepared variable type
+   * @return Lower triangular serialized matrix
+   */
+  protected static <A, P> double[] dependenceBatch(BatchDependenceMeasure<P> measure, NumberArrayAdapter<?, A> adapter, List<? extends A> data) {
+    final int dims = data.size();
+    final int len = size(adapter, data);
+    List<P> prepared = new ArrayList<>(dims);
+    for(int i = 0; i < dims; i++) {
+      prepared.add(measure.prepare(adapter, data.get(i), len));
+    }
+    double[] out = new double[(dims * (dims - 1)) >> 1];
+    for(int y = 1, o = 0; y < dims; y++) {
+      P py = prepared.get(y);
+      for(int x = 0; x < y; x++) {
+        out[o++] = measure.dependencePrepared(prepared.get(x), py);
+      }
+    }
+    return out;
+  }
+
   /**
    * Clamp values to a given minimum and maximum.
    * 
@@ -152,6 +180,33 @@ public abstract class AbstractDependenceMeasure implements DependenceMeasure {
     return ret;
   }
 
+  /**
+   * Compute dense ranks of all objects, ranging from 0 to the number of
+   * distinct values minus one. Ties are given the same rank.
+   *
+   * @param adapter Data adapter
+   * @param data Data array
+   * @param idx Sorted data index
+   * @return Array of dense ranks
+   */
+  public static <A> int[] denseRanks(final NumberArrayAdapter<?, A> adapter, final A data, int[] idx) {
+    final int len = idx.length;
+    int[] ret = new int[len];
+    if(len == 0) {
+      return ret;
+    }
+    double prev = adapter.getDouble(data, idx[0]);
+    for(int i = 0, r = 0; i < len; i++) {
+      final double val = adapter.getDouble(data, idx[i]);
+      if(val > prev) {
+        ++r;
+        prev = val;
+      }
+      ret[idx[i]] = r;
+    }
+    return ret;
+  }
+
   /**
    * Build a sorted index of objects.
    *
@@ -0,0 +1,58 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.math.statistics.dependence;
+
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.NumberArrayAdapter;
+
+/**
+ * Dependence measure that can prepare each variable once, e.g., by sorting,
+ * ranking, or discretizing it, to compute the dependence of many pairs of
+ * variables efficiently.
+ *
+ * Both methods must be thread-safe, so that variables and pairs can be
+ * processed in parallel.
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @param <P> Prepared variable type
+ */
+public interface BatchDependenceMeasure<P> extends DependenceMeasure {
+  /**
+   * Prepare a variable for batch processing.
+   *
+   * @param adapter Data adapter
+   * @param data Data set
+   * @param len Length of the data set
+   * @param <A> Array type
+   * @return Prepared variable
+   */
+  <A> P prepare(NumberArrayAdapter<?, A> adapter, A data, int len);
+
+  /**
+   * Measure the dependence of two prepared variables of the same length.
+   *
+   * @param data1 First prepared variable
+   * @param data2 Second prepared variable
+   * @return Dependence measure
+   */
+  double dependencePrepared(P data1, P data2);
+}
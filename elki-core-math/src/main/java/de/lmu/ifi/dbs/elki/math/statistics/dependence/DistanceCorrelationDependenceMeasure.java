@@ -44,6 +44,11 @@ import net.jafama.FastMath;
  * While initially the diagonal is zero, after double-centering the matrix these
  * values can become non-zero!
  * 
+ * For computing many pairwise dependencies, the prepared variant avoids the
+ * quadratic memory, and computes the distance covariance in O(n log n) from
+ * the sorted values, following the identity
+ * n² dCov² = S1 - 2 S2 / n + S3 / n² (cf. Huo and Székely).
+ * 
  * @author Marie Kiermeier
  * @author Erich Schubert
  * @since 0.7.0
@@ -52,7 +57,7 @@ import net.jafama.FastMath;
 title = "Measuring and testing dependence by correlation of distances", //
 booktitle = "The Annals of Statistics, 35(6), 2769-2794", //
 url = "http://dx.doi.org/10.1214/009053607000000505")
-public class DistanceCorrelationDependenceMeasure extends AbstractDependenceMeasure {
+public class DistanceCorrelationDependenceMeasure extends AbstractDependenceMeasure implements BatchDependenceMeasure<DistanceCorrelationDependenceMeasure.Prepared> {
   /**
    * Static instance.
    */
@@ -87,28 +92,21 @@ public class DistanceCorrelationDependenceMeasure extends AbstractDependenceMeas
 
   @Override
   public <A> double[] dependence(NumberArrayAdapter<?, A> adapter, List<? extends A> data) {
-    final int dims = data.size();
-    final int len = size(adapter, data);
-    double[][] dMatrix = new double[dims][];
-    for(int i = 0; i < dims; i++) {
-      dMatrix[i] = computeDistances(adapter, data.get(i));
-    }
-    double[] dVar = new double[dims];
-    for(int i = 0; i < dims; i++) {
-      dVar[i] = computeDCovar(dMatrix[i], dMatrix[i], len);
-    }
-    double[] dCor = new double[(dims * (dims - 1)) >> 1];
-    for(int y = 1, c = 0; y < dims; y++) {
-      for(int x = 0; x < y; x++) {
-        if(!(dVar[x] * dVar[y] > 0.)) {
-          dCor[c++] = 0.;
-          continue;
-        }
-        double dCovar = computeDCovar(dMatrix[x], dMatrix[y], len);
-        dCor[c++] = FastMath.sqrt(dCovar / FastMath.sqrt(dVar[x] * dVar[y]));
-      }
+    return dependenceBatch(this, adapter, data);
+  }
+
+  @Override
+  public <A> Prepared prepare(NumberArrayAdapter<?, A> adapter, A data, int len) {
+    return new Prepared(adapter, data, len);
+  }
+
+  @Override
+  public double dependencePrepared(Prepared p1, Prepared p2) {
+    if(!(p1.dVar > 0.) || !(p2.dVar > 0.)) {
+      return 0.;
     }
-    return dCor;
+    double dCovar = computeDCovar(p1, p2);
+    return dCovar > 0. ? FastMath.sqrt(dCovar / FastMath.sqrt(p1.dVar * p2.dVar)) : 0.;
   }
 
   /**
@@ -189,6 +187,142 @@ public class DistanceCorrelationDependenceMeasure extends AbstractDependenceMeas
     return result / (n * n);
   }
 
+  /**
+   * Computes the distance covariance of two prepared axes in O(n log n).
+   * 
+   * @param p1 First axis
+   * @param p2 Second axis
+   * @return distance covariance
+   */
+  protected static double computeDCovar(Prepared p1, Prepared p2) {
+    final int n = p1.values.length;
+    final int[] order = p1.order, yr = p2.dense;
+    final double[] x = p1.values, y = p2.values;
+    // Fenwick trees over the ranks in y: count, sum x, sum y, sum xy
+    final int size = p2.distinct + 1;
+    double[] tc = new double[size], tx = new double[size];
+    double[] ty = new double[size], txy = new double[size];
+    double ac = 0., ax = 0., ay = 0., axy = 0.; // Totals
+    // S1 = sum_ij |x_i-x_j| |y_i-y_j|, over pairs with x_j <= x_i
+    double s1 = 0.;
+    for(int k = 0; k < n; k++) {
+      final int i = order[k];
+      final double xi = x[i], yi = y[i];
+      double lc = 0., lx = 0., ly = 0., lxy = 0.;
+      for(int j = yr[i] + 1; j > 0; j -= j & -j) {
+        lc += tc[j];
+        lx += tx[j];
+        ly += ty[j];
+        lxy += txy[j];
+      }
+      // Objects with y_j <= y_i contribute positive, others negative.
+      final double gc = ac - lc, gx = ax - lx, gy = ay - ly, gxy = axy - lxy;
+      s1 += (xi * yi * lc - xi * ly - yi * lx + lxy) //
+          - (xi * yi * gc - xi * gy - yi * gx + gxy);
+      final double xy = xi * yi;
+      for(int j = yr[i] + 1; j < size; j += j & -j) {
+        tc[j] += 1.;
+        tx[j] += xi;
+        ty[j] += yi;
+        txy[j] += xy;
+      }
+      ac += 1.;
+      ax += xi;
+      ay += yi;
+      axy += xy;
+    }
+    s1 *= 2.; // Symmetry
+    // S2 = sum_i a_i. b_i.
+    double s2 = 0.;
+    for(int i = 0; i < n; i++) {
+      s2 += p1.rowSums[i] * p2.rowSums[i];
+    }
+    final double s3 = p1.total * p2.total;
+    return (s1 - (2. * s2 - s3 / n) / n) / ((double) n * n);
+  }
+
+  /**
+   * Prepared axis: centered and sorted values, and distance row sums.
+   * 
+   * @author agent
+   * 
+   * @apiviz.exclude
+   */
+  public static class Prepared {
+    /**
+     * Centered values.
+     */
+    final double[] values;
+
+    /**
+     * Objects sorted by value.
+     */
+    final int[] order;
+
+    /**
+     * Dense ranks, starting at 0.
+     */
+    final int[] dense;
+
+    /**
+     * Number of distinct values.
+     */
+    final int distinct;
+
+    /**
+     * Row sums of the distance matrix.
+     */
+    final double[] rowSums;
+
+    /**
+     * Sum of all distances.
+     */
+    final double total;
+
+    /**
+     * Distance variance.
+     */
+    final double dVar;
+
+    /**
+     * Constructor.
+     * 
+     * @param adapter Data adapter
+     * @param data Data set
+     * @param len Length of data
+     */
+    public <A> Prepared(NumberArrayAdapter<?, A> adapter, A data, int len) {
+      values = new double[len];
+      double mean = 0.;
+      for(int i = 0; i < len; i++) {
+        mean += values[i] = adapter.getDouble(data, i);
+      }
+      mean /= len;
+      for(int i = 0; i < len; i++) {
+        values[i] -= mean;
+      }
+      order = sortedIndex(adapter, data, len);
+      dense = denseRanks(adapter, data, order);
+      distinct = len > 0 ? dense[order[len - 1]] + 1 : 0;
+      // Row sums via prefix sums in sorted order:
+      double sum = 0.;
+      for(int i = 0; i < len; i++) {
+        sum += values[i];
+      }
+      rowSums = new double[len];
+      double before = 0., tot = 0.;
+      for(int k = 0; k < len; k++) {
+        final int i = order[k];
+        final double v = values[i];
+        final double after = sum - before - v;
+        tot += rowSums[i] = (k * v - before) + (after - (len - k - 1) * v);
+        before += v;
+      }
+      total = tot;
+      dVar = computeDCovar(this, this);
+    }
+  }
+
   /**
    * Parameterization class
    * 
@@ -20,6 +20,9 @@
  */
 package de.lmu.ifi.dbs.elki.math.statistics.dependence;
 
+import java.util.Arrays;
+import java.util.List;
+
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.NumberArrayAdapter;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
@@ -46,7 +49,7 @@ import net.jafama.FastMath;
 title = "A non-parametric test of independence", //
 booktitle = "The Annals of Mathematical Statistics 19", //
 url = "http://www.jstor.org/stable/2236021")
-public class HoeffdingsDDependenceMeasure extends AbstractDependenceMeasure {
+public class HoeffdingsDDependenceMeasure extends AbstractDependenceMeasure implements BatchDependenceMeasure<HoeffdingsDDependenceMeasure.Prepared> {
   /**
    * Static instance.
    */
@@ -66,10 +69,28 @@ public class HoeffdingsDDependenceMeasure extends AbstractDependenceMeasure {
     if(n <= 4) {
       return Double.NaN;
     }
-    double[] r = ranks(adapter1, data1, n);
-    double[] s = ranks(adapter2, data2, n);
-    // TODO: is it possible to exploit sorting to accelerate computing q?
-    double[] q = computeBivariateRanks(adapter1, data1, adapter2, data2, n);
+    return dependencePrepared(prepare(adapter1, data1, n), prepare(adapter2, data2, n));
+  }
+
+  @Override
+  public <A> double[] dependence(NumberArrayAdapter<?, A> adapter, List<? extends A> data) {
+    return dependenceBatch(this, adapter, data);
+  }
+
+  @Override
+  public <A> Prepared prepare(NumberArrayAdapter<?, A> adapter, A data, int len) {
+    return new Prepared(adapter, data, len);
+  }
+
+  @Override
+  public double dependencePrepared(Prepared p1, Prepared p2) {
+    final int n = p1.ranks.length;
+    assert (n > 4) : "Hoeffdings D needs at least 5 elements!";
+    if(n <= 4) {
+      return Double.NaN;
+    }
+    double[] r = p1.ranks, s = p2.ranks;
+    double[] q = computeBivariateRanks(p1, p2);
 
     double d1 = 0, d2 = 0, d3 = 0;
     for(int i = 0; i < n; i++) {
@@ -85,6 +106,73 @@ public class HoeffdingsDDependenceMeasure extends AbstractDependenceMeasure {
     return d < 1. ? d : 1.;
   }
 
+  /**
+   * Compute bivariate ranks in O(n log n), by scanning the objects in order of
+   * the first variable and counting the second variable in a Fenwick tree.
+   *
+   * q[i] is the number of objects such that x[j] < x[i] and y[j] < y[i], with
+   * ties counted as in {@link #computeBivariateRanks}.
+   *
+   * @param p1 First prepared variable
+   * @param p2 Second prepared variable
+   * @return Bivariate rank statistics.
+   */
+  protected static double[] computeBivariateRanks(Prepared p1, Prepared p2) {
+    final int n = p1.order.length;
+    final int[] order = p1.order, xr = p1.dense, yr = p2.dense;
+    double[] ret = new double[n];
+    int[] tree = new int[p2.distinct + 1];
+    int[] group = new int[n];
+    for(int i = 0; i < n;) {
+      // Objects tied in x:
+      final int start = i, x = xr[order[i]];
+      while(i < n && xr[order[i]] == x) {
+        i++;
+      }
+      final int len = i - start;
+      for(int g = 0; g < len; g++) {
+        group[g] = yr[order[start + g]];
+      }
+      Arrays.sort(group, 0, len);
+      for(int g = start; g < i; g++) {
+        final int o = order[g], y = yr[o];
+        // Objects with smaller x:
+        final int less = prefixCount(tree, y - 1), tied = prefixCount(tree, y) - less;
+        // Objects with the same x:
+        int lo = 0;
+        while(lo < len && group[lo] < y) {
+          lo++;
+        }
+        int hi = lo;
+        while(hi < len && group[hi] == y) {
+          hi++;
+        }
+        ret[o] = less + .5 * tied + .5 * lo + .25 * (hi - lo - 1);
+      }
+      for(int g = 0; g < len; g++) {
+        for(int j = group[g] + 1; j < tree.length; j += j & -j) {
+          ++tree[j];
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Count the objects with rank at most r in a Fenwick tree.
+   *
+   * @param tree Fenwick tree, 1-indexed
+   * @param r Rank, 0-indexed
+   * @return Count
+   */
+  private static int prefixCount(int[] tree, int r) {
+    int c = 0;
+    for(int j = r + 1; j > 0; j -= j & -j) {
+      c += tree[j];
+    }
+    return c;
+  }
+
   /**
    * Compute bivariate ranks.
    *
@@ -190,6 +278,49 @@ public class HoeffdingsDDependenceMeasure extends AbstractDependenceMeasure {
     return -1;
   }
 
+  /**
+   * Prepared variable: sort order and ranks.
+   *
+   * @author agent
+   *
+   * @apiviz.exclude
+   */
+  public static class Prepared {
+    /**
+     * Objects sorted by value.
+     */
+    final int[] order;
+
+    /**
+     * Dense ranks, starting at 0.
+     */
+    final int[] dense;
+
+    /**
+     * Number of distinct values.
+     */
+    final int distinct;
+
+    /**
+     * Ranks, starting at 1, ties averaged.
+     */
+    final double[] ranks;
+
+    /**
+     * Constructor.
+     *
+     * @param adapter Data adapter
+     * @param data Data set
+     * @param len Length of data
+     */
+    public <A> Prepared(NumberArrayAdapter<?, A> adapter, A data, int len) {
+      this.order = sortedIndex(adapter, data, len);
+      this.dense = denseRanks(adapter, data, order);
+      this.distinct = len > 0 ? dense[order[len - 1]] + 1 : 0;
+      this.ranks = ranks(adapter, data, order);
+    }
+  }
+
   /**
    * Parameterization class.
    * 
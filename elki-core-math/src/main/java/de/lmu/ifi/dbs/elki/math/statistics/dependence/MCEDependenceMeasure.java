@@ -22,6 +22,7 @@ package de.lmu.ifi.dbs.elki.math.statistics.dependence;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.NumberArrayAdapter;
@@ -51,7 +52,7 @@ import net.jafama.FastMath;
 title = "Coordinating computational and visual approaches for interactive feature selection and multivariate clustering", //
 booktitle = "Information Visualization, 2(4)", //
 url = "http://dx.doi.org/10.1057/palgrave.ivs.9500053")
-public class MCEDependenceMeasure extends AbstractDependenceMeasure {
+public class MCEDependenceMeasure extends AbstractDependenceMeasure implements BatchDependenceMeasure<MCEDependenceMeasure.Prepared> {
   /**
    * Static instance.
    */
@@ -68,20 +69,32 @@ public class MCEDependenceMeasure extends AbstractDependenceMeasure {
   @Override
   public <A, B> double dependence(NumberArrayAdapter<?, A> adapter1, A data1, NumberArrayAdapter<?, B> adapter2, B data2) {
     final int len = size(adapter1, data1, adapter2, data2);
+    return dependencePrepared(prepare(adapter1, data1, len), prepare(adapter2, data2, len));
+  }
+
+  @Override
+  public <A> double[] dependence(NumberArrayAdapter<?, A> adapter, List<? extends A> data) {
+    return dependenceBatch(this, adapter, data);
+  }
+
+  @Override
+  public <A> Prepared prepare(NumberArrayAdapter<?, A> adapter, A data, int len) {
     // Find a number of bins as recommended by Cheng et al.
     double p = MathUtil.log2(len / (double) TARGET);
     // As we are in 2d, take the root (*.5) But let's use at least 1, too.
     // Check: for 10000 this should give 4, for 150 it gives 1.
     int power = Math.max(1, (int) Math.floor(p * .5));
-    int gridsize = 1 << power;
-    double loggrid = FastMath.log((double) gridsize);
+    return new Prepared(buildPartitions(adapter, data, len, power), len);
+  }
 
-    ArrayList<int[]> parts1 = buildPartitions(adapter1, data1, len, power);
-    ArrayList<int[]> parts2 = buildPartitions(adapter2, data2, len, power);
+  @Override
+  public double dependencePrepared(Prepared p1, Prepared p2) {
+    final int len = p1.labels.length, gridsize = p1.sizes.length;
+    double loggrid = FastMath.log((double) gridsize);
 
     int[][] res = new int[gridsize][gridsize];
-    intersectionMatrix(res, parts1, parts2, gridsize);
-    return 1. - getMCEntropy(res, parts1, parts2, len, gridsize, loggrid);
+    intersectionMatrix(res, p1.labels, p2.labels);
+    return 1. - getMCEntropy(res, p1.sizes, p2.sizes, len, gridsize, loggrid);
   }
 
   /**
@@ -172,59 +185,27 @@ public class MCEDependenceMeasure extends AbstractDependenceMeasure {
    * Intersect the two 1d grid decompositions, to obtain a 2d matrix.
    * 
    * @param res Output matrix to fill
-   * @param partsx Partitions in first component
-   * @param partsy Partitions in second component.
-   * @param gridsize Size of partition decomposition
-   */
-  private void intersectionMatrix(int[][] res, ArrayList<int[]> partsx, ArrayList<int[]> partsy, int gridsize) {
-    for(int x = 0; x < gridsize; x++) {
-      final int[] px = partsx.get(x);
-      final int[] rowx = res[x];
-      for(int y = 0; y < gridsize; y++) {
-        int[] py = partsy.get(y);
-        rowx[y] = intersectionSize(px, py);
-      }
-    }
-  }
-
-  /**
-   * Compute the intersection of two sorted integer lists.
-   * 
-   * @param px First list
-   * @param py Second list
-   * @return Intersection size.
+   * @param labelsx Partition of each object in first component
+   * @param labelsy Partition of each object in second component
    */
-  private int intersectionSize(int[] px, int[] py) {
-    int i = 0, j = 0, c = 0;
-    while(i < px.length && j < py.length) {
-      final int vx = px[i], vy = py[j];
-      if(vx < vy) {
-        ++i;
-      }
-      else if(vx > vy) {
-        ++j;
-      }
-      else {
-        ++c;
-        ++i;
-        ++j;
-      }
+  private static void intersectionMatrix(int[][] res, int[] labelsx, int[] labelsy) {
+    for(int i = 0; i < labelsx.length; i++) {
+      ++res[labelsx[i]][labelsy[i]];
     }
-    return c;
   }
 
   /**
    * Compute the MCE entropy value.
    * 
    * @param mat Partition size matrix
-   * @param partsx Partitions on X
-   * @param partsy Partitions on Y
+   * @param sizesx Partition sizes on X
+   * @param sizesy Partition sizes on Y
    * @param size Data set size
    * @param gridsize Size of grids
    * @param loggrid Logarithm of grid sizes, for normalization
    * @return MCE score.
    */
-  private double getMCEntropy(int[][] mat, ArrayList<int[]> partsx, ArrayList<int[]> partsy, int size, int gridsize, double loggrid) {
+  private double getMCEntropy(int[][] mat, int[] sizesx, int[] sizesy, int size, int gridsize, double loggrid) {
     // Margin entropies:
     double[] mx = new double[gridsize];
     double[] my = new double[gridsize];
@@ -232,8 +213,8 @@ public class MCEDependenceMeasure extends AbstractDependenceMeasure {
     for(int i = 0; i < gridsize; i++) {
       // Note: indexes are a bit tricky here, because we compute both margin
       // entropies at the same time!
-      final double sumx = (double) partsx.get(i).length;
-      final double sumy = (double) partsy.get(i).length;
+      final double sumx = (double) sizesx[i];
+      final double sumy = (double) sizesy[i];
       for(int j = 0; j < gridsize; j++) {
         double px = mat[i][j] / sumx;
         double py = mat[j][i] / sumy;
@@ -250,14 +231,51 @@ public class MCEDependenceMeasure extends AbstractDependenceMeasure {
     // Weighted sums of margin entropies.
     double sumx = 0., sumy = 0.;
     for(int i = 0; i < gridsize; i++) {
-      sumx += mx[i] * partsx.get(i).length;
-      sumy += my[i] * partsy.get(i).length;
+      sumx += mx[i] * sizesx[i];
+      sumy += my[i] * sizesy[i];
     }
 
     double max = ((sumx > sumy) ? sumx : sumy);
     return max / (size * loggrid);
   }
 
+  /**
+   * Prepared variable: nested means partitioning.
+   * 
+   * @author agent
+   * 
+   * @apiviz.exclude
+   */
+  public static class Prepared {
+    /**
+     * Partition sizes.
+     */
+    final int[] sizes;
+
+    /**
+     * Partition of each object.
+     */
+    final int[] labels;
+
+    /**
+     * Constructor.
+     * 
+     * @param parts Partitions
+     * @param len Number of objects
+     */
+    protected Prepared(ArrayList<int[]> parts, int len) {
+      this.sizes = new int[parts.size()];
+      this.labels = new int[len];
+      for(int i = 0; i < sizes.length; i++) {
+        final int[] part = parts.get(i);
+        sizes[i] = part.length;
+        for(int j : part) {
+          labels[j] = i;
+        }
+      }
+    }
+  }
+
   /**
    * Parameterization class.
    * 
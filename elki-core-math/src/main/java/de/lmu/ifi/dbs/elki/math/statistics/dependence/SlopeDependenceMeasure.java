@@ -20,6 +20,8 @@
  */
 package de.lmu.ifi.dbs.elki.math.statistics.dependence;
 
+import java.util.List;
+
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.NumberArrayAdapter;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
@@ -46,7 +48,7 @@ import net.jafama.FastMath;
 title = "Interactive Data Mining with 3D-Parallel-Coordinate-Trees", //
 booktitle = "Proc. of the 2013 ACM International Conference on Management of Data (SIGMOD)", //
 url = "http://dx.doi.org/10.1145/2463676.2463696")
-public class SlopeDependenceMeasure extends AbstractDependenceMeasure {
+public class SlopeDependenceMeasure extends AbstractDependenceMeasure implements BatchDependenceMeasure<double[]> {
   /**
    * Static instance.
    */
@@ -77,48 +79,46 @@ public class SlopeDependenceMeasure extends AbstractDependenceMeasure {
   @Override
   public <A, B> double dependence(NumberArrayAdapter<?, A> adapter1, A data1, NumberArrayAdapter<?, B> adapter2, B data2) {
     final int len = size(adapter1, data1, adapter2, data2);
+    return dependencePrepared(prepare(adapter1, data1, len), prepare(adapter2, data2, len));
+  }
+
+  @Override
+  public <A> double[] dependence(NumberArrayAdapter<?, A> adapter, List<? extends A> data) {
+    return dependenceBatch(this, adapter, data);
+  }
 
-    // Get attribute value range:
-    final double off1, scale1, off2, scale2;
-    {
-      double mi = adapter1.getDouble(data1, 0), ma = mi;
-      for(int i = 1; i < len; ++i) {
-        double v = adapter1.getDouble(data1, i);
-        if(v < mi) {
-          mi = v;
-        }
-        else if(v > ma) {
-          ma = v;
-        }
+  /**
+   * Rescale the attribute values to [0;1].
+   */
+  @Override
+  public <A> double[] prepare(NumberArrayAdapter<?, A> adapter, A data, int len) {
+    double mi = adapter.getDouble(data, 0), ma = mi;
+    for(int i = 1; i < len; ++i) {
+      double v = adapter.getDouble(data, i);
+      if(v < mi) {
+        mi = v;
       }
-      off1 = mi;
-      scale1 = (ma > mi) ? (1. / (ma - mi)) : 1.;
-      // Second data
-      mi = adapter2.getDouble(data2, 0);
-      ma = mi;
-      for(int i = 1; i < len; ++i) {
-        double v = adapter2.getDouble(data2, i);
-        if(v < mi) {
-          mi = v;
-        }
-        else if(v > ma) {
-          ma = v;
-        }
+      else if(v > ma) {
+        ma = v;
       }
-      off2 = mi;
-      scale2 = (ma > mi) ? (1. / (ma - mi)) : 1.;
     }
+    final double off = mi, scale = (ma > mi) ? (1. / (ma - mi)) : 1.;
+    double[] ret = new double[len];
+    for(int i = 0; i < len; ++i) {
+      ret[i] = (adapter.getDouble(data, i) - off) * scale;
+    }
+    return ret;
+  }
 
+  @Override
+  public double dependencePrepared(double[] data1, double[] data2) {
+    final int len = data1.length;
     // Collect angular histograms.
     // Note, we only fill half of the matrix
     int[] angles = new int[PRECISION];
 
-    // Scratch buffer
     for(int i = 0; i < len; i++) {
-      double x = adapter1.getDouble(data1, i), y = adapter2.getDouble(data2, i);
-      x = (x - off1) * scale1;
-      y = (y - off2) * scale2;
-      final double delta = x - y + 1;
+      final double delta = data1[i] - data2[i] + 1;
       int div = (int) Math.round(delta * RESCALE);
       // TODO: do we really need this check?
       div = (div < 0) ? 0 : (div >= PRECISION) ? PRECISION - 1 : div;
@@ -20,7 +20,6 @@
  */
 package de.lmu.ifi.dbs.elki.math.statistics.dependence;
 
-import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.NumberArrayAdapter;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import net.jafama.FastMath;
@@ -60,50 +59,15 @@ public class SlopeInversionDependenceMeasure extends SlopeDependenceMeasure {
   }
 
   @Override
-  public <A, B> double dependence(NumberArrayAdapter<?, A> adapter1, A data1, NumberArrayAdapter<?, B> adapter2, B data2) {
-    final int len = size(adapter1, data1, adapter2, data2);
-
-    // Get attribute value range:
-    final double off1, scale1, off2, scale2;
-    {
-      double mi = adapter1.getDouble(data1, 0), ma = mi;
-      for(int i = 1; i < len; ++i) {
-        double v = adapter1.getDouble(data1, i);
-        if(v < mi) {
-          mi = v;
-        }
-        else if(v > ma) {
-          ma = v;
-        }
-      }
-      off1 = mi;
-      scale1 = (ma > mi) ? (1. / (ma - mi)) : 1.;
-      // Second data
-      mi = adapter2.getDouble(data2, 0);
-      ma = mi;
-      for(int i = 1; i < len; ++i) {
-        double v = adapter2.getDouble(data2, i);
-        if(v < mi) {
-          mi = v;
-        }
-        else if(v > ma) {
-          ma = v;
-        }
-      }
-      off2 = mi;
-      scale2 = (ma > mi) ? (1. / (ma - mi)) : 1.;
-    }
-
+  public double dependencePrepared(double[] data1, double[] data2) {
+    final int len = data1.length;
     // Collect angular histograms.
     // Note, we only fill half of the matrix
     int[] angles = new int[PRECISION];
     int[] angleI = new int[PRECISION];
 
-    // Scratch buffer
     for(int i = 0; i < len; i++) {
-      double x = adapter1.getDouble(data1, i), y = adapter2.getDouble(data2, i);
-      x = (x - off1) * scale1;
-      y = (y - off2) * scale2;
+      final double x = data1[i], y = data2[i];
       {
         final double delta = x - y + 1;
         int div = (int) Math.round(delta * RESCALE);
@@ -20,6 +20,8 @@
  */
 package de.lmu.ifi.dbs.elki.math.statistics.dependence;
 
+import java.util.List;
+
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.NumberArrayAdapter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import net.jafama.FastMath;
@@ -30,7 +32,7 @@ import net.jafama.FastMath;
  * @author Erich Schubert
  * @since 0.7.0
  */
-public class SpearmanCorrelationDependenceMeasure extends AbstractDependenceMeasure {
+public class SpearmanCorrelationDependenceMeasure extends AbstractDependenceMeasure implements BatchDependenceMeasure<double[]> {
   /**
    * Static instance.
    */
@@ -46,10 +48,23 @@ public class SpearmanCorrelationDependenceMeasure extends AbstractDependenceMeas
   @Override
   public <A, B> double dependence(NumberArrayAdapter<?, A> adapter1, A data1, NumberArrayAdapter<?, B> adapter2, B data2) {
     final int len = size(adapter1, data1, adapter2, data2);
-    double[] ranks1 = computeNormalizedRanks(adapter1, data1, len);
-    double[] ranks2 = computeNormalizedRanks(adapter2, data2, len);
+    return dependencePrepared(computeNormalizedRanks(adapter1, data1, len), computeNormalizedRanks(adapter2, data2, len));
+  }
+
+  @Override
+  public <A> double[] dependence(NumberArrayAdapter<?, A> adapter, List<? extends A> data) {
+    return dependenceBatch(this, adapter, data);
+  }
 
-    // Second pass: variances and covariance
+  @Override
+  public <A> double[] prepare(NumberArrayAdapter<?, A> adapter, A data, int len) {
+    return computeNormalizedRanks(adapter, data, len);
+  }
+
+  @Override
+  public double dependencePrepared(double[] ranks1, double[] ranks2) {
+    final int len = ranks1.length;
+    // Variances and covariance
     double v1 = 0., v2 = 0., cov = 0.;
     for(int i = 0; i < len; i++) {
       double d1 = ranks1[i] - .5, d2 = ranks2[i] - .5;
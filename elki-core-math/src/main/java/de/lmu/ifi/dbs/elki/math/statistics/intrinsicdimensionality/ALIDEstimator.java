@@ -110,6 +110,11 @@ public class ALIDEstimator implements IntrinsicDimensionalityEstimator {
     return -a / sum;
   }
 
+  @Override
+  public boolean needsNeighborQueries() {
+    return true;
+  }
+
   @Override
   public double estimate(double[] distances) {
     throw new UnsupportedOperationException("The ALID estimator can only be used with neighbor queries.");
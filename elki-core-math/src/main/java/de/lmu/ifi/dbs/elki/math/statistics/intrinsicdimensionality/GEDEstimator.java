@@ -53,9 +53,9 @@ public class GEDEstimator extends AbstractIntrinsicDimensionalityEstimator {
   public static final GEDEstimator STATIC = new GEDEstimator();
 
   /**
-   * Cached logs of integers.
+   * Cached logs of integers, shared by concurrent estimations.
    */
-  double[] ilogs = new double[] { 0. };
+  private volatile double[] ilogs = new double[] { 0. };
 
   @Override
   public <A> double estimate(A data, NumberArrayAdapter<?, ? super A> adapter, final int end) {
@@ -65,8 +65,9 @@ public class GEDEstimator extends AbstractIntrinsicDimensionalityEstimator {
     }
     final int last = end - begin - 1;
     double[] meds = new double[last];
+    double[] ilogs = this.ilogs;
     if(last >= ilogs.length) { // Unsynchronized check
-      precomputeLogs(last + 1); // Synchronized resize
+      ilogs = precomputeLogs(last + 1); // Synchronized resize
     }
     // We only consider pairs with k < i, to avoid redundant computations.
     for(int k = 0; k < last; k++) {
@@ -90,16 +91,17 @@ public class GEDEstimator extends AbstractIntrinsicDimensionalityEstimator {
    * Grow the log[i] cache.
    * 
    * @param len Required size
+   * @return Cache of at least the required size
    */
-  private synchronized void precomputeLogs(int len) {
+  private synchronized double[] precomputeLogs(int len) {
     if(len <= ilogs.length) {
-      return; // Probably done by another thread.
+      return ilogs; // Probably done by another thread.
     }
     double[] logs = Arrays.copyOf(ilogs, len);
     for(int i = ilogs.length; i < len; i++) {
       logs[i] = FastMath.log1p(i);
     }
-    this.ilogs = logs;
+    return this.ilogs = logs;
   }
 
   /**
@@ -89,4 +89,15 @@ public interface IntrinsicDimensionalityEstimator {
    * @return Estimated intrinsic dimensionality
    */
   double estimate(RangeQuery<?> rnq, DBIDRef cur, double range);
+
+  /**
+   * Test whether this estimator needs to issue neighbor queries itself (e.g.,
+   * for auxiliary distances), and hence cannot be used with a precomputed
+   * distance list.
+   * 
+   * @return {@code true} if neighbor queries are required
+   */
+  default boolean needsNeighborQueries() {
+    return false;
+  }
 }
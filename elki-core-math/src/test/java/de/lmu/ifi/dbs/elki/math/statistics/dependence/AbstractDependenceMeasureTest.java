@@ -52,4 +52,15 @@ public class AbstractDependenceMeasureTest {
       assertEquals("Rank " + i, ranks[i], r[i], 1e-20);
     }
   }
+
+  @Test
+  public void testDenseRanks() {
+    double[] data = { 1e-10, 1, 1e-5, 1, 2, 1 };
+    int[] ranks = { 0, 2, 1, 2, 3, 2 };
+    int[] idx = AbstractDependenceMeasure.sortedIndex(DoubleArrayAdapter.STATIC, data, data.length);
+    int[] r = AbstractDependenceMeasure.denseRanks(DoubleArrayAdapter.STATIC, data, idx);
+    for(int i = 0; i < ranks.length; i++) {
+      assertEquals("Rank " + i, ranks[i], r[i]);
+    }
+  }
 }
@@ -23,6 +23,7 @@ package de.lmu.ifi.dbs.elki.math.statistics.dependence;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -70,4 +71,23 @@ public class DistanceCorrelationDependenceMeasureTest {
       }
     }
   }
+
+  @Test
+  public void testPrepared() {
+    DistanceCorrelationDependenceMeasure dCor = DistanceCorrelationDependenceMeasure.STATIC;
+    Random r = new Random(0L);
+    double[][] rnd = new double[4][200];
+    for(int i = 0; i < rnd[0].length; i++) {
+      rnd[0][i] = r.nextGaussian();
+      rnd[1][i] = rnd[0][i] * rnd[0][i] + .1 * r.nextGaussian();
+      rnd[2][i] = r.nextInt(5); // Many ties
+      rnd[3][i] = 1e3 + r.nextDouble();
+    }
+    double[] mat = dCor.dependence(DoubleArrayAdapter.STATIC, Arrays.asList(rnd));
+    for(int i = 0, c = 0; i < rnd.length; i++) {
+      for(int j = 0; j < i; j++) {
+        assertEquals("dCor does not match for " + i + "," + j, dCor.dependence(rnd[i], rnd[j]), mat[c++], 1e-10);
+      }
+    }
+  }
 }
@@ -0,0 +1,75 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.math.statistics.dependence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArrayAdapter;
+
+/**
+ * Validate Hoeffding's D, using the quadratic computation as reference.
+ * 
+ * @author agent
+ * @since 0.7.5
+ */
+public class HoeffdingsDDependenceMeasureTest {
+  @Test
+  public void testBivariateRanks() {
+    Random r = new Random(0L);
+    final int n = 100;
+    double[] x = new double[n], y = new double[n];
+    for(int i = 0; i < n; i++) {
+      x[i] = r.nextInt(10); // Many ties
+      y[i] = r.nextInt(3) == 0 ? r.nextDouble() : r.nextInt(4);
+    }
+    DoubleArrayAdapter a = DoubleArrayAdapter.STATIC;
+    double[] exp = HoeffdingsDDependenceMeasure.computeBivariateRanks(a, x, a, y, n);
+    HoeffdingsDDependenceMeasure.Prepared px = HoeffdingsDDependenceMeasure.STATIC.prepare(a, x, n);
+    HoeffdingsDDependenceMeasure.Prepared py = HoeffdingsDDependenceMeasure.STATIC.prepare(a, y, n);
+    double[] q = HoeffdingsDDependenceMeasure.computeBivariateRanks(px, py);
+    for(int i = 0; i < n; i++) {
+      assertEquals("Bivariate rank " + i, exp[i], q[i], 0.);
+    }
+  }
+
+  @Test
+  public void testBatch() {
+    Random r = new Random(1L);
+    double[][] data = new double[3][50];
+    for(int i = 0; i < data[0].length; i++) {
+      data[0][i] = r.nextGaussian();
+      data[1][i] = data[0][i] + r.nextGaussian();
+      data[2][i] = r.nextInt(5);
+    }
+    HoeffdingsDDependenceMeasure d = HoeffdingsDDependenceMeasure.STATIC;
+    double[] mat = d.dependence(DoubleArrayAdapter.STATIC, Arrays.asList(data));
+    for(int i = 0, c = 0; i < data.length; i++) {
+      for(int j = 0; j < i; j++) {
+        assertEquals("D does not match for " + i + "," + j, d.dependence(data[i], data[j]), mat[c++], 0.);
+      }
+    }
+  }
+}
@@ -21,10 +21,13 @@
 package de.lmu.ifi.dbs.elki.parallel;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
@@ -95,6 +98,90 @@ public final class ParallelExecutor {
     }
   }
 
+  /**
+   * Run a collection of independent tasks on all available CPUs, and wait for
+   * all of them to complete.
+   * <p>
+   * The tasks must not wait for other parallel tasks themselves, as this may
+   * exhaust the thread pool.
+   *
+   * @param tasks Tasks to run
+   */
+  public static void run(Collection<? extends Callable<?>> tasks) {
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      List<Future<?>> parts = new ArrayList<>(tasks.size());
+      for(Callable<?> task : tasks) {
+        parts.add(core.submit(task));
+      }
+      for(Future<?> fut : parts) {
+        fut.get();
+      }
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Processor execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+    finally {
+      core.disconnect();
+    }
+  }
+
+  /**
+   * Run a collection of coarse-grained tasks, such as complete algorithm runs,
+   * concurrently and wait for all of them to complete.
+   * <p>
+   * Unlike {@link #run(Collection)}, the tasks may use the parallel core
+   * themselves: they are executed on separate threads (at most as many as the
+   * configured parallelism), so that waiting for inner tasks cannot exhaust
+   * the shared pool. With a parallelism of 1, the tasks are run in order in
+   * the calling thread.
+   *
+   * @param tasks Tasks to run
+   */
+  public static void runOuter(Collection<? extends Callable<?>> tasks) {
+    final int nthreads = Math.min(ParallelCore.getCore().getParallelism(), tasks.size());
+    if(nthreads <= 1) {
+      for(Callable<?> task : tasks) {
+        try {
+          task.call();
+        }
+        catch(RuntimeException e) {
+          throw e;
+        }
+        catch(Exception e) {
+          throw new RuntimeException("Processor execution failed.", e);
+        }
+      }
+      return;
+    }
+    ExecutorService outer = Executors.newFixedThreadPool(nthreads);
+    try {
+      List<Future<?>> parts = new ArrayList<>(tasks.size());
+      for(Callable<?> task : tasks) {
+        parts.add(outer.submit(task));
+      }
+      for(Future<?> fut : parts) {
+        fut.get();
+      }
+    }
+    catch(ExecutionException e) {
+      if(e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException("Processor execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+    finally {
+      outer.shutdownNow();
+    }
+  }
+
   /**
    * Run for an array part, without step size.
    *
@@ -0,0 +1,200 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.parallel.processor;
+
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.IntrinsicDimensionalityEstimator;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
+
+/**
+ * Estimate the intrinsic dimensionality of each object.
+ * 
+ * Usually, this needs the neighbor distances as input, for example from
+ * {@link KNNDistancesProcessor}, such that multiple estimators can share a
+ * single kNN pass. Estimators that need to issue neighbor queries themselves
+ * (see {@link IntrinsicDimensionalityEstimator#needsNeighborQueries}) are
+ * given the kNN query instead.
+ * 
+ * If the estimation fails, e.g., because of too many duplicates, the given
+ * failure value is output.
+ * 
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.has Instance
+ * @apiviz.uses IntrinsicDimensionalityEstimator
+ * @apiviz.uses SharedObject
+ */
+public class IntrinsicDimensionalityProcessor extends AbstractDoubleProcessor {
+  /**
+   * Estimator for intrinsic dimensionality.
+   */
+  IntrinsicDimensionalityEstimator estimator;
+
+  /**
+   * Minimum number of distances required.
+   */
+  int minsize;
+
+  /**
+   * Value to output when the estimation fails.
+   */
+  double failed;
+
+  /**
+   * kNN query, for estimators that need queries.
+   */
+  KNNQuery<?> knnq;
+
+  /**
+   * Neighborhood size, for estimators that need queries.
+   */
+  int k;
+
+  /**
+   * Distances input channel
+   */
+  SharedObject<? extends DoubleArray> input;
+
+  /**
+   * Constructor, for estimation from neighbor distances.
+   * 
+   * @param estimator Estimator
+   * @param minsize Minimum number of distances required
+   * @param failed Value to output when the estimation fails
+   */
+  public IntrinsicDimensionalityProcessor(IntrinsicDimensionalityEstimator estimator, int minsize, double failed) {
+    super();
+    this.estimator = estimator;
+    this.minsize = minsize;
+    this.failed = failed;
+  }
+
+  /**
+   * Constructor, for estimators that need neighbor queries.
+   * 
+   * @param estimator Estimator
+   * @param knnq kNN query
+   * @param k Neighborhood size, including the query object
+   * @param failed Value to output when the estimation fails
+   */
+  public IntrinsicDimensionalityProcessor(IntrinsicDimensionalityEstimator estimator, KNNQuery<?> knnq, int k, double failed) {
+    this(estimator, 1, failed);
+    this.knnq = knnq;
+    this.k = k;
+  }
+
+  /**
+   * Connect the distances input channel.
+   * 
+   * @param input Input channel
+   */
+  public void connectDistancesInput(SharedObject<? extends DoubleArray> input) {
+    this.input = input;
+  }
+
+  @Override
+  public Instance instantiate(Executor executor) {
+    return new Instance(estimator, minsize, failed, knnq, k, knnq == null ? executor.getInstance(input) : null, executor.getInstance(output));
+  }
+
+  /**
+   * Instance for estimating the intrinsic dimensionality.
+   * 
+   * @author agent
+   */
+  public static class Instance extends AbstractDoubleProcessor.Instance {
+    /**
+     * Estimator for intrinsic dimensionality.
+     */
+    IntrinsicDimensionalityEstimator estimator;
+
+    /**
+     * Minimum number of distances required.
+     */
+    int minsize;
+
+    /**
+     * Value to output when the estimation fails.
+     */
+    double failed;
+
+    /**
+     * kNN query, may be {@code null}.
+     */
+    KNNQuery<?> knnq;
+
+    /**
+     * Neighborhood size.
+     */
+    int k;
+
+    /**
+     * Distances input
+     */
+    SharedObject.Instance<? extends DoubleArray> input;
+
+    /**
+     * Constructor.
+     * 
+     * @param estimator Estimator
+     * @param minsize Minimum number of distances required
+     * @param failed Value to output when the estimation fails
+     * @param knnq kNN query, may be {@code null}
+     * @param k Neighborhood size
+     * @param input Distances input
+     * @param output Output variable
+     */
+    protected Instance(IntrinsicDimensionalityEstimator estimator, int minsize, double failed, KNNQuery<?> knnq, int k, SharedObject.Instance<? extends DoubleArray> input, SharedDouble.Instance output) {
+      super(output);
+      this.estimator = estimator;
+      this.minsize = minsize;
+      this.failed = failed;
+      this.knnq = knnq;
+      this.k = k;
+      this.input = input;
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      double v = failed;
+      try {
+        if(knnq != null) {
+          v = estimator.estimate(knnq, id, k);
+        }
+        else {
+          final DoubleArray dists = input.get();
+          if(dists.size >= minsize) {
+            v = estimator.estimate(dists.data, dists.size);
+          }
+        }
+      }
+      catch(ArithmeticException e) {
+        v = failed; // Too many duplicates, etc.
+      }
+      output.set(v);
+    }
+  }
+}
@@ -104,7 +104,9 @@ public class KDistanceProcessor extends AbstractDoubleProcessor {
 
     @Override
     public void map(DBIDRef id) {
-      output.set(input.get().get(k - 1).doubleValue());
+      final KNNList knn = input.get();
+      // Incomplete neighborhoods have an infinite k-distance.
+      output.set(knn.size() >= k ? knn.get(k - 1).doubleValue() : Double.POSITIVE_INFINITY);
     }
   }
 }
@@ -0,0 +1,153 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.parallel.processor;
+
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
+
+/**
+ * Extract the neighbor distances of each object into a primitive array, e.g.,
+ * for estimating the intrinsic dimensionality. The query object itself and
+ * zero distances (duplicates) are skipped.
+ * 
+ * Needs the k nearest neighbors as input, for example from {@link KNNProcessor}.
+ * The output array is reused for the next object, so consumers must not keep a
+ * reference to it.
+ * 
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.has Instance
+ * @apiviz.uses KNNList
+ * @apiviz.uses SharedObject
+ */
+public class KNNDistancesProcessor implements Processor {
+  /**
+   * Maximum number of distances to extract.
+   */
+  int k;
+
+  /**
+   * kNN input channel
+   */
+  SharedObject<? extends KNNList> input;
+
+  /**
+   * Output channel
+   */
+  SharedObject<DoubleArray> output;
+
+  /**
+   * Constructor.
+   * 
+   * @param k Maximum number of distances to extract
+   */
+  public KNNDistancesProcessor(int k) {
+    super();
+    this.k = k;
+  }
+
+  /**
+   * Connect the input channel.
+   * 
+   * @param input Input channel
+   */
+  public void connectKNNInput(SharedObject<? extends KNNList> input) {
+    this.input = input;
+  }
+
+  /**
+   * Connect the output channel.
+   * 
+   * @param output Output channel
+   */
+  public void connectOutput(SharedObject<DoubleArray> output) {
+    this.output = output;
+  }
+
+  @Override
+  public Instance instantiate(Executor executor) {
+    return new Instance(k, executor.getInstance(input), executor.getInstance(output));
+  }
+
+  @Override
+  public void cleanup(Processor.Instance inst) {
+    // Nothing to do.
+  }
+
+  /**
+   * Instance for extracting the distances.
+   * 
+   * @author agent
+   */
+  public static class Instance implements Processor.Instance {
+    /**
+     * Maximum number of distances
+     */
+    int k;
+
+    /**
+     * kNN input
+     */
+    SharedObject.Instance<? extends KNNList> input;
+
+    /**
+     * Output channel
+     */
+    SharedObject.Instance<DoubleArray> output;
+
+    /**
+     * Distance buffer, reused.
+     */
+    DoubleArray buf = new DoubleArray();
+
+    /**
+     * Constructor.
+     * 
+     * @param k Maximum number of distances
+     * @param input kNN input data
+     * @param output Output channel
+     */
+    protected Instance(int k, SharedObject.Instance<? extends KNNList> input, SharedObject.Instance<DoubleArray> output) {
+      super();
+      this.k = k;
+      this.input = input;
+      this.output = output;
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      buf.clear();
+      for(DoubleDBIDListIter it = input.get().iter(); it.valid() && buf.size < k; it.advance()) {
+        if(it.doubleValue() == 0. || DBIDUtil.equal(id, it)) {
+          continue;
+        }
+        buf.add(it.doubleValue());
+      }
+      output.set(buf);
+    }
+  }
+}
@@ -91,6 +91,16 @@ public class AutotuningPCA extends PCARunner {
     return processQueryResult(dres, database);
   }
 
+  @Override
+  public PCAResult processIds(DBIDs ids, Relation<? extends NumberVector> database, Workspace workspace) {
+    return processIds(ids, database); // Autotuning does not use workspaces.
+  }
+
+  @Override
+  public PCAResult processQueryResult(DoubleDBIDList results, Relation<? extends NumberVector> database, Workspace workspace) {
+    return processQueryResult(results, database);
+  }
+
   /**
    * Candidate
    * 
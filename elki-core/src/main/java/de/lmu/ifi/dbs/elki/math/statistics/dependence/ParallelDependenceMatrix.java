@@ -0,0 +1,165 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.math.statistics.dependence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.NumberArrayAdapter;
+
+/**
+ * Compute the pairwise dependence matrix of many variables in parallel, e.g.,
+ * for screening correlations or ordering the axes of parallel coordinates.
+ *
+ * For a {@link BatchDependenceMeasure}, each variable is prepared (e.g.,
+ * sorted and ranked) only once, concurrently, and the pairs are then scored
+ * in parallel on the prepared data. Other measures are evaluated pairwise.
+ *
+ * The result does not depend on the number of threads.
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.uses DependenceMeasure
+ */
+public final class ParallelDependenceMatrix {
+  /**
+   * Number of pairs per task.
+   */
+  private static final int CHUNK_SIZE = 64;
+
+  /**
+   * Fake constructor: do not instantiate.
+   */
+  private ParallelDependenceMatrix() {
+    // Do not instantiate.
+  }
+
+  /**
+   * Compute the lower triangular dependence matrix, in the same layout as
+   * {@link DependenceMeasure#dependence(NumberArrayAdapter, List)}.
+   *
+   * @param measure Dependence measure
+   * @param adapter Data adapter
+   * @param data Data sets
+   * @param <A> Array type
+   * @return Lower triangular dependence matrix (without diagonal)
+   */
+  public static <A> double[] dependence(DependenceMeasure measure, NumberArrayAdapter<?, A> adapter, List<? extends A> data) {
+    if(measure instanceof BatchDependenceMeasure) {
+      return dependenceBatch((BatchDependenceMeasure<?>) measure, adapter, data);
+    }
+    final int dims = data.size();
+    final double[] out = new double[(dims * (dims - 1)) >> 1];
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for(int start = 0; start < out.length; start += CHUNK_SIZE) {
+      final int begin = start, end = Math.min(start + CHUNK_SIZE, out.length);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          int y = firstRow(begin), x = begin - ((y * (y - 1)) >> 1);
+          for(int c = begin; c < end; c++) {
+            out[c] = measure.dependence(adapter, data.get(x), adapter, data.get(y));
+            if(++x == y) {
+              x = 0;
+              ++y;
+            }
+          }
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    return out;
+  }
+
+  /**
+   * Compute the dependence matrix using prepared variables.
+   *
+   * @param measure Dependence measure
+   * @param adapter Data adapter
+   * @param data Data sets
+   * @param <A> Array type
+   * @param <P> Prepared data type
+   * @return Lower triangular dependence matrix (without diagonal)
+   */
+  private static <A, P> double[] dependenceBatch(final BatchDependenceMeasure<P> measure, final NumberArrayAdapter<?, A> adapter, final List<? extends A> data) {
+    final int dims = data.size();
+    final int len = AbstractDependenceMeasure.size(adapter, data);
+    final List<P> prep = new ArrayList<>(dims);
+    for(int i = 0; i < dims; i++) {
+      prep.add(null);
+    }
+    List<Callable<Void>> tasks = new ArrayList<>(dims);
+    for(int i = 0; i < dims; i++) {
+      final int pi = i;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          // Distinct slots, no further synchronization needed.
+          prep.set(pi, measure.prepare(adapter, data.get(pi), len));
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    final double[] out = new double[(dims * (dims - 1)) >> 1];
+    tasks = new ArrayList<>();
+    for(int start = 0; start < out.length; start += CHUNK_SIZE) {
+      final int begin = start, end = Math.min(start + CHUNK_SIZE, out.length);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          int y = firstRow(begin), x = begin - ((y * (y - 1)) >> 1);
+          for(int c = begin; c < end; c++) {
+            out[c] = measure.dependencePrepared(prep.get(x), prep.get(y));
+            if(++x == y) {
+              x = 0;
+              ++y;
+            }
+          }
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    return out;
+  }
+
+  /**
+   * Find the row of a lower triangular matrix index.
+   *
+   * @param c Index
+   * @return Row y such that y(y-1)/2 &lt;= c &lt; y(y+1)/2
+   */
+  private static int firstRow(int c) {
+    int y = (int) ((1 + Math.sqrt(1 + 8. * c)) * .5);
+    while(((y * (y - 1)) >> 1) > c) {
+      --y;
+    }
+    while(((y * (y + 1)) >> 1) <= c) {
+      ++y;
+    }
+    return y;
+  }
+}
@@ -23,6 +23,8 @@ package de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
@@ -34,8 +36,11 @@ import de.lmu.ifi.dbs.elki.index.tree.metrical.MetricalIndexTree;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.strategies.split.Assignments;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.strategies.split.DistanceEntry;
 import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.AtomicLongCounter;
 import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.persistent.PageFile;
 import de.lmu.ifi.dbs.elki.utilities.io.FormatUtil;
 import de.lmu.ifi.dbs.elki.utilities.pairs.DoubleIntPair;
@@ -152,7 +157,6 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
    * @param withPreInsert if this flag is true, the preInsert method will be
    *        called before inserting the object
    */
-  // todo: implement a bulk load for M-Tree and remove this method
   public void insert(E entry, boolean withPreInsert) {
     final Logging log = getLogger();
     if(log.isDebugging()) {
@@ -199,6 +203,10 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
    */
   public void insertAll(List<E> entries) {
     if(!initialized && !entries.isEmpty()) {
+      if(canBulkLoad()) {
+        bulkLoad(entries);
+        return;
+      }
       initialize(entries.get(0));
     }
     for(E entry : entries) {
@@ -206,6 +214,250 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
     }
   }
 
+  /**
+   * Test whether a bulk load is still possible.
+   *
+   * @return Success code
+   */
+  public boolean canBulkLoad() {
+    return settings.bulkLoad && !initialized;
+  }
+
+  /**
+   * Bulk load the tree, by recursively partitioning the entries around
+   * randomly sampled routing objects, similar to:
+   * <p>
+   * P. Ciaccia, M. Patella<br />
+   * Bulk loading the M-tree<br />
+   * Proc. 9th Australasian Database Conference (ADC'98)
+   * <p>
+   * Each entry is assigned to the closest routing object, and partitions that
+   * are too small are dissolved. The tree is built bottom-up, level by level,
+   * such that all leaves are on the same level. The distance computations are
+   * performed in parallel, the nodes are then written sequentially.
+   *
+   * @param entries Entries to load
+   */
+  protected void bulkLoad(List<E> entries) {
+    if(!initialized) {
+      initialize(entries.get(0));
+    }
+    final Random rnd = settings.random.getSingleThreadedRandom();
+    List<E> items = new ArrayList<>(entries);
+    N node;
+    if(items.size() < leafCapacity) {
+      node = createNewLeafNode();
+      for(E entry : items) {
+        node.addLeafEntry(entry);
+      }
+    }
+    else {
+      boolean leaf = true;
+      // Partition each level, until the remaining entries fit into the root.
+      while(leaf || items.size() >= dirCapacity) {
+        List<BulkPartition<E>> groups = bulkPartition(items, (leaf ? leafCapacity : dirCapacity) - 1, rnd);
+        items = new ArrayList<>(groups.size());
+        for(BulkPartition<E> group : groups) {
+          N child = leaf ? createNewLeafNode() : createNewDirectoryNode();
+          for(E entry : group.entries) {
+            if(leaf) {
+              child.addLeafEntry(entry);
+            }
+            else {
+              child.addDirectoryEntry(entry);
+            }
+          }
+          writeNode(child);
+          items.add(createNewDirectoryEntry(child, group.routingObject, 0.));
+        }
+        leaf = false;
+      }
+      node = createNewDirectoryNode();
+      for(E entry : items) {
+        entry.setParentDistance(0.);
+        node.addDirectoryEntry(entry);
+      }
+    }
+    node.setPageID(getRootID());
+    writeNode(node);
+    final E rootEntry = getRootEntry();
+    node.adjustEntry(rootEntry, rootEntry.getRoutingObjectID(), rootEntry.getParentDistance(), this);
+    if(EXTRA_INTEGRITY_CHECKS) {
+      getRoot().integrityCheck(this, getRootEntry());
+    }
+  }
+
+  /**
+   * Partition the entries of one tree level into groups that fit into a node.
+   * The top level split and the resulting subproblems are processed in
+   * parallel.
+   *
+   * @param entries Entries to partition
+   * @param capacity Maximum group size
+   * @param rnd Random generator
+   * @return Groups, with their routing objects
+   */
+  private List<BulkPartition<E>> bulkPartition(List<E> entries, int capacity, Random rnd) {
+    List<BulkPartition<E>> top = bulkSplit(entries, capacity, rnd, true);
+    List<BulkPartitionTask> tasks = new ArrayList<>(top.size());
+    for(BulkPartition<E> part : top) {
+      tasks.add(new BulkPartitionTask(part, capacity, rnd.nextLong()));
+    }
+    ParallelExecutor.run(tasks);
+    List<BulkPartition<E>> groups = new ArrayList<>();
+    for(BulkPartitionTask task : tasks) {
+      groups.addAll(task.groups);
+    }
+    return groups;
+  }
+
+  /**
+   * Recursively partition a group, until it fits into a node.
+   *
+   * @param part Partition to process
+   * @param capacity Maximum group size
+   * @param rnd Random generator
+   * @param groups Output list of groups
+   */
+  private void bulkPartition(BulkPartition<E> part, int capacity, Random rnd, List<BulkPartition<E>> groups) {
+    if(part.entries.size() <= capacity) {
+      groups.add(part);
+      return;
+    }
+    for(BulkPartition<E> child : bulkSplit(part.entries, capacity, rnd, false)) {
+      bulkPartition(child, capacity, rnd, groups);
+    }
+  }
+
+  /**
+   * Split a list of entries by sampling routing objects, and assigning each
+   * entry to the nearest routing object.
+   *
+   * @param entries Entries to split
+   * @param capacity Maximum group size
+   * @param rnd Random generator
+   * @param parallel Compute the distances in parallel
+   * @return Child partitions
+   */
+  private List<BulkPartition<E>> bulkSplit(List<E> entries, int capacity, Random rnd, boolean parallel) {
+    final int n = entries.size();
+    // Number of routing objects needed, but at most the node fanout:
+    final int numpivots = Math.max(2, Math.min(capacity, (n + capacity - 1) / capacity));
+    // Sample pivots by a partial shuffle of the entries:
+    List<E> pivots = new ArrayList<>(numpivots);
+    for(int i = 0; i < numpivots; i++) {
+      Collections.swap(entries, i, i + rnd.nextInt(n - i));
+      pivots.add(entries.get(i));
+    }
+    int[] assignment = new int[n];
+    if(parallel) {
+      final int numparts = ParallelCore.getCore().getParallelism();
+      final int blocksize = (n + numparts - 1) / numparts;
+      List<Callable<Void>> tasks = new ArrayList<>(numparts);
+      for(int start = 0; start < n; start += blocksize) {
+        tasks.add(new BulkAssignTask(entries, pivots, assignment, start, Math.min(start + blocksize, n)));
+      }
+      ParallelExecutor.run(tasks);
+    }
+    else {
+      bulkAssign(entries, pivots, assignment, 0, n);
+    }
+    // Dissolve partitions that are too small:
+    int[] sizes = new int[numpivots];
+    for(int a : assignment) {
+      ++sizes[a];
+    }
+    final int minsize = Math.max(1, n / (numpivots << 2));
+    int remaining = 0;
+    for(int j = 0; j < numpivots; j++) {
+      remaining += sizes[j] >= minsize ? 1 : 0;
+    }
+    if(remaining > 1 && remaining < numpivots) {
+      for(int j = 0; j < numpivots; j++) {
+        if(sizes[j] < minsize) {
+          pivots.set(j, null);
+        }
+      }
+      for(int i = 0; i < n; i++) {
+        if(pivots.get(assignment[i]) == null) {
+          bulkAssign(entries, pivots, assignment, i, i + 1);
+        }
+      }
+    }
+    List<List<E>> groups = new ArrayList<>(numpivots);
+    for(int j = 0; j < numpivots; j++) {
+      groups.add(pivots.get(j) != null ? new ArrayList<E>(sizes[j]) : null);
+    }
+    for(int i = 0; i < n; i++) {
+      groups.get(assignment[i]).add(entries.get(i));
+    }
+    List<BulkPartition<E>> children = new ArrayList<>(numpivots);
+    for(int j = 0; j < numpivots; j++) {
+      List<E> group = groups.get(j);
+      if(group == null || group.isEmpty()) {
+        continue;
+      }
+      if(group.size() == n) {
+        // No progress, e.g., because of duplicates: split in input order.
+        return bulkSplitTrivial(entries, numpivots);
+      }
+      children.add(new BulkPartition<>(pivots.get(j).getRoutingObjectID(), group));
+    }
+    return children;
+  }
+
+  /**
+   * Fallback split of a list of entries into consecutive chunks.
+   *
+   * @param entries Entries to split
+   * @param numparts Number of chunks
+   * @return Child partitions
+   */
+  private List<BulkPartition<E>> bulkSplitTrivial(List<E> entries, int numparts) {
+    final int n = entries.size(), blocksize = (n + numparts - 1) / numparts;
+    List<BulkPartition<E>> children = new ArrayList<>(numparts);
+    for(int start = 0; start < n; start += blocksize) {
+      List<E> group = new ArrayList<>(entries.subList(start, Math.min(start + blocksize, n)));
+      final DBID routing = group.get(0).getRoutingObjectID();
+      for(E e : group) {
+        e.setParentDistance(distance(routing, e.getRoutingObjectID()));
+      }
+      children.add(new BulkPartition<>(routing, group));
+    }
+    return children;
+  }
+
+  /**
+   * Assign entries to the nearest (non-null) pivot, and store the distance as
+   * parent distance.
+   *
+   * @param entries Entries
+   * @param pivots Pivots (may contain null values)
+   * @param assignment Assignment output array
+   * @param start First entry to assign
+   * @param end End of range (exclusive)
+   */
+  private void bulkAssign(List<E> entries, List<E> pivots, int[] assignment, int start, int end) {
+    for(int i = start; i < end; i++) {
+      final E entry = entries.get(i);
+      int best = -1;
+      double bestd = Double.POSITIVE_INFINITY;
+      for(int j = 0; j < pivots.size(); j++) {
+        final E pivot = pivots.get(j);
+        if(pivot == null) {
+          continue;
+        }
+        final double d = distance(pivot.getRoutingObjectID(), entry.getRoutingObjectID());
+        if(best < 0 || d < bestd) {
+          best = j;
+          bestd = d;
+        }
+      }
+      assignment[i] = best;
+      entry.setParentDistance(bestd);
+    }
+  }
+
   @Override
   protected final void createEmptyRoot(E exampleLeaf) {
     writeNode(createNewLeafNode());
@@ -477,8 +729,139 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
     }
   }
 
+  /**
+   * Group of entries, used during bulk loading.
+   *
+   * @author agent
+   *
+   * @param <E> Entry type
+   */
+  private static class BulkPartition<E> {
+    /**
+     * Routing object.
+     */
+    DBID routingObject;
+
+    /**
+     * Entries, with the parent distance set to the routing object.
+     */
+    List<E> entries;
+
+    /**
+     * Constructor.
+     *
+     * @param routingObject Routing object
+     * @param entries Entries
+     */
+    BulkPartition(DBID routingObject, List<E> entries) {
+      super();
+      this.routingObject = routingObject;
+      this.entries = entries;
+    }
+  }
+
+  /**
+   * Task to recursively partition a group when bulk loading.
+   *
+   * @author agent
+   */
+  private class BulkPartitionTask implements Callable<Void> {
+    /**
+     * Partition to process.
+     */
+    private BulkPartition<E> part;
+
+    /**
+     * Maximum group size.
+     */
+    private int capacity;
+
+    /**
+     * Random seed.
+     */
+    private long seed;
+
+    /**
+     * Output groups.
+     */
+    List<BulkPartition<E>> groups = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param part Partition to process
+     * @param capacity Maximum group size
+     * @param seed Random seed
+     */
+    BulkPartitionTask(BulkPartition<E> part, int capacity, long seed) {
+      super();
+      this.part = part;
+      this.capacity = capacity;
+      this.seed = seed;
+    }
+
+    @Override
+    public Void call() {
+      bulkPartition(part, capacity, new Random(seed), groups);
+      return null;
+    }
+  }
+
+  /**
+   * Task to assign a block of entries to the nearest pivot.
+   *
+   * @author agent
+   */
+  private class BulkAssignTask implements Callable<Void> {
+    /**
+     * Entries to assign.
+     */
+    private List<E> entries;
+
+    /**
+     * Pivots.
+     */
+    private List<E> pivots;
+
+    /**
+     * Output assignment.
+     */
+    private int[] assignment;
+
+    /**
+     * Range to process.
+     */
+    private int start, end;
+
+    /**
+     * Constructor.
+     *
+     * @param entries Entries to assign
+     * @param pivots Pivots
+     * @param assignment Output assignment
+     * @param start Start of range
+     * @param end End of range (exclusive)
+     */
+    BulkAssignTask(List<E> entries, List<E> pivots, int[] assignment, int start, int end) {
+      super();
+      this.entries = entries;
+      this.pivots = pivots;
+      this.assignment = assignment;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public Void call() {
+      bulkAssign(entries, pivots, assignment, start, end);
+      return null;
+    }
+  }
+
   /**
    * Class for tracking some statistics.
+   * <p>
+   * The counters are thread-safe, as queries may be run concurrently.
    * 
    * @author Erich Schubert
    * 
@@ -506,9 +889,9 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
     public Statistics() {
       super();
       Logging log = getLogger();
-      distanceCalcs = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".distancecalcs") : null;
-      knnQueries = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".knnqueries") : null;
-      rangeQueries = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".rangequeries") : null;
+      distanceCalcs = log.isStatistics() ? new AtomicLongCounter(this.getClass().getName() + ".distancecalcs") : null;
+      knnQueries = log.isStatistics() ? new AtomicLongCounter(this.getClass().getName() + ".knnqueries") : null;
+      rangeQueries = log.isStatistics() ? new AtomicLongCounter(this.getClass().getName() + ".rangequeries") : null;
     }
 
     /**
@@ -32,7 +32,9 @@ import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.strategies.split.MT
 import de.lmu.ifi.dbs.elki.persistent.PageFileFactory;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
 
 /**
  * Abstract factory for various MTrees
@@ -109,6 +111,23 @@ public abstract class AbstractMTreeFactory<O, N extends AbstractMTreeNode<O, N,
      */
     public static final OptionID INSERT_STRATEGY_ID = new OptionID("mtree.insert", "Insertion strategy to use for constructing the M-tree.");
 
+    /**
+     * Flag to bulk load the tree, by recursive partitioning around sampled
+     * routing objects, instead of repeated insertion.
+     * <p>
+     * Key: {@code -mtree.bulkload}
+     * </p>
+     */
+    public static final OptionID BULK_LOAD_ID = new OptionID("mtree.bulkload", "Bulk load the M-tree by recursive partitioning around sampled routing objects (in parallel), instead of repeated insertion.");
+
+    /**
+     * Random generator for sampling the routing objects when bulk loading.
+     * <p>
+     * Key: {@code -mtree.bulkload.seed}
+     * </p>
+     */
+    public static final OptionID SEED_ID = new OptionID("mtree.bulkload.seed", "Random generator seed for sampling routing objects when bulk loading.");
+
     /**
      * Tree settings.
      */
@@ -130,6 +149,16 @@ public abstract class AbstractMTreeFactory<O, N extends AbstractMTreeNode<O, N,
       if (config.grab(insertStrategyP)) {
         settings.insertStrategy = insertStrategyP.instantiateClass(config);
       }
+      Flag bulkF = new Flag(BULK_LOAD_ID);
+      if(config.grab(bulkF)) {
+        settings.bulkLoad = bulkF.isTrue();
+      }
+      if(settings.bulkLoad) {
+        RandomParameter rndP = new RandomParameter(SEED_ID);
+        if(config.grab(rndP)) {
+          settings.random = rndP.getValue();
+        }
+      }
     }
 
     abstract protected S makeSettings();
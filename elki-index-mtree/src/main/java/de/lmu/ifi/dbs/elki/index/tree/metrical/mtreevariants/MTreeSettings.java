@@ -23,6 +23,7 @@ package de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.strategies.insert.MTreeInsert;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.strategies.split.MTreeSplit;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
 
 /**
  * Class to store the MTree settings.
@@ -49,4 +50,14 @@ public class MTreeSettings<O, N extends AbstractMTreeNode<O, N, E>, E extends MT
    * Insertion strategy.
    */
   protected MTreeInsert<O, N, E> insertStrategy;
+
+  /**
+   * Bulk load the tree by recursive partitioning, instead of insertions.
+   */
+  protected boolean bulkLoad = false;
+
+  /**
+   * Random generator for sampling routing objects when bulk loading.
+   */
+  protected RandomFactory random = RandomFactory.DEFAULT;
 }
@@ -22,6 +22,7 @@ package de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.mktrees;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
@@ -38,6 +39,10 @@ import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.AbstractMTreeNode;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.MTreeEntry;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.MTreeSettings;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.query.MTreeQueryUtil;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.persistent.MemoryPageFile;
 import de.lmu.ifi.dbs.elki.persistent.PageFile;
 
 /**
@@ -101,6 +106,9 @@ public abstract class AbstractMkTree<O, N extends AbstractMTreeNode<O, N, E>, E
 
   /**
    * Performs a batch k-nearest neighbor query for a list of query objects.
+   * The queries are run in parallel if the tree is stored in a
+   * {@link MemoryPageFile}; other page files (e.g., on disk, reading via a
+   * shared file pointer) do not support concurrent reads.
    * 
    * @param node the node representing the subtree on which the query should be
    *        performed
@@ -111,11 +119,60 @@ public abstract class AbstractMkTree<O, N extends AbstractMTreeNode<O, N, E>, E
    */
   @Deprecated
   protected final Map<DBID, KNNList> batchNN(N node, DBIDs ids, int kmax) {
-    Map<DBID, KNNList> res = new HashMap<>(ids.size());
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      DBID id = DBIDUtil.deref(iter);
-      res.put(id, knnq.getKNNForDBID(id, kmax));
+    if(!(getFile() instanceof MemoryPageFile)) {
+      Map<DBID, KNNList> res = new HashMap<>(ids.size());
+      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        DBID id = DBIDUtil.deref(iter);
+        res.put(id, knnq.getKNNForDBID(id, kmax));
+      }
+      return res;
     }
+    Map<DBID, KNNList> res = new ConcurrentHashMap<>(ids.size());
+    ParallelExecutor.run(ids, new BatchNNProcessor(kmax, res));
     return res;
   }
+
+  /**
+   * Processor to run the kNN queries of {@link #batchNN}.
+   *
+   * @author agent
+   */
+  private class BatchNNProcessor implements Processor, Processor.Instance {
+    /**
+     * Number of neighbors.
+     */
+    private int kmax;
+
+    /**
+     * Output map (must be thread-safe).
+     */
+    private Map<DBID, KNNList> res;
+
+    /**
+     * Constructor.
+     *
+     * @param kmax Number of neighbors
+     * @param res Output map
+     */
+    BatchNNProcessor(int kmax, Map<DBID, KNNList> res) {
+      super();
+      this.kmax = kmax;
+      this.res = res;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return this; // Stateless
+    }
+
+    @Override
+    public void cleanup(Instance inst) {
+      // Nothing to do.
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      res.put(DBIDUtil.deref(id), knnq.getKNNForDBID(id, kmax));
+    }
+  }
 }
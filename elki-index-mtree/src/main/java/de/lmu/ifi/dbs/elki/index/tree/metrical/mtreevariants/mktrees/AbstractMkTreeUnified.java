@@ -74,17 +74,22 @@ public abstract class AbstractMkTreeUnified<O, N extends AbstractMTreeNode<O, N,
     if (entries.isEmpty()) {
       return;
     }
-    if (!initialized) {
-      initialize(entries.get(0));
-    }
-
     ModifiableDBIDs ids = DBIDUtil.newArray(entries.size());
-
-    // insert sequentially
-    for (E entry : entries) {
+    for(E entry : entries) {
       ids.add(entry.getRoutingObjectID());
-      // insert the object
-      super.insert(entry, false);
+    }
+
+    if(canBulkLoad()) {
+      bulkLoad(entries);
+    }
+    else {
+      if(!initialized) {
+        initialize(entries.get(0));
+      }
+      // insert sequentially
+      for(E entry : entries) {
+        super.insert(entry, false);
+      }
     }
 
     // do batch nn
@@ -107,17 +107,22 @@ public abstract class MkAppTree<O> extends AbstractMkTree<O, MkAppTreeNode<O>, M
       LOG.debugFine("insert " + entries + "\n");
     }
 
-    if(!initialized) {
-      initialize(entries.get(0));
-    }
-
     ModifiableDBIDs ids = DBIDUtil.newArray(entries.size());
-
-    // insert
     for(MkAppEntry entry : entries) {
       ids.add(entry.getRoutingObjectID());
-      // insert the object
-      super.insert(entry, false);
+    }
+
+    if(canBulkLoad()) {
+      bulkLoad(entries);
+    }
+    else {
+      if(!initialized) {
+        initialize(entries.get(0));
+      }
+      // insert sequentially
+      for(MkAppEntry entry : entries) {
+        super.insert(entry, false);
+      }
     }
 
     // do batch nn
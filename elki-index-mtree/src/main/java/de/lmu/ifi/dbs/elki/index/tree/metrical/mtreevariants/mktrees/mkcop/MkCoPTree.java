@@ -111,17 +111,22 @@ public abstract class MkCoPTree<O> extends AbstractMkTree<O, MkCoPTreeNode<O>, M
       LOG.debugFine("insert " + entries + "\n");
     }
 
-    if(!initialized) {
-      initialize(entries.get(0));
-    }
-
     ModifiableDBIDs ids = DBIDUtil.newArray(entries.size());
-
-    // insert
     for(MkCoPEntry entry : entries) {
       ids.add(entry.getRoutingObjectID());
-      // insert the object
-      super.insert(entry, false);
+    }
+
+    if(canBulkLoad()) {
+      bulkLoad(entries);
+    }
+    else {
+      if(!initialized) {
+        initialize(entries.get(0));
+      }
+      // insert sequentially
+      for(MkCoPEntry entry : entries) {
+        super.insert(entry, false);
+      }
     }
 
     // perform nearest neighbor queries
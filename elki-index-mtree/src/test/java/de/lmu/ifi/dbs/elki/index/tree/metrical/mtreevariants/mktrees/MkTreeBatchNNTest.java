@@ -0,0 +1,91 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.mktrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBID;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.AbstractMTreeFactory;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.mktrees.mkcop.MkCoPTreeIndex;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.mktrees.mkcop.MkCopTreeFactory;
+import de.lmu.ifi.dbs.elki.persistent.AbstractPageFileFactory;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Test the parallel batch kNN queries of bulk loaded Mk-trees.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class MkTreeBatchNNTest {
+  /**
+   * Compare the parallel batch kNN of a bulk loaded tree with sequential
+   * queries and with a linear scan.
+   */
+  @Test
+  public void testBatchNNBulkLoad() {
+    final int k = 10;
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    ListParameterization params = new ListParameterization();
+    params.addParameter(MkCopTreeFactory.K_ID, k);
+    params.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
+    params.addFlag(AbstractMTreeFactory.Parameterizer.BULK_LOAD_ID);
+    params.addParameter(AbstractMTreeFactory.Parameterizer.SEED_ID, 0);
+    MkCopTreeFactory<NumberVector> factory = ClassGenericsUtil.parameterizeOrAbort(MkCopTreeFactory.class, params);
+    MkCoPTreeIndex<NumberVector> tree = factory.instantiate(rel);
+    tree.initialize();
+
+    Map<DBID, KNNList> parallel = tree.batchNN(tree.getRoot(), rel.getDBIDs(), k);
+    assertEquals("Not all objects were queried.", rel.size(), parallel.size());
+    KNNQuery<NumberVector> scan = new LinearScanDistanceKNNQuery<>(EuclideanDistanceFunction.STATIC.instantiate(rel));
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList par = parallel.get(DBIDUtil.deref(it));
+      assertNotNull("Missing kNN result.", par);
+      KNNList seq = tree.knnq.getKNNForDBID(it, k);
+      KNNList lin = scan.getKNNForDBID(it, k);
+      assertEquals("kNN sizes differ.", seq.size(), par.size());
+      assertEquals("kNN sizes differ.", lin.size(), par.size());
+      for(DoubleDBIDListIter p = par.iter(), s = seq.iter(), l = lin.iter(); p.valid(); p.advance(), s.advance(), l.advance()) {
+        assertEquals("Parallel and sequential kNN differ.", s.doubleValue(), p.doubleValue(), 0.);
+        assertEquals("kNN distances differ from linear scan.", l.doubleValue(), p.doubleValue(), 1e-15);
+      }
+    }
+  }
+}
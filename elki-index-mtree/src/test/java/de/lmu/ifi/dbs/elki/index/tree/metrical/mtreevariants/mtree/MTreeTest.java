@@ -24,6 +24,7 @@ import org.junit.Test;
 
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.AbstractMTreeFactory;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.query.MetricalIndexKNNQuery;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.query.MetricalIndexRangeQuery;
 import de.lmu.ifi.dbs.elki.persistent.AbstractPageFileFactory;
@@ -46,4 +47,17 @@ public class MTreeTest extends AbstractIndexStructureTest {
     metparams.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
     testExactEuclidean(metparams, MetricalIndexKNNQuery.class, MetricalIndexRangeQuery.class);
   }
+
+  /**
+   * Test {@link MTree} with bulk loading.
+   */
+  @Test
+  public void testMetricalBulkLoad() {
+    ListParameterization metparams = new ListParameterization();
+    metparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, MTreeFactory.class);
+    metparams.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
+    metparams.addFlag(AbstractMTreeFactory.Parameterizer.BULK_LOAD_ID);
+    metparams.addParameter(AbstractMTreeFactory.Parameterizer.SEED_ID, 0);
+    testExactEuclidean(metparams, MetricalIndexKNNQuery.class, MetricalIndexRangeQuery.class);
+  }
 }
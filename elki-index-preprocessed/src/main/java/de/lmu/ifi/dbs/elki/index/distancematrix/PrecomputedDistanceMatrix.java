@@ -21,7 +21,9 @@
 package de.lmu.ifi.dbs.elki.index.distancematrix;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.database.ids.*;
@@ -37,10 +39,15 @@ import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -52,6 +59,13 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * in memory, requiring 8 * (n-1) * (n-2) bytes. Since Java has a size limit of
  * arrays of 31 bits (signed integer), we can store at most 2^16 objects
  * (precisely, 65536 objects) in a single array, which needs about 16 GB of RAM.
+ * Optionally, distances can be stored with single precision only, which halves
+ * the memory requirements.
+ *
+ * The matrix is computed in parallel, in blocks of rows and columns for better
+ * cache locality. For repeated kNN and range queries with small radius, the
+ * nearest neighbors of each object can additionally be kept sorted; queries
+ * that can be answered from this cache then only cost O(k).
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -84,10 +98,40 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
   protected DistanceQuery<O> distanceQuery;
 
   /**
-   * Distance matrix.
+   * Distance matrix (double precision), or null.
    */
   private double[] matrix = null;
 
+  /**
+   * Distance matrix (single precision), or null.
+   */
+  private float[] fmatrix = null;
+
+  /**
+   * Store distances in single precision only.
+   */
+  private final boolean floatStorage;
+
+  /**
+   * Number of sorted neighbors to cache for each object.
+   */
+  private final int numsorted;
+
+  /**
+   * Offsets of the cached nearest neighbors, numsorted per object.
+   */
+  private int[] sortedids = null;
+
+  /**
+   * Distances of the cached nearest neighbors, numsorted per object.
+   */
+  private double[] sorteddists = null;
+
+  /**
+   * Block size for computing the matrix.
+   */
+  private static final int BLOCKSIZE = 256;
+
   /**
    * DBID range.
    */
@@ -106,10 +150,25 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    * @param distanceFunction Distance function
    */
   public PrecomputedDistanceMatrix(Relation<O> relation, DBIDRange range, DistanceFunction<? super O> distanceFunction) {
+    this(relation, range, distanceFunction, false, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param range DBID range
+   * @param distanceFunction Distance function
+   * @param floatStorage Store distances in single precision only
+   * @param numsorted Number of sorted neighbors to cache for each object
+   */
+  public PrecomputedDistanceMatrix(Relation<O> relation, DBIDRange range, DistanceFunction<? super O> distanceFunction, boolean floatStorage, int numsorted) {
     super();
     this.relation = relation;
     this.ids = range;
     this.distanceFunction = distanceFunction;
+    this.floatStorage = floatStorage;
+    this.numsorted = numsorted;
 
     if(!distanceFunction.isSymmetric()) {
       throw new AbortException("Distance matrixes currently only support symmetric distance functions (Patches welcome).");
@@ -126,22 +185,125 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
     distanceQuery = distanceFunction.instantiate(relation);
 
     final int msize = triangleSize(size);
-    matrix = new double[msize];
+    if(floatStorage) {
+      fmatrix = new float[msize];
+    }
+    else {
+      matrix = new double[msize];
+    }
+
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distance matrix", size, LOG) : null;
+    // Split into bands of rows of approximately equal area:
+    final int numtasks = Math.min(ParallelCore.getCore().getParallelism() << 3, Math.max(1, msize / (BLOCKSIZE * BLOCKSIZE)));
+    List<Callable<Void>> tasks = new ArrayList<>(numtasks);
+    for(int i = 0, start = 0; i < numtasks && start < size; i++) {
+      final int end = i + 1 < numtasks ? Math.max(start + 1, (int) Math.ceil(size * Math.sqrt((i + 1.) / numtasks))) : size;
+      tasks.add(new FillTask(start, Math.min(end, size), prog));
+      start = end;
+    }
+    ParallelExecutor.run(tasks);
+    LOG.ensureCompleted(prog);
+
+    if(numsorted > 0) {
+      initializeSorted();
+    }
+  }
+
+  /**
+   * Compute the distances of a band of rows, in blocks.
+   *
+   * @param start First row
+   * @param end End row (exclusive)
+   */
+  private void fillRows(int start, int end) {
     DBIDArrayIter ix = ids.iter(), iy = ids.iter();
+    for(int by = 0; by < end - 1; by += BLOCKSIZE) {
+      final int ey = Math.min(by + BLOCKSIZE, end - 1);
+      for(int x = Math.max(start, by + 1); x < end; x++) {
+        ix.seek(x);
+        // y < x -- must match {@link #getOffset}!
+        final int stop = Math.min(ey, x), off = triangleSize(x);
+        if(fmatrix != null) {
+          for(int y = by; y < stop; y++) {
+            fmatrix[off + y] = (float) distanceQuery.distance(ix, iy.seek(y));
+          }
+        }
+        else {
+          for(int y = by; y < stop; y++) {
+            matrix[off + y] = distanceQuery.distance(ix, iy.seek(y));
+          }
+        }
+      }
+    }
+  }
 
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distance matrix", msize, LOG) : null;
-    int pos = 0;
-    for(ix.seek(0); ix.valid(); ix.advance()) {
-      // y < x -- must match {@link #getOffset}!
-      for(iy.seek(0); iy.getOffset() < ix.getOffset(); iy.advance()) {
-        matrix[pos] = distanceQuery.distance(ix, iy);
-        pos++;
+  /**
+   * Build the sorted nearest neighbors cache.
+   */
+  private void initializeSorted() {
+    if(size * (long) numsorted > Integer.MAX_VALUE - 8) {
+      throw new AbortException("Too many sorted neighbors requested for the distance matrix.");
+    }
+    sortedids = new int[size * numsorted];
+    sorteddists = new double[size * numsorted];
+    final int numtasks = Math.min(ParallelCore.getCore().getParallelism() << 2, size);
+    List<Callable<Void>> tasks = new ArrayList<>(numtasks);
+    for(int i = 0; i < numtasks; i++) {
+      tasks.add(new SortTask((int) (size * (long) i / numtasks), (int) (size * (long) (i + 1) / numtasks)));
+    }
+    ParallelExecutor.run(tasks);
+  }
+
+  /**
+   * Sort the nearest neighbors of a range of rows.
+   *
+   * @param start First row
+   * @param end End row (exclusive)
+   */
+  private void sortRows(int start, int end) {
+    final int m = Math.min(numsorted, size - 1);
+    DBIDArrayIter it = ids.iter();
+    for(int x = start; x < end && m > 0; x++) {
+      KNNHeap heap = DBIDUtil.newHeap(m);
+      double max = Double.POSITIVE_INFINITY;
+      int pos = triangleSize(x);
+      for(int y = 0; y < x; y++, pos++) {
+        final double dist = get(pos);
+        if(dist <= max) {
+          max = heap.insert(dist, it.seek(y));
+        }
       }
-      if(prog != null) {
-        prog.setProcessed(prog.getProcessed() + ix.getOffset(), LOG);
+      pos = triangleSize(x + 1) + x;
+      for(int y = x + 1; y < size; pos += y, y++) {
+        final double dist = get(pos);
+        if(dist <= max) {
+          max = heap.insert(dist, it.seek(y));
+        }
+      }
+      int j = x * numsorted;
+      DoubleDBIDListIter iter = heap.toKNNList().iter();
+      for(int i = 0; i < m; i++, j++, iter.advance()) {
+        sortedids[j] = ids.getOffset(iter);
+        sorteddists[j] = iter.doubleValue();
       }
+      // Mark unused entries (fewer objects than requested):
+      Arrays.fill(sortedids, j, (x + 1) * numsorted, -1);
+      Arrays.fill(sorteddists, j, (x + 1) * numsorted, Double.POSITIVE_INFINITY);
     }
-    LOG.ensureCompleted(prog);
+    if(m == 0) {
+      Arrays.fill(sortedids, start * numsorted, end * numsorted, -1);
+      Arrays.fill(sorteddists, start * numsorted, end * numsorted, Double.POSITIVE_INFINITY);
+    }
+  }
+
+  /**
+   * Get the distance stored at the given position.
+   *
+   * @param pos Position
+   * @return Distance
+   */
+  private double get(int pos) {
+    return fmatrix != null ? fmatrix[pos] : matrix[pos];
   }
 
   /**
@@ -167,8 +329,8 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
 
   @Override
   public void logStatistics() {
-    if(matrix != null) {
-      LOG.statistics(new LongStatistic(this.getClass().getName() + ".matrix-size", matrix.length));
+    if(matrix != null || fmatrix != null) {
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".matrix-size", matrix != null ? matrix.length : fmatrix.length));
     }
   }
 
@@ -215,7 +377,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
     @Override
     public double distance(DBIDRef id1, DBIDRef id2) {
       final int x = ids.getOffset(id1), y = ids.getOffset(id2);
-      return (x != y) ? matrix[getOffset(x, y)] : 0.;
+      return (x != y) ? get(getOffset(x, y)) : 0.;
     }
 
     @Override
@@ -264,10 +426,17 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       DBIDArrayIter it = ids.iter();
 
       final int x = ids.getOffset(id);
+      // Answer from the sorted neighbors, if the radius is small enough:
+      if(numsorted > 0 && range < sorteddists[x * numsorted + numsorted - 1]) {
+        for(int j = x * numsorted; sorteddists[j] <= range; j++) {
+          result.add(sorteddists[j], it.seek(sortedids[j]));
+        }
+        return;
+      }
       // Case y < x: triangleSize(x) + y
       int pos = triangleSize(x);
       for(int y = 0; y < x; y++) {
-        final double dist = matrix[pos];
+        final double dist = get(pos);
         if(dist <= range) {
           result.add(dist, it.seek(y));
         }
@@ -277,7 +446,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       // Case y > x: triangleSize(y) + x
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1; y < size; y++) {
-        final double dist = matrix[pos];
+        final double dist = get(pos);
         if(dist <= range) {
           result.add(dist, it.seek(y));
         }
@@ -307,12 +476,23 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       KNNHeap heap = DBIDUtil.newHeap(k);
       heap.insert(0., id);
       DBIDArrayIter it = ids.iter();
-      double max = Double.POSITIVE_INFINITY;
       final int x = ids.getOffset(id);
+      // Answer from the sorted neighbors, unless ties may be missing:
+      if(k <= numsorted) {
+        final int off = x * numsorted;
+        final double kdist = k > 1 ? sorteddists[off + k - 2] : 0.;
+        if(kdist < sorteddists[off + numsorted - 1]) {
+          for(int j = off; sorteddists[j] <= kdist; j++) {
+            heap.insert(sorteddists[j], it.seek(sortedids[j]));
+          }
+          return heap.toKNNList();
+        }
+      }
+      double max = Double.POSITIVE_INFINITY;
       // Case y < x: triangleSize(x) + y
       int pos = triangleSize(x);
       for(int y = 0; y < x; y++) {
-        final double dist = matrix[pos];
+        final double dist = get(pos);
         if(dist <= max) {
           max = heap.insert(dist, it.seek(y));
         }
@@ -322,7 +502,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       // Case y > x: triangleSize(y) + x
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1; y < size; y++) {
-        final double dist = matrix[pos];
+        final double dist = get(pos);
         if(dist <= max) {
           max = heap.insert(dist, it.seek(y));
         }
@@ -347,6 +527,76 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
     }
   }
 
+  /**
+   * Task computing a band of rows of the matrix.
+   *
+   * @author agent
+   */
+  private class FillTask implements Callable<Void> {
+    /**
+     * Row range.
+     */
+    private final int start, end;
+
+    /**
+     * Progress, may be null.
+     */
+    private final FiniteProgress prog;
+
+    /**
+     * Constructor.
+     *
+     * @param start First row
+     * @param end End row (exclusive)
+     * @param prog Progress, may be null
+     */
+    FillTask(int start, int end, FiniteProgress prog) {
+      this.start = start;
+      this.end = end;
+      this.prog = prog;
+    }
+
+    @Override
+    public Void call() {
+      fillRows(start, end);
+      if(prog != null) {
+        for(int i = start; i < end; i++) {
+          prog.incrementProcessed(LOG);
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Task sorting the neighbors of a range of rows.
+   *
+   * @author agent
+   */
+  private class SortTask implements Callable<Void> {
+    /**
+     * Row range.
+     */
+    private final int start, end;
+
+    /**
+     * Constructor.
+     *
+     * @param start First row
+     * @param end End row (exclusive)
+     */
+    SortTask(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public Void call() {
+      sortRows(start, end);
+      return null;
+    }
+  }
+
   /**
    * Factory for the index.
    *
@@ -362,14 +612,37 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
      */
     final protected DistanceFunction<? super O> distanceFunction;
 
+    /**
+     * Store distances in single precision only.
+     */
+    final protected boolean floatStorage;
+
+    /**
+     * Number of sorted neighbors to cache for each object.
+     */
+    final protected int numsorted;
+
     /**
      * Constructor.
      *
      * @param distanceFunction Distance function
      */
     public Factory(DistanceFunction<? super O> distanceFunction) {
+      this(distanceFunction, false, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distanceFunction Distance function
+     * @param floatStorage Store distances in single precision only
+     * @param numsorted Number of sorted neighbors to cache for each object
+     */
+    public Factory(DistanceFunction<? super O> distanceFunction, boolean floatStorage, int numsorted) {
       super();
       this.distanceFunction = distanceFunction;
+      this.floatStorage = floatStorage;
+      this.numsorted = numsorted;
     }
 
     @Override
@@ -378,7 +651,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       if(!(rids instanceof DBIDRange)) {
         throw new AbortException("Distance matrixes are currently only supported for DBID ranges (as used by static databases; not on modifiable databases) for performance reasons (Patches welcome).");
       }
-      return new PrecomputedDistanceMatrix<>(relation, (DBIDRange) rids, distanceFunction);
+      return new PrecomputedDistanceMatrix<>(relation, (DBIDRange) rids, distanceFunction, floatStorage, numsorted);
     }
 
     @Override
@@ -401,11 +674,31 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
        */
       public static final OptionID DISTANCE_ID = new OptionID("matrix.distance", "Distance function for the precomputed distance matrix.");
 
+      /**
+       * Flag to store the distances in single precision only.
+       */
+      public static final OptionID FLOAT_ID = new OptionID("matrix.float", "Store the distances with single precision, to reduce memory.");
+
+      /**
+       * Option for the number of sorted neighbors to cache for each object.
+       */
+      public static final OptionID SORTED_ID = new OptionID("matrix.sorted", "Number of nearest neighbors to keep sorted for each object, to accelerate small kNN and range queries.");
+
       /**
        * Nested distance function.
        */
       protected DistanceFunction<? super O> distanceFunction;
 
+      /**
+       * Store distances in single precision only.
+       */
+      protected boolean floatStorage;
+
+      /**
+       * Number of sorted neighbors to cache for each object.
+       */
+      protected int numsorted;
+
       @Override
       protected void makeOptions(Parameterization config) {
         super.makeOptions(config);
@@ -413,11 +706,20 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
         if(config.grab(distanceP)) {
           distanceFunction = distanceP.instantiateClass(config);
         }
+        Flag floatF = new Flag(FLOAT_ID);
+        if(config.grab(floatF)) {
+          floatStorage = floatF.isTrue();
+        }
+        IntParameter sortedP = new IntParameter(SORTED_ID, 0) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT);
+        if(config.grab(sortedP)) {
+          numsorted = sortedP.intValue();
+        }
       }
 
       @Override
       protected Factory<O> makeInstance() {
-        return new Factory<>(distanceFunction);
+        return new Factory<>(distanceFunction, floatStorage, numsorted);
       }
     }
   }
@@ -20,10 +20,16 @@
  */
 package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
-import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
-import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
@@ -33,7 +39,9 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.SnapshotIndex;
 import de.lmu.ifi.dbs.elki.index.preprocessed.AbstractPreprocessorIndex;
+import de.lmu.ifi.dbs.elki.utilities.io.Fingerprint;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -49,7 +57,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  *
  * @param <O> Object type
  */
-public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPreprocessorIndex<O, KNNList> implements KNNIndex<O> {
+public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPreprocessorIndex<O, KNNList> implements KNNIndex<O>, SnapshotIndex {
   /**
    * The query k value.
    */
@@ -65,6 +73,11 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPrep
    */
   protected final DistanceQuery<O> distanceQuery;
 
+  /**
+   * Store distances in single precision only.
+   */
+  protected final boolean floatDistances;
+
   /**
    * Constructor.
    *
@@ -73,10 +86,23 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPrep
    * @param k k
    */
   public AbstractMaterializeKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k) {
+    this(relation, distanceFunction, k, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation
+   * @param distanceFunction Distance function
+   * @param k k
+   * @param floatDistances Store distances in single precision only
+   */
+  public AbstractMaterializeKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k, boolean floatDistances) {
     super(relation);
     this.k = k;
     this.distanceFunction = distanceFunction;
     this.distanceQuery = distanceFunction.instantiate(relation);
+    this.floatDistances = floatDistances;
   }
 
   /**
@@ -122,7 +148,7 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPrep
    * Create the default storage.
    */
   void createStorage() {
-    storage = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, KNNList.class);
+    storage = new CompactKNNStore(relation.getDBIDs(), k, floatDistances);
   }
 
   @Override
@@ -135,8 +161,74 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPrep
     }
   }
 
+  @Override
+  public long getSnapshotSize() {
+    long size = 28L + distanceFunctionName().length;
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      size += 4L + 12L * storage.get(iter).size();
+    }
+    return size;
+  }
+
+  @Override
+  public void writeSnapshot(ByteBuffer buffer) {
+    final byte[] name = distanceFunctionName();
+    buffer.putInt(k).putInt(relation.size()).putInt(name.length).put(name);
+    buffer.putLong(Fingerprint.configuration(distanceFunction)).putLong(Fingerprint.data(relation));
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      final KNNList knn = storage.get(iter);
+      buffer.putInt(knn.size());
+      for(DoubleDBIDListIter it = knn.iter(); it.valid(); it.advance()) {
+        buffer.putInt(DBIDUtil.asInteger(it)).putDouble(it.doubleValue());
+      }
+    }
+  }
+
+  @Override
+  public boolean readSnapshot(ByteBuffer buffer) {
+    final byte[] name = distanceFunctionName();
+    if(buffer.getInt() != k || buffer.getInt() != relation.size() || buffer.getInt() != name.length) {
+      return false;
+    }
+    final byte[] sname = new byte[name.length];
+    buffer.get(sname);
+    if(!Arrays.equals(name, sname)) {
+      return false;
+    }
+    // Distance parameters and data must match, too:
+    if(buffer.getLong() != Fingerprint.configuration(distanceFunction) || buffer.getLong() != Fingerprint.data(relation)) {
+      return false;
+    }
+    createStorage();
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      final int size = buffer.getInt();
+      final KNNHeap heap = DBIDUtil.newHeap(k);
+      for(int i = 0; i < size; i++) {
+        final int id = buffer.getInt();
+        heap.insert(buffer.getDouble(), DBIDUtil.importInteger(id));
+      }
+      storage.put(iter, heap.toKNNList());
+    }
+    return true;
+  }
+
+  /**
+   * Name of the distance function, to validate snapshots. The snapshot header
+   * also contains fingerprints of the distance function parameters and of the
+   * data, see {@link Fingerprint}.
+   *
+   * @return Class name, encoded
+   */
+  private byte[] distanceFunctionName() {
+    return distanceFunction.getClass().getName().getBytes(StandardCharsets.UTF_8);
+  }
+
   @Override
   public KNNQuery<O> getKNNQuery(DistanceQuery<O> distQ, Object... hints) {
+    // Only for the distance we materialized
+    if(!this.distanceFunction.equals(distQ.getDistanceFunction())) {
+      return null;
+    }
     // k max supported?
     for(Object hint : hints) {
       if(hint instanceof Integer) {
@@ -183,6 +275,15 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPrep
      */
     public static final OptionID DISTANCE_FUNCTION_ID = new OptionID("materialize.distance", "the distance function to materialize the nearest neighbors");
 
+    /**
+     * Flag to store the neighbor distances in single precision only, to reduce
+     * memory usage.
+     * <p>
+     * Key: {@code -materialize.float}
+     * </p>
+     */
+    public static final OptionID FLOAT_ID = new OptionID("materialize.float", "Store the materialized distances with single precision, to reduce memory.");
+
     /**
      * Holds the value of {@link #K_ID}.
      */
@@ -0,0 +1,576 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
+
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDPair;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+/**
+ * Compact storage for materialized kNN lists.
+ *
+ * Rather than keeping one list object (with its own arrays) per point, all
+ * neighbors are appended to shared arrays: one start offset and size per row,
+ * one integer per neighbor, and one distance per neighbor, optionally reduced
+ * to single precision. {@link #get} returns lightweight views into these
+ * arrays.
+ *
+ * Rows are never modified once written: storing a new list for an object
+ * appends a new row, so previously returned views remain valid. Storing a view
+ * of this store only references the existing row, so duplicate points can
+ * share their neighbors. Rows no longer referenced are reclaimed by compacting
+ * into new arrays once they make up half of the storage; views keep
+ * referencing the old arrays, and thus also remain valid across compaction and
+ * {@link #clear}.
+ *
+ * Because the neighbors are kept in int-indexed arrays, the store can hold at
+ * most about 2<sup>31</sup> neighbors in total (i.e., n &middot; k must stay
+ * below this limit); larger data sets need to use a different storage.
+ *
+ * This store is not thread-safe for writing.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class CompactKNNStore implements WritableDataStore<KNNList> {
+  /**
+   * Minimum number of unused neighbor entries before compacting.
+   */
+  private static final int MIN_COMPACT = 1024;
+
+  /**
+   * Maximum array size.
+   */
+  private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+  /**
+   * Row number of each object, -1 if not stored.
+   */
+  private WritableIntegerDataStore rows;
+
+  /**
+   * Start offset of each row.
+   */
+  private int[] starts;
+
+  /**
+   * Size of each row.
+   */
+  private int[] sizes;
+
+  /**
+   * Number of objects referencing each row; 0 for free rows.
+   */
+  private int[] refs;
+
+  /**
+   * Number of rows allocated.
+   */
+  private int numrows = 0;
+
+  /**
+   * Free row numbers, for reuse.
+   */
+  private int[] free;
+
+  /**
+   * Number of free rows.
+   */
+  private int numfree = 0;
+
+  /**
+   * Neighbor ids.
+   */
+  private int[] ids;
+
+  /**
+   * Neighbor distances (double precision), or null.
+   */
+  private double[] ddists;
+
+  /**
+   * Neighbor distances (single precision), or null.
+   */
+  private float[] fdists;
+
+  /**
+   * Number of neighbor entries used, including unreferenced rows.
+   */
+  private int used = 0;
+
+  /**
+   * Number of neighbor entries in unreferenced rows.
+   */
+  private int dead = 0;
+
+  /**
+   * The k parameter of the stored lists.
+   */
+  private final int k;
+
+  /**
+   * Store distances in single precision.
+   */
+  private final boolean floatDistances;
+
+  /**
+   * Initial capacity.
+   */
+  private final int initialRows, initialCapacity;
+
+  /**
+   * Constructor.
+   *
+   * @param dbids Objects to store neighbors for
+   * @param k k parameter of the lists
+   * @param floatDistances Store distances in single precision only
+   */
+  public CompactKNNStore(DBIDs dbids, int k, boolean floatDistances) {
+    super();
+    this.k = k;
+    this.floatDistances = floatDistances;
+    this.rows = DataStoreUtil.makeIntegerStorage(dbids, DataStoreFactory.HINT_HOT, -1);
+    final int n = dbids.size();
+    this.initialRows = n + 1;
+    // Initial estimate, allowing some ties:
+    this.initialCapacity = (int) Math.min(n * (long) k + (n >>> 4) + 16, MAX_SIZE);
+    allocate();
+  }
+
+  /**
+   * Allocate fresh arrays.
+   */
+  private void allocate() {
+    starts = new int[initialRows];
+    sizes = new int[initialRows];
+    refs = new int[initialRows];
+    free = new int[16];
+    numrows = numfree = used = dead = 0;
+    ids = new int[initialCapacity];
+    ddists = floatDistances ? null : new double[initialCapacity];
+    fdists = floatDistances ? new float[initialCapacity] : null;
+  }
+
+  @Override
+  public KNNList get(DBIDRef id) {
+    final int row = rows.intValue(id);
+    return row < 0 ? null : new Row(row);
+  }
+
+  @Override
+  public KNNList put(DBIDRef id, KNNList value) {
+    final int row;
+    if(value instanceof Row && isLive((Row) value)) {
+      row = ((Row) value).row;
+      ++refs[row];
+    }
+    else {
+      row = append(value);
+    }
+    final int prev = rows.putInt(id, row);
+    if(prev < 0) {
+      return null;
+    }
+    // The view remains valid, even if the row is released and compacted.
+    final Row old = new Row(prev);
+    release(prev);
+    return old;
+  }
+
+  /**
+   * Test whether a view still references a live row of the current arrays.
+   *
+   * @param r Row view
+   * @return {@code true} if the row can be shared
+   */
+  private boolean isLive(Row r) {
+    return r.getStore() == this && r.ids == ids && refs[r.row] > 0 && starts[r.row] == r.start;
+  }
+
+  /**
+   * Append a new row.
+   *
+   * @param list Neighbors to store
+   * @return Row number
+   */
+  private int append(KNNList list) {
+    final int size = list.size();
+    ensureCapacity(size);
+    final int row = numfree > 0 ? free[--numfree] : newRow();
+    int p = used;
+    if(fdists != null) {
+      for(DoubleDBIDListIter it = list.iter(); it.valid(); it.advance(), p++) {
+        ids[p] = DBIDUtil.asInteger(it);
+        fdists[p] = (float) it.doubleValue();
+      }
+    }
+    else {
+      for(DoubleDBIDListIter it = list.iter(); it.valid(); it.advance(), p++) {
+        ids[p] = DBIDUtil.asInteger(it);
+        ddists[p] = it.doubleValue();
+      }
+    }
+    starts[row] = used;
+    sizes[row] = size;
+    refs[row] = 1;
+    used = p;
+    return row;
+  }
+
+  /**
+   * Allocate a new row number.
+   *
+   * @return Row number
+   */
+  private int newRow() {
+    if(numrows == starts.length) {
+      final int len = starts.length + (starts.length >>> 1) + 2;
+      starts = Arrays.copyOf(starts, len);
+      sizes = Arrays.copyOf(sizes, len);
+      refs = Arrays.copyOf(refs, len);
+    }
+    return numrows++;
+  }
+
+  /**
+   * Release one reference to a row.
+   *
+   * @param row Row number
+   */
+  private void release(int row) {
+    if(--refs[row] > 0) {
+      return;
+    }
+    dead += sizes[row];
+    if(numfree == free.length) {
+      free = Arrays.copyOf(free, free.length << 1);
+    }
+    free[numfree++] = row;
+    if(dead >= MIN_COMPACT && dead > (used >>> 1)) {
+      compact(0);
+    }
+  }
+
+  /**
+   * Ensure the neighbor arrays can hold the given number of additional
+   * entries, compacting or growing them if necessary.
+   *
+   * @param extra Number of additional entries
+   */
+  private void ensureCapacity(int extra) {
+    if(used + (long) extra <= ids.length) {
+      return;
+    }
+    if(used - (long) dead + extra > MAX_SIZE) {
+      throw new AbortException("Too many neighbors for compact kNN storage (at most " + MAX_SIZE + " in total).");
+    }
+    compact(extra);
+  }
+
+  /**
+   * Copy all referenced rows into new arrays.
+   *
+   * Views returned previously keep referencing the old arrays.
+   *
+   * @param extra Number of additional entries to reserve space for
+   */
+  private void compact(int extra) {
+    final long live = used - (long) dead;
+    final long need = live + extra;
+    final int cap = (int) Math.min(Math.max(need, live + (live >>> 3) + 16L), MAX_SIZE);
+    final int[] nids = new int[cap];
+    final double[] ndd = ddists != null ? new double[cap] : null;
+    final float[] nfd = fdists != null ? new float[cap] : null;
+    int p = 0;
+    for(int row = 0; row < numrows; row++) {
+      if(refs[row] == 0) {
+        sizes[row] = 0;
+        continue;
+      }
+      final int start = starts[row], size = sizes[row];
+      System.arraycopy(ids, start, nids, p, size);
+      if(nfd != null) {
+        System.arraycopy(fdists, start, nfd, p, size);
+      }
+      else {
+        System.arraycopy(ddists, start, ndd, p, size);
+      }
+      starts[row] = p;
+      p += size;
+    }
+    ids = nids;
+    ddists = ndd;
+    fdists = nfd;
+    used = p;
+    dead = 0;
+  }
+
+  /**
+   * Number of neighbor entries allocated, for monitoring memory use.
+   *
+   * @return Capacity of the neighbor arrays
+   */
+  int capacity() {
+    return ids.length;
+  }
+
+  @Override
+  public void delete(DBIDRef id) {
+    final int prev = rows.putInt(id, -1);
+    if(prev >= 0) {
+      release(prev);
+    }
+  }
+
+  @Override
+  public void clear() {
+    rows.clear();
+    // Fresh arrays, so that existing views remain valid.
+    allocate();
+  }
+
+  @Override
+  public void destroy() {
+    rows.destroy();
+    rows = null;
+    starts = sizes = refs = free = null;
+    ids = null;
+    ddists = null;
+    fdists = null;
+  }
+
+  /**
+   * Flyweight view of a single row.
+   *
+   * The view references the arrays at the time of its creation.
+   *
+   * @author agent
+   */
+  private class Row implements KNNList {
+    /**
+     * Row number.
+     */
+    final int row;
+
+    /**
+     * Neighbor ids.
+     */
+    final int[] ids;
+
+    /**
+     * Neighbor distances, one of which is null.
+     */
+    final double[] ddists;
+
+    /**
+     * Neighbor distances, one of which is null.
+     */
+    final float[] fdists;
+
+    /**
+     * Row start and end.
+     */
+    final int start, end;
+
+    /**
+     * Constructor.
+     *
+     * @param row Row number
+     */
+    Row(int row) {
+      this.row = row;
+      this.ids = CompactKNNStore.this.ids;
+      this.ddists = CompactKNNStore.this.ddists;
+      this.fdists = CompactKNNStore.this.fdists;
+      this.start = starts[row];
+      this.end = start + sizes[row];
+    }
+
+    /**
+     * Get the store this row belongs to.
+     *
+     * @return Store
+     */
+    CompactKNNStore getStore() {
+      return CompactKNNStore.this;
+    }
+
+    /**
+     * Get the distance at the given position.
+     *
+     * @param p Position
+     * @return Distance
+     */
+    double distance(int p) {
+      return fdists != null ? fdists[p] : ddists[p];
+    }
+
+    @Override
+    public int size() {
+      return end - start;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return end == start;
+    }
+
+    @Override
+    public int getK() {
+      return k;
+    }
+
+    @Override
+    public double getKNNDistance() {
+      return size() >= k ? distance(start + k - 1) : Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public DoubleDBIDPair get(int index) {
+      final Itr it = new Itr(this).seek(index);
+      return DBIDUtil.newPair(it.doubleValue(), it);
+    }
+
+    @Override
+    public DBIDVar assignVar(int index, DBIDVar var) {
+      var.set(new Itr(this).seek(index));
+      return var;
+    }
+
+    @Override
+    public boolean contains(DBIDRef o) {
+      final int q = DBIDUtil.asInteger(o);
+      for(int p = start; p < end; p++) {
+        if(ids[p] == q) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Itr iter() {
+      return new Itr(this);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder buf = new StringBuilder();
+      buf.append("kNNList[");
+      for(DoubleDBIDListIter iter = this.iter(); iter.valid();) {
+        buf.append(iter.doubleValue()).append(':').append(iter.internalGetIndex());
+        iter.advance();
+        if(iter.valid()) {
+          buf.append(',');
+        }
+      }
+      buf.append(']');
+      return buf.toString();
+    }
+  }
+
+  /**
+   * Iterator over a row.
+   *
+   * @author agent
+   */
+  private static class Itr implements DoubleDBIDListIter {
+    /**
+     * Row to iterate.
+     */
+    private final Row row;
+
+    /**
+     * Current position.
+     */
+    private int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param row Row to iterate
+     */
+    Itr(Row row) {
+      this.row = row;
+      this.pos = row.start;
+    }
+
+    @Override
+    public boolean valid() {
+      return pos < row.end && pos >= row.start;
+    }
+
+    @Override
+    public Itr advance() {
+      pos++;
+      return this;
+    }
+
+    @Override
+    public Itr advance(int count) {
+      pos += count;
+      return this;
+    }
+
+    @Override
+    public Itr retract() {
+      pos--;
+      return this;
+    }
+
+    @Override
+    public Itr seek(int off) {
+      pos = row.start + off;
+      return this;
+    }
+
+    @Override
+    public int getOffset() {
+      return pos - row.start;
+    }
+
+    @Override
+    public int internalGetIndex() {
+      return row.ids[pos];
+    }
+
+    @Override
+    public double doubleValue() {
+      return row.distance(pos);
+    }
+
+    @Override
+    public DoubleDBIDPair getPair() {
+      return DBIDUtil.newPair(row.distance(pos), this);
+    }
+  }
+}
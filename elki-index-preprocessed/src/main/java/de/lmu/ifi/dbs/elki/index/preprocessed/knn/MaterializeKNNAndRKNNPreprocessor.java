@@ -20,6 +20,7 @@
  */
 package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -91,7 +92,19 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
    * @param k query k
    */
   public MaterializeKNNAndRKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k) {
-    super(relation, distanceFunction, k);
+    this(relation, distanceFunction, k, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to process
+   * @param distanceFunction the distance function to use
+   * @param k query k
+   * @param floatDistances Store distances in single precision only
+   */
+  public MaterializeKNNAndRKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k, boolean floatDistances) {
+    super(relation, distanceFunction, k, floatDistances);
   }
 
   @Override
@@ -102,6 +115,24 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     materializeKNNAndRKNNs(DBIDUtil.ensureArray(relation.getDBIDs()), progress);
   }
 
+  @Override
+  public boolean readSnapshot(ByteBuffer buffer) {
+    if(!super.readSnapshot(buffer)) {
+      return false;
+    }
+    // Rebuild the reverse nearest neighbors from the kNN lists:
+    materialized_RkNN = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, TreeSet.class);
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      materialized_RkNN.put(iter, new TreeSet<DoubleDBIDPair>());
+    }
+    for(DBIDIter id = relation.iterDBIDs(); id.valid(); id.advance()) {
+      for(DoubleDBIDListIter iter = storage.get(id).iter(); iter.valid(); iter.advance()) {
+        materialized_RkNN.get(iter).add(makePair(iter, id));
+      }
+    }
+    return true;
+  }
+
   /**
    * Materializes the kNNs and RkNNs of the specified object IDs.
    *
@@ -419,9 +450,20 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
       super(k, distanceFunction);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param k k
+     * @param distanceFunction distance function
+     * @param floatDistances Store distances in single precision only
+     */
+    public Factory(int k, DistanceFunction<? super O> distanceFunction, boolean floatDistances) {
+      super(k, distanceFunction, floatDistances);
+    }
+
     @Override
     public MaterializeKNNAndRKNNPreprocessor<O> instantiate(Relation<O> relation) {
-      MaterializeKNNAndRKNNPreprocessor<O> instance = new MaterializeKNNAndRKNNPreprocessor<>(relation, distanceFunction, k);
+      MaterializeKNNAndRKNNPreprocessor<O> instance = new MaterializeKNNAndRKNNPreprocessor<>(relation, distanceFunction, k, floatDistances);
       return instance;
     }
 
@@ -435,7 +477,7 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     public static class Parameterizer<O> extends MaterializeKNNPreprocessor.Factory.Parameterizer<O> {
       @Override
       protected Factory<O> makeInstance() {
-        return new Factory<>(k, distanceFunction);
+        return new Factory<>(k, distanceFunction, floatDistances);
       }
     }
   }
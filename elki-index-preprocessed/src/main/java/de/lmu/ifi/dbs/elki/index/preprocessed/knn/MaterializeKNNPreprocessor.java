@@ -47,6 +47,8 @@ import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * A preprocessor for annotation of the k nearest neighbors (and their
@@ -97,7 +99,19 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param k query k
    */
   public MaterializeKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k) {
-    super(relation, distanceFunction, k);
+    this(relation, distanceFunction, k, false);
+  }
+
+  /**
+   * Constructor with preprocessing step.
+   *
+   * @param relation Relation to preprocess
+   * @param distanceFunction the distance function to use
+   * @param k query k
+   * @param floatDistances Store distances in single precision only
+   */
+  public MaterializeKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k, boolean floatDistances) {
+    super(relation, distanceFunction, k, floatDistances);
     this.knnQuery = relation.getKNNQuery(distanceQuery, k, DatabaseQuery.HINT_BULK, DatabaseQuery.HINT_HEAVY_USE, DatabaseQuery.HINT_NO_CACHE);
   }
 
@@ -135,9 +149,9 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
           log.incrementProcessed(progress);
           continue; // Previously computed (duplicate point?)
         }
-        KNNList knn = knnQuery.getKNNForDBID(iter, k);
-        storage.put(iter, knn);
+        storage.put(iter, knnQuery.getKNNForDBID(iter, k));
         if(ismetric) {
+          final KNNList knn = storage.get(iter); // Stored copy
           for(DoubleDBIDListIter it = knn.iter(); it.valid() && it.doubleValue() == 0.; it.advance()) {
             storage.put(it, knn); // Reuse
           }
@@ -393,6 +407,11 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param <O> The object type
    */
   public static class Factory<O> extends AbstractMaterializeKNNPreprocessor.Factory<O> {
+    /**
+     * Store distances in single precision only.
+     */
+    protected boolean floatDistances;
+
     /**
      * Index factory.
      *
@@ -400,12 +419,24 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @param distanceFunction distance function
      */
     public Factory(int k, DistanceFunction<? super O> distanceFunction) {
+      this(k, distanceFunction, false);
+    }
+
+    /**
+     * Index factory.
+     *
+     * @param k k parameter
+     * @param distanceFunction distance function
+     * @param floatDistances Store distances in single precision only
+     */
+    public Factory(int k, DistanceFunction<? super O> distanceFunction, boolean floatDistances) {
       super(k, distanceFunction);
+      this.floatDistances = floatDistances;
     }
 
     @Override
     public MaterializeKNNPreprocessor<O> instantiate(Relation<O> relation) {
-      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<>(relation, distanceFunction, k);
+      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<>(relation, distanceFunction, k, floatDistances);
       return instance;
     }
 
@@ -417,9 +448,23 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @apiviz.exclude
      */
     public static class Parameterizer<O> extends AbstractMaterializeKNNPreprocessor.Factory.Parameterizer<O> {
+      /**
+       * Store distances in single precision only.
+       */
+      protected boolean floatDistances;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        Flag floatF = new Flag(FLOAT_ID);
+        if(config.grab(floatF)) {
+          floatDistances = floatF.isTrue();
+        }
+      }
+
       @Override
       protected Factory<O> makeInstance() {
-        return new Factory<>(k, distanceFunction);
+        return new Factory<>(k, distanceFunction, floatDistances);
       }
     }
   }
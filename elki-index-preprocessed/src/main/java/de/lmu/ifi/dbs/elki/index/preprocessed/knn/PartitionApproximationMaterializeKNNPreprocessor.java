@@ -20,14 +20,11 @@
  */
 package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
 
-import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
-import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDPair;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
-import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
@@ -91,7 +88,7 @@ public class PartitionApproximationMaterializeKNNPreprocessor<O> extends Abstrac
   @Override
   protected void preprocess() {
     DistanceQuery<O> distanceQuery = relation.getDistanceQuery(distanceFunction);
-    storage = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC, KNNList.class);
+    createStorage();
     MeanVariance ksize = new MeanVariance();
     if(LOG.isVerbose()) {
       LOG.verbose("Approximating nearest neighbor lists to database objects");
@@ -0,0 +1,113 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.distancematrix;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.LinearScanDistanceRangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+
+/**
+ * Test the precomputed distance matrix against linear scans.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class PrecomputedDistanceMatrixTest {
+  // the following values depend on the data set used!
+  static String dataset = "elki/testdata/unittests/3clusters-and-noise-2d.csv";
+
+  // size of the data set
+  int shoulds = 330;
+
+  @Test
+  public void testDoubleMatrix() {
+    testMatrix(false, 0, 0.);
+  }
+
+  @Test
+  public void testFloatSortedMatrix() {
+    testMatrix(true, 8, 1e-6);
+  }
+
+  @Test
+  public void testSortedMatrix() {
+    testMatrix(false, 8, 0.);
+  }
+
+  /**
+   * Compare kNN and range queries to a linear scan.
+   *
+   * @param floatStorage Use single precision
+   * @param numsorted Number of sorted neighbors
+   * @param tol Tolerance
+   */
+  private void testMatrix(boolean floatStorage, int numsorted, double tol) {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    PrecomputedDistanceMatrix<DoubleVector> idx = new PrecomputedDistanceMatrix<>(rel, (DBIDRange) rel.getDBIDs(), EuclideanDistanceFunction.STATIC, floatStorage, numsorted);
+    idx.initialize();
+    DistanceQuery<DoubleVector> mdq = idx.getDistanceQuery(EuclideanDistanceFunction.STATIC);
+    KNNQuery<DoubleVector> linknn = new LinearScanDistanceKNNQuery<>(dq), knn = idx.getKNNQuery(dq);
+    RangeQuery<DoubleVector> linrange = new LinearScanDistanceRangeQuery<>(dq), range = idx.getRangeQuery(dq);
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      for(DBIDIter it2 = rel.iterDBIDs(); it2.valid(); it2.advance()) {
+        assertEquals("Distances differ.", dq.distance(it, it2), mdq.distance(it, it2), tol);
+      }
+      for(int k : new int[] { 1, 5, 9, 12 }) {
+        assertSameDistances(linknn.getKNNForDBID(it, k), knn.getKNNForDBID(it, k), tol);
+      }
+      for(double r : new double[] { 0.01, 0.05, 0.2 }) {
+        assertSameDistances(linrange.getRangeForDBID(it, r), range.getRangeForDBID(it, r), tol);
+      }
+    }
+  }
+
+  /**
+   * Compare the distances of two result lists.
+   *
+   * @param ref Reference result
+   * @param test Result to test
+   * @param tol Tolerance
+   */
+  private static void assertSameDistances(DoubleDBIDList ref, DoubleDBIDList test, double tol) {
+    assertEquals("Result sizes differ.", ref.size(), test.size());
+    for(DoubleDBIDListIter a = ref.iter(), b = test.iter(); a.valid(); a.advance(), b.advance()) {
+      assertEquals("Distances differ.", a.doubleValue(), b.doubleValue(), tol);
+    }
+  }
+}
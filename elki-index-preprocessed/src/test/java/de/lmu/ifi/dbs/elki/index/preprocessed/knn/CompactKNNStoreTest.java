@@ -0,0 +1,157 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+
+/**
+ * Test the compact kNN storage.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class CompactKNNStoreTest {
+  /**
+   * Store random kNN lists, and compare them to the originals.
+   */
+  @Test
+  public void testStore() {
+    final int n = 200, k = 5;
+    DBIDRange ids = DBIDUtil.generateStaticDBIDRange(n);
+    Random r = new Random(0L);
+    KNNList[] lists = new KNNList[n];
+    CompactKNNStore dstore = new CompactKNNStore(ids, k, false);
+    CompactKNNStore fstore = new CompactKNNStore(ids, k, true);
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(int i = 0; i < 3 * k; i++) {
+        // Some ties
+        heap.insert(r.nextInt(20) * .1, ids.iter().seek(r.nextInt(n)));
+      }
+      KNNList list = heap.toKNNList();
+      lists[ids.getOffset(it)] = list;
+      assertNull(dstore.put(it, list));
+      fstore.put(it, list);
+    }
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      KNNList list = lists[ids.getOffset(it)];
+      KNNList dlist = dstore.get(it), flist = fstore.get(it);
+      assertEquals("Size differs.", list.size(), dlist.size());
+      assertEquals("Size differs.", list.size(), flist.size());
+      assertEquals("k-distance differs.", list.getKNNDistance(), dlist.getKNNDistance(), 0.);
+      assertEquals("k-distance differs.", list.getKNNDistance(), flist.getKNNDistance(), 1e-7);
+      DoubleDBIDListIter a = list.iter(), b = dlist.iter(), c = flist.iter();
+      for(; a.valid(); a.advance(), b.advance(), c.advance()) {
+        assertTrue("Neighbor differs.", DBIDUtil.equal(a, b) && DBIDUtil.equal(a, c));
+        assertEquals("Distance differs.", a.doubleValue(), b.doubleValue(), 0.);
+        assertEquals("Distance differs.", a.doubleValue(), c.doubleValue(), 1e-7);
+        assertTrue("Neighbor not found.", dlist.contains(a));
+      }
+      assertTrue("Neighbor differs.", DBIDUtil.equal(list.get(1), dlist.get(1)));
+    }
+  }
+
+  /**
+   * Test sharing, replacing and deleting rows.
+   */
+  @Test
+  public void testUpdates() {
+    final int k = 3;
+    DBIDRange ids = DBIDUtil.generateStaticDBIDRange(10);
+    CompactKNNStore store = new CompactKNNStore(ids, k, false);
+    KNNHeap heap = DBIDUtil.newHeap(k);
+    for(int i = 0; i < 5; i++) {
+      heap.insert(i, ids.iter().seek(i));
+    }
+    DBIDIter a = ids.iter(), b = ids.iter().advance();
+    store.put(a, heap.toKNNList());
+    KNNList first = store.get(a);
+    store.put(b, first); // Shares the row
+    assertEquals(3, store.get(b).size());
+    heap.insert(.5, ids.iter().seek(9));
+    heap.insert(.7, ids.iter().seek(8));
+    KNNList prev = store.put(a, heap.toKNNList());
+    assertEquals("Previous list changed.", 3, prev.size());
+    assertEquals("Previous list changed.", 0., first.get(0).doubleValue(), 0.);
+    assertEquals("Shared list changed.", 2., store.get(b).getKNNDistance(), 0.);
+    assertEquals("New list not stored.", 2, store.get(a).size());
+    store.delete(b);
+    assertNull(store.get(b));
+    assertSame("Store must return null for missing entries.", null, store.get(ids.iter().seek(5)));
+  }
+
+  /**
+   * Test that replaced rows are reclaimed, while old views remain valid.
+   */
+  @Test
+  public void testCompaction() {
+    final int n = 100, k = 5;
+    DBIDRange ids = DBIDUtil.generateStaticDBIDRange(n);
+    CompactKNNStore store = new CompactKNNStore(ids, k, false);
+    final int initial = store.capacity();
+    KNNList[] views = new KNNList[10];
+    for(int round = 0; round < 100; round++) {
+      for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+        KNNHeap heap = DBIDUtil.newHeap(k);
+        for(int i = 0; i < k; i++) {
+          heap.insert(round + i * .1, ids.iter().seek((ids.getOffset(it) + i) % n));
+        }
+        store.put(it, heap.toKNNList());
+      }
+      if(round % 10 == 0) {
+        views[round / 10] = store.get(ids.iter());
+      }
+    }
+    assertTrue("Storage not reclaimed: " + store.capacity(), store.capacity() <= 2 * initial);
+    for(int i = 0; i < views.length; i++) {
+      assertEquals("View changed.", i * 10, views[i].get(0).doubleValue(), 0.);
+      assertEquals("View changed.", i * 10 + .4, views[i].getKNNDistance(), 1e-15);
+    }
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      KNNList list = store.get(it);
+      assertEquals(k, list.size());
+      assertEquals(99., list.get(0).doubleValue(), 0.);
+      assertTrue(DBIDUtil.equal(it, list.get(0)));
+    }
+    KNNList view = store.get(ids.iter());
+    store.clear();
+    assertNull(store.get(ids.iter()));
+    KNNHeap heap = DBIDUtil.newHeap(k);
+    heap.insert(7., ids.iter());
+    store.put(ids.iter(), heap.toKNNList());
+    assertEquals("View changed by clear.", 99., view.get(0).doubleValue(), 0.);
+    assertEquals(k, view.size());
+  }
+}
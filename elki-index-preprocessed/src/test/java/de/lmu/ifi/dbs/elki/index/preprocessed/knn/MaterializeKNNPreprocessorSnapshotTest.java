@@ -0,0 +1,75 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+
+/**
+ * Test restoring materialized kNN preprocessors from snapshots.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class MaterializeKNNPreprocessorSnapshotTest {
+  @Test
+  public void testSnapshot() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    MaterializeKNNPreprocessor<NumberVector> orig = new MaterializeKNNPreprocessor<>(rel, new LPNormDistanceFunction(3), 5);
+    orig.initialize();
+    ByteBuffer buffer = ByteBuffer.allocate((int) orig.getSnapshotSize());
+    orig.writeSnapshot(buffer);
+    assertEquals("Snapshot size incorrect.", 0, buffer.remaining());
+
+    buffer.flip();
+    MaterializeKNNPreprocessor<NumberVector> restored = new MaterializeKNNPreprocessor<>(rel, new LPNormDistanceFunction(3), 5);
+    assertTrue("Snapshot not restored.", restored.readSnapshot(buffer));
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList a = orig.get(it), b = restored.get(it);
+      assertEquals("kNN sizes differ.", a.size(), b.size());
+      for(int i = 0; i < a.size(); i++) {
+        assertTrue("kNN differs.", DBIDUtil.equal(a.get(i), b.get(i)));
+        assertEquals("kNN distance differs.", a.get(i).doubleValue(), b.get(i).doubleValue(), 0.);
+      }
+    }
+
+    // Same distance class and k, but different parameters:
+    buffer.rewind();
+    assertFalse("Snapshot of different distance parameters used.", //
+        new MaterializeKNNPreprocessor<>(rel, new LPNormDistanceFunction(4), 5).readSnapshot(buffer));
+  }
+}
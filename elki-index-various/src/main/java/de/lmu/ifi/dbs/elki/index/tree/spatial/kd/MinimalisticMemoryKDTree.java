@@ -20,6 +20,8 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
 
+import java.nio.ByteBuffer;
+
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.VectorUtil;
 import de.lmu.ifi.dbs.elki.data.VectorUtil.SortDBIDsBySingleDimension;
@@ -27,6 +29,7 @@ import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
@@ -49,6 +52,7 @@ import de.lmu.ifi.dbs.elki.index.AbstractIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.SnapshotIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
@@ -91,7 +95,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 title = "Multidimensional binary search trees used for associative searching", //
 booktitle = "Communications of the ACM, Vol. 18 Issue 9, Sept. 1975", //
 url = "http://dx.doi.org/10.1145/361002.361007")
-public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>implements KNNIndex<O>, RangeIndex<O> {
+public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>implements KNNIndex<O>, RangeIndex<O>, SnapshotIndex {
   /**
    * Class logger
    */
@@ -157,6 +161,33 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
     buildTree(0, sorted.size(), 0, comp);
   }
 
+  @Override
+  public long getSnapshotSize() {
+    return 12L + sorted.size() * 4L;
+  }
+
+  @Override
+  public void writeSnapshot(ByteBuffer buffer) {
+    buffer.putInt(dims).putInt(leafsize).putInt(sorted.size());
+    for(DBIDIter it = sorted.iter(); it.valid(); it.advance()) {
+      buffer.putInt(DBIDUtil.asInteger(it));
+    }
+  }
+
+  @Override
+  public boolean readSnapshot(ByteBuffer buffer) {
+    final int sdims = buffer.getInt(), sleafsize = buffer.getInt(), size = buffer.getInt();
+    if(sdims != RelationUtil.dimensionality(relation) || sleafsize != leafsize || size != relation.size()) {
+      return false;
+    }
+    dims = sdims;
+    sorted = DBIDUtil.newArray(size);
+    for(int i = 0; i < size; i++) {
+      sorted.add(DBIDUtil.importInteger(buffer.getInt()));
+    }
+    return true;
+  }
+
   /**
    * Class to count object accesses during construnction.
    *
@@ -0,0 +1,883 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.AbstractDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.AbstractDistanceRangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.WeightedLPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.SnapshotIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.utilities.Alias;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.QuickSelect;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+
+/**
+ * Static in-memory k-d-tree, that copies the coordinates into a single
+ * contiguous array in tree order. As in {@link SmallMemoryKDTree}, the tree is
+ * implicit: the median of each interval is the splitting element, and the
+ * splitting axes are chosen round-robin. But queries do not need to access the
+ * relation, and all distances are computed on the packed array.
+ * <p>
+ * The top levels of the tree are built sequentially, the remaining subtrees
+ * are then partitioned in parallel. Bulk kNN queries descend the tree once per
+ * group of queries, and the groups are processed in parallel.
+ * <p>
+ * This index is intended for low-dimensional data, as it needs to store a copy
+ * of all coordinates.
+ *
+ * Reference:
+ * <p>
+ * J. L. Bentley<br/>
+ * Multidimensional binary search trees used for associative searching<br />
+ * Communications of the ACM, Vol. 18 Issue 9, Sept. 1975
+ * </p>
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.has PackedKDTreeKNNQuery
+ * @apiviz.has PackedKDTreeRangeQuery
+ *
+ * @param <O> Vector type
+ */
+@Reference(authors = "J. L. Bentley", //
+    title = "Multidimensional binary search trees used for associative searching", //
+    booktitle = "Communications of the ACM, Vol. 18 Issue 9, Sept. 1975", //
+    url = "http://dx.doi.org/10.1145/361002.361007")
+public class PackedKDTree<O extends NumberVector> extends AbstractIndex<O>implements KNNIndex<O>, RangeIndex<O>, SnapshotIndex {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(PackedKDTree.class);
+
+  /**
+   * Minimum number of queries for parallel bulk processing.
+   */
+  private static final int MIN_PARALLEL_QUERIES = 256;
+
+  /**
+   * Minimum subtree size for parallel building.
+   */
+  private static final int MIN_PARALLEL_BUILD = 1000;
+
+  /**
+   * Object identifiers, in tree order.
+   */
+  ArrayModifiableDBIDs ids = null;
+
+  /**
+   * Coordinates, in tree order.
+   */
+  double[] data = null;
+
+  /**
+   * The number of dimensions.
+   */
+  int dims = -1;
+
+  /**
+   * Maximum size of leaf nodes.
+   */
+  int leafsize;
+
+  /**
+   * Counter for distance computations.
+   */
+  final Counter distcalc;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to index
+   * @param leafsize Maximum size of leaf nodes
+   */
+  public PackedKDTree(Relation<O> relation, int leafsize) {
+    super(relation);
+    this.leafsize = leafsize;
+    assert (leafsize >= 1);
+    if(LOG.isStatistics()) {
+      this.distcalc = LOG.newCounter(this.getClass().getName() + ".distancecalcs");
+    }
+    else {
+      this.distcalc = null;
+    }
+  }
+
+  @Override
+  public void initialize() {
+    dims = RelationUtil.dimensionality(relation);
+    ids = DBIDUtil.newArray(relation.getDBIDs());
+    final int size = ids.size();
+    data = new double[size * dims];
+    int off = 0;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance(), off += dims) {
+      final O vec = relation.get(it);
+      for(int d = 0; d < dims; d++) {
+        data[off + d] = vec.doubleValue(d);
+      }
+    }
+    if(size == 0) {
+      return;
+    }
+    // Split the top levels, until we have enough independent subtrees:
+    final int numtasks = ParallelCore.getCore().getParallelism() << 2;
+    List<BuildTask> tasks = new ArrayList<>(numtasks);
+    tasks.add(new BuildTask(0, size, 0));
+    while(tasks.size() < numtasks) {
+      // Split the largest interval:
+      int best = 0;
+      for(int i = 1; i < tasks.size(); i++) {
+        if(tasks.get(i).right - tasks.get(i).left > tasks.get(best).right - tasks.get(best).left) {
+          best = i;
+        }
+      }
+      BuildTask task = tasks.get(best);
+      if(task.right - task.left <= Math.max(leafsize, MIN_PARALLEL_BUILD)) {
+        break; // Too small to be worth splitting further.
+      }
+      final int middle = partition(task.left, task.right, task.axis);
+      final int next = (task.axis + 1) % dims;
+      tasks.set(best, new BuildTask(task.left, middle, next));
+      tasks.add(new BuildTask(middle + 1, task.right, next));
+    }
+    ParallelExecutor.run(tasks);
+  }
+
+  @Override
+  public long getSnapshotSize() {
+    return 12L + ids.size() * (4L + (dims << 3));
+  }
+
+  @Override
+  public void writeSnapshot(ByteBuffer buffer) {
+    buffer.putInt(dims).putInt(leafsize).putInt(ids.size());
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      buffer.putInt(DBIDUtil.asInteger(it));
+    }
+    buffer.asDoubleBuffer().put(data);
+    buffer.position(buffer.position() + (data.length << 3));
+  }
+
+  @Override
+  public boolean readSnapshot(ByteBuffer buffer) {
+    final int sdims = buffer.getInt(), sleafsize = buffer.getInt(), size = buffer.getInt();
+    if(sdims != RelationUtil.dimensionality(relation) || sleafsize != leafsize || size != relation.size()) {
+      return false;
+    }
+    dims = sdims;
+    ids = DBIDUtil.newArray(size);
+    for(int i = 0; i < size; i++) {
+      ids.add(DBIDUtil.importInteger(buffer.getInt()));
+    }
+    // Bulk copy from the (memory mapped) buffer:
+    data = new double[size * dims];
+    buffer.asDoubleBuffer().get(data);
+    buffer.position(buffer.position() + (data.length << 3));
+    return true;
+  }
+
+  /**
+   * Recursively build the tree by partial sorting. O(n log n) complexity.
+   *
+   * @param left Interval minimum
+   * @param right Interval maximum
+   * @param axis Current splitting axis
+   */
+  private void buildTree(int left, int right, int axis) {
+    if(right - left <= leafsize) {
+      return;
+    }
+    final int middle = partition(left, right, axis);
+    final int next = (axis + 1) % dims;
+    if(left < middle) {
+      buildTree(left, middle, next);
+    }
+    if(middle + 1 < right) {
+      buildTree(middle + 1, right, next);
+    }
+  }
+
+  /**
+   * Partition an interval at the median along the given axis.
+   *
+   * @param left Interval minimum
+   * @param right Interval maximum
+   * @param axis Splitting axis
+   * @return Position of the median
+   */
+  private int partition(int left, int right, int axis) {
+    final int middle = (left + right) >>> 1;
+    QuickSelect.quickSelect(data, new RowAdapter(axis), left, right, middle);
+    return middle;
+  }
+
+  @Override
+  public String getLongName() {
+    return "packed kd-tree";
+  }
+
+  @Override
+  public String getShortName() {
+    return "packed-kd-tree";
+  }
+
+  @Override
+  public void logStatistics() {
+    if(distcalc != null) {
+      LOG.statistics(distcalc);
+    }
+  }
+
+  /**
+   * Count distance computations.
+   *
+   * @param count Number of distance computations
+   */
+  protected void countDistanceComputations(long count) {
+    if(distcalc != null) {
+      synchronized(distcalc) {
+        distcalc.increment(count);
+      }
+    }
+  }
+
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    DistanceFunction<? super O> df = distanceQuery.getDistanceFunction();
+    if(df instanceof LPNormDistanceFunction && !(df instanceof WeightedLPNormDistanceFunction)) {
+      return new PackedKDTreeKNNQuery(distanceQuery, ((LPNormDistanceFunction) df).getP(), false);
+    }
+    if(df instanceof SquaredEuclideanDistanceFunction) {
+      return new PackedKDTreeKNNQuery(distanceQuery, 2., true);
+    }
+    return null;
+  }
+
+  @Override
+  public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    DistanceFunction<? super O> df = distanceQuery.getDistanceFunction();
+    if(df instanceof LPNormDistanceFunction && !(df instanceof WeightedLPNormDistanceFunction)) {
+      return new PackedKDTreeRangeQuery(distanceQuery, ((LPNormDistanceFunction) df).getP(), false);
+    }
+    if(df instanceof SquaredEuclideanDistanceFunction) {
+      return new PackedKDTreeRangeQuery(distanceQuery, 2., true);
+    }
+    return null;
+  }
+
+  /**
+   * Copy the coordinates of a query vector.
+   *
+   * @param obj Query vector
+   * @param buf Output buffer
+   * @param off Offset in the output buffer
+   */
+  void copyQuery(O obj, double[] buf, int off) {
+    assert (obj.getDimensionality() == dims) : "Dimensionality mismatch.";
+    for(int d = 0; d < dims; d++) {
+      buf[off + d] = obj.doubleValue(d);
+    }
+  }
+
+  /**
+   * Compute the Lp distance between a query and a point of the tree.
+   *
+   * @param query Query coordinates
+   * @param qoff Offset of the query
+   * @param pos Position of the point in the tree
+   * @param p Exponent of the norm
+   * @param squared Do not take the root (for squared Euclidean)
+   * @return Distance
+   */
+  double distance(double[] query, int qoff, int pos, double p, boolean squared) {
+    final int off = pos * dims;
+    if(p == 2.) {
+      double agg = 0.;
+      for(int d = 0; d < dims; d++) {
+        final double delta = query[qoff + d] - data[off + d];
+        agg += delta * delta;
+      }
+      return squared ? agg : Math.sqrt(agg);
+    }
+    if(p == 1.) {
+      double agg = 0.;
+      for(int d = 0; d < dims; d++) {
+        agg += Math.abs(query[qoff + d] - data[off + d]);
+      }
+      return agg;
+    }
+    if(p == Double.POSITIVE_INFINITY) {
+      double agg = 0.;
+      for(int d = 0; d < dims; d++) {
+        agg = Math.max(agg, Math.abs(query[qoff + d] - data[off + d]));
+      }
+      return agg;
+    }
+    double agg = 0.;
+    for(int d = 0; d < dims; d++) {
+      agg += Math.pow(Math.abs(query[qoff + d] - data[off + d]), p);
+    }
+    return Math.pow(agg, 1. / p);
+  }
+
+  /**
+   * kNN query for the packed k-d-tree.
+   *
+   * @author agent
+   */
+  public class PackedKDTreeKNNQuery extends AbstractDistanceKNNQuery<O> {
+    /**
+     * Exponent of the Lp norm.
+     */
+    private double p;
+
+    /**
+     * Flag for squared Euclidean distance.
+     */
+    private boolean squared;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     * @param p Exponent of the Lp norm
+     * @param squared Use squared Euclidean distance
+     */
+    public PackedKDTreeKNNQuery(DistanceQuery<O> distanceQuery, double p, boolean squared) {
+      super(distanceQuery);
+      this.p = p;
+      this.squared = squared;
+    }
+
+    @Override
+    public KNNList getKNNForObject(O obj, int k) {
+      final double[] query = new double[dims];
+      copyQuery(obj, query, 0);
+      final KNNHeap knns = DBIDUtil.newHeap(k);
+      if(!ids.isEmpty()) {
+        kdKNNSearch(0, ids.size(), 0, query, knns, ids.iter(), new double[leafsize], Double.POSITIVE_INFINITY);
+      }
+      return knns.toKNNList();
+    }
+
+    @Override
+    public List<? extends KNNList> getKNNForBulkDBIDs(ArrayDBIDs qids, int k) {
+      final int nq = qids.size();
+      final double[] queries = new double[nq * dims];
+      final KNNHeap[] heaps = new KNNHeap[nq];
+      int off = 0, i = 0;
+      for(DBIDIter it = qids.iter(); it.valid(); it.advance(), off += dims, i++) {
+        copyQuery(relation.get(it), queries, off);
+        heaps[i] = DBIDUtil.newHeap(k);
+      }
+      if(!ids.isEmpty() && nq > 0) {
+        final int numblocks = nq < MIN_PARALLEL_QUERIES ? 1 : Math.min(ParallelCore.getCore().getParallelism() << 2, nq / (MIN_PARALLEL_QUERIES >>> 2));
+        if(numblocks <= 1) {
+          new BatchKNNTask(queries, heaps, 0, nq).call();
+        }
+        else {
+          final int blocksize = (nq + numblocks - 1) / numblocks;
+          List<BatchKNNTask> tasks = new ArrayList<>(numblocks);
+          for(int start = 0; start < nq; start += blocksize) {
+            tasks.add(new BatchKNNTask(queries, heaps, start, Math.min(start + blocksize, nq)));
+          }
+          ParallelExecutor.run(tasks);
+        }
+      }
+      List<KNNList> res = new ArrayList<>(nq);
+      for(KNNHeap heap : heaps) {
+        res.add(heap.toKNNList());
+      }
+      return res;
+    }
+
+    /**
+     * Distance to the splitting hyperplane, in the same scale as the distance.
+     *
+     * @param delta Coordinate difference
+     * @return Lower bound for the distance
+     */
+    private double axisDistance(double delta) {
+      return squared ? delta * delta : Math.abs(delta);
+    }
+
+    /**
+     * Perform a kNN search on the kd-tree.
+     *
+     * @param left Subtree begin
+     * @param right Subtree end (exclusive)
+     * @param axis Current splitting axis
+     * @param query Query coordinates
+     * @param knns kNN heap
+     * @param iter Iterator variable
+     * @param buf Buffer for leaf distances
+     * @param maxdist Current upper bound of kNN distance.
+     * @return New upper bound of kNN distance.
+     */
+    private double kdKNNSearch(int left, int right, int axis, double[] query, KNNHeap knns, DBIDArrayIter iter, double[] buf, double maxdist) {
+      if(right - left <= leafsize) {
+        for(int i = left; i < right; i++) {
+          buf[i - left] = distance(query, 0, i, p, squared);
+        }
+        countDistanceComputations(right - left);
+        return knns.insertAll(buf, iter, left, right - left);
+      }
+      final int middle = (left + right) >>> 1;
+      final double delta = data[middle * dims + axis] - query[axis];
+      final int next = (axis + 1) % dims;
+      // Splitting element:
+      if(axisDistance(delta) <= maxdist) {
+        double dist = distance(query, 0, middle, p, squared);
+        countDistanceComputations(1);
+        if(dist <= maxdist) {
+          knns.insert(dist, iter.seek(middle));
+          maxdist = knns.getKNNDistance();
+        }
+      }
+      if(delta >= 0) {
+        if(left < middle) {
+          maxdist = kdKNNSearch(left, middle, next, query, knns, iter, buf, maxdist);
+        }
+        if(middle + 1 < right && axisDistance(delta) <= maxdist) {
+          maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, buf, maxdist);
+        }
+      }
+      else {
+        if(middle + 1 < right) {
+          maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, buf, maxdist);
+        }
+        if(left < middle && axisDistance(delta) <= maxdist) {
+          maxdist = kdKNNSearch(left, middle, next, query, knns, iter, buf, maxdist);
+        }
+      }
+      return maxdist;
+    }
+
+    /**
+     * Perform a kNN search for a group of queries, descending the tree once
+     * for the entire group. At each node, the group is partitioned in place
+     * into the queries that visit the left or the right child first, and the
+     * far child is only visited by the queries that cannot be pruned.
+     *
+     * @param left Subtree begin
+     * @param right Subtree end (exclusive)
+     * @param axis Current splitting axis
+     * @param queries Query coordinates
+     * @param heaps kNN heaps of the queries
+     * @param qs Query indexes (will be reordered)
+     * @param qstart First query index
+     * @param qend End of query indexes (exclusive)
+     * @param iter Iterator variable
+     * @param buf Buffer for leaf distances
+     * @return Number of distance computations
+     */
+    private long kdBatchKNNSearch(int left, int right, int axis, double[] queries, KNNHeap[] heaps, int[] qs, int qstart, int qend, DBIDArrayIter iter, double[] buf) {
+      if(right - left <= leafsize) {
+        for(int j = qstart; j < qend; j++) {
+          final int q = qs[j];
+          for(int i = left; i < right; i++) {
+            buf[i - left] = distance(queries, q * dims, i, p, squared);
+          }
+          heaps[q].insertAll(buf, iter, left, right - left);
+        }
+        return (qend - qstart) * (long) (right - left);
+      }
+      long dists = 0;
+      final int middle = (left + right) >>> 1;
+      final double split = data[middle * dims + axis];
+      final int next = (axis + 1) % dims;
+      // Splitting element, and partition into left-first and right-first:
+      int mid = qstart;
+      for(int j = qstart; j < qend; j++) {
+        final int q = qs[j];
+        final double delta = split - queries[q * dims + axis];
+        final KNNHeap knns = heaps[q];
+        if(axisDistance(delta) <= knns.getKNNDistance()) {
+          double dist = distance(queries, q * dims, middle, p, squared);
+          ++dists;
+          if(dist <= knns.getKNNDistance()) {
+            knns.insert(dist, iter.seek(middle));
+          }
+        }
+        if(delta >= 0) {
+          qs[j] = qs[mid];
+          qs[mid++] = q;
+        }
+      }
+      // Queries left of the split:
+      if(qstart < mid) {
+        if(left < middle) {
+          dists += kdBatchKNNSearch(left, middle, next, queries, heaps, qs, qstart, mid, iter, buf);
+        }
+        if(middle + 1 < right) {
+          final int close = filterClose(split, axis, queries, heaps, qs, qstart, mid);
+          if(qstart < close) {
+            dists += kdBatchKNNSearch(middle + 1, right, next, queries, heaps, qs, qstart, close, iter, buf);
+          }
+        }
+      }
+      // Queries right of the split:
+      if(mid < qend) {
+        if(middle + 1 < right) {
+          dists += kdBatchKNNSearch(middle + 1, right, next, queries, heaps, qs, mid, qend, iter, buf);
+        }
+        if(left < middle) {
+          final int close = filterClose(split, axis, queries, heaps, qs, mid, qend);
+          if(mid < close) {
+            dists += kdBatchKNNSearch(left, middle, next, queries, heaps, qs, mid, close, iter, buf);
+          }
+        }
+      }
+      return dists;
+    }
+
+    /**
+     * Move the queries that are close enough to the splitting hyperplane to
+     * the front of the interval.
+     *
+     * @param split Split coordinate
+     * @param axis Splitting axis
+     * @param queries Query coordinates
+     * @param heaps kNN heaps of the queries
+     * @param qs Query indexes (will be reordered)
+     * @param qstart First query index
+     * @param qend End of query indexes (exclusive)
+     * @return End of the close queries
+     */
+    private int filterClose(double split, int axis, double[] queries, KNNHeap[] heaps, int[] qs, int qstart, int qend) {
+      int close = qstart;
+      for(int j = qstart; j < qend; j++) {
+        final int q = qs[j];
+        if(axisDistance(split - queries[q * dims + axis]) <= heaps[q].getKNNDistance()) {
+          qs[j] = qs[close];
+          qs[close++] = q;
+        }
+      }
+      return close;
+    }
+
+    /**
+     * Task to process a group of queries.
+     *
+     * @author agent
+     */
+    private class BatchKNNTask implements Callable<Void> {
+      /**
+       * Query coordinates.
+       */
+      private double[] queries;
+
+      /**
+       * kNN heaps.
+       */
+      private KNNHeap[] heaps;
+
+      /**
+       * Range of queries to process.
+       */
+      private int start, end;
+
+      /**
+       * Constructor.
+       *
+       * @param queries Query coordinates
+       * @param heaps kNN heaps
+       * @param start First query
+       * @param end End of queries (exclusive)
+       */
+      BatchKNNTask(double[] queries, KNNHeap[] heaps, int start, int end) {
+        super();
+        this.queries = queries;
+        this.heaps = heaps;
+        this.start = start;
+        this.end = end;
+      }
+
+      @Override
+      public Void call() {
+        int[] qs = new int[end - start];
+        for(int i = 0; i < qs.length; i++) {
+          qs[i] = start + i;
+        }
+        countDistanceComputations(kdBatchKNNSearch(0, ids.size(), 0, queries, heaps, qs, 0, qs.length, ids.iter(), new double[leafsize]));
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Range query for the packed k-d-tree.
+   *
+   * @author agent
+   */
+  public class PackedKDTreeRangeQuery extends AbstractDistanceRangeQuery<O> {
+    /**
+     * Exponent of the Lp norm.
+     */
+    private double p;
+
+    /**
+     * Flag for squared Euclidean distance.
+     */
+    private boolean squared;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     * @param p Exponent of the Lp norm
+     * @param squared Use squared Euclidean distance
+     */
+    public PackedKDTreeRangeQuery(DistanceQuery<O> distanceQuery, double p, boolean squared) {
+      super(distanceQuery);
+      this.p = p;
+      this.squared = squared;
+    }
+
+    @Override
+    public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList result) {
+      final double[] query = new double[dims];
+      copyQuery(obj, query, 0);
+      if(!ids.isEmpty()) {
+        countDistanceComputations(kdRangeSearch(0, ids.size(), 0, query, result, ids.iter(), range));
+      }
+    }
+
+    /**
+     * Perform a range search on the kd-tree.
+     *
+     * @param left Subtree begin
+     * @param right Subtree end (exclusive)
+     * @param axis Current splitting axis
+     * @param query Query coordinates
+     * @param res Result list
+     * @param iter Iterator variable
+     * @param radius Query radius
+     * @return Number of distance computations
+     */
+    private long kdRangeSearch(int left, int right, int axis, double[] query, ModifiableDoubleDBIDList res, DBIDArrayIter iter, double radius) {
+      if(right - left <= leafsize) {
+        for(int i = left; i < right; i++) {
+          double dist = distance(query, 0, i, p, squared);
+          if(dist <= radius) {
+            res.add(dist, iter.seek(i));
+          }
+        }
+        return right - left;
+      }
+      long dists = 0;
+      final int middle = (left + right) >>> 1;
+      final double delta = data[middle * dims + axis] - query[axis];
+      final boolean close = (squared ? delta * delta : Math.abs(delta)) <= radius;
+      final int next = (axis + 1) % dims;
+      if(close) {
+        double dist = distance(query, 0, middle, p, squared);
+        ++dists;
+        if(dist <= radius) {
+          res.add(dist, iter.seek(middle));
+        }
+      }
+      if(left < middle && (delta >= 0 || close)) {
+        dists += kdRangeSearch(left, middle, next, query, res, iter, radius);
+      }
+      if(middle + 1 < right && (delta <= 0 || close)) {
+        dists += kdRangeSearch(middle + 1, right, next, query, res, iter, radius);
+      }
+      return dists;
+    }
+  }
+
+  /**
+   * Adapter to partition the rows of the packed array along one axis.
+   *
+   * @author agent
+   */
+  private class RowAdapter implements QuickSelect.Adapter<double[]> {
+    /**
+     * Splitting axis.
+     */
+    private int axis;
+
+    /**
+     * Constructor.
+     *
+     * @param axis Splitting axis
+     */
+    RowAdapter(int axis) {
+      super();
+      this.axis = axis;
+    }
+
+    @Override
+    public void swap(double[] data, int i, int j) {
+      for(int oi = i * dims, oj = j * dims, e = oi + dims; oi < e; oi++, oj++) {
+        final double tmp = data[oi];
+        data[oi] = data[oj];
+        data[oj] = tmp;
+      }
+      ids.swap(i, j);
+    }
+
+    @Override
+    public boolean compareGreater(double[] data, int i, int j) {
+      return data[i * dims + axis] > data[j * dims + axis];
+    }
+  }
+
+  /**
+   * Task to build a subtree.
+   *
+   * @author agent
+   */
+  private class BuildTask implements Callable<Void> {
+    /**
+     * Interval of the subtree.
+     */
+    int left, right;
+
+    /**
+     * Splitting axis.
+     */
+    int axis;
+
+    /**
+     * Constructor.
+     *
+     * @param left Interval minimum
+     * @param right Interval maximum
+     * @param axis Splitting axis
+     */
+    BuildTask(int left, int right, int axis) {
+      super();
+      this.left = left;
+      this.right = right;
+      this.axis = axis;
+    }
+
+    @Override
+    public Void call() {
+      buildTree(left, right, axis);
+      return null;
+    }
+  }
+
+  /**
+   * Factory class
+   *
+   * @author agent
+   *
+   * @apiviz.stereotype factory
+   * @apiviz.has PackedKDTree
+   *
+   * @param <O> Vector type
+   */
+  @Alias({ "packedkd" })
+  public static class Factory<O extends NumberVector> implements IndexFactory<O, PackedKDTree<O>> {
+    /**
+     * Maximum size of leaf nodes.
+     */
+    int leafsize;
+
+    /**
+     * Constructor.
+     *
+     * @param leafsize Maximum size of leaf nodes.
+     */
+    public Factory(int leafsize) {
+      super();
+      this.leafsize = leafsize;
+    }
+
+    @Override
+    public PackedKDTree<O> instantiate(Relation<O> relation) {
+      return new PackedKDTree<>(relation, leafsize);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return TypeUtil.NUMBER_VECTOR_FIELD;
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author agent
+     *
+     * @apiviz.exclude
+     */
+    public static class Parameterizer<O extends NumberVector> extends AbstractParameterizer {
+      /**
+       * Maximum size of leaf nodes.
+       */
+      int leafsize;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        IntParameter leafP = new IntParameter(MinimalisticMemoryKDTree.Factory.Parameterizer.LEAFSIZE_P, 8) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(leafP)) {
+          leafsize = leafP.intValue();
+        }
+      }
+
+      @Override
+      protected Factory<O> makeInstance() {
+        return new Factory<>(leafsize);
+      }
+    }
+  }
+}
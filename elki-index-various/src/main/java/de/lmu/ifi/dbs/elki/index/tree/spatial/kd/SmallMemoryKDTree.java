@@ -20,6 +20,8 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
 
+import java.nio.ByteBuffer;
+
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
@@ -47,6 +49,7 @@ import de.lmu.ifi.dbs.elki.index.AbstractIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.SnapshotIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
@@ -87,7 +90,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 title = "Multidimensional binary search trees used for associative searching", //
 booktitle = "Communications of the ACM, Vol. 18 Issue 9, Sept. 1975", //
 url = "http://dx.doi.org/10.1145/361002.361007")
-public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>implements KNNIndex<O>, RangeIndex<O> {
+public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>implements KNNIndex<O>, RangeIndex<O>, SnapshotIndex {
   /**
    * Class logger
    */
@@ -149,6 +152,34 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>i
     buildTree(0, sorted.size(), 0, sorted.iter());
   }
 
+  @Override
+  public long getSnapshotSize() {
+    return 12L + sorted.size() * 12L;
+  }
+
+  @Override
+  public void writeSnapshot(ByteBuffer buffer) {
+    buffer.putInt(dims).putInt(leafsize).putInt(sorted.size());
+    for(DoubleDBIDListIter it = sorted.iter(); it.valid(); it.advance()) {
+      buffer.putInt(DBIDUtil.asInteger(it)).putDouble(it.doubleValue());
+    }
+  }
+
+  @Override
+  public boolean readSnapshot(ByteBuffer buffer) {
+    final int sdims = buffer.getInt(), sleafsize = buffer.getInt(), size = buffer.getInt();
+    if(sdims != RelationUtil.dimensionality(relation) || sleafsize != leafsize || size != relation.size()) {
+      return false;
+    }
+    dims = sdims;
+    sorted = DBIDUtil.newDistanceDBIDList(size);
+    for(int i = 0; i < size; i++) {
+      final int id = buffer.getInt();
+      sorted.add(buffer.getDouble(), DBIDUtil.importInteger(id));
+    }
+    return true;
+  }
+
   /**
    * Recursively build the tree by partial sorting. O(n log n) complexity.
    * Apparently there exists a variant in only O(n log log n)? Please
@@ -0,0 +1,88 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.snapshot;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.kd.PackedKDTree;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.kd.SmallMemoryKDTree;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for restoring indexes from snapshots.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class SnapshotFileIndexTest extends AbstractIndexStructureTest {
+  /**
+   * Test writing and restoring a {@link PackedKDTree}.
+   */
+  @Test
+  public void testPackedKDTree() throws IOException {
+    File file = File.createTempFile("elki-snapshot", ".bin");
+    try {
+      assertTrue(file.delete());
+      for(int i = 0; i < 2; i++) {
+        ListParameterization spatparams = new ListParameterization();
+        spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, SnapshotFileIndex.Factory.class);
+        spatparams.addParameter(SnapshotFileIndex.Factory.Parameterizer.INDEX_ID, PackedKDTree.Factory.class);
+        spatparams.addParameter(SnapshotFileIndex.Factory.Parameterizer.FILE_ID, file);
+        testExactEuclidean(spatparams, PackedKDTree.PackedKDTreeKNNQuery.class, PackedKDTree.PackedKDTreeRangeQuery.class);
+        assertTrue("Snapshot was not written.", file.length() > 0);
+      }
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Test that a snapshot of a different index is not used.
+   */
+  @Test
+  public void testIndexMismatch() throws IOException {
+    File file = File.createTempFile("elki-snapshot", ".bin");
+    try {
+      assertTrue(file.delete());
+      ListParameterization spatparams = new ListParameterization();
+      spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, SnapshotFileIndex.Factory.class);
+      spatparams.addParameter(SnapshotFileIndex.Factory.Parameterizer.INDEX_ID, PackedKDTree.Factory.class);
+      spatparams.addParameter(SnapshotFileIndex.Factory.Parameterizer.FILE_ID, file);
+      testExactEuclidean(spatparams, PackedKDTree.PackedKDTreeKNNQuery.class, PackedKDTree.PackedKDTreeRangeQuery.class);
+      spatparams = new ListParameterization();
+      spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, SnapshotFileIndex.Factory.class);
+      spatparams.addParameter(SnapshotFileIndex.Factory.Parameterizer.INDEX_ID, SmallMemoryKDTree.Factory.class);
+      spatparams.addParameter(SnapshotFileIndex.Factory.Parameterizer.FILE_ID, file);
+      testExactEuclidean(spatparams, SmallMemoryKDTree.KDTreeKNNQuery.class, SmallMemoryKDTree.KDTreeRangeQuery.class);
+    }
+    finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.rknn.RKNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.index.Index;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RKNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.SnapshotIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.io.Fingerprint;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Index wrapper that restores the inner index from a snapshot file, if the
+ * file was written for the same data set and index, and otherwise builds the
+ * index and writes a new snapshot.
+ * <p>
+ * The snapshot file stores a fingerprint of the data set (object identifiers
+ * and values), the class of the index, and the index itself. It is memory
+ * mapped for reading and writing, and is limited to 2 GB.
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.composedOf SnapshotIndex
+ *
+ * @param <O> Object type
+ */
+public class SnapshotFileIndex<O> implements KNNIndex<O>, RangeIndex<O>, RKNNIndex<O> {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(SnapshotFileIndex.class);
+
+  /**
+   * File magic.
+   */
+  private static final int MAGIC = 0x454C4B53;
+
+  /**
+   * File format version.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * Relation indexed.
+   */
+  Relation<O> relation;
+
+  /**
+   * Inner index.
+   */
+  Index inner;
+
+  /**
+   * Snapshot file.
+   */
+  File file;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation indexed
+   * @param inner Inner index
+   * @param file Snapshot file
+   */
+  public SnapshotFileIndex(Relation<O> relation, Index inner, File file) {
+    super();
+    this.relation = relation;
+    this.inner = inner;
+    this.file = file;
+  }
+
+  @Override
+  public void initialize() {
+    if(!(inner instanceof SnapshotIndex)) {
+      LOG.warning("Index " + inner.getClass().getName() + " does not support snapshots.");
+      inner.initialize();
+      return;
+    }
+    final SnapshotIndex sinner = (SnapshotIndex) inner;
+    final byte[] name = inner.getClass().getName().getBytes(StandardCharsets.UTF_8);
+    final long fingerprint = fingerprint(relation);
+    if(file.exists()) {
+      try {
+        if(readSnapshot(sinner, name, fingerprint)) {
+          if(LOG.isVerbose()) {
+            LOG.verbose("Restored index from snapshot " + file);
+          }
+          return;
+        }
+        LOG.warning("Snapshot " + file + " does not match the data or index, rebuilding.");
+      }
+      catch(IOException e) {
+        LOG.warning("Could not read snapshot " + file + ", rebuilding: " + e.getMessage());
+      }
+    }
+    inner.initialize();
+    try {
+      writeSnapshot(sinner, name, fingerprint);
+    }
+    catch(IOException e) {
+      LOG.warning("Could not write snapshot " + file + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Restore the index from the snapshot file.
+   *
+   * @param sinner Index
+   * @param name Index class name
+   * @param fingerprint Data fingerprint
+   * @return {@code true} on success, {@code false} if the snapshot does not
+   *         match
+   * @throws IOException on I/O errors
+   */
+  private boolean readSnapshot(SnapshotIndex sinner, byte[] name, long fingerprint) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if(size < 28 + name.length || size > Integer.MAX_VALUE) {
+        return false;
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      buffer.order(ByteOrder.nativeOrder());
+      if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != fingerprint) {
+        return false;
+      }
+      byte[] sname = new byte[buffer.getInt()];
+      if(sname.length != name.length) {
+        return false;
+      }
+      buffer.get(sname);
+      if(!Arrays.equals(name, sname) || buffer.getLong() != buffer.remaining()) {
+        return false;
+      }
+      try {
+        return sinner.readSnapshot(buffer);
+      }
+      catch(RuntimeException e) {
+        // The index may have been modified partially already.
+        throw new AbortException("Corrupt index snapshot " + file, e);
+      }
+    }
+  }
+
+  /**
+   * Write the snapshot file.
+   *
+   * @param sinner Index
+   * @param name Index class name
+   * @param fingerprint Data fingerprint
+   * @throws IOException on I/O errors
+   */
+  private void writeSnapshot(SnapshotIndex sinner, byte[] name, long fingerprint) throws IOException {
+    final long payload = sinner.getSnapshotSize();
+    final long size = 28 + name.length + payload;
+    if(size > Integer.MAX_VALUE) {
+      LOG.warning("Index is too large for a snapshot: " + size + " bytes.");
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      buffer.order(ByteOrder.nativeOrder());
+      buffer.putInt(MAGIC).putInt(VERSION).putLong(fingerprint);
+      buffer.putInt(name.length).put(name).putLong(payload);
+      sinner.writeSnapshot(buffer);
+      buffer.force();
+    }
+  }
+
+  /**
+   * Compute a fingerprint of the object identifiers and values of a relation.
+   *
+   * @param relation Relation
+   * @return Fingerprint
+   * @see Fingerprint#data(Relation)
+   */
+  public static long fingerprint(Relation<?> relation) {
+    return Fingerprint.data(relation);
+  }
+
+  @Override
+  public String getLongName() {
+    return inner.getLongName();
+  }
+
+  @Override
+  public String getShortName() {
+    return inner.getShortName();
+  }
+
+  @Override
+  public void logStatistics() {
+    inner.logStatistics();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    return inner instanceof KNNIndex ? ((KNNIndex<O>) inner).getKNNQuery(distanceQuery, hints) : null;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    return inner instanceof RangeIndex ? ((RangeIndex<O>) inner).getRangeQuery(distanceQuery, hints) : null;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public RKNNQuery<O> getRKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    return inner instanceof RKNNIndex ? ((RKNNIndex<O>) inner).getRKNNQuery(distanceQuery, hints) : null;
+  }
+
+  /**
+   * Index factory.
+   *
+   * @author agent
+   *
+   * @apiviz.has SnapshotFileIndex
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> implements IndexFactory<O, SnapshotFileIndex<O>> {
+    /**
+     * Inner index factory.
+     */
+    IndexFactory<O, ?> inner;
+
+    /**
+     * Snapshot file.
+     */
+    File file;
+
+    /**
+     * Constructor.
+     *
+     * @param inner Inner index factory
+     * @param file Snapshot file
+     */
+    public Factory(IndexFactory<O, ?> inner, File file) {
+      super();
+      this.inner = inner;
+      this.file = file;
+    }
+
+    @Override
+    public SnapshotFileIndex<O> instantiate(Relation<O> relation) {
+      Index inneri = inner.instantiate(relation);
+      if(inneri == null) {
+        return null;
+      }
+      return new SnapshotFileIndex<>(relation, inneri, file);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return inner.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author agent
+     *
+     * @apiviz.exclude
+     *
+     * @param <O> Object type
+     */
+    public static class Parameterizer<O> extends AbstractParameterizer {
+      /**
+       * Option ID for the inner index to use.
+       */
+      public static final OptionID INDEX_ID = new OptionID("snapshot.index", "Index to restore from a snapshot, or to build and save.");
+
+      /**
+       * Option ID for the snapshot file.
+       */
+      public static final OptionID FILE_ID = new OptionID("snapshot.file", "File to store the index snapshot in.");
+
+      /**
+       * Inner index factory.
+       */
+      IndexFactory<O, ?> inner;
+
+      /**
+       * Snapshot file.
+       */
+      File file;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        ObjectParameter<IndexFactory<O, ?>> innerP = new ObjectParameter<>(INDEX_ID, IndexFactory.class);
+        if(config.grab(innerP)) {
+          inner = innerP.instantiateClass(config);
+        }
+        FileParameter fileP = new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE);
+        if(config.grab(fileP)) {
+          file = fileP.getValue();
+        }
+      }
+
+      @Override
+      protected Factory<O> makeInstance() {
+        return new Factory<>(inner, file);
+      }
+    }
+  }
+}
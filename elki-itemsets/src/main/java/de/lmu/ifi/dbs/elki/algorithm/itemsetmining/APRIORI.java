@@ -24,13 +24,17 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
 
+import de.lmu.ifi.dbs.elki.algorithm.itemsetmining.VerticalIndex.TidSet;
 import de.lmu.ifi.dbs.elki.data.BitVector;
 import de.lmu.ifi.dbs.elki.data.SparseFeatureVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
@@ -39,6 +43,8 @@ import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.FrequentItemsetsResult;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.BitsUtil;
@@ -161,25 +167,28 @@ public class APRIORI extends AbstractFrequentItemsetAlgorithm {
         if(minlength <= 2) {
           solution.addAll(candidates);
         }
-        for(int length = 3; length <= maxlength && candidates.size() >= length; length++) {
-          Duration timel = LOG.newDuration(STAT + length + "-items.time").begin();
-          // Join to get the new candidates
-          candidates = aprioriGenerate(candidates, length, dim);
-          if(LOG.isDebuggingFinest()) {
-            LOG.debugFinest(debugDumpCandidates(new StringBuilder().append("Before pruning: "), candidates, meta));
-          }
-          survivors = DBIDUtil.newArray(ids.size());
-          candidates = frequentItemsets(candidates, relation, needed, ids, survivors, length);
-          ids = survivors; // Continue with reduced set of transactions.
-          LOG.statistics(timel.end());
-          if(LOG.isStatistics()) {
-            LOG.statistics(new LongStatistic(STAT + length + "-items.frequent", candidates.size()));
-            LOG.statistics(new LongStatistic(STAT + length + "-items.transactions", ids.size()));
-          }
-          if(LOG.isDebuggingFine()) {
-            LOG.debugFine(debugDumpCandidates(new StringBuilder(), candidates, meta));
+        if(maxlength >= 3 && candidates.size() >= 3) {
+          // Vertical representation of the remaining transactions.
+          Duration timev = LOG.newDuration(STAT + "vertical-index.time").begin();
+          VerticalIndex index = new VerticalIndex(relation, ids, dim, needed);
+          LOG.statistics(timev.end());
+          for(int length = 3; length <= maxlength && candidates.size() >= length; length++) {
+            Duration timel = LOG.newDuration(STAT + length + "-items.time").begin();
+            // Join to get the new candidates
+            candidates = aprioriGenerate(candidates, length, dim);
+            if(LOG.isDebuggingFinest()) {
+              LOG.debugFinest(debugDumpCandidates(new StringBuilder().append("Before pruning: "), candidates, meta));
+            }
+            candidates = frequentItemsets(candidates, index, needed, length);
+            LOG.statistics(timel.end());
+            if(LOG.isStatistics()) {
+              LOG.statistics(new LongStatistic(STAT + length + "-items.frequent", candidates.size()));
+            }
+            if(LOG.isDebuggingFine()) {
+              LOG.debugFine(debugDumpCandidates(new StringBuilder(), candidates, meta));
+            }
+            solution.addAll(candidates);
           }
-          solution.addAll(candidates);
         }
       }
     }
@@ -197,11 +206,33 @@ public class APRIORI extends AbstractFrequentItemsetAlgorithm {
   protected List<OneItemset> buildFrequentOneItemsets(final Relation<? extends SparseFeatureVector<?>> relation, final int dim, final int needed) {
     // TODO: use TIntList and prefill appropriately to avoid knowing "dim"
     // beforehand?
-    int[] counts = new int[dim];
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      SparseFeatureVector<?> bv = relation.get(iditer);
-      for(int it = bv.iter(); bv.iterValid(it); it = bv.iterAdvance(it)) {
-        counts[bv.iterDim(it)]++;
+    // Count in parallel, on blocks of transactions.
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int numblocks = numBlocks(ids.size());
+    final int[][] blockcounts = new int[numblocks][];
+    List<Callable<Void>> tasks = new ArrayList<>(numblocks);
+    for(int b = 0; b < numblocks; b++) {
+      final int block = b;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          int[] counts = blockcounts[block] = new int[dim];
+          DBIDArrayIter iditer = ids.iter();
+          for(int i = blockStart(block, numblocks, ids.size()), e = blockStart(block + 1, numblocks, ids.size()); i < e; i++) {
+            SparseFeatureVector<?> bv = relation.get(iditer.seek(i));
+            for(int it = bv.iter(); bv.iterValid(it); it = bv.iterAdvance(it)) {
+              counts[bv.iterDim(it)]++;
+            }
+          }
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    int[] counts = blockcounts[0];
+    for(int b = 1; b < numblocks; b++) {
+      for(int i = 0; i < dim; i++) {
+        counts[i] += blockcounts[b][i];
       }
     }
     if(LOG.isStatistics()) {
@@ -230,7 +261,7 @@ public class APRIORI extends AbstractFrequentItemsetAlgorithm {
    */
   protected List<SparseItemset> buildFrequentTwoItemsets(List<OneItemset> oneitems, final Relation<BitVector> relation, final int dim, final int needed, DBIDs ids, ArrayModifiableDBIDs survivors) {
     int f1 = 0;
-    long[] mask = BitsUtil.zero(dim);
+    final long[] mask = BitsUtil.zero(dim);
     for(OneItemset supported : oneitems) {
       BitsUtil.setI(mask, supported.item);
       f1++;
@@ -238,25 +269,57 @@ public class APRIORI extends AbstractFrequentItemsetAlgorithm {
     if(LOG.isStatistics()) {
       LOG.statistics(new LongStatistic(STAT + "2-items.candidates", f1 * (long) (f1 - 1)));
     }
+    // Count in parallel, on blocks of transactions.
+    final ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+    final int numblocks = numBlocks(aids.size());
     // We quite aggressively size the map, assuming that almost each combination
     // is present somewhere. If this won't fit into memory, we're likely running
-    // OOM somewhere later anyway!
-    Long2IntOpenHashMap map = new Long2IntOpenHashMap((f1 * (f1 - 1)) >>> 1);
-    final long[] scratch = BitsUtil.zero(dim);
-    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
-      BitsUtil.setI(scratch, mask);
-      relation.get(iditer).andOnto(scratch);
-      int lives = 0;
-      for(int i = BitsUtil.nextSetBit(scratch, 0); i >= 0; i = BitsUtil.nextSetBit(scratch, i + 1)) {
-        for(int j = BitsUtil.nextSetBit(scratch, i + 1); j >= 0; j = BitsUtil.nextSetBit(scratch, j + 1)) {
-          long key = (((long) i) << 32) | j;
-          map.put(key, 1 + map.get(key));
-          ++lives;
+    // OOM somewhere later anyway! With multiple threads, let the maps grow.
+    final int initialsize = numblocks > 1 ? 16 : (f1 * (f1 - 1)) >>> 1;
+    final Long2IntOpenHashMap[] maps = new Long2IntOpenHashMap[numblocks];
+    final ArrayModifiableDBIDs[] blocksurvivors = new ArrayModifiableDBIDs[numblocks];
+    List<Callable<Void>> tasks = new ArrayList<>(numblocks);
+    for(int b = 0; b < numblocks; b++) {
+      final int block = b;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          final int start = blockStart(block, numblocks, aids.size()), end = blockStart(block + 1, numblocks, aids.size());
+          Long2IntOpenHashMap map = maps[block] = new Long2IntOpenHashMap(initialsize);
+          ArrayModifiableDBIDs surv = blocksurvivors[block] = DBIDUtil.newArray(end - start);
+          final long[] scratch = BitsUtil.zero(dim);
+          DBIDArrayIter iditer = aids.iter();
+          for(int o = start; o < end; o++) {
+            iditer.seek(o);
+            BitsUtil.setI(scratch, mask);
+            relation.get(iditer).andOnto(scratch);
+            int lives = 0;
+            for(int i = BitsUtil.nextSetBit(scratch, 0); i >= 0; i = BitsUtil.nextSetBit(scratch, i + 1)) {
+              for(int j = BitsUtil.nextSetBit(scratch, i + 1); j >= 0; j = BitsUtil.nextSetBit(scratch, j + 1)) {
+                long key = (((long) i) << 32) | j;
+                map.put(key, 1 + map.get(key));
+                ++lives;
+              }
+            }
+            if(lives > 2) {
+              surv.add(iditer);
+            }
+          }
+          return null;
         }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    // Merge the partial counts, keeping the survivors in order.
+    Long2IntOpenHashMap map = maps[0];
+    survivors.addDBIDs(blocksurvivors[0]);
+    for(int b = 1; b < numblocks; b++) {
+      for(ObjectIterator<Long2IntMap.Entry> iter = maps[b].long2IntEntrySet().fastIterator(); iter.hasNext();) {
+        Long2IntMap.Entry entry = iter.next();
+        map.addTo(entry.getLongKey(), entry.getIntValue());
       }
-      if(lives > 2) {
-        survivors.add(iditer);
-      }
+      maps[b] = null;
+      survivors.addDBIDs(blocksurvivors[b]);
     }
     // Generate candidates of length 2.
     List<SparseItemset> frequent = new ArrayList<>(f1 * (int) FastMath.sqrt(f1));
@@ -379,47 +442,64 @@ public class APRIORI extends AbstractFrequentItemsetAlgorithm {
   }
 
   /**
-   * Returns the frequent BitSets out of the given BitSets with respect to the
-   * given database.
+   * Returns the frequent itemsets out of the given candidates, by intersecting
+   * the transaction sets of their items.
+   * <p>
+   * The candidates are partitioned into contiguous blocks that are counted in
+   * parallel. Because the candidates are sorted, consecutive candidates
+   * usually share a prefix, and the intersection of the prefix is reused.
    *
    * @param candidates the candidates to be evaluated
-   * @param relation the database to evaluate the candidates on
+   * @param index Vertical index of the transactions
    * @param needed Minimum support needed
-   * @param ids Objects to process
-   * @param survivors Output: objects that had at least two 1-frequent items.
    * @param length Itemset length
    * @return Itemsets with sufficient support
    */
-  protected List<? extends Itemset> frequentItemsets(List<? extends Itemset> candidates, Relation<BitVector> relation, int needed, DBIDs ids, ArrayModifiableDBIDs survivors, int length) {
+  protected List<? extends Itemset> frequentItemsets(final List<? extends Itemset> candidates, final VerticalIndex index, final int needed, final int length) {
     if(candidates.isEmpty()) {
       return Collections.emptyList();
     }
-    Itemset first = candidates.get(0);
-    // We have an optimized codepath for large and sparse itemsets.
-    // It probably pays off when #cands >> (avlen choose length) but we do not
-    // currently have the average number of items. These thresholds yield
-    // 2700, 6400, 12500, ... and thus will almost always be met until the
-    // number of frequent itemsets is about to break down to 0.
-    if(candidates.size() > length * length * length * 100 && first instanceof SparseItemset) {
-      // Assume that all itemsets are sparse itemsets!
-      @SuppressWarnings("unchecked")
-      List<SparseItemset> sparsecand = (List<SparseItemset>) candidates;
-      return frequentItemsetsSparse(sparsecand, relation, needed, ids, survivors, length);
-    }
-    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
-      BitVector bv = relation.get(iditer);
-      // TODO: exploit that the candidate set it sorted?
-      int lives = 0;
-      for(Itemset candidate : candidates) {
-        if(candidate.containedIn(bv)) {
-          candidate.increaseSupport();
-          ++lives;
+    final int size = candidates.size();
+    final int numblocks = Math.max(1, Math.min(ParallelCore.getCore().getParallelism(), size >>> 6));
+    List<Callable<Void>> tasks = new ArrayList<>(numblocks);
+    for(int b = 0; b < numblocks; b++) {
+      final int start = blockStart(b, numblocks, size), end = blockStart(b + 1, numblocks, size);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          final int last = length - 1;
+          int[] items = new int[length];
+          // prefix[d] is the intersection of items 0..d
+          TidSet[] prefix = new TidSet[last];
+          int valid = 0;
+          for(int c = start; c < end; c++) {
+            Itemset cand = candidates.get(c);
+            int same = 0, d = 0;
+            for(int it = cand.iter(); cand.iterValid(it); it = cand.iterAdvance(it), d++) {
+              final int item = cand.iterDim(it);
+              if(same == d && d < valid && items[d] == item) {
+                ++same;
+              }
+              items[d] = item;
+            }
+            assert (d == length);
+            for(d = same; d < last; d++) {
+              // Items missing from the index do not occur often enough in the
+              // remaining transactions; then the whole prefix is infrequent.
+              TidSet cur = index.get(items[d]);
+              prefix[d] = cur == null || (d > 0 && prefix[d - 1] == null) ? null //
+                  : d == 0 ? cur : prefix[d - 1].size() < needed ? prefix[d - 1] : index.intersect(prefix[d - 1], cur);
+            }
+            valid = last;
+            // Infrequent prefixes yield infrequent candidates.
+            TidSet pre = prefix[last - 1], cur = index.get(items[last]);
+            cand.support = pre == null || cur == null || pre.size() < needed ? 0 : VerticalIndex.intersectionSize(pre, cur);
+          }
+          return null;
         }
-      }
-      if(lives > length) {
-        survivors.add(iditer);
-      }
+      });
     }
+    ParallelExecutor.run(tasks);
     // Retain only those with minimum support:
     List<Itemset> frequent = new ArrayList<>(candidates.size());
     for(Iterator<? extends Itemset> iter = candidates.iterator(); iter.hasNext();) {
@@ -432,129 +512,26 @@ public class APRIORI extends AbstractFrequentItemsetAlgorithm {
   }
 
   /**
-   * Returns the frequent BitSets out of the given BitSets with respect to the
-   * given database. Optimized implementation for SparseItemset.
-   *
-   * @param candidates the candidates to be evaluated
-   * @param relation the database to evaluate the candidates on
-   * @param needed Minimum support needed
-   * @param ids Objects to process
-   * @param survivors Output: objects that had at least two 1-frequent items.
-   * @param length Itemset length
-   * @return Itemsets with sufficient support
-   */
-  protected List<SparseItemset> frequentItemsetsSparse(List<SparseItemset> candidates, Relation<BitVector> relation, int needed, DBIDs ids, ArrayModifiableDBIDs survivors, int length) {
-    // Current search interval:
-    int begin = 0, end = candidates.size();
-    int[] scratchi = new int[length], iters = new int[length];
-    SparseItemset scratch = new SparseItemset(scratchi);
-    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
-      BitVector bv = relation.get(iditer);
-      if(!initializeSearchItemset(bv, scratchi, iters)) {
-        continue;
-      }
-      int lives = 0;
-      while(begin < end) {
-        begin = binarySearch(candidates, scratch, begin, end);
-        if(begin > 0) {
-          candidates.get(begin).increaseSupport();
-          ++lives;
-        }
-        else {
-          begin = (-begin) - 1;
-        }
-        if(begin >= end || !nextSearchItemset(bv, scratchi, iters)) {
-          break;
-        }
-      }
-      for(Itemset candidate : candidates) {
-        if(candidate.containedIn(bv)) {
-          candidate.increaseSupport();
-          ++lives;
-        }
-      }
-      if(lives > length) {
-        survivors.add(iditer);
-      }
-    }
-    // Retain only those with minimum support:
-    List<SparseItemset> frequent = new ArrayList<>(candidates.size());
-    for(Iterator<SparseItemset> iter = candidates.iterator(); iter.hasNext();) {
-      final SparseItemset candidate = iter.next();
-      if(candidate.getSupport() >= needed) {
-        frequent.add(candidate);
-      }
-    }
-    return frequent;
-  }
-
-  /**
-   * Initialize the scratch itemset.
-   *
-   * @param bv Bit vector data source
-   * @param scratchi Scratch itemset
-   * @param iters Iterator array
-   * @return {@code true} if the itemset had minimum length
-   */
-  private boolean initializeSearchItemset(BitVector bv, int[] scratchi, int[] iters) {
-    for(int i = 0; i < scratchi.length; i++) {
-      iters[i] = (i == 0) ? bv.iter() : bv.iterAdvance(iters[i - 1]);
-      if(iters[i] < 0) {
-        return false;
-      }
-      scratchi[i] = bv.iterDim(iters[i]);
-    }
-    return true;
-  }
-
-  /**
-   * Advance scratch itemset to the next.
+   * Number of blocks to split the transactions into for parallel counting.
    *
-   * @param bv Bit vector data source
-   * @param scratchi Scratch itemset
-   * @param iters Iterator array
-   * @return {@code true} if the itemset had minimum length
+   * @param size Number of transactions
+   * @return Number of blocks
    */
-  private boolean nextSearchItemset(BitVector bv, int[] scratchi, int[] iters) {
-    final int last = scratchi.length - 1;
-    for(int j = last; j >= 0; j--) {
-      int n = bv.iterAdvance(iters[j]);
-      if(n >= 0 && (j == last || n != iters[j + 1])) {
-        iters[j] = n;
-        scratchi[j] = bv.iterDim(n);
-        return true; // Success
-      }
-    }
-    return false;
+  private static int numBlocks(int size) {
+    // Avoid tiny blocks.
+    return Math.max(1, Math.min(ParallelCore.getCore().getParallelism(), size >>> 10));
   }
 
   /**
-   * Binary-search for the next-larger element.
+   * Start of a block.
    *
-   * @param candidates Candidates to search for
-   * @param scratch Scratch space
-   * @param begin Search interval begin
-   * @param end Search interval end
-   * @return Position of first equal-or-larger element
+   * @param block Block number
+   * @param numblocks Number of blocks
+   * @param size Total size
+   * @return Start offset of the block
    */
-  private int binarySearch(List<SparseItemset> candidates, SparseItemset scratch, int begin, int end) {
-    --end;
-    while(begin < end) {
-      final int mid = (begin + end) >>> 1;
-      SparseItemset midVal = candidates.get(mid);
-      int cmp = midVal.compareTo(scratch);
-
-      if(cmp < 0) {
-        begin = mid + 1;
-      }
-      else if(cmp > 0) {
-        end = mid - 1;
-      }
-      else {
-        return mid; // key found
-      }
-    }
-    return -(begin + 1); // key not found, return next
+  private static int blockStart(int block, int numblocks, int size) {
+    return (int) (block * (long) size / numblocks);
   }
 
   /**
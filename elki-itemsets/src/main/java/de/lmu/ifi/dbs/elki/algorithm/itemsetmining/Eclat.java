@@ -24,24 +24,23 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import de.lmu.ifi.dbs.elki.algorithm.itemsetmining.VerticalIndex.TidSet;
 import de.lmu.ifi.dbs.elki.data.BitVector;
-import de.lmu.ifi.dbs.elki.data.SparseFeatureVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
 import de.lmu.ifi.dbs.elki.database.Database;
-import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
-import de.lmu.ifi.dbs.elki.database.ids.HashSetDBIDs;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.FrequentItemsetsResult;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
@@ -54,11 +53,9 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * satisfied.
  *
  * This implementation is the basic algorithm only, and does not use diffsets.
- * Columns are represented using a sparse representation, which theoretically is
- * beneficial when the density is less than 1/31. This corresponds roughly to a
- * minimum support of 3% for 1-itemsets. When searching for itemsets with a
- * larger minimum support, it may be desirable to use a dense bitset
- * representation instead and/or implement an automatic switching technique!
+ * Columns are stored in a {@link VerticalIndex}, which automatically switches
+ * between a sparse representation and dense bitsets at a density of 1/32.
+ * The prefixes starting with different items are mined in parallel.
  *
  * Performance of this implementation is probably surpassed with a low-level C
  * implementation based on SIMD bitset operations as long as support of an
@@ -116,17 +113,37 @@ public class Eclat extends AbstractFrequentItemsetAlgorithm {
 
     LOG.verbose("Build 1-dimensional transaction lists.");
     Duration ctime = LOG.newDuration(STAT + "eclat.transposition.time").begin();
-    DBIDs[] idx = buildIndex(relation, dim, minsupp);
+    final VerticalIndex idx = new VerticalIndex(relation, relation.getDBIDs(), dim, minsupp);
     LOG.statistics(ctime.end());
 
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building frequent itemsets", idx.length, LOG) : null;
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building frequent itemsets", dim, LOG) : null;
     Duration etime = LOG.newDuration(STAT + "eclat.extraction.time").begin();
-    final List<Itemset> solution = new ArrayList<>();
-    for(int i = 0; i < idx.length; i++) {
-      LOG.incrementProcessed(prog);
-      extractItemsets(idx, i, minsupp, solution);
+    // Each thread processes the next unprocessed first item.
+    final AtomicInteger next = new AtomicInteger();
+    final int numthreads = Math.max(1, Math.min(ParallelCore.getCore().getParallelism(), dim));
+    final List<List<Itemset>> parts = new ArrayList<>(numthreads);
+    List<Callable<Void>> tasks = new ArrayList<>(numthreads);
+    for(int t = 0; t < numthreads; t++) {
+      final List<Itemset> part = new ArrayList<>();
+      parts.add(part);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          int[] buf = new int[dim];
+          for(int i = next.getAndIncrement(); i < dim; i = next.getAndIncrement()) {
+            extractItemsets(idx, i, dim, minsupp, buf, part);
+            LOG.incrementProcessed(prog);
+          }
+          return null;
+        }
+      });
     }
+    ParallelExecutor.run(tasks);
     LOG.ensureCompleted(prog);
+    final List<Itemset> solution = new ArrayList<>();
+    for(List<Itemset> part : parts) {
+      solution.addAll(part);
+    }
     Collections.sort(solution);
     LOG.statistics(etime.end());
 
@@ -135,9 +152,8 @@ public class Eclat extends AbstractFrequentItemsetAlgorithm {
   }
 
   // TODO: implement diffsets.
-  private void extractItemsets(DBIDs[] idx, int start, int minsupp, List<Itemset> solution) {
-    int[] buf = new int[idx.length];
-    DBIDs iset = idx[start];
+  private void extractItemsets(VerticalIndex idx, int start, int dim, int minsupp, int[] buf, List<Itemset> solution) {
+    TidSet iset = idx.get(start);
     if(iset == null || iset.size() < minsupp) {
       return;
     }
@@ -146,77 +162,36 @@ public class Eclat extends AbstractFrequentItemsetAlgorithm {
     }
     if(maxlength > 1) {
       buf[0] = start;
-      extractItemsets(iset, idx, buf, 1, start + 1, minsupp, solution);
+      extractItemsets(iset, idx, dim, buf, 1, start + 1, minsupp, solution);
     }
   }
 
-  private void extractItemsets(DBIDs iset, DBIDs[] idx, int[] buf, int depth, int start, int minsupp, List<Itemset> solution) {
-    // TODO: reuse arrays.
+  private void extractItemsets(TidSet iset, VerticalIndex idx, int dim, int[] buf, int depth, int start, int minsupp, List<Itemset> solution) {
     final int depth1 = depth + 1;
-    for(int i = start; i < idx.length; i++) {
-      if(idx[i] == null) {
+    for(int i = start; i < dim; i++) {
+      final TidSet other = idx.get(i);
+      if(other == null) {
         continue;
       }
-      DBIDs ids = mergeJoin(iset, idx[i]);
+      // Without further extensions, we only need the support.
+      if(depth1 >= maxlength) {
+        final int supp = VerticalIndex.intersectionSize(iset, other);
+        if(supp >= minsupp && depth1 >= minlength) {
+          buf[depth] = i;
+          solution.add(new SparseItemset(Arrays.copyOf(buf, depth1), supp));
+        }
+        continue;
+      }
+      TidSet ids = idx.intersect(iset, other);
       if(ids.size() < minsupp) {
         continue;
       }
       buf[depth] = i;
-      int[] items = Arrays.copyOf(buf, depth1);
       if(depth1 >= minlength) {
-        solution.add(new SparseItemset(items, ids.size()));
-      }
-      if(depth1 <= maxlength) {
-        extractItemsets(ids, idx, buf, depth1, i + 1, minsupp, solution);
-      }
-    }
-  }
-
-  private DBIDs mergeJoin(DBIDs first, DBIDs second) {
-    assert (!(first instanceof HashSetDBIDs));
-    assert (!(second instanceof HashSetDBIDs));
-    ArrayModifiableDBIDs ids = DBIDUtil.newArray();
-
-    DBIDIter i1 = first.iter(), i2 = second.iter();
-    while(i1.valid() && i2.valid()) {
-      int c = DBIDUtil.compare(i1, i2);
-      if(c < 0) {
-        i1.advance();
-      }
-      else if(c > 0) {
-        i2.advance();
-      }
-      else {
-        ids.add(i1);
-        i1.advance();
-        i2.advance();
-      }
-    }
-    return ids;
-  }
-
-  private DBIDs[] buildIndex(Relation<BitVector> relation, int dim, int minsupp) {
-    ArrayModifiableDBIDs[] idx = new ArrayModifiableDBIDs[dim];
-    for(int i = 0; i < dim; i++) {
-      idx[i] = DBIDUtil.newArray();
-    }
-    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
-      SparseFeatureVector<?> bv = relation.get(iter);
-      // TODO: only count those which satisfy minlength?
-      for(int it = bv.iter(); bv.iterValid(it); it = bv.iterAdvance(it)) {
-        idx[bv.iterDim(it)].add(iter);
-      }
-    }
-    // Forget non-frequent 1-itemsets.
-    for(int i = 0; i < dim; i++) {
-      if(idx[i].size() < minsupp) {
-        idx[i] = null;
-      }
-      else {
-        idx[i].sort();
+        solution.add(new SparseItemset(Arrays.copyOf(buf, depth1), ids.size()));
       }
+      extractItemsets(ids, idx, dim, buf, depth1, i + 1, minsupp, solution);
     }
-    return idx;
   }
 
   @Override
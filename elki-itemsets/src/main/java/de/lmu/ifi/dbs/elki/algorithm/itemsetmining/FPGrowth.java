@@ -24,6 +24,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.lmu.ifi.dbs.elki.data.BitVector;
 import de.lmu.ifi.dbs.elki.data.SparseFeatureVector;
@@ -40,6 +42,8 @@ import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.FrequentItemsetsResult;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.IntegerArrayQuickSort;
@@ -156,26 +160,22 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
     Duration etime = LOG.newDuration(STAT + "fp-growth.extraction.time").begin();
     final IndefiniteProgress itemp = LOG.isVerbose() ? new IndefiniteProgress("Frequent itemsets", LOG) : null;
     final List<Itemset> solution = new ArrayList<>();
-    // Start extraction with the least frequent items
-    tree.extract(minsupp, minlength, maxlength, true, new FPTree.Collector() {
-      @Override
-      public void collect(int support, int[] data, int start, int plen) {
-        // Always translate the indexes back to the original values via 'idx'!
-        if(plen - start == 1) {
-          solution.add(new OneItemset(idx[data[start]], support));
-          LOG.incrementProcessed(itemp);
-          return;
-        }
-        // Copy from buffer to a permanent storage
-        int[] indices = new int[plen - start];
-        for(int i = start, j = 0; i < plen; i++) {
-          indices[j++] = idx[data[i]]; // Translate to original items
-        }
-        Arrays.sort(indices);
-        solution.add(new SparseItemset(indices, support));
-        LOG.incrementProcessed(itemp);
+    final int threads = ParallelCore.getCore().getParallelism();
+    if(threads > 1 && items > 1) {
+      // Project the top-level items in parallel, sharing the tree read-only.
+      ItemsetCollector[] cols = new ItemsetCollector[threads];
+      for(int i = 0; i < threads; i++) {
+        cols[i] = new ItemsetCollector(idx, new ArrayList<Itemset>(), itemp);
       }
-    });
+      tree.extractParallel(minsupp, minlength, maxlength, cols);
+      for(ItemsetCollector col : cols) {
+        solution.addAll(col.solution);
+      }
+    }
+    else {
+      // Start extraction with the least frequent items
+      tree.extract(minsupp, minlength, maxlength, true, new ItemsetCollector(idx, solution, itemp));
+    }
     LOG.setCompleted(itemp);
     Collections.sort(solution);
     LOG.statistics(etime.end());
@@ -184,6 +184,59 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
     return new FrequentItemsetsResult("FP-Growth", "fp-growth", solution, meta, relation.size());
   }
 
+  /**
+   * Collector translating the itemsets back to the original items.
+   *
+   * @author agent
+   */
+  private static class ItemsetCollector implements FPTree.Collector {
+    /**
+     * Translation to the original items.
+     */
+    private final int[] idx;
+
+    /**
+     * Output list.
+     */
+    final List<Itemset> solution;
+
+    /**
+     * Progress, may be {@code null}.
+     */
+    private final IndefiniteProgress itemp;
+
+    /**
+     * Constructor.
+     *
+     * @param idx Translation to the original items
+     * @param solution Output list
+     * @param itemp Progress, may be {@code null}
+     */
+    ItemsetCollector(int[] idx, List<Itemset> solution, IndefiniteProgress itemp) {
+      this.idx = idx;
+      this.solution = solution;
+      this.itemp = itemp;
+    }
+
+    @Override
+    public void collect(int support, int[] data, int start, int plen) {
+      // Always translate the indexes back to the original values via 'idx'!
+      if(plen - start == 1) {
+        solution.add(new OneItemset(idx[data[start]], support));
+        LOG.incrementProcessed(itemp);
+        return;
+      }
+      // Copy from buffer to a permanent storage
+      int[] indices = new int[plen - start];
+      for(int i = start, j = 0; i < plen; i++) {
+        indices[j++] = idx[data[i]]; // Translate to original items
+      }
+      Arrays.sort(indices);
+      solution.add(new SparseItemset(indices, support));
+      LOG.incrementProcessed(itemp);
+    }
+  }
+
   /**
    * Count the support of each 1-item.
    *
@@ -354,6 +407,38 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
       LOG.ensureCompleted(prog);
     }
 
+    /**
+     * Extract itemsets in parallel, one top-level item at a time per thread.
+     * The tree itself is not modified, only the projected trees.
+     *
+     * @param minsupp Minimum support
+     * @param minlength Minimum length
+     * @param maxlength Maximum length
+     * @param cols Itemset collectors, one per thread
+     */
+    public void extractParallel(final int minsupp, final int minlength, final int maxlength, Collector[] cols) {
+      final int stop = (minlength > 1) ? minlength - 1 : 0;
+      final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Extracting itemsets", header.length - stop, LOG) : null;
+      final AtomicInteger next = new AtomicInteger(header.length - 1);
+      List<Callable<Void>> tasks = new ArrayList<>(cols.length);
+      for(final Collector col : cols) {
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            int[] buf = new int[header.length], buf2 = new int[header.length],
+                buf3 = new int[header.length];
+            for(int j = next.getAndDecrement(); j >= stop; j = next.getAndDecrement()) {
+              extract(minsupp, minlength, maxlength, j, buf, 0, buf2, buf3, false, col);
+              LOG.incrementProcessed(prog);
+            }
+            return null;
+          }
+        });
+      }
+      ParallelExecutor.run(tasks);
+      LOG.ensureCompleted(prog);
+    }
+
     /**
      * Extract itemsets ending in the given item.
      *
@@ -434,7 +519,8 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
         col.collect(support, postfix, 0, plen);
       }
       for(int j = last; j >= 0; j--) {
-        proj.extract(minsupp, minlength, maxlength, j, postfix, plen, buf2, buf3, destruct, col);
+        // The projected tree is private, and can always be consumed.
+        proj.extract(minsupp, minlength, maxlength, j, postfix, plen, buf2, buf3, true, col);
       }
       if(destruct) {
         header[item] = null;
@@ -0,0 +1,310 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.itemsetmining;
+
+import de.lmu.ifi.dbs.elki.data.SparseFeatureVector;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.BitsUtil;
+
+/**
+ * Vertical (item to transactions) representation of a transaction database.
+ * <p>
+ * Transactions are identified by their position (offset) in the processed
+ * DBIDs. The transactions of each item are stored either as a bitmap, or as a
+ * sorted list of offsets, whichever is smaller: a bitmap needs
+ * <code>n/8</code> bytes, a list four bytes per transaction. Bitmaps are
+ * hence used for items contained in at least 1/32 of the transactions.
+ * Intersections choose their representation the same way, so that long
+ * itemsets automatically switch to the sparse representation.
+ * <p>
+ * The index is immutable once built, and can be shared by multiple threads.
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.composedOf TidSet
+ */
+public class VerticalIndex {
+  /**
+   * Number of transactions.
+   */
+  private final int size;
+
+  /**
+   * Transaction sets, by item (dimension). Infrequent items are {@code null}.
+   */
+  private final TidSet[] sets;
+
+  /**
+   * Build the vertical index.
+   *
+   * @param relation Transaction data
+   * @param ids Transactions to index
+   * @param dim Number of items (dimensionality)
+   * @param minsupp Minimum support; less frequent items are not stored
+   */
+  public VerticalIndex(Relation<? extends SparseFeatureVector<?>> relation, DBIDs ids, int dim, int minsupp) {
+    this.size = ids.size();
+    this.sets = new TidSet[dim];
+    // First pass: item supports, to choose the representation.
+    int[] counts = new int[dim];
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      SparseFeatureVector<?> bv = relation.get(iter);
+      for(int it = bv.iter(); bv.iterValid(it); it = bv.iterAdvance(it)) {
+        counts[bv.iterDim(it)]++;
+      }
+    }
+    long[][] bits = new long[dim][];
+    int[][] lists = new int[dim][];
+    for(int d = 0; d < dim; d++) {
+      if(counts[d] >= minsupp && counts[d] > 0) {
+        if(isDense(counts[d], size)) {
+          bits[d] = BitsUtil.zero(size);
+        }
+        else {
+          lists[d] = new int[counts[d]];
+        }
+      }
+    }
+    // Second pass: fill the sets.
+    int[] fill = new int[dim];
+    int off = 0;
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance(), off++) {
+      SparseFeatureVector<?> bv = relation.get(iter);
+      for(int it = bv.iter(); bv.iterValid(it); it = bv.iterAdvance(it)) {
+        final int d = bv.iterDim(it);
+        if(bits[d] != null) {
+          BitsUtil.setI(bits[d], off);
+        }
+        else if(lists[d] != null) {
+          lists[d][fill[d]++] = off;
+        }
+      }
+    }
+    for(int d = 0; d < dim; d++) {
+      sets[d] = bits[d] != null ? new TidSet(counts[d], bits[d], null) : //
+          lists[d] != null ? new TidSet(counts[d], null, lists[d]) : null;
+    }
+  }
+
+  /**
+   * Number of transactions indexed.
+   *
+   * @return Number of transactions
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the transactions containing an item.
+   *
+   * @param item Item (dimension)
+   * @return Transactions, {@code null} if the item is not frequent
+   */
+  public TidSet get(int item) {
+    return sets[item];
+  }
+
+  /**
+   * Intersect two transaction sets.
+   *
+   * @param a First set
+   * @param b Second set
+   * @return Intersection
+   */
+  public TidSet intersect(TidSet a, TidSet b) {
+    if(a.bits != null && b.bits != null) {
+      long[] r = a.bits.clone();
+      BitsUtil.andI(r, b.bits);
+      final int card = BitsUtil.cardinality(r);
+      return isDense(card, size) ? new TidSet(card, r, null) : new TidSet(card, null, toList(r, card));
+    }
+    if(a.bits != null || b.bits != null) {
+      final long[] bits = a.bits != null ? a.bits : b.bits;
+      final int[] list = a.bits != null ? b.tids : a.tids;
+      int[] r = new int[list.length];
+      int card = 0;
+      for(int t : list) {
+        if(BitsUtil.get(bits, t)) {
+          r[card++] = t;
+        }
+      }
+      return new TidSet(card, null, shrink(r, card));
+    }
+    // Merge join of sorted lists:
+    final int[] l1 = a.tids, l2 = b.tids;
+    int[] r = new int[Math.min(l1.length, l2.length)];
+    int card = 0;
+    for(int i = 0, j = 0; i < l1.length && j < l2.length;) {
+      final int v1 = l1[i], v2 = l2[j];
+      if(v1 < v2) {
+        ++i;
+      }
+      else if(v1 > v2) {
+        ++j;
+      }
+      else {
+        r[card++] = v1;
+        ++i;
+        ++j;
+      }
+    }
+    return new TidSet(card, null, shrink(r, card));
+  }
+
+  /**
+   * Size of the intersection of two transaction sets, without materializing
+   * the intersection.
+   *
+   * @param a First set
+   * @param b Second set
+   * @return Number of common transactions
+   */
+  public static int intersectionSize(TidSet a, TidSet b) {
+    if(a.bits != null && b.bits != null) {
+      return BitsUtil.intersectionSize(a.bits, b.bits);
+    }
+    if(a.bits != null || b.bits != null) {
+      final long[] bits = a.bits != null ? a.bits : b.bits;
+      int card = 0;
+      for(int t : a.bits != null ? b.tids : a.tids) {
+        card += BitsUtil.get(bits, t) ? 1 : 0;
+      }
+      return card;
+    }
+    final int[] l1 = a.tids, l2 = b.tids;
+    int card = 0;
+    for(int i = 0, j = 0; i < l1.length && j < l2.length;) {
+      final int v1 = l1[i], v2 = l2[j];
+      if(v1 < v2) {
+        ++i;
+      }
+      else if(v1 > v2) {
+        ++j;
+      }
+      else {
+        ++card;
+        ++i;
+        ++j;
+      }
+    }
+    return card;
+  }
+
+  /**
+   * Choose the representation: bitmaps are smaller when at least 1/32 of the
+   * transactions are contained.
+   *
+   * @param card Number of contained transactions
+   * @param size Total number of transactions
+   * @return {@code true} for bitmaps
+   */
+  private static boolean isDense(int card, int size) {
+    return card >= (size >>> 5);
+  }
+
+  /**
+   * Convert a bitmap to a sorted list.
+   *
+   * @param bits Bitmap
+   * @param card Cardinality
+   * @return List of set bits
+   */
+  private static int[] toList(long[] bits, int card) {
+    int[] r = new int[card];
+    for(int i = BitsUtil.nextSetBit(bits, 0), j = 0; i >= 0; i = BitsUtil.nextSetBit(bits, i + 1)) {
+      r[j++] = i;
+    }
+    return r;
+  }
+
+  /**
+   * Shrink an array to the used size.
+   *
+   * @param r Array
+   * @param len Used length
+   * @return Array of length {@code len}
+   */
+  private static int[] shrink(int[] r, int len) {
+    if(len == r.length) {
+      return r;
+    }
+    int[] s = new int[len];
+    System.arraycopy(r, 0, s, 0, len);
+    return s;
+  }
+
+  /**
+   * Set of transactions, either as bitmap or as sorted list of offsets.
+   *
+   * @author agent
+   */
+  public static final class TidSet {
+    /**
+     * Number of transactions.
+     */
+    final int size;
+
+    /**
+     * Bitmap, or {@code null}.
+     */
+    final long[] bits;
+
+    /**
+     * Sorted transaction offsets, or {@code null}.
+     */
+    final int[] tids;
+
+    /**
+     * Constructor.
+     *
+     * @param size Number of transactions
+     * @param bits Bitmap, or {@code null}
+     * @param tids Sorted transaction offsets, or {@code null}
+     */
+    TidSet(int size, long[] bits, int[] tids) {
+      this.size = size;
+      this.bits = bits;
+      this.tids = tids;
+    }
+
+    /**
+     * Number of transactions, i.e., the support.
+     *
+     * @return Support
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Test whether the set is stored as bitmap.
+     *
+     * @return {@code true} for bitmaps
+     */
+    public boolean isDense() {
+      return bits != null;
+    }
+  }
+}
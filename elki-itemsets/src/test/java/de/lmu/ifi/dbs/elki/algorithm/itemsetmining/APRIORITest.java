@@ -20,13 +20,22 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.itemsetmining;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
 
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.BitVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.result.FrequentItemsetsResult;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.BitsUtil;
 
 /**
  * Regression test for APRIORI.
@@ -112,4 +121,81 @@ public class APRIORITest extends AbstractFrequentItemsetAlgorithmTest {
         .with(APRIORI.Parameterizer.MINSUPP_ID, 200).build().run(db);
     assertEquals("Size not as expected.", 184, res.getItemsets().size());
   }
+
+  /**
+   * Transactions with fewer than three frequent items are not indexed for
+   * longer itemsets, so some frequent items are missing from the index.
+   */
+  @Test
+  public void testSurvivorPruning() {
+    int[] xy = { 0, 1 }, xz = { 0, 2 }, yzw = { 1, 2, 3 };
+    Database db = makeTransactions(4, xy, xy, xz, xz, yzw, yzw);
+    Relation<BitVector> rel = db.getRelation(TypeUtil.BIT_VECTOR_FIELD);
+    FrequentItemsetsResult res = new ELKIBuilder<>(APRIORI.class) //
+        .with(APRIORI.Parameterizer.MINSUPP_ID, 2).build().run(db);
+    int[] counts = new int[4];
+    for(Itemset i : res.getItemsets()) {
+      int supp = 0;
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+        supp += i.containedIn(rel.get(it)) ? 1 : 0;
+      }
+      assertEquals("Bad support of " + i, supp, i.getSupport());
+      assertTrue("Infrequent itemset reported: " + i, supp >= 2);
+      ++counts[i.length()];
+    }
+    // {X,Y,Z} must not be reported, only {Y,Z,W}:
+    assertArrayEquals("Wrong number of itemsets.", new int[] { 0, 4, 5, 1 }, counts);
+  }
+
+  /**
+   * Regression test for the support counts of long candidates: with many
+   * sparse candidates, an earlier version counted some transactions twice.
+   */
+  @Test
+  public void testSupportCounts() {
+    final int dim = 80, minsupp = 45;
+    double[] p = new double[dim];
+    Arrays.fill(p, .5);
+    Database db = makeRandomTransactions(300, p, 0L);
+    Relation<BitVector> rel = db.getRelation(TypeUtil.BIT_VECTOR_FIELD);
+    FrequentItemsetsResult res = new ELKIBuilder<>(APRIORI.class) //
+        .with(APRIORI.Parameterizer.MINSUPP_ID, minsupp).build().run(db);
+    int[] counts = new int[4];
+    for(Itemset i : res.getItemsets()) {
+      int supp = 0;
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+        supp += i.containedIn(rel.get(it)) ? 1 : 0;
+      }
+      assertEquals("Bad support", supp, i.getSupport());
+      assertTrue("Itemset too long.", i.length() < counts.length);
+      ++counts[i.length()];
+    }
+    // Brute force count of frequent 3-itemsets, using column bitmaps:
+    long[][] cols = new long[dim][BitsUtil.zero(rel.size()).length];
+    int n = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance(), n++) {
+      BitVector bv = rel.get(it);
+      for(int d = 0; d < dim; d++) {
+        if(bv.booleanValue(d)) {
+          BitsUtil.setI(cols[d], n);
+        }
+      }
+    }
+    int frequent3 = 0;
+    long[] tmp = new long[cols[0].length];
+    for(int a = 0; a < dim; a++) {
+      for(int b = a + 1; b < dim; b++) {
+        for(int c = b + 1; c < dim; c++) {
+          for(int j = 0; j < tmp.length; j++) {
+            tmp[j] = cols[a][j] & cols[b][j] & cols[c][j];
+          }
+          frequent3 += BitsUtil.cardinality(tmp) >= minsupp ? 1 : 0;
+        }
+      }
+    }
+    assertEquals("Frequent 1-itemsets", dim, counts[1]);
+    assertEquals("Frequent 2-itemsets", dim * (dim - 1) / 2, counts[2]);
+    assertEquals("Frequent 3-itemsets", frequent3, counts[3]);
+    assertEquals("Frequent 3-itemsets", 9832, counts[3]);
+  }
 }
@@ -27,19 +27,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.BitVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
 import de.lmu.ifi.dbs.elki.database.AbstractDatabase;
 import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.datasource.InputStreamDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.MultipleObjectsBundleDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.datasource.filter.FixedDBIDsFilter;
 import de.lmu.ifi.dbs.elki.datasource.filter.ObjectFilter;
 import de.lmu.ifi.dbs.elki.datasource.parser.CSVReaderFormat;
 import de.lmu.ifi.dbs.elki.datasource.parser.SimpleTransactionParser;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.BitsUtil;
 
 /**
  * Regression test for APRIORI.
@@ -80,4 +86,61 @@ public abstract class AbstractFrequentItemsetAlgorithmTest extends AbstractSimpl
       return null; // Not reached.
     }
   }
+
+  /**
+   * Generate a random transaction database.
+   *
+   * @param n Number of transactions
+   * @param p Probability of each item
+   * @param seed Random seed
+   * @return Database
+   */
+  public static Database makeRandomTransactions(int n, double[] p, long seed) {
+    final int dim = p.length;
+    Random r = new Random(seed);
+    List<BitVector> data = new ArrayList<>(n);
+    for(int i = 0; i < n; i++) {
+      long[] bits = BitsUtil.zero(dim);
+      for(int d = 0; d < dim; d++) {
+        if(r.nextDouble() < p[d]) {
+          BitsUtil.setI(bits, d);
+        }
+      }
+      data.add(new BitVector(bits, dim));
+    }
+    return makeDatabase(data, dim);
+  }
+
+  /**
+   * Build a transaction database from item lists.
+   *
+   * @param dim Number of items
+   * @param transactions Items of each transaction
+   * @return Database
+   */
+  public static Database makeTransactions(int dim, int[]... transactions) {
+    List<BitVector> data = new ArrayList<>(transactions.length);
+    for(int[] t : transactions) {
+      long[] bits = BitsUtil.zero(dim);
+      for(int i : t) {
+        BitsUtil.setI(bits, i);
+      }
+      data.add(new BitVector(bits, dim));
+    }
+    return makeDatabase(data, dim);
+  }
+
+  /**
+   * Build a database from bit vectors.
+   *
+   * @param data Transactions
+   * @param dim Number of items
+   * @return Database
+   */
+  private static Database makeDatabase(List<BitVector> data, int dim) {
+    MultipleObjectsBundle bundle = MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(BitVector.FACTORY, dim), data);
+    Database db = new StaticArrayDatabase(new MultipleObjectsBundleDatabaseConnection(bundle), null);
+    db.initialize();
+    return db;
+  }
 }
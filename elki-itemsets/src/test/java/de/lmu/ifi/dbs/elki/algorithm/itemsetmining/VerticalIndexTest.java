@@ -0,0 +1,146 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.itemsetmining;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.BitVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.BitsUtil;
+
+/**
+ * Test the bitmap and list representations of the vertical index.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class VerticalIndexTest {
+  /**
+   * Item probabilities: four frequent items (bitmaps), four rare items
+   * (lists), and one item just above the bitmap threshold.
+   */
+  private static final double[] P = { .5, .5, .5, .5, .02, .02, .02, .02, .05 };
+
+  /**
+   * Number of transactions.
+   */
+  private static final int N = 2000;
+
+  @Test
+  public void testRepresentations() {
+    Database db = AbstractFrequentItemsetAlgorithmTest.makeRandomTransactions(N, P, 0L);
+    Relation<BitVector> rel = db.getRelation(TypeUtil.BIT_VECTOR_FIELD);
+    final int dim = P.length;
+    VerticalIndex idx = new VerticalIndex(rel, rel.getDBIDs(), dim, 1);
+    assertEquals("Wrong number of transactions.", N, idx.size());
+    long[][] cols = columns(rel, dim);
+    for(int d = 0; d < dim; d++) {
+      VerticalIndex.TidSet s = idx.get(d);
+      assertEquals("Wrong support of item " + d, BitsUtil.cardinality(cols[d]), s.size());
+      assertEquals("Wrong representation of item " + d, P[d] > .03, s.isDense());
+      assertContents(cols[d], s);
+    }
+    // All pairs: bitmap & bitmap, bitmap & list, list & list
+    for(int a = 0; a < dim; a++) {
+      for(int b = 0; b < dim; b++) {
+        long[] expect = cols[a].clone();
+        BitsUtil.andI(expect, cols[b]);
+        final int card = BitsUtil.cardinality(expect);
+        VerticalIndex.TidSet ab = idx.intersect(idx.get(a), idx.get(b));
+        assertEquals("Wrong intersection size " + a + "," + b, card, ab.size());
+        assertEquals("Wrong intersection size " + a + "," + b, card, VerticalIndex.intersectionSize(idx.get(a), idx.get(b)));
+        assertContents(expect, ab);
+        // Chained intersection, with mixed representations:
+        for(int c = 0; c < dim; c++) {
+          long[] expect3 = expect.clone();
+          BitsUtil.andI(expect3, cols[c]);
+          VerticalIndex.TidSet abc = idx.intersect(ab, idx.get(c));
+          assertEquals("Wrong intersection size " + a + "," + b + "," + c, BitsUtil.cardinality(expect3), abc.size());
+          assertEquals("Wrong intersection size " + a + "," + b + "," + c, BitsUtil.cardinality(expect3), VerticalIndex.intersectionSize(ab, idx.get(c)));
+          assertContents(expect3, abc);
+        }
+      }
+    }
+    // Two bitmaps with a small intersection yield a list:
+    VerticalIndex.TidSet large = idx.intersect(idx.get(0), idx.get(1));
+    assertTrue("Large intersection should be stored as bitmap.", large.isDense());
+    assertFalse("Small intersection should be stored as list.", idx.intersect(idx.get(8), large).isDense());
+  }
+
+  @Test
+  public void testMinimumSupport() {
+    Database db = AbstractFrequentItemsetAlgorithmTest.makeRandomTransactions(N, P, 1L);
+    Relation<BitVector> rel = db.getRelation(TypeUtil.BIT_VECTOR_FIELD);
+    VerticalIndex idx = new VerticalIndex(rel, rel.getDBIDs(), P.length, 200);
+    for(int d = 0; d < P.length; d++) {
+      assertEquals("Wrong items pruned.", P[d] > .1, idx.get(d) != null);
+    }
+  }
+
+  /**
+   * Compute column bitmaps by brute force.
+   *
+   * @param rel Relation
+   * @param dim Dimensionality
+   * @return Bitmaps, by item
+   */
+  private static long[][] columns(Relation<BitVector> rel, int dim) {
+    long[][] cols = new long[dim][];
+    for(int d = 0; d < dim; d++) {
+      cols[d] = BitsUtil.zero(rel.size());
+    }
+    int off = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance(), off++) {
+      BitVector bv = rel.get(it);
+      for(int d = 0; d < dim; d++) {
+        if(bv.booleanValue(d)) {
+          BitsUtil.setI(cols[d], off);
+        }
+      }
+    }
+    return cols;
+  }
+
+  /**
+   * Check the contents of a transaction set.
+   *
+   * @param expect Expected bitmap
+   * @param s Transaction set
+   */
+  private static void assertContents(long[] expect, VerticalIndex.TidSet s) {
+    if(s.isDense()) {
+      assertTrue("Bitmap contents differ.", BitsUtil.equal(expect, s.bits));
+      return;
+    }
+    int j = 0;
+    for(int i = BitsUtil.nextSetBit(expect, 0); i >= 0; i = BitsUtil.nextSetBit(expect, i + 1)) {
+      assertEquals("List contents differ.", i, s.tids[j++]);
+    }
+    assertEquals("List length differs.", j, s.tids.length);
+  }
+}
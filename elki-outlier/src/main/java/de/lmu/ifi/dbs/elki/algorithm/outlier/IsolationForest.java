@@ -0,0 +1,569 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.outlier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
+import de.lmu.ifi.dbs.elki.math.statistics.distribution.GammaDistribution;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.AbstractDoubleProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.DoubleMinMaxProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.result.outlier.ProbabilisticOutlierScore;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.IntegerArray;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+import net.jafama.FastMath;
+
+/**
+ * Isolation forest: outlier detection by the average path length in random
+ * partitioning trees.
+ * <p>
+ * Each tree is built on a small random subsample, splitting on a random
+ * attribute at a random value until the objects are isolated or the height
+ * limit is reached. Outliers are isolated by fewer splits, so the score is
+ * derived from the average path length over all trees, normalized by the
+ * expected path length of an unsuccessful search in a binary search tree.
+ * <p>
+ * No distances are computed: the trees are built in parallel, each from its
+ * own subsample, and stored as flat arrays. Scoring is a single parallel pass
+ * over the data.
+ * <p>
+ * Reference:
+ * <p>
+ * F. T. Liu, K. M. Ting, Z.-H. Zhou<br />
+ * Isolation-Based Anomaly Detection<br />
+ * ACM Transactions on Knowledge Discovery from Data (TKDD) 6(1)
+ * </p>
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @param <V> Vector type
+ */
+@Title("Isolation Forest")
+@Reference(authors = "F. T. Liu, K. M. Ting, Z.-H. Zhou", //
+    title = "Isolation-Based Anomaly Detection", //
+    booktitle = "ACM Transactions on Knowledge Discovery from Data (TKDD) 6(1)", //
+    url = "https://doi.org/10.1145/2133360.2133363")
+public class IsolationForest<V extends NumberVector> extends AbstractAlgorithm<OutlierResult> implements OutlierAlgorithm {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(IsolationForest.class);
+
+  /**
+   * Marker for leaf nodes.
+   */
+  private static final int LEAF = -1;
+
+  /**
+   * Number of trees.
+   */
+  protected int numtrees;
+
+  /**
+   * Subsample size.
+   */
+  protected int subsample;
+
+  /**
+   * Random generator.
+   */
+  protected RandomFactory rnd;
+
+  /**
+   * Constructor.
+   *
+   * @param numtrees Number of trees
+   * @param subsample Subsample size
+   * @param rnd Random generator
+   */
+  public IsolationForest(int numtrees, int subsample, RandomFactory rnd) {
+    super();
+    this.numtrees = numtrees;
+    this.subsample = subsample;
+    this.rnd = rnd;
+  }
+
+  /**
+   * Run the isolation forest.
+   *
+   * @param relation Data relation
+   * @return Outlier result
+   */
+  public OutlierResult run(Relation<V> relation) {
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int psi = Math.min(subsample, ids.size());
+    final Forest forest = buildForest(relation, ids, psi);
+
+    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_DB);
+    ScoreProcessor scorem = new ScoreProcessor(relation, forest, averagePathLength(psi));
+    SharedDouble scorev = new SharedDouble();
+    scorem.connectOutput(scorev);
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(scores);
+    storem.connectInput(scorev);
+    DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+    mmm.connectInput(scorev);
+    ParallelExecutor.run(ids, scorem, storem, mmm);
+
+    DoubleMinMax minmax = mmm.getMinMax();
+    DoubleRelation scoreres = new MaterializedDoubleRelation("Isolation Forest", "isolation-forest-outlier", scores, ids);
+    OutlierScoreMeta meta = new ProbabilisticOutlierScore(minmax.getMin(), minmax.getMax(), 0.5);
+    return new OutlierResult(meta, scoreres);
+  }
+
+  /**
+   * Build the trees in parallel.
+   *
+   * @param relation Data relation
+   * @param ids Object ids
+   * @param psi Subsample size
+   * @return Forest
+   */
+  private Forest buildForest(final Relation<V> relation, final ArrayDBIDs ids, final int psi) {
+    final int dim = RelationUtil.dimensionality(relation);
+    final int maxheight = (int) Math.ceil(FastMath.log(Math.max(psi, 2)) / FastMath.log(2));
+    // Draw the seeds in order, for reproducible results.
+    final Random random = rnd.getSingleThreadedRandom();
+    final Tree[] trees = new Tree[numtrees];
+    List<Callable<Void>> tasks = new ArrayList<>(numtrees);
+    for(int t = 0; t < numtrees; t++) {
+      final int tree = t;
+      final long seed = random.nextLong();
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          Random r = new Random(seed);
+          DBIDs sample = DBIDUtil.randomSample(ids, psi, r);
+          double[][] data = new double[sample.size()][];
+          int i = 0;
+          for(DBIDIter it = sample.iter(); it.valid(); it.advance()) {
+            data[i++] = relation.get(it).toArray();
+          }
+          trees[tree] = new Tree(data, dim, maxheight, r);
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+    return new Forest(trees);
+  }
+
+  /**
+   * Average path length of an unsuccessful search in a binary search tree, used
+   * for normalization and for the unexpanded leaves.
+   *
+   * @param n Number of objects
+   * @return Average path length
+   */
+  protected static double averagePathLength(double n) {
+    return n <= 1 ? 0. : n <= 2 ? 1. : //
+        2 * (FastMath.log(n - 1) + GammaDistribution.EULERS_CONST) - 2 * (n - 1) / n;
+  }
+
+  /**
+   * A single isolation tree under construction.
+   *
+   * @author agent
+   */
+  private static class Tree {
+    /**
+     * Split dimension, {@link #LEAF} for leaves.
+     */
+    IntegerArray dims = new IntegerArray();
+
+    /**
+     * Split value, or path length for leaves.
+     */
+    DoubleArray values = new DoubleArray();
+
+    /**
+     * Index of the right child (the left child follows its parent).
+     */
+    IntegerArray right = new IntegerArray();
+
+    /**
+     * Data sample.
+     */
+    double[][] data;
+
+    /**
+     * Dimensionality.
+     */
+    int dim;
+
+    /**
+     * Height limit.
+     */
+    int maxheight;
+
+    /**
+     * Random generator.
+     */
+    Random random;
+
+    /**
+     * Minimum and maximum per dimension.
+     */
+    double[] min, max;
+
+    /**
+     * Candidate split dimensions.
+     */
+    int[] cand;
+
+    /**
+     * Build a tree.
+     *
+     * @param data Data sample
+     * @param dim Dimensionality
+     * @param maxheight Height limit
+     * @param random Random generator
+     */
+    Tree(double[][] data, int dim, int maxheight, Random random) {
+      this.data = data;
+      this.dim = dim;
+      this.maxheight = maxheight;
+      this.random = random;
+      this.min = new double[dim];
+      this.max = new double[dim];
+      this.cand = new int[dim];
+      build(0, data.length, 0);
+      this.data = null;
+    }
+
+    /**
+     * Build a (sub-)tree.
+     *
+     * @param begin First object
+     * @param end End of range
+     * @param depth Current depth
+     */
+    private void build(int begin, int end, int depth) {
+      final int node = dims.size;
+      final int size = end - begin;
+      final int d = size > 1 && depth < maxheight ? chooseDimension(begin, end) : LEAF;
+      if(d == LEAF) {
+        dims.add(LEAF);
+        values.add(depth + averagePathLength(size));
+        right.add(LEAF);
+        return;
+      }
+      final double split = min[d] + random.nextDouble() * (max[d] - min[d]);
+      // Partition the objects, those smaller than split go left.
+      int l = begin, r = end - 1;
+      while(l <= r) {
+        if(data[l][d] < split) {
+          ++l;
+        }
+        else {
+          double[] tmp = data[l];
+          data[l] = data[r];
+          data[r--] = tmp;
+        }
+      }
+      // Both sides are nonempty, unless rounding hit the maximum.
+      if(l == begin || l == end) {
+        dims.add(LEAF);
+        values.add(depth + averagePathLength(size));
+        right.add(LEAF);
+        return;
+      }
+      dims.add(d);
+      values.add(split);
+      right.add(LEAF); // Set below
+      build(begin, l, depth + 1);
+      right.set(node, dims.size);
+      build(l, end, depth + 1);
+    }
+
+    /**
+     * Choose a random dimension that is not constant on the given objects.
+     *
+     * @param begin First object
+     * @param end End of range
+     * @return Dimension, or {@link #LEAF}
+     */
+    private int chooseDimension(int begin, int end) {
+      System.arraycopy(data[begin], 0, min, 0, dim);
+      System.arraycopy(data[begin], 0, max, 0, dim);
+      for(int i = begin + 1; i < end; i++) {
+        final double[] row = data[i];
+        for(int d = 0; d < dim; d++) {
+          final double v = row[d];
+          min[d] = v < min[d] ? v : min[d];
+          max[d] = v > max[d] ? v : max[d];
+        }
+      }
+      int n = 0;
+      for(int d = 0; d < dim; d++) {
+        if(min[d] < max[d]) {
+          cand[n++] = d;
+        }
+      }
+      return n > 0 ? cand[random.nextInt(n)] : LEAF;
+    }
+  }
+
+  /**
+   * All trees, stored in flat arrays.
+   *
+   * @author agent
+   */
+  private static class Forest {
+    /**
+     * Root node of each tree.
+     */
+    final int[] roots;
+
+    /**
+     * Split dimensions, {@link #LEAF} for leaves.
+     */
+    final int[] dims;
+
+    /**
+     * Split values, or path lengths for leaves.
+     */
+    final double[] values;
+
+    /**
+     * Right children.
+     */
+    final int[] right;
+
+    /**
+     * Constructor.
+     *
+     * @param trees Trees to store
+     */
+    Forest(Tree[] trees) {
+      int total = 0;
+      for(Tree t : trees) {
+        total += t.dims.size;
+      }
+      roots = new int[trees.length];
+      dims = new int[total];
+      values = new double[total];
+      right = new int[total];
+      int off = 0;
+      for(int i = 0; i < trees.length; i++) {
+        final Tree t = trees[i];
+        final int size = t.dims.size;
+        roots[i] = off;
+        System.arraycopy(t.dims.data, 0, dims, off, size);
+        System.arraycopy(t.values.data, 0, values, off, size);
+        for(int j = 0; j < size; j++) {
+          right[off + j] = t.right.data[j] != LEAF ? t.right.data[j] + off : LEAF;
+        }
+        off += size;
+      }
+    }
+
+    /**
+     * Average path length of an object.
+     *
+     * @param v Object
+     * @return Average path length
+     */
+    double averagePath(NumberVector v) {
+      double sum = 0.;
+      for(int root : roots) {
+        int node = root;
+        for(int d = dims[node]; d != LEAF; d = dims[node]) {
+          node = v.doubleValue(d) < values[node] ? node + 1 : right[node];
+        }
+        sum += values[node];
+      }
+      return sum / roots.length;
+    }
+  }
+
+  /**
+   * Processor to compute the isolation forest scores.
+   *
+   * @author agent
+   */
+  private class ScoreProcessor extends AbstractDoubleProcessor {
+    /**
+     * Data relation.
+     */
+    Relation<V> relation;
+
+    /**
+     * Forest.
+     */
+    Forest forest;
+
+    /**
+     * Normalization.
+     */
+    double norm;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param forest Forest
+     * @param avglength Average path length for the subsample size
+     */
+    ScoreProcessor(Relation<V> relation, Forest forest, double avglength) {
+      super();
+      this.relation = relation;
+      this.forest = forest;
+      this.norm = avglength > 0 ? -1. / avglength : 0.;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance.
+     *
+     * @author agent
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Constructor.
+       *
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        output.set(FastMath.pow(2., forest.averagePath(relation.get(id)) * norm));
+      }
+    }
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author agent
+   *
+   * @apiviz.exclude
+   *
+   * @param <V> Vector type
+   */
+  public static class Parameterizer<V extends NumberVector> extends AbstractParameterizer {
+    /**
+     * Number of trees.
+     */
+    public static final OptionID NUM_TREES_ID = new OptionID("iforest.numtrees", "Number of trees to use.");
+
+    /**
+     * Subsample size.
+     */
+    public static final OptionID SUBSAMPLE_SIZE_ID = new OptionID("iforest.subsample", "Subsampling size.");
+
+    /**
+     * Random seed.
+     */
+    public static final OptionID SEED_ID = new OptionID("iforest.seed", "Random seed.");
+
+    /**
+     * Number of trees.
+     */
+    protected int numtrees;
+
+    /**
+     * Subsample size.
+     */
+    protected int subsample;
+
+    /**
+     * Random generator.
+     */
+    protected RandomFactory rnd;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      final IntParameter numtreesP = new IntParameter(NUM_TREES_ID, 100) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(numtreesP)) {
+        numtrees = numtreesP.getValue();
+      }
+      final IntParameter subsampleP = new IntParameter(SUBSAMPLE_SIZE_ID, 256) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(subsampleP)) {
+        subsample = subsampleP.getValue();
+      }
+      final RandomParameter rndP = new RandomParameter(SEED_ID);
+      if(config.grab(rndP)) {
+        rnd = rndP.getValue();
+      }
+    }
+
+    @Override
+    protected IsolationForest<V> makeInstance() {
+      return new IsolationForest<>(numtrees, subsample, rnd);
+    }
+  }
+}
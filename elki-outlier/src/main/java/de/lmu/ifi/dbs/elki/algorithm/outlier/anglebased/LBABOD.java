@@ -30,6 +30,7 @@ import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
@@ -47,6 +48,12 @@ import de.lmu.ifi.dbs.elki.logging.LoggingConfiguration;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
 import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.AbstractDoubleProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.DoubleMinMaxProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
 import de.lmu.ifi.dbs.elki.result.outlier.InvertedOutlierScoreMeta;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
@@ -130,82 +137,24 @@ public class LBABOD<V extends NumberVector> extends FastABOD<V> {
     // Output storage.
     WritableDoubleDataStore abodvalues = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
     DoubleMinMax minmaxabod = new DoubleMinMax();
-    double max = 0.;
 
-    // Storage for squared distances (will be reused!)
-    WritableDoubleDataStore sqDists = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT);
-    // Nearest neighbor heap (will be reused!)
-    KNNHeap nn = DBIDUtil.newHeap(k);
+    // Compute the lower bounds in parallel.
+    SharedDouble lbv = new SharedDouble();
+    LBABOFProcessor lbm = new LBABOFProcessor(kernelMatrix, ids);
+    lbm.connectOutput(lbv);
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(abodvalues);
+    storem.connectInput(lbv);
+    DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+    mmm.connectInput(lbv);
+    ParallelExecutor.run(ids, lbm, storem, mmm);
+    // Put maximum from approximate values.
+    minmaxabod.put(Math.max(0., mmm.getMinMax().getMax()));
 
     // Priority queue for candidates
     ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList(relation.size());
-    // get Candidate Ranking
-    for(DBIDIter pA = relation.iterDBIDs(); pA.valid(); pA.advance()) {
-      // Compute nearest neighbors and distances.
-      nn.clear();
-      double simAA = kernelMatrix.getSimilarity(pA, pA);
-      // Sum of 1./(|AB|) and 1./(|AB|^2); for computing R2.
-      double sumid = 0., sumisqd = 0.;
-      for(pB.seek(0); pB.valid(); pB.advance()) {
-        if(DBIDUtil.equal(pB, pA)) {
-          continue;
-        }
-        double simBB = kernelMatrix.getSimilarity(pB, pB);
-        double simAB = kernelMatrix.getSimilarity(pA, pB);
-        double sqdAB = simAA + simBB - simAB - simAB;
-        sqDists.putDouble(pB, sqdAB);
-        final double isqdAB = 1. / sqdAB;
-        sumid += FastMath.sqrt(isqdAB);
-        sumisqd += isqdAB;
-        // Update heap
-        nn.insert(sqdAB, pB);
-      }
-
-      // Compute FastABOD approximation, adjust for lower bound.
-      // LB-ABOF is defined via a numerically unstable formula.
-      // Variance as E(X^2)-E(X)^2 suffers from catastrophic cancellation!
-      // TODO: ensure numerical precision!
-      double nnsum = 0., nnsumsq = 0., nnsumisqd = 0.;
-      KNNList nl = nn.toKNNList();
-      DoubleDBIDListIter iB = nl.iter(), iC = nl.iter();
-      for(; iB.valid(); iB.advance()) {
-        double sqdAB = iB.doubleValue();
-        double simAB = kernelMatrix.getSimilarity(pA, iB);
-        if(!(sqdAB > 0.)) {
-          continue;
-        }
-        for(iC.seek(iB.getOffset() + 1); iC.valid(); iC.advance()) {
-          double sqdAC = iC.doubleValue();
-          double simAC = kernelMatrix.getSimilarity(pA, iC);
-          if(!(sqdAC > 0.)) {
-            continue;
-          }
-          // Exploit bilinearity of scalar product:
-          // <B-A, C-A> = <B, C-A> - <A,C-A>
-          // = <B,C> - <B,A> - <A,C> + <A,A>
-          double simBC = kernelMatrix.getSimilarity(iB, iC);
-          double numerator = simBC - simAB - simAC + simAA;
-          double sqweight = 1. / (sqdAB * sqdAC);
-          double weight = FastMath.sqrt(sqweight);
-          double val = numerator * sqweight;
-          nnsum += val * weight;
-          nnsumsq += val * val * weight;
-          nnsumisqd += sqweight;
-        }
-      }
-      // Remaining weight, term R2:
-      double r2 = sumisqd * sumisqd - 2. * nnsumisqd;
-      double tmp = (2. * nnsum + r2) / (sumid * sumid);
-      double lbabof = 2. * nnsumsq / (sumid * sumid) - tmp * tmp;
-
-      // Track maximum?
-      if(lbabof > max) {
-        max = lbabof;
-      }
-      abodvalues.putDouble(pA, lbabof);
-      candidates.add(lbabof, pA);
+    for(DBIDIter pA = ids.iter(); pA.valid(); pA.advance()) {
+      candidates.add(abodvalues.doubleValue(pA), pA);
     }
-    minmaxabod.put(max); // Put maximum from approximate values.
     candidates.sort();
 
     // refine Candidates
@@ -242,6 +191,125 @@ public class LBABOD<V extends NumberVector> extends FastABOD<V> {
     return new OutlierResult(scoreMeta, scoreResult);
   }
 
+  /**
+   * Processor computing the LB-ABOF lower bound of each object.
+   *
+   * @author agent
+   */
+  private class LBABOFProcessor extends AbstractDoubleProcessor {
+    /**
+     * Kernel matrix
+     */
+    KernelMatrix kernelMatrix;
+
+    /**
+     * Object ids
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Constructor.
+     *
+     * @param kernelMatrix Kernel matrix
+     * @param ids Object ids
+     */
+    LBABOFProcessor(KernelMatrix kernelMatrix, ArrayDBIDs ids) {
+      super();
+      this.kernelMatrix = kernelMatrix;
+      this.ids = ids;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author agent
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Nearest neighbor heap (will be reused!)
+       */
+      KNNHeap nn = DBIDUtil.newHeap(k);
+
+      /**
+       * Iterator over all objects.
+       */
+      DBIDArrayIter pB = ids.iter();
+
+      /**
+       * Constructor.
+       *
+       * @param output Output variable
+       */
+      protected Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef pA) {
+        // Compute nearest neighbors and distances.
+        nn.clear();
+        double simAA = kernelMatrix.getSimilarity(pA, pA);
+        // Sum of 1./(|AB|) and 1./(|AB|^2); for computing R2.
+        double sumid = 0., sumisqd = 0.;
+        for(pB.seek(0); pB.valid(); pB.advance()) {
+          if(DBIDUtil.equal(pB, pA)) {
+            continue;
+          }
+          double simBB = kernelMatrix.getSimilarity(pB, pB);
+          double simAB = kernelMatrix.getSimilarity(pA, pB);
+          double sqdAB = simAA + simBB - simAB - simAB;
+          final double isqdAB = 1. / sqdAB;
+          sumid += FastMath.sqrt(isqdAB);
+          sumisqd += isqdAB;
+          // Update heap
+          nn.insert(sqdAB, pB);
+        }
+
+        // Compute FastABOD approximation, adjust for lower bound.
+        // LB-ABOF is defined via a numerically unstable formula.
+        // Variance as E(X^2)-E(X)^2 suffers from catastrophic cancellation!
+        // TODO: ensure numerical precision!
+        double nnsum = 0., nnsumsq = 0., nnsumisqd = 0.;
+        KNNList nl = nn.toKNNList();
+        DoubleDBIDListIter iB = nl.iter(), iC = nl.iter();
+        for(; iB.valid(); iB.advance()) {
+          double sqdAB = iB.doubleValue();
+          double simAB = kernelMatrix.getSimilarity(pA, iB);
+          if(!(sqdAB > 0.)) {
+            continue;
+          }
+          for(iC.seek(iB.getOffset() + 1); iC.valid(); iC.advance()) {
+            double sqdAC = iC.doubleValue();
+            double simAC = kernelMatrix.getSimilarity(pA, iC);
+            if(!(sqdAC > 0.)) {
+              continue;
+            }
+            // Exploit bilinearity of scalar product:
+            // <B-A, C-A> = <B, C-A> - <A,C-A>
+            // = <B,C> - <B,A> - <A,C> + <A,A>
+            double simBC = kernelMatrix.getSimilarity(iB, iC);
+            double numerator = simBC - simAB - simAC + simAA;
+            double sqweight = 1. / (sqdAB * sqdAC);
+            double weight = FastMath.sqrt(sqweight);
+            double val = numerator * sqweight;
+            nnsum += val * weight;
+            nnsumsq += val * val * weight;
+            nnsumisqd += sqweight;
+          }
+        }
+        // Remaining weight, term R2:
+        double r2 = sumisqd * sumisqd - 2. * nnsumisqd;
+        double tmp = (2. * nnsum + r2) / (sumid * sumid);
+        output.set(2. * nnsumsq / (sumid * sumid) - tmp * tmp);
+      }
+    }
+  }
+
   @Override
   public TypeInformation[] getInputTypeRestriction() {
     return TypeUtil.array(TypeUtil.NUMBER_VECTOR_FIELD);
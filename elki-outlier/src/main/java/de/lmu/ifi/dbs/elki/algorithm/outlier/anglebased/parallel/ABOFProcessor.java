@@ -0,0 +1,292 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.outlier.anglebased.parallel;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import de.lmu.ifi.dbs.elki.database.datastore.DoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.similarity.SimilarityQuery;
+import de.lmu.ifi.dbs.elki.math.MeanVariance;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.processor.AbstractDoubleProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
+import net.jafama.FastMath;
+
+/**
+ * Compute the angle-based outlier factor (ABOF) of an object with respect to
+ * its neighbors, i.e., the weighted variance of the angles spanned by all
+ * pairs of neighbors.
+ *
+ * If a sample size is given, and there are more pairs than that, the variance
+ * is estimated from a random sample of pairs instead. The sample is split into
+ * groups, and the standard error of the estimate is derived from the
+ * variability of the group estimates.
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.has Instance
+ *
+ * @param <O> Object type
+ */
+public class ABOFProcessor<O> extends AbstractDoubleProcessor {
+  /**
+   * Number of groups for estimating the standard error when sampling.
+   */
+  private static final int SAMPLE_GROUPS = 8;
+
+  /**
+   * Kernel similarity query
+   */
+  SimilarityQuery<O> sq;
+
+  /**
+   * Self-similarities, k(x,x)
+   */
+  DoubleDataStore selfsim;
+
+  /**
+   * Number of pairs to sample, 0 to use all pairs.
+   */
+  int samples;
+
+  /**
+   * Random seed for sampling.
+   */
+  long seed;
+
+  /**
+   * Neighbors input channel
+   */
+  SharedObject<? extends KNNList> input;
+
+  /**
+   * Standard error output channel, optional.
+   */
+  SharedDouble error;
+
+  /**
+   * Constructor.
+   *
+   * @param sq Kernel similarity query
+   * @param selfsim Self-similarities of all objects
+   * @param samples Number of pairs to sample, 0 to use all pairs
+   * @param seed Random seed for sampling
+   */
+  public ABOFProcessor(SimilarityQuery<O> sq, DoubleDataStore selfsim, int samples, long seed) {
+    super();
+    this.sq = sq;
+    this.selfsim = selfsim;
+    this.samples = samples;
+    this.seed = seed;
+  }
+
+  /**
+   * Connect the input channel.
+   *
+   * @param input Input channel
+   */
+  public void connectKNNInput(SharedObject<? extends KNNList> input) {
+    this.input = input;
+  }
+
+  /**
+   * Connect the output channel for the standard error of sampled estimates.
+   *
+   * @param error Output channel
+   */
+  public void connectErrorOutput(SharedDouble error) {
+    this.error = error;
+  }
+
+  @Override
+  public Instance instantiate(Executor executor) {
+    return new Instance(executor.getInstance(input), executor.getInstance(output), error != null ? executor.getInstance(error) : null);
+  }
+
+  /**
+   * Instance for a single thread.
+   *
+   * @author agent
+   */
+  public class Instance extends AbstractDoubleProcessor.Instance {
+    /**
+     * Neighbors input
+     */
+    SharedObject.Instance<? extends KNNList> input;
+
+    /**
+     * Standard error output, may be null.
+     */
+    SharedDouble.Instance error;
+
+    /**
+     * Neighbors with a positive distance, reused.
+     */
+    ArrayModifiableDBIDs neighbors = DBIDUtil.newArray();
+
+    /**
+     * Iterators over the neighbors.
+     */
+    DBIDArrayIter iB, iC;
+
+    /**
+     * Similarity to the query object, and squared distances, reused.
+     */
+    double[] simA = new double[16], sqd = new double[16];
+
+    /**
+     * Statistics, reused.
+     */
+    MeanVariance s = new MeanVariance(), groupstat = new MeanVariance();
+
+    /**
+     * Statistics for the sample groups, reused.
+     */
+    MeanVariance[] groups;
+
+    /**
+     * Random generator for sampling.
+     */
+    Random random;
+
+    /**
+     * Constructor.
+     *
+     * @param input Neighbors input
+     * @param output Score output
+     * @param error Standard error output, may be null.
+     */
+    protected Instance(SharedObject.Instance<? extends KNNList> input, SharedDouble.Instance output, SharedDouble.Instance error) {
+      super(output);
+      this.input = input;
+      this.error = error;
+      if(samples > 0) {
+        groups = MeanVariance.newArray(SAMPLE_GROUPS);
+        random = new Random();
+      }
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      final double simAA = selfsim.doubleValue(id);
+      // Collect the neighbors with a positive distance:
+      neighbors.clear();
+      int n = 0;
+      for(DoubleDBIDListIter it = input.get().iter(); it.valid(); it.advance()) {
+        if(DBIDUtil.equal(it, id)) {
+          continue;
+        }
+        double simAB = sq.similarity(id, it);
+        double sqdAB = simAA + selfsim.doubleValue(it) - simAB - simAB;
+        if(!(sqdAB > 0.)) {
+          continue;
+        }
+        if(n == sqd.length) {
+          simA = Arrays.copyOf(simA, n << 1);
+          sqd = Arrays.copyOf(sqd, n << 1);
+        }
+        simA[n] = simAB;
+        sqd[n] = sqdAB;
+        neighbors.add(it);
+        ++n;
+      }
+      iB = neighbors.iter();
+      iC = neighbors.iter();
+      s.reset();
+      if(samples > 0 && samples < (n * (long) (n - 1)) >>> 1) {
+        estimate(simAA, n, DBIDUtil.asInteger(id));
+        return;
+      }
+      for(int b = 0; b < n; b++) {
+        iB.seek(b);
+        for(int c = b + 1; c < n; c++) {
+          iC.seek(c);
+          final double div = 1. / (sqd[b] * sqd[c]);
+          s.put(numerator(simAA, b, c) * div, FastMath.sqrt(div));
+        }
+      }
+      // Sample variance probably would be better here, but the ABOD publication
+      // uses the naive variance.
+      output.set(s.getNaiveVariance());
+      if(error != null) {
+        error.set(0.);
+      }
+    }
+
+    /**
+     * Estimate the ABOF from a sample of pairs.
+     *
+     * @param simAA Self-similarity of the query object
+     * @param n Number of neighbors
+     * @param idx Integer id of the query object, for seeding
+     */
+    private void estimate(double simAA, int n, int idx) {
+      // Seed by object, so results do not depend on the thread scheduling.
+      random.setSeed(seed + idx * 0x9E3779B97F4A7C15L);
+      for(MeanVariance g : groups) {
+        g.reset();
+      }
+      for(int i = 0; i < samples; i++) {
+        final int b = random.nextInt(n);
+        int c = random.nextInt(n - 1);
+        c = c < b ? c : c + 1;
+        iB.seek(b);
+        iC.seek(c);
+        final double div = 1. / (sqd[b] * sqd[c]);
+        final double val = numerator(simAA, b, c) * div, weight = FastMath.sqrt(div);
+        s.put(val, weight);
+        groups[i % SAMPLE_GROUPS].put(val, weight);
+      }
+      output.set(s.getNaiveVariance());
+      if(error != null) {
+        groupstat.reset();
+        for(MeanVariance g : groups) {
+          groupstat.put(g.getNaiveVariance());
+        }
+        error.set(FastMath.sqrt(groupstat.getSampleVariance() / SAMPLE_GROUPS));
+      }
+    }
+
+    /**
+     * Compute the scalar product of B-A and C-A, where B and C are at the
+     * current positions of {@link #iB} and {@link #iC}.
+     *
+     * @param simAA Self-similarity of A
+     * @param b Index of B
+     * @param c Index of C
+     * @return Scalar product
+     */
+    private double numerator(double simAA, int b, int c) {
+      // Exploit bilinearity of scalar product:
+      // <B-A, C-A> = <B,C> - <B,A> - <A,C> + <A,A>
+      return sq.similarity(iB, iC) - simA[b] - simA[c] + simAA;
+    }
+  }
+}
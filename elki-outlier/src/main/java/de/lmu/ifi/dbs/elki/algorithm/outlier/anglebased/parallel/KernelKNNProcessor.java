@@ -0,0 +1,154 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.outlier.anglebased.parallel;
+
+import de.lmu.ifi.dbs.elki.database.datastore.DoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.similarity.SimilarityQuery;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
+
+/**
+ * Find the k nearest neighbors with respect to the squared distance induced by
+ * a kernel function, by a linear scan.
+ *
+ * The query object itself, and objects with a distance of 0 are not included.
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.has Instance
+ *
+ * @param <O> Object type
+ */
+public class KernelKNNProcessor<O> implements Processor {
+  /**
+   * K parameter
+   */
+  int k;
+
+  /**
+   * Kernel similarity query
+   */
+  SimilarityQuery<O> sq;
+
+  /**
+   * Self-similarities, k(x,x)
+   */
+  DoubleDataStore selfsim;
+
+  /**
+   * Objects to scan
+   */
+  DBIDs ids;
+
+  /**
+   * Output channel
+   */
+  SharedObject<KNNList> out;
+
+  /**
+   * Constructor.
+   *
+   * @param k K parameter
+   * @param sq Kernel similarity query
+   * @param selfsim Self-similarities of all objects
+   * @param ids Objects to scan
+   */
+  public KernelKNNProcessor(int k, SimilarityQuery<O> sq, DoubleDataStore selfsim, DBIDs ids) {
+    super();
+    this.k = k;
+    this.sq = sq;
+    this.selfsim = selfsim;
+    this.ids = ids;
+  }
+
+  /**
+   * Connect the output channel.
+   *
+   * @param output Output channel
+   */
+  public void connectKNNOutput(SharedObject<KNNList> output) {
+    this.out = output;
+  }
+
+  @Override
+  public Instance instantiate(Executor executor) {
+    return new Instance(executor.getInstance(out));
+  }
+
+  @Override
+  public void cleanup(Processor.Instance inst) {
+    // Nothing to do.
+  }
+
+  /**
+   * Instance for a single thread.
+   *
+   * @author agent
+   */
+  public class Instance implements Processor.Instance {
+    /**
+     * Output channel
+     */
+    SharedObject.Instance<KNNList> output;
+
+    /**
+     * Heap, reused
+     */
+    KNNHeap heap;
+
+    /**
+     * Constructor.
+     *
+     * @param output Output channel
+     */
+    protected Instance(SharedObject.Instance<KNNList> output) {
+      super();
+      this.output = output;
+      this.heap = DBIDUtil.newHeap(k);
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      final double simAA = selfsim.doubleValue(id);
+      heap.clear();
+      for(DBIDIter nB = ids.iter(); nB.valid(); nB.advance()) {
+        if(DBIDUtil.equal(nB, id)) {
+          continue;
+        }
+        double simAB = sq.similarity(id, nB);
+        double sqdAB = simAA + selfsim.doubleValue(nB) - simAB - simAB;
+        if(!(sqdAB > 0.)) {
+          continue;
+        }
+        heap.insert(sqdAB, nB);
+      }
+      output.set(heap.toKNNList());
+    }
+  }
+}
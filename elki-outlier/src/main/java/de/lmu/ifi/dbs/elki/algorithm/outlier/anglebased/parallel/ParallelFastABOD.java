@@ -0,0 +1,253 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.outlier.anglebased.parallel;
+
+import de.lmu.ifi.dbs.elki.algorithm.outlier.anglebased.FastABOD;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.similarity.SimilarityQuery;
+import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.similarityfunction.SimilarityFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.DoubleMinMaxProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
+import de.lmu.ifi.dbs.elki.result.outlier.InvertedOutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Parallel version of Fast-ABOD (approximate angle-based outlier detection).
+ *
+ * Unlike {@link FastABOD}, this version does not materialize the full kernel
+ * matrix, and thus needs only linear memory. The neighbors are found either
+ * by a linear scan using the kernel-induced distance (as in {@link FastABOD}),
+ * or, if a distance function is given, by the kNN query of the database, which
+ * may use an index.
+ *
+ * Optionally, the angle variance can be estimated from a random sample of
+ * neighbor pairs; then the standard error of each estimate is also returned.
+ * With a large k, this approximates the exact ABOD at a fraction of the cost.
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @apiviz.composedOf KernelKNNProcessor
+ * @apiviz.composedOf ABOFProcessor
+ *
+ * @param <V> Vector type
+ */
+public class ParallelFastABOD<V extends NumberVector> extends FastABOD<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelFastABOD.class);
+
+  /**
+   * Distance function for the kNN query, may be null.
+   */
+  protected DistanceFunction<? super V> distanceFunction;
+
+  /**
+   * Number of neighbor pairs to sample, 0 to use all pairs.
+   */
+  protected int samples;
+
+  /**
+   * Random generator for sampling.
+   */
+  protected RandomFactory rnd;
+
+  /**
+   * Constructor.
+   *
+   * @param kernelFunction kernel function to use
+   * @param k Number of nearest neighbors
+   * @param distanceFunction Distance function for the kNN query, may be null
+   * @param samples Number of neighbor pairs to sample, 0 to use all pairs
+   * @param rnd Random generator for sampling
+   */
+  public ParallelFastABOD(SimilarityFunction<? super V> kernelFunction, int k, DistanceFunction<? super V> distanceFunction, int samples, RandomFactory rnd) {
+    super(kernelFunction, k);
+    this.distanceFunction = distanceFunction;
+    this.samples = samples;
+    this.rnd = rnd;
+  }
+
+  /**
+   * Run Fast-ABOD on the data set.
+   *
+   * @param relation Relation to process
+   * @return Outlier detection result
+   */
+  @Override
+  public OutlierResult run(Database db, Relation<V> relation) {
+    DBIDs ids = relation.getDBIDs();
+    SimilarityQuery<V> sq = db.getSimilarityQuery(relation, kernelFunction);
+    // Self-similarities, needed for every kernel-induced distance.
+    WritableDoubleDataStore selfsim = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT);
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      selfsim.putDouble(it, sq.similarity(it, it));
+    }
+
+    // Find the neighbors
+    SharedObject<KNNList> knnv = new SharedObject<>();
+    Processor knnm;
+    if(distanceFunction != null) {
+      KNNQuery<V> knnq = db.getKNNQuery(db.getDistanceQuery(relation, distanceFunction), k + 1);
+      KNNProcessor<V> knnp = new KNNProcessor<>(k + 1, knnq);
+      knnp.connectKNNOutput(knnv);
+      knnm = knnp;
+    }
+    else {
+      KernelKNNProcessor<V> knnp = new KernelKNNProcessor<>(k, sq, selfsim, ids);
+      knnp.connectKNNOutput(knnv);
+      knnm = knnp;
+    }
+    // Compute the angle variance
+    ABOFProcessor<V> abofm = new ABOFProcessor<>(sq, selfsim, samples, rnd.getSingleThreadedRandom().nextLong());
+    SharedDouble abofv = new SharedDouble();
+    abofm.connectKNNInput(knnv);
+    abofm.connectOutput(abofv);
+    // Store in outlier scores
+    WritableDoubleDataStore abodvalues = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(abodvalues);
+    storem.connectInput(abofv);
+    // Gather statistics
+    DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+    mmm.connectInput(abofv);
+
+    WritableDoubleDataStore errors = null;
+    if(samples > 0) {
+      errors = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+      SharedDouble errv = new SharedDouble();
+      abofm.connectErrorOutput(errv);
+      WriteDoubleDataStoreProcessor storee = new WriteDoubleDataStoreProcessor(errors);
+      storee.connectInput(errv);
+      ParallelExecutor.run(ids, knnm, abofm, storem, mmm, storee);
+    }
+    else {
+      ParallelExecutor.run(ids, knnm, abofm, storem, mmm);
+    }
+    selfsim.destroy();
+
+    // Build result representation.
+    DoubleMinMax minmaxabod = mmm.getMinMax();
+    DoubleRelation scoreResult = new MaterializedDoubleRelation("Angle-Based Outlier Degree", "abod-outlier", abodvalues, ids);
+    OutlierScoreMeta scoreMeta = new InvertedOutlierScoreMeta(minmaxabod.getMin(), minmaxabod.getMax(), 0.0, Double.POSITIVE_INFINITY);
+    OutlierResult result = new OutlierResult(scoreMeta, scoreResult);
+    if(errors != null) {
+      result.addChildResult(new MaterializedDoubleRelation("ABOF Standard Error", "abod-stderr", errors, ids));
+    }
+    return result;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author agent
+   *
+   * @apiviz.exclude
+   */
+  public static class Parameterizer<V extends NumberVector> extends FastABOD.Parameterizer<V> {
+    /**
+     * Distance function for finding the neighbors with the database kNN query.
+     * If not given, a linear scan with the kernel-induced distance is used.
+     */
+    public static final OptionID DISTANCE_ID = new OptionID("fastabod.distance", "Distance function to find the nearest neighbors with the database kNN query (which may use an index). If not set, a linear scan using the kernel-induced distance is used.");
+
+    /**
+     * Number of neighbor pairs to sample per object.
+     */
+    public static final OptionID SAMPLES_ID = new OptionID("fastabod.samples", "Number of neighbor pairs to sample for estimating the angle variance; 0 uses all pairs.");
+
+    /**
+     * Random seed for sampling.
+     */
+    public static final OptionID SEED_ID = new OptionID("fastabod.seed", "Random seed for sampling neighbor pairs.");
+
+    /**
+     * Distance function for the kNN query.
+     */
+    protected DistanceFunction<? super V> distanceFunction = null;
+
+    /**
+     * Number of neighbor pairs to sample.
+     */
+    protected int samples = 0;
+
+    /**
+     * Random generator.
+     */
+    protected RandomFactory rnd;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      final ObjectParameter<DistanceFunction<? super V>> distP = new ObjectParameter<>(DISTANCE_ID, DistanceFunction.class);
+      distP.setOptional(true);
+      if(config.grab(distP)) {
+        distanceFunction = distP.instantiateClass(config);
+      }
+      final IntParameter samplesP = new IntParameter(SAMPLES_ID, 0) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT);
+      if(config.grab(samplesP)) {
+        samples = samplesP.intValue();
+      }
+      final RandomParameter rndP = new RandomParameter(SEED_ID);
+      if(config.grab(rndP)) {
+        rnd = rndP.getValue();
+      }
+    }
+
+    @Override
+    protected ParallelFastABOD<V> makeInstance() {
+      return new ParallelFastABOD<>(kernelFunction, k, distanceFunction, samples, rnd);
+    }
+  }
+}
@@ -0,0 +1,459 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.outlier.distance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractDistanceBasedAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.OutlierAlgorithm;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.result.outlier.BasicOutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleMaxHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Top-n distance-based outlier detection with randomization and a simple
+ * pruning rule (ORCA), using either the kNN distance ({@link KNNOutlier}) or
+ * the kNN weight ({@link KNNWeightOutlier}) as score.
+ * <p>
+ * The objects are processed in random order, and the neighbors of each object
+ * are searched in random order, too. While the search proceeds, the score
+ * computed from the neighbors found so far is an upper bound of the final
+ * score. Once it drops below the score of the current n-th outlier, the
+ * object cannot become a top-n outlier anymore, and the search is aborted.
+ * Because the cutoff only increases, most normal objects are pruned after a
+ * few distance computations.
+ * <p>
+ * Objects are processed in parallel, with the cutoff shared by all threads
+ * (as in iORCA, by Bhaduri et al.). Only the top n scores are exact; all
+ * other objects are assigned the upper bound at which they were pruned, which
+ * is below the score of every top-n outlier.
+ * <p>
+ * Reference:
+ * <p>
+ * S. D. Bay and M. Schwabacher<br />
+ * Mining distance-based outliers in near linear time with randomization and a
+ * simple pruning rule<br />
+ * Proc. 9th ACM SIGKDD Int. Conf. on Knowledge Discovery and Data Mining
+ * </p>
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @param <O> Object type
+ */
+@Title("ORCA: Top-n distance-based outliers with randomization and pruning")
+@Description("Finds the top-n kNN or kNN weight outliers, aborting neighbor searches that cannot lead to a top-n outlier.")
+@Reference(authors = "S. D. Bay, M. Schwabacher", //
+    title = "Mining distance-based outliers in near linear time with randomization and a simple pruning rule", //
+    booktitle = "Proc. 9th ACM SIGKDD Int. Conf. on Knowledge Discovery and Data Mining", //
+    url = "https://doi.org/10.1145/956750.956758")
+public class ORCA<O> extends AbstractDistanceBasedAlgorithm<O, OutlierResult> implements OutlierAlgorithm {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ORCA.class);
+
+  /**
+   * Number of objects processed per task.
+   */
+  private static final int BLOCK_SIZE = 64;
+
+  /**
+   * Number of neighbors (excluding the query point).
+   */
+  protected int k;
+
+  /**
+   * Number of outliers to find.
+   */
+  protected int n;
+
+  /**
+   * Use the kNN weight instead of the kNN distance.
+   */
+  protected boolean weight;
+
+  /**
+   * Random generator for the processing order.
+   */
+  protected RandomFactory rnd;
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param k Number of neighbors (excluding the query point)
+   * @param n Number of outliers to find
+   * @param weight Use the kNN weight instead of the kNN distance
+   * @param rnd Random generator for the processing order
+   */
+  public ORCA(DistanceFunction<? super O> distanceFunction, int k, int n, boolean weight, RandomFactory rnd) {
+    super(distanceFunction);
+    this.k = k;
+    this.n = n;
+    this.weight = weight;
+    this.rnd = rnd;
+  }
+
+  /**
+   * Run the algorithm.
+   *
+   * @param database Database
+   * @param relation Relation
+   * @return Outlier result
+   */
+  public OutlierResult run(Database database, Relation<O> relation) {
+    final DistanceQuery<O> distq = database.getDistanceQuery(relation, getDistanceFunction());
+    final ArrayModifiableDBIDs order = DBIDUtil.newArray(relation.getDBIDs());
+    DBIDUtil.randomShuffle(order, rnd);
+    final WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(order, DataStoreFactory.HINT_STATIC);
+
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Top-n outlier search", order.size(), LOG) : null;
+    final Cutoff cutoff = new Cutoff(n);
+    final AtomicInteger next = new AtomicInteger();
+    final int numtasks = ParallelCore.getCore().getParallelism();
+    List<Worker> tasks = new ArrayList<>(numtasks);
+    for(int i = 0; i < numtasks; i++) {
+      tasks.add(new Worker(distq, order, scores, cutoff, next, prog));
+    }
+    ParallelExecutor.run(tasks);
+    LOG.ensureCompleted(prog);
+
+    long distances = 0, pruned = 0;
+    for(Worker w : tasks) {
+      distances += w.distances;
+      pruned += w.pruned;
+    }
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(ORCA.class.getName() + ".distance-computations", distances));
+      LOG.statistics(new LongStatistic(ORCA.class.getName() + ".pruned", pruned));
+    }
+
+    DoubleMinMax minmax = new DoubleMinMax();
+    for(DBIDArrayIter it = order.iter(); it.valid(); it.advance()) {
+      minmax.put(scores.doubleValue(it));
+    }
+    DoubleRelation scoreres = weight ? //
+        new MaterializedDoubleRelation("kNN weight Outlier Score", "knnw-outlier", scores, order) : //
+        new MaterializedDoubleRelation("kNN Outlier Score", "knn-outlier", scores, order);
+    OutlierScoreMeta meta = new BasicOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0., Double.POSITIVE_INFINITY, 0.);
+    return new OutlierResult(meta, scoreres);
+  }
+
+  /**
+   * Shared cutoff: the n-th best score so far.
+   *
+   * @author agent
+   */
+  private static class Cutoff {
+    /**
+     * Top-n scores.
+     */
+    private final DoubleMinHeap top;
+
+    /**
+     * Number of outliers.
+     */
+    private final int n;
+
+    /**
+     * Current cutoff, only increases.
+     */
+    volatile double value = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Constructor.
+     *
+     * @param n Number of outliers
+     */
+    Cutoff(int n) {
+      this.n = n;
+      this.top = new DoubleMinHeap(n);
+    }
+
+    /**
+     * Add the score of a candidate.
+     *
+     * @param score Score
+     */
+    synchronized void add(double score) {
+      top.add(score, n);
+      if(top.size() >= n) {
+        value = top.peek();
+      }
+    }
+  }
+
+  /**
+   * Worker, processing blocks of objects.
+   *
+   * @author agent
+   */
+  private class Worker implements Callable<Void> {
+    /**
+     * Distance query.
+     */
+    private final DistanceQuery<O> distq;
+
+    /**
+     * Objects in processing order.
+     */
+    private final ArrayDBIDs order;
+
+    /**
+     * Output scores.
+     */
+    private final WritableDoubleDataStore scores;
+
+    /**
+     * Shared cutoff.
+     */
+    private final Cutoff cutoff;
+
+    /**
+     * Next block to process.
+     */
+    private final AtomicInteger next;
+
+    /**
+     * Progress, may be {@code null}.
+     */
+    private final FiniteProgress prog;
+
+    /**
+     * Statistics.
+     */
+    long distances = 0, pruned = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param distq Distance query
+     * @param order Objects in processing order
+     * @param scores Output scores
+     * @param cutoff Shared cutoff
+     * @param next Next block to process
+     * @param prog Progress, may be {@code null}
+     */
+    Worker(DistanceQuery<O> distq, ArrayDBIDs order, WritableDoubleDataStore scores, Cutoff cutoff, AtomicInteger next, FiniteProgress prog) {
+      this.distq = distq;
+      this.order = order;
+      this.scores = scores;
+      this.cutoff = cutoff;
+      this.next = next;
+      this.prog = prog;
+    }
+
+    @Override
+    public Void call() {
+      final int size = order.size();
+      DBIDArrayIter it = order.iter(), jt = order.iter();
+      DoubleMaxHeap heap = new DoubleMaxHeap(k);
+      double[] buf = weight ? new double[k] : null;
+      for(int start = next.getAndAdd(BLOCK_SIZE); start < size; start = next.getAndAdd(BLOCK_SIZE)) {
+        for(int i = start, end = Math.min(start + BLOCK_SIZE, size); i < end; i++) {
+          it.seek(i);
+          heap.clear();
+          double sum = 0., bound = Double.POSITIVE_INFINITY;
+          boolean prune = false;
+          // Search the neighbors in the (random) processing order.
+          for(jt.seek(0); jt.valid(); jt.advance()) {
+            if(jt.getOffset() == i) {
+              continue;
+            }
+            final double d = distq.distance(it, jt);
+            ++distances;
+            if(heap.size() < k) {
+              heap.add(d);
+              sum += d;
+              if(heap.size() < k) {
+                continue;
+              }
+              bound = weight ? sum : heap.peek();
+            }
+            else if(d < heap.peek()) {
+              sum += d - heap.peek();
+              heap.replaceTopElement(d);
+              bound = weight ? sum : heap.peek();
+            }
+            // The cutoff may also have been raised by other threads.
+            if(bound < cutoff.value) {
+              prune = true;
+              break;
+            }
+          }
+          if(prune) {
+            ++pruned;
+          }
+          else {
+            if(weight && heap.size() == k) {
+              bound = exactSum(heap, buf);
+            }
+            cutoff.add(bound);
+          }
+          scores.putDouble(it, bound);
+          LOG.incrementProcessed(prog);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Sum the neighbor distances in ascending order, to avoid the rounding
+     * errors of the running sum. This empties the heap.
+     *
+     * @param heap Heap of neighbor distances
+     * @param buf Buffer
+     * @return Sum of distances
+     */
+    private double exactSum(DoubleMaxHeap heap, double[] buf) {
+      int i = 0;
+      for(; !heap.isEmpty(); heap.poll()) {
+        buf[i++] = heap.peek();
+      }
+      double sum = 0.;
+      while(i > 0) {
+        sum += buf[--i];
+      }
+      return sum;
+    }
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(getDistanceFunction().getInputTypeRestriction());
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author agent
+   *
+   * @apiviz.exclude
+   *
+   * @param <O> Object type
+   */
+  public static class Parameterizer<O> extends AbstractDistanceBasedAlgorithm.Parameterizer<O> {
+    /**
+     * Number of outliers to find.
+     */
+    public static final OptionID N_ID = new OptionID("orca.n", "Number of top outliers to find.");
+
+    /**
+     * Use the kNN weight instead of the kNN distance.
+     */
+    public static final OptionID WEIGHT_ID = new OptionID("orca.weight", "Use the sum of the kNN distances (kNN weight) instead of the kNN distance as score.");
+
+    /**
+     * Random seed for the processing order.
+     */
+    public static final OptionID SEED_ID = new OptionID("orca.seed", "Random seed for the processing order.");
+
+    /**
+     * Number of neighbors.
+     */
+    protected int k;
+
+    /**
+     * Number of outliers.
+     */
+    protected int n;
+
+    /**
+     * Use the kNN weight.
+     */
+    protected boolean weight;
+
+    /**
+     * Random generator.
+     */
+    protected RandomFactory rnd;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      final IntParameter kP = new IntParameter(KNNOutlier.Parameterizer.K_ID)//
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(kP)) {
+        k = kP.getValue();
+      }
+      final IntParameter nP = new IntParameter(N_ID, 100)//
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(nP)) {
+        n = nP.getValue();
+      }
+      final Flag weightF = new Flag(WEIGHT_ID);
+      if(config.grab(weightF)) {
+        weight = weightF.isTrue();
+      }
+      final RandomParameter rndP = new RandomParameter(SEED_ID);
+      if(config.grab(rndP)) {
+        rnd = rndP.getValue();
+      }
+    }
+
+    @Override
+    protected ORCA<O> makeInstance() {
+      return new ORCA<>(distanceFunction, k, n, weight, rnd);
+    }
+  }
+}
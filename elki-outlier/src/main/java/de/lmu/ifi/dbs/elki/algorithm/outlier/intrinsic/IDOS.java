@@ -46,9 +46,17 @@ import de.lmu.ifi.dbs.elki.logging.progress.StepProgress;
 import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.ALIDEstimator;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.IntrinsicDimensionalityEstimator;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.IntrinsicDimensionalityProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNDistancesProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
 import de.lmu.ifi.dbs.elki.result.outlier.QuotientOutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -154,19 +162,27 @@ public class IDOS<O> extends AbstractDistanceBasedAlgorithm<O, OutlierResult> im
    */
   protected DoubleDataStore computeIDs(DBIDs ids, KNNQuery<O> knnQ) {
     WritableDoubleDataStore intDims = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Intrinsic dimensionality", ids.size(), LOG) : null;
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      double id = 0.;
-      try {
-        id = estimator.estimate(knnQ, iter, k_c + 1);
-      }
-      catch(ArithmeticException e) {
-        id = 0; // Too many duplicates, etc.
-      }
-      intDims.putDouble(iter, id);
-      LOG.incrementProcessed(prog);
+    SharedDouble idv = new SharedDouble();
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(intDims);
+    storem.connectInput(idv);
+    if(estimator.needsNeighborQueries()) {
+      IntrinsicDimensionalityProcessor idm = new IntrinsicDimensionalityProcessor(estimator, knnQ, k_c + 1, 0.);
+      idm.connectOutput(idv);
+      ParallelExecutor.run(ids, idm, storem);
+      return intDims;
     }
-    LOG.ensureCompleted(prog);
+    // Single kNN pass, estimating from the neighbor distances.
+    KNNProcessor<O> knnm = new KNNProcessor<>(k_c + 1, knnQ);
+    SharedObject<KNNList> knnv = new SharedObject<>();
+    knnm.connectKNNOutput(knnv);
+    KNNDistancesProcessor distm = new KNNDistancesProcessor(k_c + 1);
+    SharedObject<DoubleArray> distv = new SharedObject<>();
+    distm.connectKNNInput(knnv);
+    distm.connectOutput(distv);
+    IntrinsicDimensionalityProcessor idm = new IntrinsicDimensionalityProcessor(estimator, 1, 0.);
+    idm.connectDistancesInput(distv);
+    idm.connectOutput(idv);
+    ParallelExecutor.run(ids, knnm, distm, idm, storem);
     return intDims;
   }
 
@@ -20,7 +20,10 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.outlier.intrinsic;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractDistanceBasedAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.outlier.OutlierAlgorithm;
@@ -41,6 +44,7 @@ import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.AggregatedHillEstimator;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.IntrinsicDimensionalityEstimator;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
 import de.lmu.ifi.dbs.elki.result.outlier.ProbabilisticOutlierScore;
@@ -77,6 +81,11 @@ public class ISOS<O> extends AbstractDistanceBasedAlgorithm<O, OutlierResult> im
    */
   private static final Logging LOG = Logging.getLogger(ISOS.class);
 
+  /**
+   * Number of objects to query and estimate in one task.
+   */
+  private static final int CHUNK_SIZE = 256;
+
   /**
    * Number of neighbors (not including query point).
    */
@@ -112,6 +121,11 @@ public class ISOS<O> extends AbstractDistanceBasedAlgorithm<O, OutlierResult> im
 
   /**
    * Run the algorithm.
+   *
+   * The kNN queries and intrinsic dimensionality estimates run in parallel.
+   * The kNN lists of all objects are kept until the serial voting pass, so
+   * this needs O(n k) memory, as a materialized kNN preprocessor would, but
+   * each object is queried only once.
    * 
    * @param relation data relation.
    * @return
@@ -119,23 +133,54 @@ public class ISOS<O> extends AbstractDistanceBasedAlgorithm<O, OutlierResult> im
   public OutlierResult run(Relation<O> relation) {
     final int k1 = k + 1; // Query size
     final double perplexity = k / 3.;
-    KNNQuery<O> knnq = relation.getKNNQuery(getDistanceFunction(), k1);
+    final KNNQuery<O> knnq = relation.getKNNQuery(getDistanceFunction(), k1);
     final double logPerp = FastMath.log(perplexity);
 
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    final KNNList[] knns = new KNNList[size];
+    final double[] intDims = new double[size];
+    final boolean[] failed = new boolean[size];
+    List<Callable<Void>> tasks = new ArrayList<>((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    for(int start = 0; start < size; start += CHUNK_SIZE) {
+      final int begin = start, end = Math.min(start + CHUNK_SIZE, size);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          double[] p = new double[k1];
+          for(DBIDArrayIter it = ids.iter().seek(begin); it.getOffset() < end; it.advance()) {
+            final int i = it.getOffset();
+            final KNNList knn = knns[i] = knnq.getKNNForDBID(it, k1);
+            if(p.length < knn.size()) {
+              p = new double[knn.size()];
+            }
+            try {
+              intDims[i] = estimateID(it, knn.iter(), p);
+            }
+            catch(ArithmeticException e) {
+              failed[i] = true;
+            }
+          }
+          return null;
+        }
+      });
+    }
+    ParallelExecutor.run(tasks);
+
     double[] p = new double[k + 10];
     ModifiableDoubleDBIDList dists = DBIDUtil.newDistanceDBIDList(k + 10);
     DoubleDBIDListIter di = dists.iter();
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("ISOS scores", relation.size(), LOG) : null;
-    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_DB, 1.);
-    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-      KNNList knns = knnq.getKNNForDBID(it, k1);
-      if(p.length < knns.size() + 1) {
-        p = new double[knns.size() + 10];
+    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_DB, 1.);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      final int i = it.getOffset();
+      final KNNList knn = knns[i];
+      knns[i] = null; // Release early
+      if(p.length < knn.size() + 1) {
+        p = new double[knn.size() + 10];
       }
-      final DoubleDBIDListIter ki = knns.iter();
-      try {
-        double id = estimateID(it, ki, p);
-        adjustDistances(it, ki, knns.getKNNDistance(), id, dists);
+      if(!failed[i]) {
+        adjustDistances(it, knn.iter(), knn.getKNNDistance(), intDims[i], dists);
         // We now continue with the modified distances:
         // Compute affinities
         SOS.computePi(it, di, p, perplexity, logPerp);
@@ -145,18 +190,16 @@ public class ISOS<O> extends AbstractDistanceBasedAlgorithm<O, OutlierResult> im
           nominateNeighbors(it, di, p, 1. / s, scores);
         }
       }
-      catch(ArithmeticException e) {
+      else if(knn.size() > 1) {
         // ID estimation failed, supposedly constant values.
-        if(knns.size() > 1) {
-          Arrays.fill(p, 1. / (knns.size() - 1));
-          nominateNeighbors(it, di, p, 1., scores);
-        }
+        Arrays.fill(p, 1. / (knn.size() - 1));
+        nominateNeighbors(it, di, p, 1., scores);
       }
       LOG.incrementProcessed(prog);
     }
     LOG.ensureCompleted(prog);
-    DoubleMinMax minmax = transformScores(scores, relation.getDBIDs(), logPerp, phi);
-    DoubleRelation scoreres = new MaterializedDoubleRelation("Intrinsic Stoachastic Outlier Selection", "isos-outlier", scores, relation.getDBIDs());
+    DoubleMinMax minmax = transformScores(scores, ids, logPerp, phi);
+    DoubleRelation scoreres = new MaterializedDoubleRelation("Intrinsic Stoachastic Outlier Selection", "isos-outlier", scores, ids);
     OutlierScoreMeta meta = new ProbabilisticOutlierScore(minmax.getMin(), minmax.getMax(), 0.);
     return new OutlierResult(meta, scoreres);
   }
@@ -177,6 +220,9 @@ public class ISOS<O> extends AbstractDistanceBasedAlgorithm<O, OutlierResult> im
 
   /**
    * Estimate the local intrinsic dimensionality.
+   *
+   * This is called concurrently for different objects, with a separate
+   * scratch array each.
    * 
    * @param ignore Object to ignore
    * @param it Iterator
@@ -28,7 +28,8 @@ import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
@@ -36,13 +37,21 @@ import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
-import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.IntrinsicDimensionalityEstimator;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.MOMEstimator;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.DoubleMinMaxProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.IntrinsicDimensionalityProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNDistancesProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
 import de.lmu.ifi.dbs.elki.result.outlier.BasicOutlierScoreMeta;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
@@ -101,26 +110,40 @@ public class IntrinsicDimensionalityOutlier<O> extends AbstractDistanceBasedAlgo
     final DistanceQuery<O> distanceQuery = database.getDistanceQuery(relation, getDistanceFunction());
     final KNNQuery<O> knnQuery = database.getKNNQuery(distanceQuery, k + 1);
 
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("kNN distance for objects", relation.size(), LOG) : null;
-
-    DoubleMinMax minmax = new DoubleMinMax();
-    WritableDoubleDataStore id_score = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      double id = 0.;
-      try {
-        id = estimator.estimate(knnQuery, iditer, k + 1);
-      }
-      catch(ArithmeticException e) {
-        id = 0.;
-      }
-
-      id_score.putDouble(iditer, id);
-      minmax.put(id);
-
-      LOG.incrementProcessed(prog);
+    DBIDs ids = relation.getDBIDs();
+    WritableDoubleDataStore id_score = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+
+    // Estimate the intrinsic dimensionality
+    SharedDouble idv = new SharedDouble();
+    IntrinsicDimensionalityProcessor idm = estimator.needsNeighborQueries() ? //
+        new IntrinsicDimensionalityProcessor(estimator, knnQuery, k + 1, 0.) : //
+        new IntrinsicDimensionalityProcessor(estimator, 1, 0.);
+    idm.connectOutput(idv);
+    // Store in outlier scores
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(id_score);
+    storem.connectInput(idv);
+    // Gather statistics
+    DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+    mmm.connectInput(idv);
+
+    if(estimator.needsNeighborQueries()) {
+      ParallelExecutor.run(ids, idm, storem, mmm);
+    }
+    else {
+      // Compute the kNN
+      KNNProcessor<O> knnm = new KNNProcessor<>(k + 1, knnQuery);
+      SharedObject<KNNList> knnv = new SharedObject<>();
+      knnm.connectKNNOutput(knnv);
+      // Extract the distances
+      KNNDistancesProcessor distm = new KNNDistancesProcessor(k + 1);
+      SharedObject<DoubleArray> distv = new SharedObject<>();
+      distm.connectKNNInput(knnv);
+      distm.connectOutput(distv);
+      idm.connectDistancesInput(distv);
+      ParallelExecutor.run(ids, knnm, distm, idm, storem, mmm);
     }
-    LOG.ensureCompleted(prog);
-    DoubleRelation scoreres = new MaterializedDoubleRelation("Intrinsic dimensionality", "id-score", id_score, relation.getDBIDs());
+    DoubleMinMax minmax = mmm.getMinMax();
+    DoubleRelation scoreres = new MaterializedDoubleRelation("Intrinsic dimensionality", "id-score", id_score, ids);
     OutlierScoreMeta meta = new BasicOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0.0, Double.POSITIVE_INFINITY, 0.0);
     return new OutlierResult(meta, scoreres);
   }
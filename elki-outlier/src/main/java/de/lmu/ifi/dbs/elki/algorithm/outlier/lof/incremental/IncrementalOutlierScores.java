@@ -0,0 +1,698 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.outlier.lof.incremental;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.memory.MapIntegerDBIDIntegerStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayMIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.math.MathUtil;
+import de.lmu.ifi.dbs.elki.math.statistics.distribution.NormalDistribution;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.IntegerArray;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import net.jafama.FastMath;
+
+/**
+ * Incremental maintenance of kNN-based outlier scores under insertions and
+ * deletions, shared by the {@link Model#LOF LOF}, {@link Model#SIMPLIFIED_LOF
+ * simplified LOF}, {@link Model#LOOP LoOP} and {@link Model#KNN kNN outlier}
+ * scores.
+ * <p>
+ * Objects are added with {@link #insert} and removed with {@link #delete};
+ * changes are queued, and applied as one micro-batch by {@link #flush}. Each
+ * batch computes the neighbors of the new objects with a single scan, offers
+ * the new objects to the existing neighbor lists, and rescans only objects
+ * that lost a neighbor. Affected densities and scores are then found via the
+ * materialized reverse neighbors, so only the objects whose score can change
+ * are updated. The current top-n outliers are available without any distance
+ * computations via {@link #topN}.
+ * <p>
+ * All bookkeeping uses slot numbers: neighbor lists are stored in flat arrays
+ * with k entries per slot, reverse neighbors and affected sets are primitive
+ * integer sets. Slots of deleted objects are reused by later batches.
+ * <p>
+ * Neighborhoods exclude the object itself, and contain exactly k objects
+ * (ties at the k-distance are broken arbitrarily). Until more than k objects
+ * are present, all available neighbors are used. LoOP uses the same k for
+ * density estimation and comparison.
+ *
+ * @author agent
+ * @since 0.7.5
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "D. Pokrajac, A. Lazarevic, L. J. Latecki", //
+    title = "Incremental Local Outlier Detection for Data Streams", //
+    booktitle = "IEEE Symposium on Computational Intelligence and Data Mining (CIDM 2007)", //
+    url = "https://doi.org/10.1109/CIDM.2007.368917")
+public class IncrementalOutlierScores<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(IncrementalOutlierScores.class);
+
+  /**
+   * Outlier models supported.
+   *
+   * @author agent
+   */
+  public enum Model {
+    /**
+     * Local Outlier Factor, as in
+     * {@link de.lmu.ifi.dbs.elki.algorithm.outlier.lof.LOF}.
+     */
+    LOF,
+    /**
+     * Simplified LOF, as in
+     * {@link de.lmu.ifi.dbs.elki.algorithm.outlier.lof.SimplifiedLOF}.
+     */
+    SIMPLIFIED_LOF,
+    /**
+     * Local Outlier Probabilities, as in
+     * {@link de.lmu.ifi.dbs.elki.algorithm.outlier.lof.LoOP}.
+     */
+    LOOP,
+    /**
+     * kNN distance, as in
+     * {@link de.lmu.ifi.dbs.elki.algorithm.outlier.distance.KNNOutlier}.
+     */
+    KNN
+  }
+
+  /**
+   * Marker for unknown objects.
+   */
+  private static final int NONE = -1;
+
+  /**
+   * Distance function.
+   */
+  private PrimitiveDistanceFunction<? super O> distanceFunction;
+
+  /**
+   * Neighborhood size (excluding the object itself).
+   */
+  private int k;
+
+  /**
+   * Outlier model.
+   */
+  private Model model;
+
+  /**
+   * LoOP significance parameter.
+   */
+  private double lambda;
+
+  /**
+   * Objects, by slot.
+   */
+  private Object[] objects;
+
+  /**
+   * Object ids, by slot.
+   */
+  private ArrayModifiableDBIDs ids;
+
+  /**
+   * Slot of each object id.
+   */
+  private WritableIntegerDataStore slots;
+
+  /**
+   * Slots currently in use.
+   */
+  private boolean[] alive;
+
+  /**
+   * Flag for slots rescanned in the current batch.
+   */
+  private boolean[] rescan;
+
+  /**
+   * Neighbor slots, k per slot, sorted by distance.
+   */
+  private int[] nn;
+
+  /**
+   * Neighbor distances, k per slot.
+   */
+  private double[] nnd;
+
+  /**
+   * Number of neighbors of each slot.
+   */
+  private int[] nncount;
+
+  /**
+   * Reverse neighbors of each slot.
+   */
+  private IntOpenHashSet[] rnn;
+
+  /**
+   * k-distance at the time of the last density update (LOF only).
+   */
+  private double[] lastkdist;
+
+  /**
+   * Density of each slot (lrd for LOF, pdist for LoOP).
+   */
+  private double[] density;
+
+  /**
+   * Score of each slot (PLOF for LoOP, before normalization).
+   */
+  private double[] score;
+
+  /**
+   * LoOP normalization.
+   */
+  private double nplof = 1.;
+
+  /**
+   * Number of slots used so far, and number of live objects.
+   */
+  private int used = 0, size = 0;
+
+  /**
+   * Slots available for reuse.
+   */
+  private IntegerArray free = new IntegerArray();
+
+  /**
+   * Pending insertions.
+   */
+  private ArrayModifiableDBIDs pendingIds = DBIDUtil.newArray();
+
+  /**
+   * Objects of pending insertions.
+   */
+  private ArrayList<O> pendingObjects = new ArrayList<>();
+
+  /**
+   * Pending deletions.
+   */
+  private IntegerArray pendingDeletes = new IntegerArray();
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param k Neighborhood size, excluding the object itself
+   * @param model Outlier model
+   */
+  public IncrementalOutlierScores(PrimitiveDistanceFunction<? super O> distanceFunction, int k, Model model) {
+    this(distanceFunction, k, model, 2.);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param k Neighborhood size, excluding the object itself
+   * @param model Outlier model
+   * @param lambda LoOP significance parameter
+   */
+  public IncrementalOutlierScores(PrimitiveDistanceFunction<? super O> distanceFunction, int k, Model model, double lambda) {
+    super();
+    this.distanceFunction = distanceFunction;
+    this.k = k;
+    this.model = model;
+    this.lambda = lambda;
+    this.ids = DBIDUtil.newArray();
+    this.slots = new MapIntegerDBIDIntegerStore(100, NONE);
+    allocate(16);
+  }
+
+  /**
+   * Queue an object for insertion.
+   *
+   * @param id Object id
+   * @param obj Object
+   */
+  public void insert(DBIDRef id, O obj) {
+    if(slots.intValue(id) != NONE) {
+      throw new IllegalArgumentException("Object already present: " + DBIDUtil.toString(id));
+    }
+    pendingIds.add(id);
+    pendingObjects.add(obj);
+  }
+
+  /**
+   * Queue an object for deletion.
+   *
+   * @param id Object id
+   * @return {@code false} if the object was not present
+   */
+  public boolean delete(DBIDRef id) {
+    final int slot = slots.intValue(id);
+    if(slot != NONE) {
+      slots.delete(id);
+      pendingDeletes.add(slot);
+      return true;
+    }
+    // Not yet inserted?
+    for(DBIDArrayMIter it = pendingIds.iter(); it.valid(); it.advance()) {
+      if(DBIDUtil.equal(it, id)) {
+        pendingObjects.remove(it.getOffset());
+        it.remove();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Apply all pending insertions and deletions, and update the affected
+   * scores.
+   */
+  public void flush() {
+    if(pendingDeletes.isEmpty() && pendingObjects.isEmpty()) {
+      return;
+    }
+    IntOpenHashSet changed = new IntOpenHashSet();
+    IntegerArray rescans = new IntegerArray();
+    // Remove deleted objects from the reverse neighbors, and find the objects
+    // that lost a neighbor.
+    for(int i = 0; i < pendingDeletes.size; i++) {
+      alive[pendingDeletes.data[i]] = false;
+    }
+    size -= pendingDeletes.size;
+    for(int i = 0; i < pendingDeletes.size; i++) {
+      final int d = pendingDeletes.data[i];
+      for(int j = d * k, end = j + nncount[d]; j < end; j++) {
+        if(rnn[nn[j]] != null) {
+          rnn[nn[j]].remove(d);
+        }
+      }
+      if(rnn[d] != null) {
+        for(IntIterator it = rnn[d].iterator(); it.hasNext();) {
+          final int r = it.nextInt();
+          if(alive[r] && !rescan[r]) {
+            rescan[r] = true;
+            rescans.add(r);
+          }
+        }
+      }
+      rnn[d] = null;
+      objects[d] = null;
+    }
+    // Assign slots to the new objects; deleted slots are not reused yet.
+    final int numnew = pendingObjects.size();
+    final int[] newslots = new int[numnew];
+    DBIDArrayIter pit = pendingIds.iter();
+    for(int i = 0; i < numnew; i++, pit.advance()) {
+      final int slot = free.isEmpty() ? used++ : free.data[--free.size];
+      if(slot >= alive.length) {
+        allocate(alive.length << 1);
+      }
+      if(slot < ids.size()) {
+        ids.set(slot, pit);
+      }
+      else {
+        ids.add(pit);
+      }
+      slots.putInt(pit, slot);
+      objects[slot] = pendingObjects.get(i);
+      alive[slot] = rescan[slot] = true;
+      nncount[slot] = 0;
+      lastkdist[slot] = density[slot] = score[slot] = Double.NaN;
+      newslots[i] = slot;
+    }
+    size += numnew;
+    // Neighbors of the new objects, and offer them to the existing objects.
+    final boolean symmetric = distanceFunction.isSymmetric();
+    for(int q : newslots) {
+      @SuppressWarnings("unchecked")
+      final O oq = (O) objects[q];
+      for(int p = 0; p < used; p++) {
+        if(!alive[p] || p == q) {
+          continue;
+        }
+        @SuppressWarnings("unchecked")
+        final O op = (O) objects[p];
+        final double d = distanceFunction.distance(oq, op);
+        offer(q, p, d);
+        if(!rescan[p] && offer(p, q, symmetric ? d : distanceFunction.distance(op, oq))) {
+          changed.add(p);
+        }
+      }
+      changed.add(q);
+    }
+    // Rescan objects that lost a neighbor.
+    for(int i = 0; i < rescans.size; i++) {
+      final int r = rescans.data[i];
+      for(int j = r * k, end = j + nncount[r]; j < end; j++) {
+        if(rnn[nn[j]] != null) {
+          rnn[nn[j]].remove(r);
+        }
+      }
+      nncount[r] = 0;
+      @SuppressWarnings("unchecked")
+      final O or = (O) objects[r];
+      for(int p = 0; p < used; p++) {
+        if(alive[p] && p != r) {
+          @SuppressWarnings("unchecked")
+          final O op = (O) objects[p];
+          offer(r, p, distanceFunction.distance(or, op));
+        }
+      }
+      changed.add(r);
+    }
+    // Release deleted slots, and reset the rescan flags.
+    for(int i = 0; i < pendingDeletes.size; i++) {
+      free.add(pendingDeletes.data[i]);
+    }
+    for(int q : newslots) {
+      rescan[q] = false;
+    }
+    for(int i = 0; i < rescans.size; i++) {
+      rescan[rescans.data[i]] = false;
+    }
+    pendingIds.clear();
+    pendingObjects.clear();
+    pendingDeletes.clear();
+    updateScores(changed);
+  }
+
+  /**
+   * Update densities and scores after the neighborhoods changed.
+   *
+   * @param changed Objects whose neighborhoods changed
+   */
+  private void updateScores(IntOpenHashSet changed) {
+    if(model == Model.KNN) {
+      for(IntIterator it = changed.iterator(); it.hasNext();) {
+        final int p = it.nextInt();
+        score[p] = kdist(p);
+      }
+      logStatistics(changed.size(), changed.size());
+      return;
+    }
+    // Objects whose density may have changed.
+    IntOpenHashSet dens = changed;
+    if(model == Model.LOF) {
+      // Reachability distances depend on the k-distances of the neighbors.
+      dens = new IntOpenHashSet(changed);
+      for(IntIterator it = changed.iterator(); it.hasNext();) {
+        final int p = it.nextInt();
+        final double kd = kdist(p);
+        if(kd != lastkdist[p]) {
+          lastkdist[p] = kd;
+          if(rnn[p] != null) {
+            dens.addAll(rnn[p]);
+          }
+        }
+      }
+    }
+    // Objects whose score may have changed.
+    IntOpenHashSet scores = new IntOpenHashSet(changed);
+    for(IntIterator it = dens.iterator(); it.hasNext();) {
+      final int p = it.nextInt();
+      final double v = computeDensity(p);
+      if(Double.compare(v, density[p]) != 0) {
+        density[p] = v;
+        scores.add(p);
+        if(rnn[p] != null) {
+          scores.addAll(rnn[p]);
+        }
+      }
+    }
+    for(IntIterator it = scores.iterator(); it.hasNext();) {
+      final int p = it.nextInt();
+      score[p] = computeScore(p);
+    }
+    if(model == Model.LOOP) {
+      // Global normalization; cheap compared to the distance computations.
+      double sum = 0.;
+      for(int p = 0; p < used; p++) {
+        if(alive[p]) {
+          sum += (score[p] - 1.) * (score[p] - 1.);
+        }
+      }
+      nplof = size > 0 ? lambda * FastMath.sqrt(sum / size) : 0.;
+      nplof = nplof > 0. ? nplof : 1.;
+    }
+    logStatistics(dens.size(), scores.size());
+  }
+
+  /**
+   * Log the number of updated densities and scores.
+   *
+   * @param ndens Number of density updates
+   * @param nscores Number of score updates
+   */
+  private void logStatistics(int ndens, int nscores) {
+    if(LOG.isStatistics()) {
+      final String key = IncrementalOutlierScores.class.getName();
+      LOG.statistics(new LongStatistic(key + ".density-updates", ndens));
+      LOG.statistics(new LongStatistic(key + ".score-updates", nscores));
+    }
+  }
+
+  /**
+   * Offer a candidate to the neighbor list of an object.
+   *
+   * @param p Object
+   * @param q Candidate
+   * @param d Distance
+   * @return {@code true} if the neighbor list changed
+   */
+  private boolean offer(int p, int q, double d) {
+    final int base = p * k;
+    int pos = nncount[p];
+    if(pos == k) {
+      if(d >= nnd[base + k - 1]) {
+        return false;
+      }
+      // Evict the current k-th neighbor.
+      final int evicted = nn[base + k - 1];
+      if(rnn[evicted] != null) {
+        rnn[evicted].remove(p);
+      }
+      --pos;
+    }
+    else {
+      ++nncount[p];
+    }
+    for(; pos > 0 && nnd[base + pos - 1] > d; pos--) {
+      nn[base + pos] = nn[base + pos - 1];
+      nnd[base + pos] = nnd[base + pos - 1];
+    }
+    nn[base + pos] = q;
+    nnd[base + pos] = d;
+    if(rnn[q] == null) {
+      rnn[q] = new IntOpenHashSet();
+    }
+    rnn[q].add(p);
+    return true;
+  }
+
+  /**
+   * Distance to the farthest neighbor of an object.
+   *
+   * @param p Object
+   * @return k-distance
+   */
+  private double kdist(int p) {
+    return nncount[p] > 0 ? nnd[p * k + nncount[p] - 1] : 0.;
+  }
+
+  /**
+   * Compute the density of an object.
+   *
+   * @param p Object
+   * @return Density
+   */
+  private double computeDensity(int p) {
+    final int base = p * k, cnt = nncount[p];
+    double sum = 0.;
+    switch(model){
+    case LOF:
+      for(int j = base, end = base + cnt; j < end; j++) {
+        sum += MathUtil.max(nnd[j], kdist(nn[j]));
+      }
+      return (sum > 0) ? (cnt / sum) : Double.POSITIVE_INFINITY;
+    case SIMPLIFIED_LOF:
+      for(int j = base, end = base + cnt; j < end; j++) {
+        sum += nnd[j];
+      }
+      return (sum > 0) ? (cnt / sum) : Double.POSITIVE_INFINITY;
+    case LOOP:
+      for(int j = base, end = base + cnt; j < end; j++) {
+        sum += nnd[j] * nnd[j];
+      }
+      return cnt > 0 ? FastMath.sqrt(sum / cnt) : 0.;
+    default:
+      throw new IllegalStateException("Unsupported model: " + model);
+    }
+  }
+
+  /**
+   * Compute the score of an object.
+   *
+   * @param p Object
+   * @return Score
+   */
+  private double computeScore(int p) {
+    final int base = p * k, cnt = nncount[p];
+    final double dp = density[p];
+    double sum = 0.;
+    switch(model){
+    case LOF:
+      if(Double.isInfinite(dp)) {
+        return 1.;
+      }
+      for(int j = base, end = base + cnt; j < end; j++) {
+        sum += density[nn[j]];
+      }
+      return sum / (dp * cnt);
+    case SIMPLIFIED_LOF:
+      if(Double.isInfinite(dp)) {
+        return 1.;
+      }
+      for(int j = base, end = base + cnt; j < end; j++) {
+        final double val = density[nn[j]];
+        sum += val;
+        if(Double.isInfinite(val)) {
+          break;
+        }
+      }
+      return sum / (dp * cnt);
+    case LOOP:
+      for(int j = base, end = base + cnt; j < end; j++) {
+        sum += density[nn[j]];
+      }
+      final double plof = MathUtil.max(dp * cnt / sum, 1.0);
+      return Double.isNaN(plof) || Double.isInfinite(plof) ? 1. : plof;
+    default:
+      throw new IllegalStateException("Unsupported model: " + model);
+    }
+  }
+
+  /**
+   * Convert an internal score to the outlier score.
+   *
+   * @param s Internal score
+   * @return Outlier score
+   */
+  private double finalScore(double s) {
+    return model == Model.LOOP ? NormalDistribution.erf((s - 1.) / (nplof * MathUtil.SQRT2)) : s;
+  }
+
+  /**
+   * Get the current score of an object, as of the last {@link #flush}.
+   *
+   * @param id Object id
+   * @return Score, {@code NaN} if the object is not present
+   */
+  public double score(DBIDRef id) {
+    final int slot = slots.intValue(id);
+    return slot != NONE && alive[slot] ? finalScore(score[slot]) : Double.NaN;
+  }
+
+  /**
+   * Get the current top-n outliers, as of the last {@link #flush}.
+   *
+   * @param n Number of outliers
+   * @return Outliers, by descending score
+   */
+  public DoubleDBIDList topN(int n) {
+    if(n <= 0) {
+      return DBIDUtil.newDistanceDBIDList(0);
+    }
+    DoubleIntegerMinHeap heap = new DoubleIntegerMinHeap(n);
+    for(int p = 0; p < used; p++) {
+      if(alive[p] && !Double.isNaN(score[p])) {
+        heap.add(score[p], p, n);
+      }
+    }
+    final int num = heap.size();
+    double[] s = new double[num];
+    int[] p = new int[num];
+    for(int i = num - 1; i >= 0; i--) {
+      s[i] = heap.peekKey();
+      p[i] = heap.peekValue();
+      heap.poll();
+    }
+    ModifiableDoubleDBIDList list = DBIDUtil.newDistanceDBIDList(num);
+    DBIDArrayIter it = ids.iter();
+    for(int i = 0; i < num; i++) {
+      list.add(finalScore(s[i]), it.seek(p[i]));
+    }
+    return list;
+  }
+
+  /**
+   * Number of objects, as of the last {@link #flush}.
+   *
+   * @return Number of objects
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Grow the slot arrays.
+   *
+   * @param capacity New capacity
+   */
+  private void allocate(int capacity) {
+    if(objects == null) {
+      objects = new Object[capacity];
+      alive = new boolean[capacity];
+      rescan = new boolean[capacity];
+      nn = new int[capacity * k];
+      nnd = new double[capacity * k];
+      nncount = new int[capacity];
+      rnn = new IntOpenHashSet[capacity];
+      lastkdist = new double[capacity];
+      density = new double[capacity];
+      score = new double[capacity];
+      return;
+    }
+    objects = Arrays.copyOf(objects, capacity);
+    alive = Arrays.copyOf(alive, capacity);
+    rescan = Arrays.copyOf(rescan, capacity);
+    nn = Arrays.copyOf(nn, capacity * k);
+    nnd = Arrays.copyOf(nnd, capacity * k);
+    nncount = Arrays.copyOf(nncount, capacity);
+    rnn = Arrays.copyOf(rnn, capacity);
+    lastkdist = Arrays.copyOf(lastkdist, capacity);
+    density = Arrays.copyOf(density, capacity);
+    score = Arrays.copyOf(score, capacity);
+  }
+}
@@ -21,7 +21,9 @@
 package de.lmu.ifi.dbs.elki.algorithm.outlier.meta;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.outlier.OutlierAlgorithm;
@@ -33,7 +35,10 @@ import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
 import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
@@ -42,6 +47,7 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.subspace.SubspaceEuclideanD
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.outlier.BasicOutlierScoreMeta;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
@@ -73,6 +79,10 @@ import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
  * In: Proc. of the 11th ACM SIGKDD international conference on Knowledge
  * discovery in data mining
  * </p>
+ * <p>
+ * The LOF instances of the ensemble are run concurrently, using up to the
+ * configured parallelism.
+ * </p>
  *
  * @author Erich Schubert
  * @author Remigius Wojdanowski
@@ -129,25 +139,52 @@ public class FeatureBagging extends AbstractAlgorithm<OutlierResult> implements
    * @param relation Relation to use
    * @return Outlier detection result
    */
-  public OutlierResult run(Database database, Relation<NumberVector> relation) {
+  public OutlierResult run(final Database database, final Relation<NumberVector> relation) {
     final int dbdim = RelationUtil.dimensionality(relation);
     final int mindim = dbdim >> 1;
     final int maxdim = dbdim - 1;
     final Random rand = rnd.getSingleThreadedRandom();
 
-    ArrayList<OutlierResult> results = new ArrayList<>(num);
+    // Draw all subspaces first, so the random sequence does not depend on the
+    // execution order of the ensemble members.
+    long[][] dimsets = new long[num][];
+    for(int i = 0; i < num; i++) {
+      dimsets[i] = randomSubspace(dbdim, mindim, maxdim, rand);
+    }
+
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    // Breadth first needs the complete results, for the sum we only keep the
+    // scores of each member, indexed by the DBID offset.
+    final OutlierResult[] results = breadth ? new OutlierResult[num] : null;
+    final double[][] rows = breadth ? null : new double[num][];
     {
-      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("LOF iterations", num, LOG) : null;
+      final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("LOF iterations", num, LOG) : null;
+      List<Callable<Void>> tasks = new ArrayList<>(num);
       for(int i = 0; i < num; i++) {
-        long[] dimset = randomSubspace(dbdim, mindim, maxdim, rand);
-        SubspaceEuclideanDistanceFunction df = new SubspaceEuclideanDistanceFunction(dimset);
-        LOF<NumberVector> lof = new LOF<>(k, df);
-
-        // run LOF and collect the result
-        OutlierResult result = lof.run(database, relation);
-        results.add(result);
-        LOG.incrementProcessed(prog);
+        final int member = i;
+        final LOF<NumberVector> lof = new LOF<>(k, new SubspaceEuclideanDistanceFunction(dimsets[i]));
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            // run LOF and collect the result
+            OutlierResult result = lof.run(database, relation);
+            if(results != null) {
+              results[member] = result;
+            }
+            else {
+              DoubleRelation sc = result.getScores();
+              double[] row = new double[ids.size()];
+              for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+                row[iter.getOffset()] = sc.doubleValue(iter);
+              }
+              rows[member] = row;
+            }
+            LOG.incrementProcessed(prog);
+            return null;
+          }
+        });
       }
+      ParallelExecutor.runOuter(tasks);
       LOG.ensureCompleted(prog);
     }
 
@@ -156,7 +193,7 @@ public class FeatureBagging extends AbstractAlgorithm<OutlierResult> implements
     if(breadth) {
       FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Combining results", relation.size(), LOG) : null;
       @SuppressWarnings("unchecked")
-      Pair<DBIDIter, DoubleRelation>[] IDVectorOntoScoreVector = (Pair<DBIDIter, DoubleRelation>[]) new Pair[results.size()];
+      Pair<DBIDIter, DoubleRelation>[] IDVectorOntoScoreVector = (Pair<DBIDIter, DoubleRelation>[]) new Pair[results.length];
 
       // Mapping score-sorted DBID-Iterators onto their corresponding scores.
       // We need to initialize them now be able to iterate them "in parallel".
@@ -194,10 +231,11 @@ public class FeatureBagging extends AbstractAlgorithm<OutlierResult> implements
     }
     else {
       FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Combining results", relation.size(), LOG) : null;
-      for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        final int off = iter.getOffset();
         double sum = 0.0;
-        for(OutlierResult r : results) {
-          final double s = r.getScores().doubleValue(iter);
+        for(double[] row : rows) {
+          final double s = row[off];
           if(!Double.isNaN(s)) {
             sum += s;
           }
@@ -21,6 +21,7 @@
 package de.lmu.ifi.dbs.elki.algorithm.outlier.meta;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
@@ -28,13 +29,12 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.outlier.OutlierAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.outlier.lof.LOF;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
-import de.lmu.ifi.dbs.elki.data.VectorUtil;
-import de.lmu.ifi.dbs.elki.data.VectorUtil.SortDBIDsBySingleDimension;
 import de.lmu.ifi.dbs.elki.data.projection.NumericalFeatureSelection;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
@@ -43,7 +43,6 @@ import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
-import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -54,14 +53,18 @@ import de.lmu.ifi.dbs.elki.database.relation.ProjectedView;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.AbstractProgress;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
 import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
 import de.lmu.ifi.dbs.elki.math.statistics.tests.GoodnessOfFitTest;
 import de.lmu.ifi.dbs.elki.math.statistics.tests.KolmogorovSmirnovTest;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.outlier.BasicOutlierScoreMeta;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.Heap;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.TopBoundedHeap;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
@@ -76,6 +79,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
 import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+import de.lmu.ifi.dbs.elki.utilities.random.Xoroshiro128NonThreadsafeRandom;
 import net.jafama.FastMath;
 
 /**
@@ -176,8 +180,8 @@ public class HiCS<V extends NumberVector> extends AbstractAlgorithm<OutlierResul
   public OutlierResult run(Relation<V> relation) {
     final DBIDs ids = relation.getDBIDs();
 
-    ArrayList<ArrayDBIDs> subspaceIndex = buildOneDimIndexes(relation);
-    Set<HiCSSubspace> subspaces = calculateSubspaces(relation, subspaceIndex, rnd.getSingleThreadedRandom());
+    final OneDimIndexes index = buildOneDimIndexes(relation);
+    Set<HiCSSubspace> subspaces = calculateSubspaces(relation, index, rnd.getSingleThreadedRandom());
 
     if(LOG.isVerbose()) {
       LOG.verbose("Number of high-contrast subspaces: " + subspaces.size());
@@ -224,36 +228,41 @@ public class HiCS<V extends NumberVector> extends AbstractAlgorithm<OutlierResul
   }
 
   /**
-   * Calculates "index structures" for every attribute, i.e. sorts a
-   * ModifiableArray of every DBID in the database for every dimension and
-   * stores them in a list
+   * Calculates "index structures" for every attribute, i.e. sorts the objects
+   * by every dimension, and stores the sorted values and ranks.
    * 
    * @param relation Relation to index
-   * @return List of sorted objects
+   * @return Sorted one-dimensional indexes
    */
-  private ArrayList<ArrayDBIDs> buildOneDimIndexes(Relation<? extends NumberVector> relation) {
+  private OneDimIndexes buildOneDimIndexes(Relation<? extends NumberVector> relation) {
     final int dim = RelationUtil.dimensionality(relation);
-    ArrayList<ArrayDBIDs> subspaceIndex = new ArrayList<>(dim + 1);
-
-    SortDBIDsBySingleDimension comp = new VectorUtil.SortDBIDsBySingleDimension(relation);
-    for(int i = 0; i < dim; i++) {
-      ArrayModifiableDBIDs amDBIDs = DBIDUtil.newArray(relation.getDBIDs());
-      comp.setDimension(i);
-      amDBIDs.sort(comp);
-      subspaceIndex.add(amDBIDs);
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    OneDimIndexes index = new OneDimIndexes(dim, size);
+    for(int d = 0; d < dim; d++) {
+      final double[] values = index.sorted[d];
+      final int[] order = index.order[d], rank = index.rank[d];
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        values[iter.getOffset()] = relation.get(iter).doubleValue(d);
+        order[iter.getOffset()] = iter.getOffset();
+      }
+      DoubleIntegerArrayQuickSort.sort(values, order, size);
+      for(int i = 0; i < size; i++) {
+        rank[order[i]] = i;
+      }
     }
-
-    return subspaceIndex;
+    return index;
   }
 
   /**
    * Identifies high contrast subspaces in a given full-dimensional database.
    * 
    * @param relation the relation the HiCS should be evaluated for
-   * @param subspaceIndex Subspace indexes
+   * @param index One-dimensional indexes
+   * @param random Random generator, used to seed the contrast computations
    * @return a set of high contrast subspaces
    */
-  private Set<HiCSSubspace> calculateSubspaces(Relation<? extends NumberVector> relation, ArrayList<ArrayDBIDs> subspaceIndex, Random random) {
+  private Set<HiCSSubspace> calculateSubspaces(Relation<? extends NumberVector> relation, OneDimIndexes index, Random random) {
     final int dbdim = RelationUtil.dimensionality(relation);
 
     FiniteProgress dprog = LOG.isVerbose() ? new FiniteProgress("Subspace dimensionality", dbdim, LOG) : null;
@@ -265,16 +274,19 @@ public class HiCS<V extends NumberVector> extends AbstractAlgorithm<OutlierResul
     TopBoundedHeap<HiCSSubspace> dDimensionalList = new TopBoundedHeap<>(cutoff, HiCSSubspace.SORT_BY_CONTRAST_ASC);
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Generating two-element subsets", (dbdim * (dbdim - 1)) >> 1, LOG) : null;
     // compute two-element sets of subspaces
+    ArrayList<HiCSSubspace> joined = new ArrayList<>();
     for(int i = 0; i < dbdim; i++) {
       for(int j = i + 1; j < dbdim; j++) {
         HiCSSubspace ts = new HiCSSubspace();
         ts.set(i);
         ts.set(j);
-        calculateContrast(relation, ts, subspaceIndex, random);
-        dDimensionalList.add(ts);
-        LOG.incrementProcessed(prog);
+        joined.add(ts);
       }
     }
+    calculateContrasts(joined, index, random, prog);
+    for(HiCSSubspace ts : joined) {
+      dDimensionalList.add(ts);
+    }
     LOG.ensureCompleted(prog);
 
     IndefiniteProgress qprog = LOG.isVerbose() ? new IndefiniteProgress("Testing subspace candidates", LOG) : null;
@@ -294,6 +306,7 @@ public class HiCS<V extends NumberVector> extends AbstractAlgorithm<OutlierResul
       Collections.sort(candidateList, HiCSSubspace.SORT_BY_SUBSPACE);
 
       // TODO: optimize APRIORI style, by not even computing the bit set or?
+      joined.clear();
       for(int i = 0; i < candidateList.size() - 1; i++) {
         for(int j = i + 1; j < candidateList.size(); j++) {
           HiCSSubspace set1 = candidateList.get(i);
@@ -305,12 +318,13 @@ public class HiCS<V extends NumberVector> extends AbstractAlgorithm<OutlierResul
           if(joinedSet.cardinality() != d) {
             continue;
           }
-
-          calculateContrast(relation, joinedSet, subspaceIndex, random);
-          dDimensionalList.add(joinedSet);
-          LOG.incrementProcessed(qprog);
+          joined.add(joinedSet);
         }
       }
+      calculateContrasts(joined, index, random, qprog);
+      for(HiCSSubspace joinedSet : joined) {
+        dDimensionalList.add(joinedSet);
+      }
       // Prune
       for(HiCSSubspace cand : candidateList) {
         for(Heap<HiCSSubspace>.UnorderedIter it = dDimensionalList.unorderedIter(); it.valid(); it.advance()) {
@@ -330,86 +344,213 @@ public class HiCS<V extends NumberVector> extends AbstractAlgorithm<OutlierResul
   }
 
   /**
-   * Calculates the actual contrast of a given subspace.
+   * Calculate the contrast of a batch of subspaces in parallel.
+   * <p>
+   * Every subspace uses its own random stream, seeded in order from the given
+   * generator, so the results do not depend on the thread scheduling.
    * 
-   * @param relation Relation to process
-   * @param subspace Subspace
-   * @param subspaceIndex Subspace indexes
+   * @param subspaces Subspaces to evaluate
+   * @param index One-dimensional indexes
+   * @param random Random generator for seeding
+   * @param prog Progress, may be {@code null}
    */
-  private void calculateContrast(Relation<? extends NumberVector> relation, HiCSSubspace subspace, ArrayList<ArrayDBIDs> subspaceIndex, Random random) {
-    final int card = subspace.cardinality();
-    final double alpha1 = FastMath.pow(alpha, (1.0 / card));
-    final int windowsize = (int) (relation.size() * alpha1);
-    final FiniteProgress prog = LOG.isDebugging() ? new FiniteProgress("Monte-Carlo iterations", m, LOG) : null;
-
-    int retries = 0;
-    double deviationSum = 0.0;
-    for(int i = 0; i < m; i++) {
-      // Choose a random set bit.
-      int chosen = -1;
-      for(int tmp = random.nextInt(card); tmp >= 0; tmp--) {
-        chosen = subspace.nextSetBit(chosen + 1);
-      }
-      // initialize sample
-      DBIDs conditionalSample = relation.getDBIDs();
-
-      for(int j = subspace.nextSetBit(0); j >= 0; j = subspace.nextSetBit(j + 1)) {
-        if(j == chosen) {
-          continue;
-        }
-        ArrayDBIDs sortedIndices = subspaceIndex.get(j);
-        ArrayModifiableDBIDs indexBlock = DBIDUtil.newArray(windowsize);
-        // initialize index block
-        DBIDArrayIter iter = sortedIndices.iter();
-        iter.seek(random.nextInt(relation.size() - windowsize));
-        for(int k = 0; k < windowsize; k++, iter.advance()) {
-          indexBlock.add(iter); // select index block
+  private void calculateContrasts(final List<HiCSSubspace> subspaces, final OneDimIndexes index, Random random, final AbstractProgress prog) {
+    final int size = subspaces.size();
+    final long[] seeds = new long[size];
+    for(int i = 0; i < size; i++) {
+      seeds[i] = random.nextLong();
+    }
+    final int numtasks = Math.min(size, ParallelCore.getCore().getParallelism());
+    List<Callable<Void>> tasks = new ArrayList<>(numtasks);
+    for(int t = 0; t < numtasks; t++) {
+      final int first = t;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          ContrastWorker worker = new ContrastWorker(index);
+          for(int i = first; i < size; i += numtasks) {
+            worker.calculateContrast(subspaces.get(i), seeds[i]);
+            LOG.incrementProcessed(prog);
+          }
+          return null;
         }
+      });
+    }
+    ParallelExecutor.run(tasks);
+  }
 
-        conditionalSample = DBIDUtil.intersection(conditionalSample, indexBlock);
-      }
-      if(conditionalSample.size() < 10) {
-        retries++;
-        if(LOG.isDebugging()) {
-          LOG.debug("Sample size very small. Retry no. " + retries);
+  /**
+   * Sorted values, sort order and ranks of all objects in every dimension.
+   * Shared by all contrast computations.
+   * 
+   * @author agent
+   */
+  private static class OneDimIndexes {
+    /**
+     * Sorted values of each dimension.
+     */
+    final double[][] sorted;
+
+    /**
+     * Object offsets in sort order, for each dimension.
+     */
+    final int[][] order;
+
+    /**
+     * Rank of each object offset, for each dimension.
+     */
+    final int[][] rank;
+
+    /**
+     * Constructor.
+     * 
+     * @param dim Dimensionality
+     * @param size Number of objects
+     */
+    OneDimIndexes(int dim, int size) {
+      sorted = new double[dim][size];
+      order = new int[dim][size];
+      rank = new int[dim][size];
+    }
+  }
+
+  /**
+   * Contrast computation for a single thread, with reused buffers.
+   * 
+   * @author agent
+   */
+  private class ContrastWorker {
+    /**
+     * One-dimensional indexes.
+     */
+    final OneDimIndexes index;
+
+    /**
+     * Random generator, reseeded for each subspace. The seeds are consecutive
+     * outputs of one generator; reseeding a {@link Random} with them yields
+     * correlated streams, hence a generator that scrambles the seed.
+     */
+    final Random random = new Xoroshiro128NonThreadsafeRandom();
+
+    /**
+     * Buffer for the full sample (may be modified by the test).
+     */
+    final double[] fullValues;
+
+    /**
+     * Buffer for the conditional sample.
+     */
+    double[] sampleValues;
+
+    /**
+     * Buffers for the conditioning dimensions and window starts.
+     */
+    final int[] dims, starts;
+
+    /**
+     * Constructor.
+     * 
+     * @param index One-dimensional indexes
+     */
+    ContrastWorker(OneDimIndexes index) {
+      this.index = index;
+      final int size = index.sorted.length > 0 ? index.sorted[0].length : 0;
+      this.fullValues = new double[size];
+      this.sampleValues = new double[Math.min(size, 1024)];
+      this.dims = new int[index.sorted.length];
+      this.starts = new int[index.sorted.length];
+    }
+
+    /**
+     * Calculates the actual contrast of a given subspace.
+     * 
+     * @param subspace Subspace
+     * @param seed Random seed
+     */
+    void calculateContrast(HiCSSubspace subspace, long seed) {
+      random.setSeed(seed);
+      final int size = fullValues.length;
+      final int card = subspace.cardinality();
+      final double alpha1 = FastMath.pow(alpha, (1.0 / card));
+      final int windowsize = (int) (size * alpha1);
+      final FiniteProgress prog = LOG.isDebugging() ? new FiniteProgress("Monte-Carlo iterations", m, LOG) : null;
+
+      int retries = 0;
+      double deviationSum = 0.0;
+      for(int i = 0; i < m; i++) {
+        // Choose a random set bit.
+        int chosen = -1;
+        for(int tmp = random.nextInt(card); tmp >= 0; tmp--) {
+          chosen = subspace.nextSetBit(chosen + 1);
+        }
+        // Choose a random window in every other dimension.
+        int ndims = 0;
+        for(int j = subspace.nextSetBit(0); j >= 0; j = subspace.nextSetBit(j + 1)) {
+          if(j == chosen) {
+            continue;
+          }
+          dims[ndims] = j;
+          starts[ndims] = random.nextInt(size - windowsize);
+          ++ndims;
         }
-        if(retries >= MAX_RETRIES) {
-          LOG.warning("Too many retries, for small samples: " + retries);
+        // Conditional sample: objects in the window of all other dimensions.
+        final int samplesize = conditionalSample(chosen, ndims, windowsize);
+        if(samplesize < 10) {
+          retries++;
+          if(LOG.isDebugging()) {
+            LOG.debug("Sample size very small. Retry no. " + retries);
+          }
+          if(retries >= MAX_RETRIES) {
+            LOG.warning("Too many retries, for small samples: " + retries);
+          }
+          else {
+            i--;
+            continue;
+          }
         }
-        else {
+        // Project full set
+        System.arraycopy(index.sorted[chosen], 0, fullValues, 0, size);
+        double contrast = statTest.deviation(fullValues, Arrays.copyOf(sampleValues, samplesize));
+        if(Double.isNaN(contrast)) {
           i--;
+          LOG.warning("Contrast was NaN");
           continue;
         }
+        deviationSum += contrast;
+        LOG.incrementProcessed(prog);
       }
-      // Project conditional set
-      double[] sampleValues = new double[conditionalSample.size()];
-      {
-        int l = 0;
-        for(DBIDIter iter = conditionalSample.iter(); iter.valid(); iter.advance()) {
-          sampleValues[l] = relation.get(iter).doubleValue(chosen);
-          l++;
+      LOG.ensureCompleted(prog);
+      subspace.contrast = deviationSum / m;
+    }
+
+    /**
+     * Collect the values of the conditional sample in the chosen dimension.
+     * 
+     * @param chosen Chosen dimension
+     * @param ndims Number of conditioning dimensions
+     * @param windowsize Window size
+     * @return Sample size
+     */
+    private int conditionalSample(int chosen, int ndims, int windowsize) {
+      final int[] order0 = index.order[dims[0]];
+      final int[] rankc = index.rank[chosen];
+      final double[] sortedc = index.sorted[chosen];
+      int samplesize = 0;
+      candidates: for(int p = starts[0], end = starts[0] + windowsize; p < end; p++) {
+        final int o = order0[p];
+        for(int j = 1; j < ndims; j++) {
+          final int r = index.rank[dims[j]][o];
+          if(r < starts[j] || r >= starts[j] + windowsize) {
+            continue candidates;
+          }
         }
-      }
-      // Project full set
-      double[] fullValues = new double[relation.size()];
-      {
-        int l = 0;
-        for(DBIDIter iter = subspaceIndex.get(chosen).iter(); iter.valid(); iter.advance()) {
-          fullValues[l] = relation.get(iter).doubleValue(chosen);
-          l++;
+        if(samplesize == sampleValues.length) {
+          sampleValues = Arrays.copyOf(sampleValues, samplesize << 1);
         }
+        sampleValues[samplesize++] = sortedc[rankc[o]];
       }
-      double contrast = statTest.deviation(fullValues, sampleValues);
-      if(Double.isNaN(contrast)) {
-        i--;
-        LOG.warning("Contrast was NaN");
-        continue;
-      }
-      deviationSum += contrast;
-      LOG.incrementProcessed(prog);
+      return samplesize;
     }
-    LOG.ensureCompleted(prog);
-    subspace.contrast = deviationSum / m;
   }
 
   @Override
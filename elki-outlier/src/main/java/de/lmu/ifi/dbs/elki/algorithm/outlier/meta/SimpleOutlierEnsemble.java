@@ -23,9 +23,11 @@ package de.lmu.ifi.dbs.elki.algorithm.outlier.meta;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.Algorithm;
+import de.lmu.ifi.dbs.elki.algorithm.DistanceBasedAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.outlier.OutlierAlgorithm;
 import de.lmu.ifi.dbs.elki.data.type.CombinedTypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
@@ -36,27 +38,36 @@ import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
 import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.preprocessed.knn.MaterializeKNNPreprocessor;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
-import de.lmu.ifi.dbs.elki.result.Result;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.outlier.BasicOutlierScoreMeta;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
 import de.lmu.ifi.dbs.elki.utilities.ensemble.EnsembleVoting;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ChainedParameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectListParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
  * Simple outlier ensemble method.
+ * <p>
+ * The members are run concurrently. Optionally, the nearest neighbors can be
+ * materialized once per distance function, and shared by all members.
  * 
  * @author Erich Schubert
  * @since 0.5.5
@@ -81,6 +92,11 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
    */
   private EnsembleVoting voting;
 
+  /**
+   * Number of neighbors to materialize once for all members, 0 to disable.
+   */
+  private int sharedk;
+
   /**
    * Constructor.
    * 
@@ -88,41 +104,85 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
    * @param voting Voting method
    */
   public SimpleOutlierEnsemble(List<OutlierAlgorithm> algorithms, EnsembleVoting voting) {
+    this(algorithms, voting, 0);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param algorithms Algorithms to run
+   * @param voting Voting method
+   * @param sharedk Number of neighbors (including the query point) to
+   *        materialize once for all distance-based members, 0 to disable
+   */
+  public SimpleOutlierEnsemble(List<OutlierAlgorithm> algorithms, EnsembleVoting voting, int sharedk) {
     this.algorithms = algorithms;
     this.voting = voting;
+    this.sharedk = sharedk;
   }
 
   @Override
-  public OutlierResult run(Database database) throws IllegalStateException {
-    int num = algorithms.size();
-    // Run inner outlier algorithms
-    ModifiableDBIDs ids = DBIDUtil.newHashSet();
-    ArrayList<OutlierResult> results = new ArrayList<>(num);
-    {
-      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Inner outlier algorithms", num, LOG) : null;
-      for (Algorithm alg : algorithms) {
-        Result res = alg.run(database);
-        List<OutlierResult> ors = OutlierResult.getOutlierResults(res);
-        for (OutlierResult or : ors) {
-          results.add(or);
-          ids.addDBIDs(or.getScores().getDBIDs());
-        }
-        LOG.incrementProcessed(prog);
+  public OutlierResult run(final Database database) throws IllegalStateException {
+    final int num = algorithms.size();
+    // Share the neighborhoods among the members
+    List<Relation<?>> relations = new ArrayList<>();
+    List<MaterializeKNNPreprocessor<?>> shared = new ArrayList<>();
+    if(sharedk > 0) {
+      materializeSharedKNN(database, relations, shared);
+    }
+    // Run inner outlier algorithms concurrently
+    @SuppressWarnings("unchecked")
+    final List<OutlierResult>[] memberresults = (List<OutlierResult>[]) new List[num];
+    try {
+      final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Inner outlier algorithms", num, LOG) : null;
+      List<Callable<Void>> tasks = new ArrayList<>(num);
+      for(int i = 0; i < num; i++) {
+        final int member = i;
+        final Algorithm alg = algorithms.get(i);
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            memberresults[member] = OutlierResult.getOutlierResults(alg.run(database));
+            LOG.incrementProcessed(prog);
+            return null;
+          }
+        });
       }
+      ParallelExecutor.runOuter(tasks);
       LOG.ensureCompleted(prog);
     }
+    finally {
+      for(int i = 0; i < shared.size(); i++) {
+        database.getHierarchy().remove(relations.get(i), shared.get(i));
+      }
+    }
+    // Collect results in member order, for a deterministic combination.
+    ModifiableDBIDs union = DBIDUtil.newHashSet();
+    ArrayList<DoubleRelation> results = new ArrayList<>(num);
+    for(List<OutlierResult> ors : memberresults) {
+      for(OutlierResult or : ors) {
+        results.add(or.getScores());
+        union.addDBIDs(or.getScores().getDBIDs());
+      }
+    }
+    // Keep the order of the first result, if all cover the same objects.
+    DBIDs ids = union;
+    if(!results.isEmpty() && results.get(0).getDBIDs().size() == union.size()) {
+      ids = results.get(0).getDBIDs();
+    }
     // Combine
     WritableDoubleDataStore sumscore = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
     DoubleMinMax minmax = new DoubleMinMax();
     {
       FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Combining results", ids.size(), LOG) : null;
+      // Buffer reused for every object.
+      final double[] buf = new double[results.size()];
       for (DBIDIter id = ids.iter(); id.valid(); id.advance()) {
-        double[] scores = new double[num];
         int i = 0;
-        for (OutlierResult r : results) {
-          double score = r.getScores().doubleValue(id);
+        for (DoubleRelation r : results) {
+          double score = r.doubleValue(id);
           if (!Double.isNaN(score)) {
-            scores[i] = score;
+            buf[i] = score;
             i++;
           } else {
             LOG.warning("DBID " + id + " was not given a score by result " + r);
@@ -130,10 +190,7 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
         }
         if (i > 0) {
           // Shrink array if necessary.
-          if (i < scores.length) {
-            scores = Arrays.copyOf(scores, i);
-          }
-          double combined = voting.combine(scores);
+          double combined = voting.combine(i < buf.length ? Arrays.copyOf(buf, i) : buf);
           sumscore.putDouble(id, combined);
           minmax.put(combined);
         } else {
@@ -148,6 +205,48 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
     return new OutlierResult(meta, scores);
   }
 
+  /**
+   * Materialize the neighborhoods once for every distinct distance function
+   * of the distance-based members, and add them to the database, where the
+   * kNN queries of the members will find them.
+   * 
+   * @param database Database
+   * @param relations Output: relations the preprocessors were added to
+   * @param shared Output: preprocessors
+   */
+  private void materializeSharedKNN(Database database, List<Relation<?>> relations, List<MaterializeKNNPreprocessor<?>> shared) {
+    List<DistanceFunction<?>> seen = new ArrayList<>();
+    for(OutlierAlgorithm alg : algorithms) {
+      if(!(alg instanceof DistanceBasedAlgorithm)) {
+        continue;
+      }
+      DistanceFunction<?> df = ((DistanceBasedAlgorithm<?>) alg).getDistanceFunction();
+      if(seen.contains(df)) {
+        continue;
+      }
+      seen.add(df);
+      materializeKNN(database, df, relations, shared);
+    }
+  }
+
+  /**
+   * Materialize the neighborhood for a single distance function.
+   * 
+   * @param database Database
+   * @param df Distance function
+   * @param relations Output: relations the preprocessors were added to
+   * @param shared Output: preprocessors
+   * @param <O> Object type
+   */
+  private <O> void materializeKNN(Database database, DistanceFunction<O> df, List<Relation<?>> relations, List<MaterializeKNNPreprocessor<?>> shared) {
+    Relation<O> relation = database.getRelation(df.getInputTypeRestriction());
+    MaterializeKNNPreprocessor<O> preproc = new MaterializeKNNPreprocessor<>(relation, df, sharedk);
+    preproc.initialize();
+    database.getHierarchy().add(relation, preproc);
+    relations.add(relation);
+    shared.add(preproc);
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
@@ -176,6 +275,11 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
      */
     public static final OptionID VOTING_ID = new OptionID("ensemble.voting", "Voting strategy to use in the ensemble.");
 
+    /**
+     * Number of neighbors to materialize once for all members.
+     */
+    public static final OptionID SHARED_KNN_ID = new OptionID("ensemble.knn", "Number of neighbors (including the query point) to materialize once and share among all distance-based ensemble members.");
+
     /**
      * The algorithms to run.
      */
@@ -186,6 +290,11 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
      */
     private EnsembleVoting voting;
 
+    /**
+     * Number of neighbors to share.
+     */
+    private int sharedk = 0;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -201,11 +310,17 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
       if (config.grab(votingP)) {
         voting = votingP.instantiateClass(config);
       }
+      IntParameter sharedkP = new IntParameter(SHARED_KNN_ID) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .setOptional(true);
+      if (config.grab(sharedkP)) {
+        sharedk = sharedkP.getValue();
+      }
     }
 
     @Override
     protected SimpleOutlierEnsemble makeInstance() {
-      return new SimpleOutlierEnsemble(algorithms, voting);
+      return new SimpleOutlierEnsemble(algorithms, voting, sharedk);
     }
   }
 }
@@ -0,0 +1,58 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.outlier;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Tests the Isolation Forest algorithm.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class IsolationForestTest extends AbstractOutlierAlgorithmTest {
+  @Test
+  public void testIsolationForest() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<IsolationForest<DoubleVector>>(IsolationForest.class) //
+        .with(IsolationForest.Parameterizer.SEED_ID, 0) //
+        .build().run(db);
+    testAUC(db, "Noise", result, 0.9647777777777778);
+    testSingleScore(result, 945, 0.459240961042542);
+  }
+
+  @Test
+  public void testIsolationForestSubsample() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345);
+    OutlierResult result = new ELKIBuilder<IsolationForest<DoubleVector>>(IsolationForest.class) //
+        .with(IsolationForest.Parameterizer.NUM_TREES_ID, 50) //
+        .with(IsolationForest.Parameterizer.SUBSAMPLE_SIZE_ID, 64) //
+        .with(IsolationForest.Parameterizer.SEED_ID, 0) //
+        .build().run(db);
+    testAUC(db, "Noise", result, 0.916750700280112);
+    testSingleScore(result, 1293, 0.6670057962832963);
+  }
+}
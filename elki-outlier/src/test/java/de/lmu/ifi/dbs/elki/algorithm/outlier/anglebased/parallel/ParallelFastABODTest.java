@@ -0,0 +1,82 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.outlier.anglebased.parallel;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.outlier.AbstractOutlierAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.anglebased.FastABOD;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.similarityfunction.kernel.LinearKernelFunction;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Tests the parallel FastABOD algorithm.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class ParallelFastABODTest extends AbstractOutlierAlgorithmTest {
+  @Test
+  public void testParallelFastABOD() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<ParallelFastABOD<DoubleVector>>(ParallelFastABOD.class) //
+        .with(FastABOD.Parameterizer.K_ID, 5).build().run(db);
+    // Same as FastABOD
+    testAUC(db, "Noise", result, 0.94626962962);
+    testSingleScore(result, 945, 3.28913914467E-4);
+  }
+
+  @Test
+  public void testParallelFastABODkNNQuery() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    // With the linear kernel, squared Euclidean yields the same neighbors.
+    OutlierResult result = new ELKIBuilder<ParallelFastABOD<DoubleVector>>(ParallelFastABOD.class) //
+        .with(FastABOD.Parameterizer.KERNEL_FUNCTION_ID, LinearKernelFunction.class) //
+        .with(ParallelFastABOD.Parameterizer.DISTANCE_ID, SquaredEuclideanDistanceFunction.class) //
+        .with(FastABOD.Parameterizer.K_ID, 5).build().run(db);
+    OutlierResult expected = new ELKIBuilder<FastABOD<DoubleVector>>(FastABOD.class) //
+        .with(FastABOD.Parameterizer.KERNEL_FUNCTION_ID, LinearKernelFunction.class) //
+        .with(FastABOD.Parameterizer.K_ID, 5).build().run(db);
+    DoubleRelation scores = result.getScores(), exp = expected.getScores();
+    for(DBIDIter it = scores.iterDBIDs(); it.valid(); it.advance()) {
+      assertEquals("Score differs.", exp.doubleValue(it), scores.doubleValue(it), 1e-15);
+    }
+  }
+
+  @Test
+  public void testParallelFastABODSampled() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<ParallelFastABOD<DoubleVector>>(ParallelFastABOD.class) //
+        .with(FastABOD.Parameterizer.K_ID, 30) //
+        .with(ParallelFastABOD.Parameterizer.SAMPLES_ID, 100) //
+        .with(ParallelFastABOD.Parameterizer.SEED_ID, 0L).build().run(db);
+    testAUC(db, "Noise", result, 0.941537037037037);
+    testSingleScore(result, 945, 2.770804349836494E-4);
+  }
+}
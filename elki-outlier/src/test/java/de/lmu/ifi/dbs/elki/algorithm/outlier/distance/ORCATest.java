@@ -0,0 +1,98 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.outlier.distance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.outlier.AbstractOutlierAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Tests the ORCA top-n outlier detection.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class ORCATest extends AbstractOutlierAlgorithmTest {
+  @Test
+  public void testORCA() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<ORCA<DoubleVector>>(ORCA.class) //
+        .with(KNNOutlier.Parameterizer.K_ID, 5) //
+        .with(ORCA.Parameterizer.N_ID, 20) //
+        .with(ORCA.Parameterizer.SEED_ID, 0).build().run(db);
+    OutlierResult full = new ELKIBuilder<KNNOutlier<DoubleVector>>(KNNOutlier.class) //
+        .with(KNNOutlier.Parameterizer.K_ID, 5).build().run(db);
+    assertTopN(full, result, 20);
+  }
+
+  @Test
+  public void testORCAWeight() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<ORCA<DoubleVector>>(ORCA.class) //
+        .with(KNNOutlier.Parameterizer.K_ID, 5) //
+        .with(ORCA.Parameterizer.N_ID, 20) //
+        .with(ORCA.Parameterizer.WEIGHT_ID) //
+        .with(ORCA.Parameterizer.SEED_ID, 0).build().run(db);
+    OutlierResult full = new ELKIBuilder<KNNWeightOutlier<DoubleVector>>(KNNWeightOutlier.class) //
+        .with(KNNWeightOutlier.Parameterizer.K_ID, 5).build().run(db);
+    assertTopN(full, result, 20);
+  }
+
+  /**
+   * Verify that the top n scores are exact, and all others are below.
+   *
+   * @param full Full result
+   * @param topn Top-n result
+   * @param n Number of outliers
+   */
+  private void assertTopN(OutlierResult full, OutlierResult topn, int n) {
+    DoubleRelation fs = full.getScores(), ts = topn.getScores();
+    double[] all = new double[fs.size()];
+    int i = 0;
+    for(DBIDIter it = fs.iterDBIDs(); it.valid(); it.advance()) {
+      all[i++] = fs.doubleValue(it);
+    }
+    Arrays.sort(all);
+    final double nth = all[all.length - n];
+    int exact = 0;
+    for(DBIDIter it = fs.iterDBIDs(); it.valid(); it.advance()) {
+      if(fs.doubleValue(it) >= nth) {
+        assertEquals("Top-n score does not match.", fs.doubleValue(it), ts.doubleValue(it), 1e-15);
+        ++exact;
+      }
+      else {
+        assertTrue("Pruned score above cutoff.", ts.doubleValue(it) < nth);
+      }
+    }
+    assertEquals("Number of top-n outliers", n, exact);
+  }
+}
@@ -25,6 +25,7 @@ import org.junit.Test;
 import de.lmu.ifi.dbs.elki.algorithm.outlier.AbstractOutlierAlgorithmTest;
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.ALIDEstimator;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
 
@@ -42,4 +43,14 @@ public class IntrinsicDimensionalityOutlierTest extends AbstractOutlierAlgorithm
     testAUC(db, "Noise", result, 0.9167222);
     testSingleScore(result, 945, 2.5368047);
   }
+
+  @Test
+  public void testALID() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<IntrinsicDimensionalityOutlier<DoubleVector>>(IntrinsicDimensionalityOutlier.class) //
+        .with(IntrinsicDimensionalityOutlier.Parameterizer.K_ID, 20) //
+        .with(IntrinsicDimensionalityOutlier.Parameterizer.ESTIMATOR_ID, ALIDEstimator.class).build().run(db);
+    testAUC(db, "Noise", result, 0.8102222);
+    testSingleScore(result, 945, 2.6130523);
+  }
 }
@@ -0,0 +1,150 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.outlier.lof.incremental;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.outlier.AbstractOutlierAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.distance.KNNOutlier;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.lof.LOF;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.lof.LoOP;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.lof.SimplifiedLOF;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.lof.incremental.IncrementalOutlierScores.Model;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Tests the incremental outlier scores against the static algorithms.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class IncrementalOutlierScoresTest extends AbstractOutlierAlgorithmTest {
+  @Test
+  public void testLOF() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345);
+    OutlierResult result = new ELKIBuilder<LOF<DoubleVector>>(LOF.class) //
+        .with(LOF.Parameterizer.K_ID, 10).build().run(db);
+    assertSameScores(db, result, Model.LOF);
+  }
+
+  @Test
+  public void testSimplifiedLOF() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345);
+    OutlierResult result = new ELKIBuilder<SimplifiedLOF<DoubleVector>>(SimplifiedLOF.class) //
+        .with(LOF.Parameterizer.K_ID, 10).build().run(db);
+    assertSameScores(db, result, Model.SIMPLIFIED_LOF);
+  }
+
+  @Test
+  public void testLoOP() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345);
+    OutlierResult result = new ELKIBuilder<LoOP<DoubleVector>>(LoOP.class) //
+        .with(LoOP.Parameterizer.KCOMP_ID, 10) //
+        .with(LoOP.Parameterizer.KREACH_ID, 10).build().run(db);
+    assertSameScores(db, result, Model.LOOP);
+  }
+
+  @Test
+  public void testKNNOutlier() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345);
+    OutlierResult result = new ELKIBuilder<KNNOutlier<DoubleVector>>(KNNOutlier.class) //
+        .with(KNNOutlier.Parameterizer.K_ID, 10).build().run(db);
+    assertSameScores(db, result, Model.KNN);
+  }
+
+  @Test
+  public void testSlidingWindow() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    for(Model model : Model.values()) {
+      IncrementalOutlierScores<NumberVector> window = new IncrementalOutlierScores<>(EuclideanDistanceFunction.STATIC, 10, model);
+      // Slide a window of 500 objects in steps of 100 over the data.
+      int i = 0;
+      DBIDIter del = rel.iterDBIDs();
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance(), i++) {
+        window.insert(it, rel.get(it));
+        if(i >= 500) {
+          assertTrue(window.delete(del));
+          del.advance();
+        }
+        if(i % 100 == 99) {
+          window.flush();
+        }
+      }
+      window.flush();
+      assertEquals("Window size", 500, window.size());
+      // Compare to a batch of the same objects.
+      IncrementalOutlierScores<NumberVector> batch = new IncrementalOutlierScores<>(EuclideanDistanceFunction.STATIC, 10, model);
+      for(; del.valid(); del.advance()) {
+        batch.insert(del, rel.get(del));
+      }
+      batch.flush();
+      for(DoubleDBIDListIter it = batch.topN(500).iter(); it.valid(); it.advance()) {
+        assertEquals("Score does not match.", it.doubleValue(), window.score(it), 1e-10);
+      }
+    }
+  }
+
+  /**
+   * Insert the data in batches, and compare to a static result.
+   *
+   * @param db Database
+   * @param result Static result
+   * @param model Model
+   */
+  private void assertSameScores(Database db, OutlierResult result, Model model) {
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    IncrementalOutlierScores<NumberVector> inc = new IncrementalOutlierScores<>(EuclideanDistanceFunction.STATIC, 10, model);
+    int i = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      inc.insert(it, rel.get(it));
+      if(++i % 100 == 0) {
+        inc.flush();
+      }
+    }
+    inc.flush();
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      assertEquals("Score does not match.", result.getScores().doubleValue(it), inc.score(it), 1e-10);
+    }
+    // Top outliers are in descending order.
+    DoubleDBIDList top = inc.topN(20);
+    assertEquals("Top-n size", 20, top.size());
+    double prev = Double.POSITIVE_INFINITY;
+    for(DoubleDBIDListIter it = top.iter(); it.valid(); it.advance()) {
+      assertTrue("Not sorted.", it.doubleValue() <= prev);
+      assertEquals("Top-n score", inc.score(it), it.doubleValue(), 0.);
+      prev = it.doubleValue();
+    }
+  }
+}
@@ -60,7 +60,7 @@ public class HiCSTest extends AbstractOutlierAlgorithmTest {
         .with(HiCS.Parameterizer.SEED_ID, 0) //
         .with(HiCS.Parameterizer.TEST_ID, WelchTTest.STATIC) //
         .build().run(db);
-    testAUC(db, "Noise", result, 0.867159);
-    testSingleScore(result, 1293, 4.7877822);
+    testAUC(db, "Noise", result, 0.85340056);
+    testSingleScore(result, 1293, 4.935802);
   }
 }
@@ -0,0 +1,87 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.outlier.meta;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.AbstractOutlierAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.distance.KNNOutlier;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.lof.LOF;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+import de.lmu.ifi.dbs.elki.utilities.ensemble.EnsembleVotingMean;
+
+/**
+ * Tests the simple outlier ensemble.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class SimpleOutlierEnsembleTest extends AbstractOutlierAlgorithmTest {
+  @Test
+  public void testSimpleOutlierEnsemble() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = makeEnsemble(0).run(db);
+    testAUC(db, "Noise", result, 0.9869444444444444);
+    testSingleScore(result, 945, 1.1328407960995466);
+  }
+
+  @Test
+  public void testSharedKNN() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    final int children = db.getHierarchy().numChildren(rel);
+    OutlierResult plain = makeEnsemble(0).run(db);
+    OutlierResult shared = makeEnsemble(11).run(db);
+    assertEquals("Shared preprocessor not removed.", children, db.getHierarchy().numChildren(rel));
+    DoubleRelation ps = plain.getScores(), ss = shared.getScores();
+    for(DBIDIter iter = ps.iterDBIDs(); iter.valid(); iter.advance()) {
+      assertEquals("Scores differ.", ps.doubleValue(iter), ss.doubleValue(iter), 1e-15);
+    }
+  }
+
+  /**
+   * Build an ensemble of LOF and kNN outlier.
+   *
+   * @param sharedk Shared neighbors
+   * @return Ensemble
+   */
+  private SimpleOutlierEnsemble makeEnsemble(int sharedk) {
+    ELKIBuilder<SimpleOutlierEnsemble> builder = new ELKIBuilder<>(SimpleOutlierEnsemble.class) //
+        .with(AbstractAlgorithm.ALGORITHM_ID, LOF.class.getName() + "," + KNNOutlier.class.getName()) //
+        .with(LOF.Parameterizer.K_ID, 10) //
+        .with(KNNOutlier.Parameterizer.K_ID, 10) //
+        .with(SimpleOutlierEnsemble.Parameterizer.VOTING_ID, EnsembleVotingMean.class);
+    if(sharedk > 0) {
+      builder.with(SimpleOutlierEnsemble.Parameterizer.SHARED_KNN_ID, sharedk);
+    }
+    return builder.build();
+  }
+}
@@ -22,15 +22,18 @@ package de.lmu.ifi.dbs.elki.application.cache;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntFunction;
 
 import de.lmu.ifi.dbs.elki.application.AbstractApplication;
 import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
@@ -46,6 +49,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -85,6 +89,16 @@ public class CacheDoubleDistanceKNNLists<O> extends AbstractApplication {
    */
   private File out;
 
+  /**
+   * Resume from a checkpoint, if available.
+   */
+  private boolean resume;
+
+  /**
+   * Number of queries per block of parallel computation.
+   */
+  private static final int BLOCK_SIZE = 256;
+
   /**
    * Magic number to identify files.
    * 
@@ -102,11 +116,25 @@ public class CacheDoubleDistanceKNNLists<O> extends AbstractApplication {
    * @param out Matrix output file
    */
   public CacheDoubleDistanceKNNLists(Database database, DistanceFunction<? super O> distance, int k, File out) {
+    this(database, distance, k, out, false);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param database Data source
+   * @param distance Distance function
+   * @param k Number of nearest neighbors
+   * @param out Matrix output file
+   * @param resume Resume from a checkpoint, if available
+   */
+  public CacheDoubleDistanceKNNLists(Database database, DistanceFunction<? super O> distance, int k, File out, boolean resume) {
     super();
     this.database = database;
     this.distance = distance;
     this.k = k;
     this.out = out;
+    this.resume = resume;
   }
 
   @Override
@@ -114,56 +142,62 @@ public class CacheDoubleDistanceKNNLists<O> extends AbstractApplication {
     database.initialize();
     Relation<O> relation = database.getRelation(distance.getInputTypeRestriction());
     DistanceQuery<O> distanceQuery = database.getDistanceQuery(relation, distance);
-    KNNQuery<O> knnQ = database.getKNNQuery(distanceQuery, DatabaseQuery.HINT_HEAVY_USE);
+    final KNNQuery<O> knnQ = database.getKNNQuery(distanceQuery, DatabaseQuery.HINT_HEAVY_USE);
 
-    // open file.
-    try (RandomAccessFile file = new RandomAccessFile(out, "rw");
-        FileChannel channel = file.getChannel();
-        // and acquire a file write lock
-        FileLock lock = channel.lock()) {
-      // write magic header
-      file.writeInt(KNN_CACHE_MAGIC);
-
-      int bufsize = k * 12 * 2 + 10; // Initial size, enough for 2 kNN.
-      ByteBuffer buffer = ByteBuffer.allocateDirect(bufsize);
-
-      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing kNN", relation.size(), LOG) : null;
-
-      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        final KNNList nn = knnQ.getKNNForDBID(it, k);
-        final int nnsize = nn.size();
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing kNN", size, LOG) : null;
+    ParallelCacheWriter writer = new ParallelCacheWriter(out, ParallelCacheWriter.signature(relation, distance, ((long) size << 32) | k));
 
-        // Grow the buffer when needed:
-        if(nnsize * 12 + 10 > bufsize) {
-          while(nnsize * 12 + 10 > bufsize) {
-            bufsize <<= 1;
-          }
-          buffer = ByteBuffer.allocateDirect(bufsize);
-        }
-
-        buffer.clear();
-        ByteArrayUtil.writeUnsignedVarint(buffer, it.internalGetIndex());
-        ByteArrayUtil.writeUnsignedVarint(buffer, nnsize);
-        int c = 0;
-        for(DoubleDBIDListIter ni = nn.iter(); ni.valid(); ni.advance(), c++) {
-          ByteArrayUtil.writeUnsignedVarint(buffer, ni.internalGetIndex());
-          buffer.putDouble(ni.doubleValue());
+    // open file, and acquire a file write lock
+    try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock = channel.lock()) {
+      if(resume && writer.restore()) {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        channel.read(header, 0);
+        if(header.getInt(0) != KNN_CACHE_MAGIC) {
+          throw new AbortException("Existing file is not a kNN cache.");
         }
-        if(c != nn.size()) {
-          throw new AbortException("Sizes did not agree. Cache is invalid.");
+        if(prog != null) {
+          prog.setProcessed(Math.min(writer.getBlocksDone() * BLOCK_SIZE, size), LOG);
         }
-
-        buffer.flip();
-        channel.write(buffer);
-        LOG.incrementProcessed(prog);
       }
+      else {
+        channel.truncate(0);
+        // write magic header
+        channel.write(ByteBuffer.allocate(4).putInt(0, KNN_CACHE_MAGIC));
+      }
+      writer.write(channel, channel.position(), (size + BLOCK_SIZE - 1) / BLOCK_SIZE, new IntFunction<ByteBuffer>() {
+        @Override
+        public ByteBuffer apply(int b) {
+          final int begin = b * BLOCK_SIZE, end = Math.min(begin + BLOCK_SIZE, size);
+          DBIDArrayIter it = ids.iter();
+          ByteBuffer buffer = ByteBuffer.allocate((end - begin) * (k * 13 + 10));
+          for(it.seek(begin); it.getOffset() < end; it.advance()) {
+            final KNNList nn = knnQ.getKNNForDBID(it, k);
+            final int nnsize = nn.size();
+            buffer = ParallelCacheWriter.ensureCapacity(buffer, nnsize * 13 + 10);
+            ByteArrayUtil.writeUnsignedVarint(buffer, it.internalGetIndex());
+            ByteArrayUtil.writeUnsignedVarint(buffer, nnsize);
+            int c = 0;
+            for(DoubleDBIDListIter ni = nn.iter(); ni.valid(); ni.advance(), c++) {
+              ByteArrayUtil.writeUnsignedVarint(buffer, ni.internalGetIndex());
+              buffer.putDouble(ni.doubleValue());
+            }
+            if(c != nnsize) {
+              throw new AbortException("Sizes did not agree. Cache is invalid.");
+            }
+            LOG.incrementProcessed(prog);
+          }
+          buffer.flip();
+          return buffer;
+        }
+      });
       LOG.ensureCompleted(prog);
-      lock.release();
     }
     catch(IOException e) {
       LOG.exception(e);
     }
-    // FIXME: close!
   }
 
   /**
@@ -218,6 +252,11 @@ public class CacheDoubleDistanceKNNLists<O> extends AbstractApplication {
      */
     private File out = null;
 
+    /**
+     * Resume from a checkpoint, if available.
+     */
+    private boolean resume = false;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -240,11 +279,15 @@ public class CacheDoubleDistanceKNNLists<O> extends AbstractApplication {
       if(config.grab(cpar)) {
         out = cpar.getValue();
       }
+      final Flag resumeF = new Flag(CacheDoubleDistanceInOnDiskMatrix.Parameterizer.RESUME_ID);
+      if(config.grab(resumeF)) {
+        resume = resumeF.isTrue();
+      }
     }
 
     @Override
     protected CacheDoubleDistanceKNNLists<O> makeInstance() {
-      return new CacheDoubleDistanceKNNLists<>(database, distance, k, out);
+      return new CacheDoubleDistanceKNNLists<>(database, distance, k, out, resume);
     }
   }
 
@@ -22,15 +22,17 @@ package de.lmu.ifi.dbs.elki.application.cache;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntFunction;
 
 import de.lmu.ifi.dbs.elki.application.AbstractApplication;
 import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
@@ -48,6 +50,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraint
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -86,6 +89,16 @@ public class CacheDoubleDistanceRangeQueries<O> extends AbstractApplication {
    */
   private File out;
 
+  /**
+   * Resume from a checkpoint, if available.
+   */
+  private boolean resume;
+
+  /**
+   * Number of queries per block of parallel computation.
+   */
+  private static final int BLOCK_SIZE = 256;
+
   /**
    * Magic number to identify files.
    *
@@ -103,11 +116,25 @@ public class CacheDoubleDistanceRangeQueries<O> extends AbstractApplication {
    * @param out Matrix output file
    */
   public CacheDoubleDistanceRangeQueries(Database database, DistanceFunction<? super O> distance, double radius, File out) {
+    this(database, distance, radius, out, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param database Data source
+   * @param distance Distance function
+   * @param radius Query radius
+   * @param out Matrix output file
+   * @param resume Resume from a checkpoint, if available
+   */
+  public CacheDoubleDistanceRangeQueries(Database database, DistanceFunction<? super O> distance, double radius, File out, boolean resume) {
     super();
     this.database = database;
     this.distance = distance;
     this.radius = radius;
     this.out = out;
+    this.resume = resume;
   }
 
   @Override
@@ -115,65 +142,68 @@ public class CacheDoubleDistanceRangeQueries<O> extends AbstractApplication {
     database.initialize();
     Relation<O> relation = database.getRelation(distance.getInputTypeRestriction());
     DistanceQuery<O> distanceQuery = database.getDistanceQuery(relation, distance);
-    RangeQuery<O> rangeQ = database.getRangeQuery(distanceQuery, radius, DatabaseQuery.HINT_HEAVY_USE);
+    final RangeQuery<O> rangeQ = database.getRangeQuery(distanceQuery, radius, DatabaseQuery.HINT_HEAVY_USE);
 
     LOG.verbose("Performing range queries with radius " + radius);
 
-    // open file.
-    try (RandomAccessFile file = new RandomAccessFile(out, "rw");
-        FileChannel channel = file.getChannel();
-        // and acquire a file write lock
-        FileLock lock = channel.lock()) {
-      // write magic header
-      file.writeInt(RANGE_CACHE_MAGIC);
-      // write the query radius.
-      file.writeDouble(radius);
-
-      int bufsize = 100 * 12 * 2 + 10; // Initial size, enough for 100.
-      ByteBuffer buffer = ByteBuffer.allocateDirect(bufsize);
-
-      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing range queries", relation.size(), LOG) : null;
-
-      ModifiableDoubleDBIDList nn = DBIDUtil.newDistanceDBIDList();
-      DoubleDBIDListIter ni = nn.iter();
-      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        nn.clear();
-        rangeQ.getRangeForDBID(it, radius, nn);
-        nn.sort();
-        final int nnsize = nn.size();
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing range queries", size, LOG) : null;
+    ParallelCacheWriter writer = new ParallelCacheWriter(out, ParallelCacheWriter.signature(relation, distance, Double.doubleToLongBits(radius) * 31 + size));
 
-        // Grow the buffer when needed:
-        if(nnsize * 12 + 10 > bufsize) {
-          while(nnsize * 12 + 10 > bufsize) {
-            bufsize <<= 1;
-          }
-          LOG.verbose("Resizing buffer to " + bufsize + " to store " + nnsize + " results:");
-          buffer = ByteBuffer.allocateDirect(bufsize);
-        }
-
-        buffer.clear();
-        ByteArrayUtil.writeUnsignedVarint(buffer, it.internalGetIndex());
-        ByteArrayUtil.writeUnsignedVarint(buffer, nnsize);
-        int c = 0;
-        for(ni.seek(0); ni.valid(); ni.advance(), c++) {
-          ByteArrayUtil.writeUnsignedVarint(buffer, ni.internalGetIndex());
-          buffer.putDouble(ni.doubleValue());
+    // open file, and acquire a file write lock
+    try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock = channel.lock()) {
+      if(resume && writer.restore()) {
+        ByteBuffer header = ByteBuffer.allocate(12);
+        channel.read(header, 0);
+        if(header.getInt(0) != RANGE_CACHE_MAGIC || header.getDouble(4) != radius) {
+          throw new AbortException("Existing file is not a range query cache with radius " + radius);
         }
-        if(c != nn.size()) {
-          throw new AbortException("Sizes did not agree. Cache is invalid.");
+        if(prog != null) {
+          prog.setProcessed(Math.min(writer.getBlocksDone() * BLOCK_SIZE, size), LOG);
         }
-
-        buffer.flip();
-        channel.write(buffer);
-        LOG.incrementProcessed(prog);
       }
+      else {
+        channel.truncate(0);
+        // write magic header, and the query radius.
+        channel.write(ByteBuffer.allocate(12).putInt(0, RANGE_CACHE_MAGIC).putDouble(4, radius));
+      }
+      writer.write(channel, channel.position(), (size + BLOCK_SIZE - 1) / BLOCK_SIZE, new IntFunction<ByteBuffer>() {
+        @Override
+        public ByteBuffer apply(int b) {
+          final int begin = b * BLOCK_SIZE, end = Math.min(begin + BLOCK_SIZE, size);
+          DBIDArrayIter it = ids.iter();
+          ByteBuffer buffer = ByteBuffer.allocate((end - begin) * 100);
+          ModifiableDoubleDBIDList nn = DBIDUtil.newDistanceDBIDList();
+          DoubleDBIDListIter ni = nn.iter();
+          for(it.seek(begin); it.getOffset() < end; it.advance()) {
+            nn.clear();
+            rangeQ.getRangeForDBID(it, radius, nn);
+            nn.sort();
+            final int nnsize = nn.size();
+            buffer = ParallelCacheWriter.ensureCapacity(buffer, nnsize * 13 + 10);
+            ByteArrayUtil.writeUnsignedVarint(buffer, it.internalGetIndex());
+            ByteArrayUtil.writeUnsignedVarint(buffer, nnsize);
+            int c = 0;
+            for(ni.seek(0); ni.valid(); ni.advance(), c++) {
+              ByteArrayUtil.writeUnsignedVarint(buffer, ni.internalGetIndex());
+              buffer.putDouble(ni.doubleValue());
+            }
+            if(c != nnsize) {
+              throw new AbortException("Sizes did not agree. Cache is invalid.");
+            }
+            LOG.incrementProcessed(prog);
+          }
+          buffer.flip();
+          return buffer;
+        }
+      });
       LOG.ensureCompleted(prog);
-      lock.release();
     }
     catch(IOException e) {
       LOG.exception(e);
     }
-    // FIXME: close!
   }
 
   /**
@@ -228,6 +258,11 @@ public class CacheDoubleDistanceRangeQueries<O> extends AbstractApplication {
      */
     private File out = null;
 
+    /**
+     * Resume from a checkpoint, if available.
+     */
+    private boolean resume = false;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -250,11 +285,15 @@ public class CacheDoubleDistanceRangeQueries<O> extends AbstractApplication {
       if(config.grab(cpar)) {
         out = cpar.getValue();
       }
+      final Flag resumeF = new Flag(CacheDoubleDistanceInOnDiskMatrix.Parameterizer.RESUME_ID);
+      if(config.grab(resumeF)) {
+        resume = resumeF.isTrue();
+      }
     }
 
     @Override
     protected CacheDoubleDistanceRangeQueries<O> makeInstance() {
-      return new CacheDoubleDistanceRangeQueries<>(database, distance, radius, out);
+      return new CacheDoubleDistanceRangeQueries<>(database, distance, radius, out, resume);
     }
   }
 
@@ -22,6 +22,11 @@ package de.lmu.ifi.dbs.elki.application.cache;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntFunction;
 
 import de.lmu.ifi.dbs.elki.application.AbstractApplication;
 import de.lmu.ifi.dbs.elki.database.Database;
@@ -40,10 +45,14 @@ import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
  * Precompute an on-disk distance matrix, using float precision.
+ * <p>
+ * Blocks of rows are computed in parallel, and written sequentially. An
+ * interrupted run can be resumed from its checkpoint.
  * 
  * @author Erich Schubert
  * @since 0.2
@@ -79,6 +88,11 @@ public class CacheFloatDistanceInOnDiskMatrix<O> extends AbstractApplication {
    */
   private File out;
 
+  /**
+   * Resume from a checkpoint, if available.
+   */
+  private boolean resume;
+
   /**
    * Constructor.
    * 
@@ -87,50 +101,86 @@ public class CacheFloatDistanceInOnDiskMatrix<O> extends AbstractApplication {
    * @param out Matrix output file
    */
   public CacheFloatDistanceInOnDiskMatrix(Database database, DistanceFunction<? super O> distance, File out) {
+    this(database, distance, out, false);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param database Data source
+   * @param distance Distance function
+   * @param out Matrix output file
+   * @param resume Resume from a checkpoint, if available
+   */
+  public CacheFloatDistanceInOnDiskMatrix(Database database, DistanceFunction<? super O> distance, File out, boolean resume) {
     super();
     this.database = database;
     this.distance = distance;
     this.out = out;
+    this.resume = resume;
   }
 
   @Override
   public void run() {
     database.initialize();
     Relation<O> relation = database.getRelation(distance.getInputTypeRestriction());
-    DistanceQuery<O> distanceQuery = database.getDistanceQuery(relation, distance);
-
-    DBIDRange ids = DBIDUtil.assertRange(relation.getDBIDs());
-    int size = ids.size();
-
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distances", (int) (((size + 1) * (long) size) >>> 1), LOG) : null;
-    try (OnDiskUpperTriangleMatrix matrix = //
-        new OnDiskUpperTriangleMatrix(out, DiskCacheBasedFloatDistanceFunction.FLOAT_CACHE_MAGIC, 0, ByteArrayUtil.SIZE_FLOAT, size)) {
-      DBIDArrayIter id1 = ids.iter(), id2 = ids.iter();
-      for(; id1.valid(); id1.advance()) {
-        for(id2.seek(id1.getOffset()); id2.valid(); id2.advance()) {
-          float d = (float) distanceQuery.distance(id1, id2);
-          if(debugExtraCheckSymmetry) {
-            float d2 = (float) distanceQuery.distance(id2, id1);
-            if(Math.abs(d - d2) > 0.0000001) {
-              LOG.warning("Distance function doesn't appear to be symmetric!");
-            }
-          }
-          try {
-            matrix.getRecordBuffer(id1.getOffset(), id2.getOffset()).putFloat(d);
-          }
-          catch(IOException e) {
-            throw new AbortException("Error writing distance record " + DBIDUtil.toString(id1) + "," + DBIDUtil.toString(id2) + " to matrix.", e);
-          }
-        }
+    final DistanceQuery<O> distanceQuery = database.getDistanceQuery(relation, distance);
+
+    final DBIDRange ids = DBIDUtil.assertRange(relation.getDBIDs());
+    final int size = ids.size();
+    final long records = ((size + 1) * (long) size) >>> 1;
+    final int[] bounds = ParallelCacheWriter.triangleBlocks(size, CacheDoubleDistanceInOnDiskMatrix.BLOCK_RECORDS);
+
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distances", size, LOG) : null;
+    ParallelCacheWriter writer = new ParallelCacheWriter(out, ParallelCacheWriter.signature(relation, distance, ((long) size << 32) | ByteArrayUtil.SIZE_FLOAT));
+    try {
+      if(resume && writer.restore()) {
+        // Validate the header of the existing file.
+        new OnDiskUpperTriangleMatrix(out, DiskCacheBasedFloatDistanceFunction.FLOAT_CACHE_MAGIC, 0, ByteArrayUtil.SIZE_FLOAT, true).close();
         if(prog != null) {
-          prog.setProcessed(prog.getProcessed() + (size - id1.getOffset()), LOG);
+          prog.setProcessed(bounds[writer.getBlocksDone()], LOG);
         }
       }
+      else {
+        // Write the header, and allocate the file.
+        new OnDiskUpperTriangleMatrix(out, DiskCacheBasedFloatDistanceFunction.FLOAT_CACHE_MAGIC, 0, ByteArrayUtil.SIZE_FLOAT, size).close();
+      }
+      try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.WRITE);
+          FileLock lock = channel.lock()) {
+        // The records are stored row by row, after the header:
+        final long start = channel.size() - records * ByteArrayUtil.SIZE_FLOAT;
+        writer.write(channel, start, bounds.length - 1, new IntFunction<ByteBuffer>() {
+          @Override
+          public ByteBuffer apply(int b) {
+            final int begin = bounds[b], end = bounds[b + 1];
+            final long first = ((begin + 1) * (long) begin) >>> 1;
+            final long last = ((end + 1) * (long) end) >>> 1;
+            ByteBuffer buffer = ByteBuffer.allocate((int) (last - first) * ByteArrayUtil.SIZE_FLOAT);
+            DBIDArrayIter id1 = ids.iter(), id2 = ids.iter();
+            for(id2.seek(begin); id2.getOffset() < end; id2.advance()) {
+              // Row id2 contains the distances from all smaller ids.
+              for(id1.seek(0); id1.getOffset() <= id2.getOffset(); id1.advance()) {
+                float d = (float) distanceQuery.distance(id1, id2);
+                if(debugExtraCheckSymmetry) {
+                  float d2 = (float) distanceQuery.distance(id2, id1);
+                  if(Math.abs(d - d2) > 0.0000001) {
+                    LOG.warning("Distance function doesn't appear to be symmetric!");
+                  }
+                }
+                buffer.putFloat(d);
+              }
+              LOG.incrementProcessed(prog);
+            }
+            buffer.flip();
+            return buffer;
+          }
+        });
+      }
     }
     catch(IOException e) {
       throw new AbortException("Error precomputing distance matrix.", e);
     }
-    prog.ensureCompleted(LOG);
+    LOG.ensureCompleted(prog);
   }
 
   /**
@@ -156,6 +206,11 @@ public class CacheFloatDistanceInOnDiskMatrix<O> extends AbstractApplication {
      */
     private File out = null;
 
+    /**
+     * Resume from a checkpoint, if available.
+     */
+    private boolean resume = false;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -173,11 +228,15 @@ public class CacheFloatDistanceInOnDiskMatrix<O> extends AbstractApplication {
       if(config.grab(cpar)) {
         out = cpar.getValue();
       }
+      final Flag resumeF = new Flag(CacheDoubleDistanceInOnDiskMatrix.Parameterizer.RESUME_ID);
+      if(config.grab(resumeF)) {
+        resume = resumeF.isTrue();
+      }
     }
 
     @Override
     protected CacheFloatDistanceInOnDiskMatrix<O> makeInstance() {
-      return new CacheFloatDistanceInOnDiskMatrix<>(database, distance, out);
+      return new CacheFloatDistanceInOnDiskMatrix<>(database, distance, out, resume);
     }
   }
 
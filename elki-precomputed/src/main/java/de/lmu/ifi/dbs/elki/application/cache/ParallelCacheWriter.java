@@ -0,0 +1,295 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.application.cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.io.Fingerprint;
+
+/**
+ * Compute the blocks of a cache file in parallel, and write them to the file
+ * in order, using large sequential writes.
+ * <p>
+ * Only a bounded number of blocks is computed ahead of the writer, so the
+ * memory usage does not depend on the data set size. After a block has been
+ * written, a checkpoint (number of blocks completed, and the file position) is
+ * saved to a side file at regular intervals, which allows resuming an
+ * interrupted run. The block layout must be deterministic for this.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+class ParallelCacheWriter {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelCacheWriter.class);
+
+  /**
+   * Magic number of checkpoint files.
+   */
+  private static final int CHECKPOINT_MAGIC = 0xCAC4C4EC;
+
+  /**
+   * Number of blocks to compute ahead per thread.
+   */
+  private static final int BLOCKS_PER_THREAD = 2;
+
+  /**
+   * Minimum interval between checkpoints, in milliseconds.
+   */
+  private static final long CHECKPOINT_INTERVAL = 60000L;
+
+  /**
+   * Checkpoint file.
+   */
+  private final File checkpoint;
+
+  /**
+   * Signature of the job, to detect incompatible checkpoints.
+   */
+  private final long signature;
+
+  /**
+   * Number of blocks completed.
+   */
+  private int done = 0;
+
+  /**
+   * Current output position, -1 when not yet known.
+   */
+  private long position = -1L;
+
+  /**
+   * Constructor.
+   *
+   * @param out Output file
+   * @param signature Job signature, must include all parameters that affect
+   *        the block layout and contents, see
+   *        {@link #signature(Relation, Object, long)}.
+   */
+  ParallelCacheWriter(File out, long signature) {
+    this.checkpoint = new File(out.getPath() + ".checkpoint");
+    this.signature = signature;
+  }
+
+  /**
+   * Compute a job signature from the job parameters, the configuration of the
+   * distance function, and a fingerprint of the data.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param parameters Job parameters (e.g., size and k)
+   * @return Signature
+   */
+  static long signature(Relation<?> relation, Object distance, long parameters) {
+    long hash = Fingerprint.mix(parameters, Fingerprint.configuration(distance));
+    return Fingerprint.mix(hash, Fingerprint.data(relation));
+  }
+
+  /**
+   * Restore the last checkpoint, if one exists.
+   *
+   * @return {@code true} if a checkpoint was restored.
+   * @throws IOException on invalid or incompatible checkpoints
+   */
+  boolean restore() throws IOException {
+    if(!checkpoint.exists()) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(checkpoint))) {
+      if(in.readInt() != CHECKPOINT_MAGIC) {
+        throw new IOException("Not a checkpoint file: " + checkpoint);
+      }
+      if(in.readLong() != signature) {
+        throw new IOException("Checkpoint " + checkpoint + " was written with different parameters.");
+      }
+      done = in.readInt();
+      position = in.readLong();
+    }
+    LOG.verbose("Resuming after " + done + " blocks at file position " + position);
+    return true;
+  }
+
+  /**
+   * Get the number of blocks completed.
+   *
+   * @return Number of blocks completed
+   */
+  int getBlocksDone() {
+    return done;
+  }
+
+  /**
+   * Compute the remaining blocks, and write them to the file.
+   *
+   * @param channel Output channel
+   * @param start File position of the first block, unless resuming
+   * @param numblocks Total number of blocks
+   * @param block Function to compute a block, must be thread safe. The buffer
+   *        must be flipped, ready to be written.
+   * @throws IOException on write errors
+   */
+  void write(FileChannel channel, long start, int numblocks, final IntFunction<ByteBuffer> block) throws IOException {
+    if(position < 0) {
+      position = start;
+    }
+    else if(channel.size() < position) {
+      throw new IOException("Output file is shorter than the checkpoint.");
+    }
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    ArrayDeque<Future<ByteBuffer>> queue = new ArrayDeque<>();
+    try {
+      final int ahead = core.getParallelism() * BLOCKS_PER_THREAD;
+      long lastcheckpoint = System.currentTimeMillis();
+      for(int next = done; done < numblocks;) {
+        // Keep the queue filled:
+        for(; next < numblocks && queue.size() < ahead; next++) {
+          final int b = next;
+          queue.add(core.submit(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() {
+              return block.apply(b);
+            }
+          }));
+        }
+        ByteBuffer buf = queue.poll().get();
+        while(buf.hasRemaining()) {
+          position += channel.write(buf, position);
+        }
+        ++done;
+        final long now = System.currentTimeMillis();
+        if(now - lastcheckpoint >= CHECKPOINT_INTERVAL && done < numblocks) {
+          channel.force(false);
+          save();
+          lastcheckpoint = now;
+        }
+      }
+      // Discard leftovers of an interrupted run:
+      if(channel.size() > position) {
+        channel.truncate(position);
+      }
+      channel.force(false);
+      if(checkpoint.exists() && !checkpoint.delete()) {
+        LOG.warning("Could not remove checkpoint file " + checkpoint);
+      }
+    }
+    catch(ExecutionException e) {
+      throw new AbortException("Computing a cache block failed.", e.getCause());
+    }
+    catch(InterruptedException e) {
+      throw new AbortException("Parallel execution interrupted.");
+    }
+    finally {
+      for(Future<ByteBuffer> f : queue) {
+        f.cancel(true);
+      }
+      core.disconnect();
+    }
+  }
+
+  /**
+   * Save a checkpoint, replacing the previous one.
+   *
+   * @throws IOException on write errors
+   */
+  void save() throws IOException {
+    File tmp = new File(checkpoint.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+      out.writeInt(CHECKPOINT_MAGIC);
+      out.writeLong(signature);
+      out.writeInt(done);
+      out.writeLong(position);
+    }
+    Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Ensure that a buffer has room for additional data, by copying to a larger
+   * buffer if necessary.
+   *
+   * @param buffer Buffer
+   * @param extra Number of bytes to add
+   * @return Buffer with enough room
+   */
+  static ByteBuffer ensureCapacity(ByteBuffer buffer, int extra) {
+    if(buffer.remaining() >= extra) {
+      return buffer;
+    }
+    int size = buffer.capacity();
+    while(size - buffer.position() < extra) {
+      size <<= 1;
+    }
+    ByteBuffer larger = ByteBuffer.allocate(size);
+    buffer.flip();
+    larger.put(buffer);
+    return larger;
+  }
+
+  /**
+   * Split the rows of a triangular matrix into blocks of about the same number
+   * of records, where row {@code x} has {@code x+1} records.
+   *
+   * @param size Matrix size
+   * @param perblock Target number of records per block
+   * @return Block boundaries (row numbers), including 0 and size
+   */
+  static int[] triangleBlocks(int size, long perblock) {
+    int n = 0;
+    long acc = 0;
+    for(int x = 0; x < size; x++) {
+      if((acc += x + 1) >= perblock) {
+        ++n;
+        acc = 0;
+      }
+    }
+    int[] bounds = new int[(acc > 0 ? n + 1 : n) + 1];
+    n = 0;
+    acc = 0;
+    for(int x = 0; x < size; x++) {
+      if((acc += x + 1) >= perblock) {
+        bounds[++n] = x + 1;
+        acc = 0;
+      }
+    }
+    bounds[bounds.length - 1] = size;
+    return bounds;
+  }
+}
@@ -59,7 +59,7 @@ public class DiskCacheBasedDoubleDistanceFunction extends AbstractDBIDRangeDista
   /**
    * The distance matrix
    */
-  private OnDiskUpperTriangleMatrix cache;
+  private transient OnDiskUpperTriangleMatrix cache;
 
   /**
    * Constructor.
@@ -59,7 +59,7 @@ public class DiskCacheBasedFloatDistanceFunction extends AbstractDBIDRangeDistan
   /**
    * The distance cache
    */
-  private OnDiskUpperTriangleMatrix cache;
+  private transient OnDiskUpperTriangleMatrix cache;
 
   /**
    * Constructor.
@@ -20,9 +20,7 @@
  */
 package de.lmu.ifi.dbs.elki.distance.distancefunction.external;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -36,14 +34,12 @@ import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
-import de.lmu.ifi.dbs.elki.utilities.io.FileUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
-import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 
 /**
  * Distance function that is based on double distances given by a distance
@@ -53,7 +49,9 @@ import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
  *
  * See {@link AsciiDistanceParser} for the default input format.
  *
- * TODO: use a {@code double[]} instead of the hash map.
+ * Distances are kept in a {@link SparseDistanceMatrix}. Optionally, a binary
+ * copy of the matrix can be cached on disk, which loads much faster than
+ * parsing the text file again.
  *
  * @author Elke Achtert
  * @author Erich Schubert
@@ -73,7 +71,7 @@ public class FileBasedSparseDoubleDistanceFunction extends AbstractDBIDRangeDist
   /**
    * The distance cache
    */
-  private Long2DoubleOpenHashMap cache;
+  private transient SparseDistanceMatrix cache;
 
   /**
    * Distance parser
@@ -85,10 +83,15 @@ public class FileBasedSparseDoubleDistanceFunction extends AbstractDBIDRangeDist
    */
   private File matrixfile;
 
+  /**
+   * Binary cache file, may be null.
+   */
+  private File binaryfile;
+
   /**
    * Minimum and maximum IDs seen.
    */
-  private int min, max;
+  private transient int min, max;
 
   /**
    * Distance to return when not defined otherwise.
@@ -103,18 +106,30 @@ public class FileBasedSparseDoubleDistanceFunction extends AbstractDBIDRangeDist
    * @param defaultDistance Default distance (when undefined)
    */
   public FileBasedSparseDoubleDistanceFunction(DistanceParser parser, File matrixfile, double defaultDistance) {
+    this(parser, matrixfile, null, defaultDistance);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param parser Parser
+   * @param matrixfile input file
+   * @param binaryfile binary cache file, may be null
+   * @param defaultDistance Default distance (when undefined)
+   */
+  public FileBasedSparseDoubleDistanceFunction(DistanceParser parser, File matrixfile, File binaryfile, double defaultDistance) {
     super();
     this.parser = parser;
     this.matrixfile = matrixfile;
+    this.binaryfile = binaryfile;
     this.defaultDistance = defaultDistance;
   }
 
   @Override
   public <O extends DBID> DistanceQuery<O> instantiate(Relation<O> relation) {
     if(cache == null) {
-      int size = relation.size();
       try {
-        loadCache(size, new BufferedInputStream(FileUtil.tryGzipInput(new FileInputStream(matrixfile))));
+        loadCache(relation.size());
       }
       catch(IOException e) {
         throw new AbortException("Could not load external distance file: " + matrixfile.toString(), e);
@@ -125,7 +140,32 @@ public class FileBasedSparseDoubleDistanceFunction extends AbstractDBIDRangeDist
 
   @Override
   public double distance(int i1, int i2) {
-    return (i1 == i2) ? 0. : cache.get(makeKey(i1 + min, i2 + min));
+    return (i1 == i2) ? 0. : cache.get(i1, i2, defaultDistance);
+  }
+
+  /**
+   * Load the distances from the binary cache, if available and written for
+   * the current input file, or else from the input file.
+   *
+   * @param size Expected size
+   * @throws IOException
+   */
+  protected void loadCache(int size) throws IOException {
+    if(binaryfile != null && SparseDistanceMatrix.isBinary(binaryfile)) {
+      if(SparseDistanceMatrix.isCacheOf(binaryfile, matrixfile)) {
+        setCache(size, SparseDistanceMatrix.load(binaryfile, false));
+        return;
+      }
+      LOG.warning("Binary cache " + binaryfile + " does not match " + matrixfile + ", parsing again.");
+    }
+    if(SparseDistanceMatrix.isBinary(matrixfile)) {
+      setCache(size, SparseDistanceMatrix.load(matrixfile, false));
+      return;
+    }
+    setCache(size, SparseDistanceMatrix.parse(parser, matrixfile, false));
+    if(binaryfile != null) {
+      cache.save(binaryfile);
+    }
   }
 
   /**
@@ -136,25 +176,19 @@ public class FileBasedSparseDoubleDistanceFunction extends AbstractDBIDRangeDist
    * @throws IOException
    */
   protected void loadCache(int size, InputStream in) throws IOException {
-    // Expect a sparse matrix here.
-    cache = new Long2DoubleOpenHashMap(size * 20);
-    cache.defaultReturnValue(Double.POSITIVE_INFINITY);
-    min = Integer.MAX_VALUE;
-    max = Integer.MIN_VALUE;
-    parser.parse(in, new DistanceCacheWriter() {
-      @Override
-      public void put(int id1, int id2, double distance) {
-        if(id1 < id2) {
-          min = id1 < min ? id1 : min;
-          max = id2 > max ? id2 : max;
-        }
-        else {
-          min = id2 < min ? id2 : min;
-          max = id1 > max ? id1 : max;
-        }
-        cache.put(makeKey(id1, id2), distance);
-      }
-    });
+    setCache(size, SparseDistanceMatrix.parse(parser, in, false));
+  }
+
+  /**
+   * Set the distance cache, and check its size.
+   *
+   * @param size Expected size
+   * @param cache Distance cache
+   */
+  private void setCache(int size, SparseDistanceMatrix cache) {
+    this.cache = cache;
+    min = cache.getMin();
+    max = cache.getMax();
     if(min != 0 && LOG.isVerbose()) {
       LOG.verbose("Distance matrix is supposed to be 0-indexed. Choosing offset " + min + " to compensate.");
     }
@@ -163,19 +197,6 @@ public class FileBasedSparseDoubleDistanceFunction extends AbstractDBIDRangeDist
     }
   }
 
-  /**
-   * Combine two integer ids into a long value.
-   *
-   * @param i1 First id
-   * @param i2 Second id
-   * @return Combined value
-   */
-  protected static final long makeKey(int i1, int i2) {
-    return (i1 < i2) //
-        ? ((((long) i1) << 32) | i2)//
-        : ((((long) i2) << 32) | i1);
-  }
-
   @Override
   public void checkRange(DBIDRange range) {
     final int size = max + 1 - min;
@@ -193,7 +214,7 @@ public class FileBasedSparseDoubleDistanceFunction extends AbstractDBIDRangeDist
       return false;
     }
     FileBasedSparseDoubleDistanceFunction other = (FileBasedSparseDoubleDistanceFunction) obj;
-    return this.cache.equals(other.cache);
+    return this.cache != null ? this.cache.equals(other.cache) : other.cache == null;
   }
 
   /**
@@ -231,11 +252,28 @@ public class FileBasedSparseDoubleDistanceFunction extends AbstractDBIDRangeDist
     public static final OptionID DEFAULTDIST_ID = new OptionID("distance.default", //
         "Default distance to use for undefined values.");
 
+    /**
+     * Optional parameter for a binary cache file. If the file exists and was
+     * written for the current distance matrix file (same length and
+     * modification time), it is loaded instead of parsing the distance matrix
+     * file; otherwise it is written after parsing.
+     * <p>
+     * Key: {@code -distance.binarycache}
+     * </p>
+     */
+    public static final OptionID BINARY_ID = new OptionID("distance.binarycache", //
+        "Binary file to cache the parsed distances in. If the file exists and matches the distance matrix file, it is loaded instead.");
+
     /**
      * Input file.
      */
     protected File matrixfile = null;
 
+    /**
+     * Binary cache file.
+     */
+    protected File binaryfile = null;
+
     /**
      * Parser for input file.
      */
@@ -254,6 +292,12 @@ public class FileBasedSparseDoubleDistanceFunction extends AbstractDBIDRangeDist
         matrixfile = matrixfileP.getValue();
       }
 
+      FileParameter binaryP = new FileParameter(BINARY_ID, FileParameter.FileType.OUTPUT_FILE) //
+          .setOptional(true);
+      if(config.grab(binaryP)) {
+        binaryfile = binaryP.getValue();
+      }
+
       ObjectParameter<DistanceParser> parserP = new ObjectParameter<>(PARSER_ID, DistanceParser.class, AsciiDistanceParser.class);
       if(config.grab(parserP)) {
         parser = parserP.instantiateClass(config);
@@ -267,7 +311,7 @@ public class FileBasedSparseDoubleDistanceFunction extends AbstractDBIDRangeDist
 
     @Override
     protected FileBasedSparseDoubleDistanceFunction makeInstance() {
-      return new FileBasedSparseDoubleDistanceFunction(parser, matrixfile, defaultDistance);
+      return new FileBasedSparseDoubleDistanceFunction(parser, matrixfile, binaryfile, defaultDistance);
     }
   }
 }
@@ -20,9 +20,7 @@
  */
 package de.lmu.ifi.dbs.elki.distance.distancefunction.external;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -36,14 +34,12 @@ import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
-import de.lmu.ifi.dbs.elki.utilities.io.FileUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
-import it.unimi.dsi.fastutil.longs.Long2FloatOpenHashMap;
 
 /**
  * Distance function that is based on float distances given by a distance matrix
@@ -53,7 +49,9 @@ import it.unimi.dsi.fastutil.longs.Long2FloatOpenHashMap;
  *
  * See {@link AsciiDistanceParser} for the default input format.
  *
- * TODO: use a {@code float[]} instead of the hash map.
+ * Distances are kept in a {@link SparseDistanceMatrix}. Optionally, a binary
+ * copy of the matrix can be cached on disk, which loads much faster than
+ * parsing the text file again.
  *
  * @author Elke Achtert
  * @author Erich Schubert
@@ -73,7 +71,7 @@ public class FileBasedSparseFloatDistanceFunction extends AbstractDBIDRangeDista
   /**
    * The distance cache
    */
-  private Long2FloatOpenHashMap cache;
+  private transient SparseDistanceMatrix cache;
 
   /**
    * Distance parser
@@ -85,10 +83,15 @@ public class FileBasedSparseFloatDistanceFunction extends AbstractDBIDRangeDista
    */
   private File matrixfile;
 
+  /**
+   * Binary cache file, may be null.
+   */
+  private File binaryfile;
+
   /**
    * Minimum and maximum IDs seen.
    */
-  private int min, max;
+  private transient int min, max;
 
   /**
    * Distance to return when not defined otherwise.
@@ -103,9 +106,22 @@ public class FileBasedSparseFloatDistanceFunction extends AbstractDBIDRangeDista
    * @param defaultDistance Default distance (when undefined)
    */
   public FileBasedSparseFloatDistanceFunction(DistanceParser parser, File matrixfile, float defaultDistance) {
+    this(parser, matrixfile, null, defaultDistance);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param parser Parser
+   * @param matrixfile input file
+   * @param binaryfile binary cache file, may be null
+   * @param defaultDistance Default distance (when undefined)
+   */
+  public FileBasedSparseFloatDistanceFunction(DistanceParser parser, File matrixfile, File binaryfile, float defaultDistance) {
     super();
     this.parser = parser;
     this.matrixfile = matrixfile;
+    this.binaryfile = binaryfile;
     this.defaultDistance = defaultDistance;
   }
 
@@ -113,7 +129,7 @@ public class FileBasedSparseFloatDistanceFunction extends AbstractDBIDRangeDista
   public <O extends DBID> DistanceQuery<O> instantiate(Relation<O> relation) {
     if(cache == null) {
       try {
-        loadCache(relation.size(), new BufferedInputStream(FileUtil.tryGzipInput(new FileInputStream(matrixfile))));
+        loadCache(relation.size());
       }
       catch(IOException e) {
         throw new AbortException("Could not load external distance file: " + matrixfile.toString(), e);
@@ -124,7 +140,32 @@ public class FileBasedSparseFloatDistanceFunction extends AbstractDBIDRangeDista
 
   @Override
   public double distance(int i1, int i2) {
-    return (i1 == i2) ? 0. : cache.get(makeKey(i1 + min, i2 + min));
+    return (i1 == i2) ? 0. : cache.get(i1, i2, defaultDistance);
+  }
+
+  /**
+   * Load the distances from the binary cache, if available and written for
+   * the current input file, or else from the input file.
+   *
+   * @param size Expected size
+   * @throws IOException
+   */
+  protected void loadCache(int size) throws IOException {
+    if(binaryfile != null && SparseDistanceMatrix.isBinary(binaryfile)) {
+      if(SparseDistanceMatrix.isCacheOf(binaryfile, matrixfile)) {
+        setCache(size, SparseDistanceMatrix.load(binaryfile, true));
+        return;
+      }
+      LOG.warning("Binary cache " + binaryfile + " does not match " + matrixfile + ", parsing again.");
+    }
+    if(SparseDistanceMatrix.isBinary(matrixfile)) {
+      setCache(size, SparseDistanceMatrix.load(matrixfile, true));
+      return;
+    }
+    setCache(size, SparseDistanceMatrix.parse(parser, matrixfile, true));
+    if(binaryfile != null) {
+      cache.save(binaryfile);
+    }
   }
 
   /**
@@ -135,25 +176,19 @@ public class FileBasedSparseFloatDistanceFunction extends AbstractDBIDRangeDista
    * @throws IOException
    */
   protected void loadCache(int size, InputStream in) throws IOException {
-    // Expect a sparse matrix here
-    cache = new Long2FloatOpenHashMap(size * 20);
-    cache.defaultReturnValue(Float.POSITIVE_INFINITY);
-    min = Integer.MAX_VALUE;
-    max = Integer.MIN_VALUE;
-    parser.parse(in, new DistanceCacheWriter() {
-      @Override
-      public void put(int id1, int id2, double distance) {
-        if(id1 < id2) {
-          min = id1 < min ? id1 : min;
-          max = id2 > max ? id2 : max;
-        }
-        else {
-          min = id2 < min ? id2 : min;
-          max = id1 > max ? id1 : max;
-        }
-        cache.put(makeKey(id1, id2), (float) distance);
-      }
-    });
+    setCache(size, SparseDistanceMatrix.parse(parser, in, true));
+  }
+
+  /**
+   * Set the distance cache, and check its size.
+   *
+   * @param size Expected size
+   * @param cache Distance cache
+   */
+  private void setCache(int size, SparseDistanceMatrix cache) {
+    this.cache = cache;
+    min = cache.getMin();
+    max = cache.getMax();
     if(min != 0) {
       LOG.verbose("Distance matrix is supposed to be 0-indexed. Choosing offset " + min + " to compensate.");
     }
@@ -162,19 +197,6 @@ public class FileBasedSparseFloatDistanceFunction extends AbstractDBIDRangeDista
     }
   }
 
-  /**
-   * Combine two integer ids into a long value.
-   *
-   * @param i1 First id
-   * @param i2 Second id
-   * @return Combined value
-   */
-  protected static final long makeKey(int i1, int i2) {
-    return (i1 < i2) //
-        ? ((((long) i1) << 32) | i2)//
-        : ((((long) i2) << 32) | i1);
-  }
-
   @Override
   public void checkRange(DBIDRange range) {
     final int size = max + 1 - min;
@@ -192,7 +214,7 @@ public class FileBasedSparseFloatDistanceFunction extends AbstractDBIDRangeDista
       return false;
     }
     FileBasedSparseFloatDistanceFunction other = (FileBasedSparseFloatDistanceFunction) obj;
-    return this.cache.equals(other.cache);
+    return this.cache != null ? this.cache.equals(other.cache) : other.cache == null;
   }
 
   /**
@@ -227,11 +249,27 @@ public class FileBasedSparseFloatDistanceFunction extends AbstractDBIDRangeDista
      */
     public static final OptionID DEFAULTDIST_ID = FileBasedSparseDoubleDistanceFunction.Parameterizer.DEFAULTDIST_ID;
 
+    /**
+     * Optional parameter for a binary cache file. If the file exists and was
+     * written for the current distance matrix file (same length and
+     * modification time), it is loaded instead of parsing the distance matrix
+     * file; otherwise it is written after parsing.
+     * <p>
+     * Key: {@code -distance.binarycache}
+     * </p>
+     */
+    public static final OptionID BINARY_ID = FileBasedSparseDoubleDistanceFunction.Parameterizer.BINARY_ID;
+
     /**
      * Input file.
      */
     protected File matrixfile = null;
 
+    /**
+     * Binary cache file.
+     */
+    protected File binaryfile = null;
+
     /**
      * Parser for input file.
      */
@@ -250,6 +288,12 @@ public class FileBasedSparseFloatDistanceFunction extends AbstractDBIDRangeDista
         matrixfile = MATRIX_PARAM.getValue();
       }
 
+      FileParameter binaryP = new FileParameter(BINARY_ID, FileParameter.FileType.OUTPUT_FILE) //
+          .setOptional(true);
+      if(config.grab(binaryP)) {
+        binaryfile = binaryP.getValue();
+      }
+
       final ObjectParameter<DistanceParser> PARSER_PARAM = new ObjectParameter<>(PARSER_ID, DistanceParser.class, AsciiDistanceParser.class);
       if(config.grab(PARSER_PARAM)) {
         parser = PARSER_PARAM.instantiateClass(config);
@@ -263,7 +307,7 @@ public class FileBasedSparseFloatDistanceFunction extends AbstractDBIDRangeDista
 
     @Override
     protected FileBasedSparseFloatDistanceFunction makeInstance() {
-      return new FileBasedSparseFloatDistanceFunction(parser, matrixfile, defaultDistance);
+      return new FileBasedSparseFloatDistanceFunction(parser, matrixfile, binaryfile, defaultDistance);
     }
   }
 }
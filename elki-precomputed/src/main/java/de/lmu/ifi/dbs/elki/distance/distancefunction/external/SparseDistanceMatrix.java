@@ -0,0 +1,803 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.distance.distancefunction.external;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.io.FileUtil;
+import de.lmu.ifi.dbs.elki.utilities.io.Fingerprint;
+
+/**
+ * Sparse, symmetric distance matrix in compressed sparse row (CSR) layout.
+ *
+ * Each pair is stored once, in the row of the smaller id; the columns of each
+ * row are sorted, and looked up with a binary search. Compared to a hash map
+ * keyed by the id pair, this needs only 12 (or, with single precision, 8)
+ * bytes per pair.
+ *
+ * The matrix is built in two passes over the input (see {@link Builder}), and
+ * can be saved to and loaded from a binary file. The binary file records a
+ * fingerprint (length and modification time) of the file the matrix was
+ * parsed from, so that a stale binary cache can be detected with
+ * {@link #isCacheOf(File, File)}.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class SparseDistanceMatrix {
+  /**
+   * Magic number of the binary format.
+   */
+  public static final int MAGIC = 0x454C4B44;
+
+  /**
+   * Version of the binary format.
+   */
+  private static final int VERSION = 2;
+
+  /**
+   * Header size of version 1: magic, version, flags, min, rows, pairs (long).
+   */
+  private static final int HEADER_SIZE_V1 = 5 * 4 + 8;
+
+  /**
+   * Header size: version 1 header, and the source fingerprint (long).
+   */
+  private static final int HEADER_SIZE = HEADER_SIZE_V1 + 8;
+
+  /**
+   * Maximum array size.
+   */
+  private static final long MAX_PAIRS = Integer.MAX_VALUE - 8;
+
+  /**
+   * Maximum size of a mapped segment.
+   */
+  private static final int MAP_SEGMENT = 1 << 30;
+
+  /**
+   * Smallest id, used as offset.
+   */
+  private final int min;
+
+  /**
+   * Fingerprint of the source file, 0 if unknown.
+   */
+  private long source;
+
+  /**
+   * Row start offsets; row i ends at offsets[i + 1].
+   */
+  private final int[] offsets;
+
+  /**
+   * Column indexes (relative to min), sorted within each row.
+   */
+  private final int[] cols;
+
+  /**
+   * Distances (double precision), or null.
+   */
+  private final double[] ddists;
+
+  /**
+   * Distances (single precision), or null.
+   */
+  private final float[] fdists;
+
+  /**
+   * Constructor.
+   *
+   * @param min Smallest id
+   * @param offsets Row offsets
+   * @param cols Column indexes
+   * @param ddists Distances (double precision), or null
+   * @param fdists Distances (single precision), or null
+   */
+  private SparseDistanceMatrix(int min, int[] offsets, int[] cols, double[] ddists, float[] fdists) {
+    super();
+    this.min = min;
+    this.offsets = offsets;
+    this.cols = cols;
+    this.ddists = ddists;
+    this.fdists = fdists;
+  }
+
+  /**
+   * Get the fingerprint of the file this matrix was parsed from.
+   *
+   * @return Source fingerprint, 0 if unknown
+   */
+  public long getSource() {
+    return source;
+  }
+
+  /**
+   * Get the smallest id.
+   *
+   * @return Id offset
+   */
+  public int getMin() {
+    return min;
+  }
+
+  /**
+   * Get the largest id.
+   *
+   * @return Largest id
+   */
+  public int getMax() {
+    return min + offsets.length - 2;
+  }
+
+  /**
+   * Number of pairs stored.
+   *
+   * @return Number of pairs
+   */
+  public int numPairs() {
+    return offsets[offsets.length - 1];
+  }
+
+  /**
+   * Get a distance.
+   *
+   * @param i1 First index, relative to {@link #getMin()}
+   * @param i2 Second index, relative to {@link #getMin()}
+   * @param def Value to return for undefined pairs
+   * @return Distance
+   */
+  public double get(int i1, int i2, double def) {
+    final int r = i1 < i2 ? i1 : i2, c = i1 < i2 ? i2 : i1;
+    if(r < 0 || c + 1 >= offsets.length) {
+      return def;
+    }
+    final int p = Arrays.binarySearch(cols, offsets[r], offsets[r + 1], c);
+    return p < 0 ? def : fdists != null ? fdists[p] : ddists[p];
+  }
+
+  /**
+   * Write the matrix to a binary file.
+   *
+   * @param file Output file
+   * @throws IOException on I/O errors
+   */
+  public void save(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel()) {
+      raf.setLength(0);
+      final int n = numPairs();
+      ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+      buf.putInt(MAGIC).putInt(VERSION).putInt(fdists != null ? 1 : 0) //
+          .putInt(min).putInt(offsets.length - 1).putLong(n).putLong(source);
+      for(int v : offsets) {
+        buf = flushIfFull(channel, buf, 4).putInt(v);
+      }
+      for(int i = 0; i < n; i++) {
+        buf = flushIfFull(channel, buf, 4).putInt(cols[i]);
+      }
+      if(fdists != null) {
+        for(int i = 0; i < n; i++) {
+          buf = flushIfFull(channel, buf, 4).putFloat(fdists[i]);
+        }
+      }
+      else {
+        for(int i = 0; i < n; i++) {
+          buf = flushIfFull(channel, buf, 8).putDouble(ddists[i]);
+        }
+      }
+      buf.flip();
+      while(buf.hasRemaining()) {
+        channel.write(buf);
+      }
+    }
+  }
+
+  /**
+   * Write the buffer to the channel when it is full.
+   *
+   * @param channel Output channel
+   * @param buf Buffer
+   * @param need Bytes needed
+   * @return Buffer, with at least the requested space remaining
+   * @throws IOException on I/O errors
+   */
+  private static ByteBuffer flushIfFull(FileChannel channel, ByteBuffer buf, int need) throws IOException {
+    if(buf.remaining() < need) {
+      buf.flip();
+      while(buf.hasRemaining()) {
+        channel.write(buf);
+      }
+      buf.clear();
+    }
+    return buf;
+  }
+
+  /**
+   * Test if a file is in the binary format.
+   *
+   * @param file File to test
+   * @return {@code true} if the file starts with the magic number
+   */
+  public static boolean isBinary(File file) {
+    if(!file.isFile() || file.length() < HEADER_SIZE_V1) {
+      return false;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      return raf.readInt() == MAGIC;
+    }
+    catch(IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Test if a file is a binary cache of the given source file, i.e., it was
+   * written from a matrix parsed from a file of the same length and
+   * modification time. If the source file does not exist, any binary file is
+   * accepted.
+   *
+   * @param file Binary cache file
+   * @param source Source file
+   * @return {@code true} if the binary file can be used instead of the source
+   */
+  public static boolean isCacheOf(File file, File source) {
+    if(!isBinary(file) || file.length() < HEADER_SIZE) {
+      return false;
+    }
+    if(!source.exists()) {
+      return true;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      raf.seek(4);
+      if(raf.readInt() != VERSION) {
+        return false;
+      }
+      raf.seek(HEADER_SIZE_V1);
+      return raf.readLong() == fingerprint(source);
+    }
+    catch(IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Fingerprint of a source file, from its length and modification time.
+   *
+   * @param file Source file
+   * @return Fingerprint, never 0
+   */
+  public static long fingerprint(File file) {
+    final long hash = Fingerprint.mix(Fingerprint.mix(0xCBF29CE484222325L, file.length()), file.lastModified());
+    return hash != 0 ? hash : 1;
+  }
+
+  /**
+   * Load a matrix from a binary file, using memory mapping.
+   *
+   * @param file Input file
+   * @param floatDistances Use single precision
+   * @return Matrix
+   * @throws IOException on I/O errors
+   */
+  public static SparseDistanceMatrix load(File file, boolean floatDistances) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel()) {
+      ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE_V1);
+      final int magic = header.getInt(), version = header.getInt();
+      if(magic != MAGIC || version < 1 || version > VERSION) {
+        throw new AbortException("Not a sparse distance matrix file, or incompatible version: " + file);
+      }
+      final boolean isfloat = header.getInt() != 0;
+      final int min = header.getInt(), rows = header.getInt();
+      final long n = header.getLong();
+      final int headersize = version == 1 ? HEADER_SIZE_V1 : HEADER_SIZE;
+      if(n > MAX_PAIRS || rows < 0 || rows >= MAX_PAIRS) {
+        throw new AbortException("Sparse distance matrix too large: " + file);
+      }
+      final long expected = headersize + 4L * (rows + 1) + n * (isfloat ? 8 : 12);
+      if(channel.size() < expected) {
+        throw new AbortException("Sparse distance matrix file is truncated: " + file);
+      }
+      final long source = version == 1 ? 0L : channel.map(MapMode.READ_ONLY, HEADER_SIZE_V1, 8).getLong();
+      long pos = headersize;
+      int[] offsets = new int[rows + 1];
+      pos = readInts(channel, pos, offsets);
+      int[] cols = new int[(int) n];
+      pos = readInts(channel, pos, cols);
+      double[] ddists = floatDistances ? null : new double[(int) n];
+      float[] fdists = floatDistances ? new float[(int) n] : null;
+      for(int i = 0; i < n;) {
+        final int len = (int) Math.min(n - i, MAP_SEGMENT >>> 3);
+        final int bytes = len * (isfloat ? 4 : 8);
+        ByteBuffer seg = channel.map(MapMode.READ_ONLY, pos, bytes);
+        if(isfloat) {
+          if(fdists != null) {
+            seg.asFloatBuffer().get(fdists, i, len);
+          }
+          else {
+            for(int j = 0; j < len; j++) {
+              ddists[i + j] = seg.getFloat();
+            }
+          }
+        }
+        else {
+          if(ddists != null) {
+            seg.asDoubleBuffer().get(ddists, i, len);
+          }
+          else {
+            for(int j = 0; j < len; j++) {
+              fdists[i + j] = (float) seg.getDouble();
+            }
+          }
+        }
+        pos += bytes;
+        i += len;
+      }
+      SparseDistanceMatrix m = new SparseDistanceMatrix(min, offsets, cols, ddists, fdists);
+      m.source = source;
+      return m;
+    }
+  }
+
+  /**
+   * Read an integer array from a file channel, mapping it in segments.
+   *
+   * @param channel Channel
+   * @param pos Start position
+   * @param data Output array
+   * @return Position after the array
+   * @throws IOException on I/O errors
+   */
+  private static long readInts(FileChannel channel, long pos, int[] data) throws IOException {
+    for(int i = 0; i < data.length;) {
+      final int len = Math.min(data.length - i, MAP_SEGMENT >>> 2);
+      channel.map(MapMode.READ_ONLY, pos, len << 2).asIntBuffer().get(data, i, len);
+      pos += len << 2;
+      i += len;
+    }
+    return pos;
+  }
+
+  /**
+   * Parse a distance file in two passes.
+   *
+   * @param parser Parser
+   * @param file Input file, may be compressed
+   * @param floatDistances Use single precision
+   * @return Matrix
+   * @throws IOException on I/O errors
+   */
+  public static SparseDistanceMatrix parse(DistanceParser parser, File file, boolean floatDistances) throws IOException {
+    final long source = fingerprint(file);
+    Builder builder = new Builder(floatDistances);
+    try (InputStream in = new BufferedInputStream(FileUtil.tryGzipInput(new FileInputStream(file)))) {
+      parser.parse(in, builder);
+    }
+    builder.startFill();
+    try (InputStream in = new BufferedInputStream(FileUtil.tryGzipInput(new FileInputStream(file)))) {
+      parser.parse(in, builder);
+    }
+    SparseDistanceMatrix m = builder.build();
+    m.source = source;
+    return m;
+  }
+
+  /**
+   * Parse distances from a stream. Because two passes are needed, the input
+   * is buffered in memory; use {@link #parse(DistanceParser, File, boolean)}
+   * for large files.
+   *
+   * @param parser Parser
+   * @param in Input stream
+   * @param floatDistances Use single precision
+   * @return Matrix
+   * @throws IOException on I/O errors
+   */
+  public static SparseDistanceMatrix parse(DistanceParser parser, InputStream in, boolean floatDistances) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    byte[] tmp = new byte[1 << 16];
+    for(int read; (read = in.read(tmp)) >= 0;) {
+      buf.write(tmp, 0, read);
+    }
+    final byte[] data = buf.toByteArray();
+    Builder builder = new Builder(floatDistances);
+    parser.parse(new ByteArrayInputStream(data), builder);
+    builder.startFill();
+    parser.parse(new ByteArrayInputStream(data), builder);
+    return builder.build();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if(this == obj) {
+      return true;
+    }
+    if(obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+    SparseDistanceMatrix other = (SparseDistanceMatrix) obj;
+    return min == other.min && Arrays.equals(offsets, other.offsets) && Arrays.equals(cols, other.cols) //
+        && Arrays.equals(ddists, other.ddists) && Arrays.equals(fdists, other.fdists);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * min + offsets.length) + numPairs();
+  }
+
+  /**
+   * Two-pass builder for sparse distance matrixes.
+   *
+   * In the first pass, the pairs are only counted; then {@link #startFill()}
+   * allocates the storage, and the second pass must provide the same pairs
+   * again. {@link #build()} sorts the rows in parallel. For duplicate pairs,
+   * the last value is used.
+   *
+   * @author agent
+   */
+  public static class Builder implements DistanceCacheWriter {
+    /**
+     * Use single precision.
+     */
+    private final boolean floatDistances;
+
+    /**
+     * Pairs per row (first pass, relative to {@link #base}), then fill
+     * positions (second pass, relative to {@link #min}).
+     */
+    private int[] counts = new int[0];
+
+    /**
+     * Row id of the first entry of {@link #counts} in the first pass.
+     */
+    private int base;
+
+    /**
+     * Smallest and largest ids seen.
+     */
+    private int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+
+    /**
+     * Number of pairs.
+     */
+    private long numpairs = 0;
+
+    /**
+     * Storage, in the second pass.
+     */
+    private int[] offsets, cols;
+
+    /**
+     * Distance storage, in the second pass.
+     */
+    private double[] ddists;
+
+    /**
+     * Distance storage, in the second pass.
+     */
+    private float[] fdists;
+
+    /**
+     * Constructor.
+     *
+     * @param floatDistances Use single precision
+     */
+    public Builder(boolean floatDistances) {
+      super();
+      this.floatDistances = floatDistances;
+    }
+
+    @Override
+    public void put(int id1, int id2, double distance) {
+      final int r = id1 < id2 ? id1 : id2, c = id1 < id2 ? id2 : id1;
+      if(offsets == null) {
+        min = r < min ? r : min;
+        max = c > max ? c : max;
+        if(r == c) {
+          return; // Diagonal is always 0.
+        }
+        final int idx = countIndex(r); // May reallocate counts.
+        ++counts[idx];
+        ++numpairs;
+        return;
+      }
+      if(r == c) {
+        return;
+      }
+      if(r < min || c > max || counts[r - min] >= offsets[r - min + 1]) {
+        throw new AbortException("Second pass over the distances differs from the first pass.");
+      }
+      final int p = counts[r - min]++;
+      cols[p] = c - min;
+      if(fdists != null) {
+        fdists[p] = (float) distance;
+      }
+      else {
+        ddists[p] = distance;
+      }
+    }
+
+    /**
+     * Index of a row in the counts array of the first pass, growing the array
+     * as necessary (in both directions).
+     *
+     * @param r Row id
+     * @return Index in {@link #counts}
+     */
+    private int countIndex(int r) {
+      if(counts.length == 0) {
+        base = r;
+        counts = new int[1024];
+      }
+      else if(r < base) {
+        // Grow to the front, leaving slack for further smaller ids.
+        final long nbase = Math.max(Integer.MIN_VALUE, Math.min(r, (long) base - counts.length));
+        final long shift = base - nbase;
+        checkRows(shift + counts.length);
+        int[] ncounts = new int[(int) (shift + counts.length)];
+        System.arraycopy(counts, 0, ncounts, (int) shift, counts.length);
+        counts = ncounts;
+        base = (int) nbase;
+      }
+      final long idx = (long) r - base;
+      if(idx >= counts.length) {
+        checkRows(idx + 1);
+        counts = Arrays.copyOf(counts, (int) Math.min(MAX_PAIRS, Math.max(idx + 1, (long) counts.length << 1)));
+      }
+      return (int) idx;
+    }
+
+    /**
+     * Check that the id range does not exceed the maximum array size.
+     *
+     * @param rows Number of rows
+     */
+    private static void checkRows(long rows) {
+      if(rows > MAX_PAIRS) {
+        throw new AbortException("Id range too large for a sparse distance matrix: " + rows);
+      }
+    }
+
+    /**
+     * Smallest id seen in the first pass.
+     *
+     * @return Smallest id
+     */
+    public int getMin() {
+      return min;
+    }
+
+    /**
+     * Largest id seen in the first pass.
+     *
+     * @return Largest id
+     */
+    public int getMax() {
+      return max;
+    }
+
+    /**
+     * Finish the first pass, and allocate the storage for the second pass.
+     */
+    public void startFill() {
+      if(numpairs > MAX_PAIRS) {
+        throw new AbortException("Too many distances for a sparse distance matrix: " + numpairs);
+      }
+      if(max < min) {
+        min = max = 0;
+      }
+      checkRows((long) max - min + 1);
+      final int rows = max - min + 1;
+      offsets = new int[rows + 1];
+      int[] fillpos = new int[rows];
+      for(int i = 0, p = 0; i < rows; i++) {
+        offsets[i] = fillpos[i] = p;
+        final long idx = (long) min + i - base;
+        p += idx >= 0 && idx < counts.length ? counts[(int) idx] : 0;
+      }
+      offsets[rows] = (int) numpairs;
+      counts = fillpos;
+      cols = new int[(int) numpairs];
+      if(floatDistances) {
+        fdists = new float[(int) numpairs];
+      }
+      else {
+        ddists = new double[(int) numpairs];
+      }
+    }
+
+    /**
+     * Finish the second pass, and build the matrix.
+     *
+     * @return Matrix
+     */
+    public SparseDistanceMatrix build() {
+      final int rows = offsets.length - 1;
+      for(int i = 0; i < rows; i++) {
+        if(counts[i] != offsets[i + 1]) {
+          throw new AbortException("Second pass over the distances differs from the first pass.");
+        }
+      }
+      // Sort rows in parallel, into blocks of roughly equal size:
+      final int numtasks = (int) Math.max(1, Math.min(ParallelCore.getCore().getParallelism() << 2, numpairs >>> 16));
+      List<Callable<Void>> tasks = new ArrayList<>(numtasks);
+      for(int t = 0, start = 0; t < numtasks && start < rows; t++) {
+        int end = start + 1;
+        final long target = numpairs * (t + 1) / numtasks;
+        while(end < rows && offsets[end] < target) {
+          end++;
+        }
+        end = t + 1 < numtasks ? end : rows;
+        tasks.add(new SortTask(start, end));
+        start = end;
+      }
+      ParallelExecutor.run(tasks);
+      // Compact (to remove duplicates), reusing the fill positions as ends:
+      int p = 0;
+      for(int i = 0; i < rows; i++) {
+        final int s = offsets[i], e = counts[i];
+        offsets[i] = p;
+        if(p != s) {
+          System.arraycopy(cols, s, cols, p, e - s);
+          if(fdists != null) {
+            System.arraycopy(fdists, s, fdists, p, e - s);
+          }
+          else {
+            System.arraycopy(ddists, s, ddists, p, e - s);
+          }
+        }
+        p += e - s;
+      }
+      offsets[rows] = p;
+      if(p < numpairs) {
+        cols = Arrays.copyOf(cols, p);
+        ddists = ddists != null ? Arrays.copyOf(ddists, p) : null;
+        fdists = fdists != null ? Arrays.copyOf(fdists, p) : null;
+      }
+      SparseDistanceMatrix m = new SparseDistanceMatrix(min, offsets, cols, ddists, fdists);
+      offsets = cols = counts = null;
+      ddists = null;
+      fdists = null;
+      return m;
+    }
+
+    /**
+     * Sort a range of rows, and remove duplicates. The new end of each row is
+     * stored in {@code counts}.
+     *
+     * @param start First row
+     * @param end End row (exclusive)
+     */
+    private void sortRows(int start, int end) {
+      long[] keys = new long[0];
+      for(int i = start; i < end; i++) {
+        final int s = offsets[i], len = offsets[i + 1] - s;
+        if(len < 2) {
+          continue;
+        }
+        if(keys.length < len) {
+          keys = new long[len];
+        }
+        // Sort by column, then by input order (for duplicates).
+        boolean sorted = true;
+        for(int j = 0; j < len; j++) {
+          keys[j] = (((long) cols[s + j]) << 32) | j;
+          sorted &= j == 0 || keys[j - 1] < keys[j];
+        }
+        if(!sorted) {
+          Arrays.sort(keys, 0, len);
+          permute(s, keys, len);
+        }
+        // Remove duplicates, keeping the last value:
+        int w = s;
+        for(int j = 0; j < len; j++) {
+          final int c = (int) (keys[j] >>> 32);
+          if(j + 1 < len && (int) (keys[j + 1] >>> 32) == c) {
+            continue;
+          }
+          if(w != s + j) {
+            cols[w] = cols[s + j];
+            if(fdists != null) {
+              fdists[w] = fdists[s + j];
+            }
+            else {
+              ddists[w] = ddists[s + j];
+            }
+          }
+          w++;
+        }
+        counts[i] = w;
+      }
+    }
+
+    /**
+     * Reorder a row according to sorted keys.
+     *
+     * @param s Row start
+     * @param keys Sorted keys, with the original position in the low bits
+     * @param len Row length
+     */
+    private void permute(int s, long[] keys, int len) {
+      if(fdists != null) {
+        float[] tmp = Arrays.copyOfRange(fdists, s, s + len);
+        for(int j = 0; j < len; j++) {
+          fdists[s + j] = tmp[(int) keys[j]];
+        }
+      }
+      else {
+        double[] tmp = Arrays.copyOfRange(ddists, s, s + len);
+        for(int j = 0; j < len; j++) {
+          ddists[s + j] = tmp[(int) keys[j]];
+        }
+      }
+      for(int j = 0; j < len; j++) {
+        cols[s + j] = (int) (keys[j] >>> 32);
+      }
+    }
+
+    /**
+     * Task to sort a range of rows.
+     *
+     * @author agent
+     */
+    private class SortTask implements Callable<Void> {
+      /**
+       * Row range.
+       */
+      private final int start, end;
+
+      /**
+       * Constructor.
+       *
+       * @param start First row
+       * @param end End row (exclusive)
+       */
+      SortTask(int start, int end) {
+        this.start = start;
+        this.end = end;
+      }
+
+      @Override
+      public Void call() {
+        sortRows(start, end);
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.application.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.external.DiskCacheBasedDoubleDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.external.DiskCacheBasedFloatDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+
+/**
+ * Test precomputing on-disk distance matrixes.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class CacheDoubleDistanceInOnDiskMatrixTest extends AbstractSimpleAlgorithmTest {
+  @Test
+  public void testDoubleMatrix() throws IOException {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    File out = File.createTempFile("elki-matrix", ".bin");
+    try {
+      new CacheDoubleDistanceInOnDiskMatrix<NumberVector>(db, EuclideanDistanceFunction.STATIC, out).run();
+      DiskCacheBasedDoubleDistanceFunction df = new DiskCacheBasedDoubleDistanceFunction(out);
+      Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+      DBIDRange ids = DBIDUtil.assertRange(rel.getDBIDs());
+      for(DBIDArrayIter i = ids.iter(), j = ids.iter(); i.valid(); i.advance()) {
+        for(j.seek(0); j.valid(); j.advance()) {
+          final double d = EuclideanDistanceFunction.STATIC.distance(rel.get(i), rel.get(j));
+          assertEquals("Distance differs.", d, df.distance(i.getOffset(), j.getOffset()), 0.);
+        }
+      }
+    }
+    finally {
+      out.delete();
+    }
+  }
+
+  @Test
+  public void testFloatMatrix() throws IOException {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    File out = File.createTempFile("elki-matrix", ".bin");
+    try {
+      new CacheFloatDistanceInOnDiskMatrix<NumberVector>(db, EuclideanDistanceFunction.STATIC, out).run();
+      DiskCacheBasedFloatDistanceFunction df = new DiskCacheBasedFloatDistanceFunction(out);
+      Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+      DBIDRange ids = DBIDUtil.assertRange(rel.getDBIDs());
+      for(DBIDArrayIter i = ids.iter(), j = ids.iter(); i.valid(); i.advance()) {
+        for(j.seek(0); j.valid(); j.advance()) {
+          final double d = EuclideanDistanceFunction.STATIC.distance(rel.get(i), rel.get(j));
+          assertEquals("Distance differs.", (float) d, df.distance(i.getOffset(), j.getOffset()), 0.);
+        }
+      }
+    }
+    finally {
+      out.delete();
+    }
+  }
+
+  @Test
+  public void testSignature() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    Database db2 = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    Relation<NumberVector> rel2 = db2.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    final long sig = ParallelCacheWriter.signature(rel, new LPNormDistanceFunction(3), 42L);
+    assertEquals("Signature not reproducible.", sig, ParallelCacheWriter.signature(rel, new LPNormDistanceFunction(3), 42L));
+    assertTrue("Distance parameters ignored.", sig != ParallelCacheWriter.signature(rel, new LPNormDistanceFunction(4), 42L));
+    assertTrue("Distance class ignored.", sig != ParallelCacheWriter.signature(rel, EuclideanDistanceFunction.STATIC, 42L));
+    assertTrue("Data ignored.", sig != ParallelCacheWriter.signature(rel2, new LPNormDistanceFunction(3), 42L));
+    assertTrue("Parameters ignored.", sig != ParallelCacheWriter.signature(rel, new LPNormDistanceFunction(3), 43L));
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.application.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+
+/**
+ * Test the parallel cache writer, including resuming from a checkpoint.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class ParallelCacheWriterTest {
+  /**
+   * Block function: block b consists of b+1 bytes of value b.
+   */
+  private static final IntFunction<ByteBuffer> BLOCKS = new IntFunction<ByteBuffer>() {
+    @Override
+    public ByteBuffer apply(int b) {
+      byte[] data = new byte[b + 1];
+      Arrays.fill(data, (byte) b);
+      return ByteBuffer.wrap(data);
+    }
+  };
+
+  @Test
+  public void testWriteAndResume() throws IOException {
+    final int numblocks = 20, header = 3, interrupted = 7;
+    File out = File.createTempFile("elki-cache", ".bin");
+    File checkpoint = new File(out.getPath() + ".checkpoint");
+    try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      new ParallelCacheWriter(out, 42L).write(channel, header, numblocks, BLOCKS);
+      assertFalse("Checkpoint not removed.", checkpoint.exists());
+    }
+    byte[] expected = Files.readAllBytes(out.toPath());
+    assertEquals("File size", header + numblocks * (numblocks + 1) / 2, expected.length);
+
+    // Simulate an interrupted run, with partially written data:
+    out.delete();
+    try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ParallelCacheWriter writer = new ParallelCacheWriter(out, 42L);
+      writer.write(channel, header, interrupted, BLOCKS);
+      writer.save();
+      channel.write(ByteBuffer.wrap(new byte[] { -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 }), channel.size());
+    }
+    try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ParallelCacheWriter writer = new ParallelCacheWriter(out, 42L);
+      assertTrue("Checkpoint not found.", writer.restore());
+      assertEquals("Blocks done", interrupted, writer.getBlocksDone());
+      writer.write(channel, header, numblocks, new IntFunction<ByteBuffer>() {
+        @Override
+        public ByteBuffer apply(int b) {
+          assertTrue("Block computed twice: " + b, b >= interrupted);
+          return BLOCKS.apply(b);
+        }
+      });
+      assertFalse("Checkpoint not removed.", checkpoint.exists());
+    }
+    assertArrayEquals("Resumed file differs.", expected, Files.readAllBytes(out.toPath()));
+
+    // A checkpoint of a different job must not be used:
+    new ParallelCacheWriter(out, 42L).save();
+    try {
+      new ParallelCacheWriter(out, 43L).restore();
+      assertTrue("Incompatible checkpoint accepted.", false);
+    }
+    catch(IOException e) {
+      // Expected.
+    }
+    finally {
+      checkpoint.delete();
+      out.delete();
+    }
+  }
+
+  @Test
+  public void testTriangleBlocks() {
+    int[] bounds = ParallelCacheWriter.triangleBlocks(100, 300);
+    assertEquals("First", 0, bounds[0]);
+    assertEquals("Last", 100, bounds[bounds.length - 1]);
+    for(int i = 1; i < bounds.length - 1; i++) {
+      final long records = ((bounds[i] + 1L) * bounds[i] - (bounds[i - 1] + 1L) * bounds[i - 1]) >>> 1;
+      assertTrue("Block too small: " + records, records >= 300);
+      assertTrue("Block too large: " + records, records < 300 + bounds[i]);
+    }
+  }
+}
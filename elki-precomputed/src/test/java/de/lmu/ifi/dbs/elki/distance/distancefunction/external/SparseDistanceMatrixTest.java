@@ -0,0 +1,161 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.distance.distancefunction.external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.datasource.parser.CSVReaderFormat;
+
+/**
+ * Unit test for the sparse distance matrix.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class SparseDistanceMatrixTest {
+  /**
+   * Build a random sparse matrix, and compare it to a dense reference.
+   */
+  @Test
+  public void testBuildAndSave() throws IOException {
+    buildAndSave(1);
+  }
+
+  /**
+   * Ids far away from zero, in both directions, must not cause huge
+   * allocations or index errors.
+   */
+  @Test
+  public void testIdOffsets() throws IOException {
+    buildAndSave(-50);
+    buildAndSave(2000000000);
+    buildAndSave(Integer.MIN_VALUE + 7);
+  }
+
+  /**
+   * Build a random sparse matrix with the given id offset, and compare it to a
+   * dense reference.
+   *
+   * @param off Id offset
+   */
+  private void buildAndSave(int off) throws IOException {
+    final int n = 100, m = 2000;
+    Random r = new Random(0L);
+    int[] a = new int[m], b = new int[m];
+    double[] d = new double[m];
+    double[][] ref = new double[n][n];
+    for(double[] row : ref) {
+      Arrays.fill(row, Double.NaN);
+    }
+    for(int i = 0; i < m; i++) {
+      // Includes duplicates and both orientations:
+      a[i] = r.nextInt(n);
+      b[i] = r.nextInt(n);
+      d[i] = r.nextDouble();
+      ref[a[i]][b[i]] = ref[b[i]][a[i]] = d[i];
+    }
+    for(boolean isfloat : new boolean[] { false, true }) {
+      SparseDistanceMatrix.Builder builder = new SparseDistanceMatrix.Builder(isfloat);
+      for(int i = 0; i < m; i++) {
+        builder.put(a[i] + off, b[i] + off, d[i]);
+      }
+      builder.startFill();
+      for(int i = 0; i < m; i++) {
+        builder.put(a[i] + off, b[i] + off, d[i]);
+      }
+      SparseDistanceMatrix mat = builder.build();
+      assertEquals("Offset not detected.", off, mat.getMin());
+      checkMatrix(mat, ref, isfloat ? 1e-7 : 0.);
+
+      File tmp = File.createTempFile("elki-sparse", ".bin");
+      try {
+        mat.save(tmp);
+        assertTrue("Binary file not recognized.", SparseDistanceMatrix.isBinary(tmp));
+        SparseDistanceMatrix loaded = SparseDistanceMatrix.load(tmp, isfloat);
+        assertEquals("Loaded matrix differs.", mat, loaded);
+        checkMatrix(SparseDistanceMatrix.load(tmp, !isfloat), ref, 1e-7);
+      }
+      finally {
+        tmp.delete();
+      }
+    }
+  }
+
+  /**
+   * A binary cache must be detected as stale when the source file changes.
+   */
+  @Test
+  public void testStaleCache() throws IOException {
+    File src = File.createTempFile("elki-sparse", ".ascii");
+    File bin = File.createTempFile("elki-sparse", ".bin");
+    try {
+      Files.write(src.toPath(), "0 1 0.5\n1 2 0.25\n".getBytes(StandardCharsets.UTF_8));
+      AsciiDistanceParser parser = new AsciiDistanceParser(CSVReaderFormat.DEFAULT_FORMAT);
+      SparseDistanceMatrix mat = SparseDistanceMatrix.parse(parser, src, false);
+      mat.save(bin);
+      assertTrue("Cache not recognized.", SparseDistanceMatrix.isCacheOf(bin, src));
+      assertEquals("Source fingerprint not stored.", mat.getSource(), SparseDistanceMatrix.load(bin, false).getSource());
+
+      Files.write(src.toPath(), "0 1 0.5\n1 2 0.75\n0 2 1.0\n".getBytes(StandardCharsets.UTF_8));
+      src.setLastModified(src.lastModified() + 10000L);
+      assertFalse("Stale cache not detected.", SparseDistanceMatrix.isCacheOf(bin, src));
+    }
+    finally {
+      src.delete();
+      bin.delete();
+    }
+  }
+
+  /**
+   * Compare a sparse matrix to the dense reference.
+   *
+   * @param mat Sparse matrix
+   * @param ref Reference matrix, NaN for undefined values
+   * @param tol Tolerance
+   */
+  private static void checkMatrix(SparseDistanceMatrix mat, double[][] ref, double tol) {
+    for(int i = 0; i < ref.length; i++) {
+      for(int j = 0; j < ref.length; j++) {
+        if(i == j) {
+          continue;
+        }
+        final double v = mat.get(i, j, Double.NaN);
+        if(ref[i][j] != ref[i][j]) {
+          assertTrue("Undefined value expected.", v != v);
+        }
+        else {
+          assertEquals("Distance differs.", ref[i][j], v, tol);
+        }
+      }
+    }
+  }
+}
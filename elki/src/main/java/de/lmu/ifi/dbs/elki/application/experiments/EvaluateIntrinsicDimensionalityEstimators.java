@@ -23,8 +23,10 @@ package de.lmu.ifi.dbs.elki.application.experiments;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.application.AbstractApplication;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.AggregatedHillEstimator;
@@ -37,6 +39,7 @@ import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.PWM2Estimator
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.PWMEstimator;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.RVEstimator;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.ZipfEstimator;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.QuickSelect;
 import de.lmu.ifi.dbs.elki.utilities.io.FormatUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
@@ -55,6 +58,11 @@ import net.jafama.FastMath;
  * @since 0.7.0
  */
 public class EvaluateIntrinsicDimensionalityEstimators extends AbstractApplication {
+  /**
+   * Number of samples per parallel task.
+   */
+  private static final int CHUNK_SIZE = 64;
+
   /**
    * Benchmark parameters.
    */
@@ -99,7 +107,7 @@ public class EvaluateIntrinsicDimensionalityEstimators extends AbstractApplicati
   @Override
   public void run() {
     ArrayList<String> abbreviat = new ArrayList<>();
-    ArrayList<IntrinsicDimensionalityEstimator> estimators = new ArrayList<>();
+    final ArrayList<IntrinsicDimensionalityEstimator> estimators = new ArrayList<>();
     // Hill estimator
     abbreviat.add("Hill");
     estimators.add(HillEstimator.STATIC);
@@ -150,16 +158,31 @@ public class EvaluateIntrinsicDimensionalityEstimators extends AbstractApplicati
       out.append(FormatUtil.NEWLINE);
       break;
     }
-    double[][] v = new double[estimators.size()][samples];
+    final double[][] v = new double[estimators.size()][samples];
+    final double[][] dists = new double[samples][];
     for(int l = startk; l <= maxk; l++) {
       for(int p = 0; p < samples; p++) {
-        // Prefer independent samples.
-        double[] dists = makeSample(l);
-        for(int i = 0; i < estimators.size(); i++) {
-          IntrinsicDimensionalityEstimator est = estimators.get(i);
-          v[i][p] = est.estimate(dists, l);
-        }
+        // Prefer independent samples. Generated serially, to be reproducible.
+        dists[p] = makeSample(l);
+      }
+      // Evaluate all estimators on the shared samples, in parallel.
+      final int size = l;
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for(int start = 0; start < samples; start += CHUNK_SIZE) {
+        final int begin = start, end = Math.min(start + CHUNK_SIZE, samples);
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for(int p = begin; p < end; p++) {
+              for(int i = 0; i < estimators.size(); i++) {
+                v[i][p] = estimators.get(i).estimate(dists[p], size);
+              }
+            }
+            return null;
+          }
+        });
       }
+      ParallelExecutor.run(tasks);
       switch(format){
       case TABULAR:
         out.append(String.format("%0" + digits + "d", l));
@@ -0,0 +1,277 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.application.greedyensemble;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compact binary file of outlier score vectors, as an alternative to the text
+ * output of {@link ComputeKNNOutlierScores}.
+ * <p>
+ * File layout (big endian, as written by {@link DataOutputStream}):
+ * <ul>
+ * <li>Magic number {@link #MAGIC} (int)</li>
+ * <li>Number of objects {@code n} (int)</li>
+ * <li>Any number of rows, each consisting of the length of the UTF-8 encoded
+ * label (int), the label bytes, and {@code n} scores (double).</li>
+ * </ul>
+ * The score rows are read on demand with positional reads into a reused
+ * buffer, so that large matrices need neither text parsing nor to fit into
+ * main memory at once.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class BinaryScoreMatrix implements Closeable {
+  /**
+   * Magic number to identify score matrix files.
+   */
+  public static final int MAGIC = 0x454B534D; // "EKSM"
+
+  /**
+   * Buffer size for reading and writing rows, in bytes (multiple of 8).
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * File channel.
+   */
+  private RandomAccessFile file;
+
+  /**
+   * Number of objects.
+   */
+  private int numobj;
+
+  /**
+   * Row labels.
+   */
+  private ArrayList<String> labels = new ArrayList<>();
+
+  /**
+   * Start positions of the score rows.
+   */
+  private long[] offsets = new long[16];
+
+  /**
+   * Read buffer, reused across rows.
+   */
+  private ByteBuffer buffer;
+
+  /**
+   * Open an existing score matrix.
+   *
+   * @param filename File name
+   * @throws IOException on read errors or invalid files
+   */
+  public BinaryScoreMatrix(File filename) throws IOException {
+    this.file = new RandomAccessFile(filename, "r");
+    try {
+      if(file.length() < 8 || file.readInt() != MAGIC) {
+        throw new IOException("Not a binary score matrix: " + filename);
+      }
+      numobj = file.readInt();
+      if(numobj < 0) {
+        throw new IOException("Corrupt score matrix: " + filename);
+      }
+      final long rowsize = numobj * 8L, len = file.length();
+      for(long pos = 8L; pos < len;) {
+        file.seek(pos);
+        final int lbllen = file.readInt();
+        if(lbllen < 0 || pos + 4 + lbllen > len) {
+          throw new IOException("Corrupt score matrix: " + filename);
+        }
+        byte[] lbl = new byte[lbllen];
+        file.readFully(lbl);
+        pos += 4 + lbl.length;
+        if(pos + rowsize > len) {
+          throw new IOException("Truncated score matrix: " + filename);
+        }
+        if(labels.size() == offsets.length) {
+          offsets = Arrays.copyOf(offsets, offsets.length << 1);
+        }
+        offsets[labels.size()] = pos;
+        labels.add(new String(lbl, StandardCharsets.UTF_8));
+        pos += rowsize;
+      }
+    }
+    catch(IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Test whether a file is a binary score matrix, by its magic number.
+   *
+   * @param filename File name
+   * @return {@code true} when the file starts with {@link #MAGIC}
+   * @throws IOException on read errors
+   */
+  public static boolean isBinary(File filename) throws IOException {
+    try (RandomAccessFile f = new RandomAccessFile(filename, "r")) {
+      return f.length() >= 8 && f.readInt() == MAGIC;
+    }
+  }
+
+  /**
+   * Number of rows (score vectors).
+   *
+   * @return Number of rows
+   */
+  public int size() {
+    return labels.size();
+  }
+
+  /**
+   * Number of objects (columns).
+   *
+   * @return Number of objects
+   */
+  public int getNumberOfObjects() {
+    return numobj;
+  }
+
+  /**
+   * Get the label of a row.
+   *
+   * @param row Row number
+   * @return Label
+   */
+  public String getLabel(int row) {
+    return labels.get(row);
+  }
+
+  /**
+   * Read the scores of a row.
+   *
+   * @param row Row number
+   * @param scores Output array, must have length {@link #getNumberOfObjects()}
+   * @return {@code scores}
+   * @throws IOException on read errors
+   */
+  public synchronized double[] getRow(int row, double[] scores) throws IOException {
+    assert (scores.length == numobj);
+    if(buffer == null) {
+      buffer = ByteBuffer.allocateDirect((int) Math.min(numobj * 8L, BUFFER_SIZE));
+    }
+    final FileChannel channel = file.getChannel();
+    long pos = offsets[row];
+    for(int i = 0; i < numobj;) {
+      final int len = Math.min(numobj - i, buffer.capacity() >>> 3);
+      buffer.clear().limit(len << 3);
+      while(buffer.hasRemaining()) {
+        if(channel.read(buffer, pos + buffer.position()) < 0) {
+          throw new IOException("Unexpected end of score matrix file.");
+        }
+      }
+      buffer.flip();
+      buffer.asDoubleBuffer().get(scores, i, len);
+      pos += len << 3;
+      i += len;
+    }
+    return scores;
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  /**
+   * Writer for score matrix files. Rows may be written by multiple threads.
+   *
+   * @author agent
+   */
+  public static class Writer implements Closeable {
+    /**
+     * Output stream.
+     */
+    private DataOutputStream out;
+
+    /**
+     * Number of objects.
+     */
+    private int numobj;
+
+    /**
+     * Write buffer, reused across rows.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Constructor.
+     *
+     * @param filename Output file name
+     * @param numobj Number of objects (length of every score vector)
+     * @throws IOException on write errors
+     */
+    public Writer(File filename, int numobj) throws IOException {
+      if(numobj < 0) {
+        throw new IllegalArgumentException("Negative number of objects: " + numobj);
+      }
+      this.buffer = ByteBuffer.allocate((int) Math.min(numobj * 8L, BUFFER_SIZE));
+      this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+      this.numobj = numobj;
+      out.writeInt(MAGIC);
+      out.writeInt(numobj);
+    }
+
+    /**
+     * Append a row.
+     *
+     * @param label Row label
+     * @param scores Scores
+     * @throws IOException on write errors
+     */
+    public synchronized void write(String label, double[] scores) throws IOException {
+      if(scores.length != numobj) {
+        throw new IOException("Score vector has length " + scores.length + ", expected " + numobj);
+      }
+      byte[] lbl = label.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(lbl.length);
+      out.write(lbl);
+      for(int i = 0; i < numobj;) {
+        final int len = Math.min(numobj - i, buffer.capacity() >>> 3);
+        buffer.clear();
+        buffer.asDoubleBuffer().put(scores, i, len);
+        out.write(buffer.array(), 0, len << 3);
+        i += len;
+      }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      out.close();
+    }
+  }
+}
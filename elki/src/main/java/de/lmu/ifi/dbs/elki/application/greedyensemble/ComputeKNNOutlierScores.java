@@ -21,9 +21,12 @@
 package de.lmu.ifi.dbs.elki.application.greedyensemble;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
 import java.util.function.BiConsumer;
 import java.util.function.IntFunction;
 import java.util.regex.Pattern;
@@ -57,6 +60,7 @@ import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.AggregatedHillEstimator;
 import de.lmu.ifi.dbs.elki.math.statistics.kernelfunctions.GaussianKernelDensityFunction;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
@@ -64,6 +68,7 @@ import de.lmu.ifi.dbs.elki.utilities.io.FormatUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.PatternParameter;
@@ -86,6 +91,10 @@ import net.jafama.FastMath;
  * For methods where k=1 does not make sense, this value will be skipped, and
  * the procedure will commence at 1+stepsize.
  *
+ * All methods and values of k share one materialized kNN index, and are run
+ * concurrently. As a consequence, the order of the output rows may vary. With
+ * <tt>-binary</tt>, a {@link BinaryScoreMatrix} is written instead of text.
+ *
  * Reference:
  * <p>
  * E. Schubert, R. Wojdanowski, A. Zimek, H.-P. Kriegel<br />
@@ -153,6 +162,11 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractApp
    */
   Pattern disable = null;
 
+  /**
+   * Write a binary score matrix instead of text.
+   */
+  boolean binary = false;
+
   /**
    * Constructor.
    *
@@ -167,6 +181,24 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractApp
    * @param disable Pattern for disabling methods
    */
   public ComputeKNNOutlierScores(InputStep inputstep, DistanceFunction<? super O> distf, int startk, int stepk, int maxk, ByLabelOutlier bylabel, File outfile, ScalingFunction scaling, Pattern disable) {
+    this(inputstep, distf, startk, stepk, maxk, bylabel, outfile, scaling, disable, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param inputstep Input step
+   * @param distf Distance function
+   * @param startk Starting value of k
+   * @param stepk K step size
+   * @param maxk Maximum k value
+   * @param bylabel By label outlier (reference)
+   * @param outfile Output file
+   * @param scaling Scaling function
+   * @param disable Pattern for disabling methods
+   * @param binary Write a binary score matrix instead of text
+   */
+  public ComputeKNNOutlierScores(InputStep inputstep, DistanceFunction<? super O> distf, int startk, int stepk, int maxk, ByLabelOutlier bylabel, File outfile, ScalingFunction scaling, Pattern disable, boolean binary) {
     super();
     this.distf = distf;
     this.startk = startk;
@@ -177,6 +209,7 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractApp
     this.outfile = outfile;
     this.scaling = scaling;
     this.disable = disable;
+    this.binary = binary;
   }
 
   @Override
@@ -216,88 +249,112 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractApp
 
     final DBIDs ids = relation.getDBIDs();
 
-    try (PrintStream fout = new PrintStream(outfile)) {
-      // Control: print the DBIDs in case we are seeing an odd iteration
-      fout.append("# Data set size: " + relation.size()) //
-          .append(" data type: " + relation.getDataTypeInformation()).append(FormatUtil.NEWLINE);
+    try (PrintStream fout = binary ? null : new PrintStream(outfile); //
+        BinaryScoreMatrix.Writer bout = binary ? new BinaryScoreMatrix.Writer(outfile, ids.size()) : null) {
+      // Output function, for text or binary output:
+      final BiConsumer<String, double[]> sink;
+      if(bout != null) {
+        sink = (label, row) -> {
+          try {
+            bout.write(label, row);
+          }
+          catch(IOException e) {
+            throw new AbortException("Cannot write output file.", e);
+          }
+        };
+      }
+      else {
+        // Control: print the DBIDs in case we are seeing an odd iteration
+        fout.append("# Data set size: " + relation.size()) //
+            .append(" data type: " + relation.getDataTypeInformation()).append(FormatUtil.NEWLINE);
+        sink = (label, row) -> {
+          fout.append(label);
+          for(double v : row) {
+            fout.append(' ').append(Double.toString(v));
+          }
+          fout.append(FormatUtil.NEWLINE);
+        };
+      }
 
       // Label outlier result (reference)
-      writeResult(fout, ids, bylabel.run(database), new IdentityScaling(), "bylabel");
+      writeResult(sink, ids, bylabel.run(database), new IdentityScaling(), "bylabel");
 
       final int startk = (this.startk > 0) ? this.startk : this.stepk;
       final int startkmin2 = (startk >= 2) ? startk : (startk + stepk);
       final int startkmin3 = (startk >= 3) ? startk : (startkmin2 >= 3) ? startkmin2 : (startkmin2 + stepk);
 
       // Output function:
-      BiConsumer<String, OutlierResult> out = (kstr, result) -> writeResult(fout, ids, result, scaling, kstr);
+      BiConsumer<String, OutlierResult> out = (kstr, result) -> writeResult(sink, ids, result, scaling, kstr);
+      // Collect one task per method and k:
+      List<Callable<Void>> tasks = new ArrayList<>();
 
       // KNN
-      runForEachK("KNN", startk, stepk, maxk, //
+      runForEachK(tasks, "KNN", startk, stepk, maxk, //
           k -> new KNNOutlier<O>(distf, k) //
               .run(database, relation), out);
       // KNN Weight
-      runForEachK("KNNW", startk, stepk, maxk, //
+      runForEachK(tasks, "KNNW", startk, stepk, maxk, //
           k -> new KNNWeightOutlier<O>(distf, k) //
               .run(database, relation), out);
       // Run LOF
-      runForEachK("LOF", startk, stepk, maxk, //
+      runForEachK(tasks, "LOF", startk, stepk, maxk, //
           k -> new LOF<O>(k, distf) //
               .run(database, relation), out);
       // Run Simplified-LOF
-      runForEachK("SimplifiedLOF", startk, stepk, maxk, //
+      runForEachK(tasks, "SimplifiedLOF", startk, stepk, maxk, //
           k -> new SimplifiedLOF<O>(k, distf) //
               .run(database, relation), out);
       // LoOP
-      runForEachK("LoOP", startk, stepk, maxk, //
+      runForEachK(tasks, "LoOP", startk, stepk, maxk, //
           k -> new LoOP<O>(k, k, distf, distf, 1.0) //
               .run(database, relation), out);
       // LDOF
-      runForEachK("LDOF", startkmin2, stepk, maxk, //
+      runForEachK(tasks, "LDOF", startkmin2, stepk, maxk, //
           k -> new LDOF<O>(distf, k) //
               .run(database, relation), out);
       // Run ODIN
-      runForEachK("ODIN", startk, stepk, maxk, //
+      runForEachK(tasks, "ODIN", startk, stepk, maxk, //
           k -> new ODIN<O>(distf, k) //
               .run(database, relation), out);
       // Run FastABOD
-      runForEachK("FastABOD", startkmin3, stepk, maxk, //
+      runForEachK(tasks, "FastABOD", startkmin3, stepk, maxk, //
           k -> new FastABOD<O>(new PolynomialKernelFunction(2), k) //
               .run(database, relation), out);
       // Run KDEOS with intrinsic dimensionality 2.
-      runForEachK("KDEOS", startkmin2, stepk, maxk, //
+      runForEachK(tasks, "KDEOS", startkmin2, stepk, maxk, //
           k -> new KDEOS<O>(distf, k, k, GaussianKernelDensityFunction.KERNEL, 0., //
               0.5 * GaussianKernelDensityFunction.KERNEL.canonicalBandwidth(), 2)//
                   .run(database, relation), out);
       // Run LDF
-      runForEachK("LDF", startk, stepk, maxk, //
+      runForEachK(tasks, "LDF", startk, stepk, maxk, //
           k -> new LDF<O>(k, distf, GaussianKernelDensityFunction.KERNEL, 1., .1) //
               .run(database, relation), out);
       // Run INFLO
-      runForEachK("INFLO", startk, stepk, maxk, //
+      runForEachK(tasks, "INFLO", startk, stepk, maxk, //
           k -> new INFLO<O>(distf, 1.0, k) //
               .run(database, relation), out);
       // Run COF
-      runForEachK("COF", startk, stepk, maxk, //
+      runForEachK(tasks, "COF", startk, stepk, maxk, //
           k -> new COF<O>(k, distf) //
               .run(database, relation), out);
       // Run simple Intrinsic dimensionality
-      runForEachK("Intrinsic", startkmin2, stepk, maxk, //
+      runForEachK(tasks, "Intrinsic", startkmin2, stepk, maxk, //
           k -> new IntrinsicDimensionalityOutlier<O>(distf, k, AggregatedHillEstimator.STATIC) //
               .run(database, relation), out);
       // Run IDOS
-      runForEachK("IDOS", startkmin2, stepk, maxk, //
+      runForEachK(tasks, "IDOS", startkmin2, stepk, maxk, //
           k -> new IDOS<O>(distf, AggregatedHillEstimator.STATIC, k, k) //
               .run(database, relation), out);
       // Run simple kernel-density LOF variant
-      runForEachK("KDLOF", startkmin2, stepk, maxk, //
+      runForEachK(tasks, "KDLOF", startkmin2, stepk, maxk, //
           k -> new SimpleKernelDensityLOF<O>(k, distf, GaussianKernelDensityFunction.KERNEL) //
               .run(database, relation), out);
       // Run DWOF (need pairwise distances, too)
-      runForEachK("DWOF", startkmin2, stepk, maxk, //
+      runForEachK(tasks, "DWOF", startkmin2, stepk, maxk, //
           k -> new DWOF<O>(distf, k, 1.1) //
               .run(database, relation), out);
       // Run LIC
-      runForEachK("LIC", startk, stepk, maxk, //
+      runForEachK(tasks, "LIC", startk, stepk, maxk, //
           k -> new LocalIsolationCoefficient<O>(distf, k) //
               .run(database, relation), out);
       // Run VOV (requires a vector field).
@@ -306,54 +363,61 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractApp
         final DistanceFunction<? super DoubleVector> df = (DistanceFunction<? super DoubleVector>) distf;
         @SuppressWarnings("unchecked")
         final Relation<DoubleVector> rel = (Relation<DoubleVector>) (Relation<?>) relation;
-        runForEachK("VOV", startk, stepk, maxk, //
+        runForEachK(tasks, "VOV", startk, stepk, maxk, //
             k -> new VarianceOfVolume<DoubleVector>(k, df) //
                 .run(database, rel), out);
       }
       // Run KNN DD
-      runForEachK("KNNDD", startk, stepk, maxk, //
+      runForEachK(tasks, "KNNDD", startk, stepk, maxk, //
           k -> new KNNDD<O>(distf, k) //
               .run(database, relation), out);
       // Run KNN SOS
-      runForEachK("KNNSOS", startk, stepk, maxk, //
+      runForEachK(tasks, "KNNSOS", startk, stepk, maxk, //
           k -> new KNNSOS<O>(distf, k) //
               .run(relation), out);
       // Run ISOS
-      runForEachK("ISOS", startkmin2, stepk, maxk, //
+      runForEachK(tasks, "ISOS", startkmin2, stepk, maxk, //
           k -> new ISOS<O>(distf, k, AggregatedHillEstimator.STATIC) //
               .run(relation), out);
+
+      // Run all methods and values of k concurrently.
+      ParallelExecutor.runOuter(tasks);
     }
-    catch(FileNotFoundException e) {
+    catch(IOException e) {
       throw new AbortException("Cannot create output file.", e);
     }
   }
 
   /**
-   * Write a single output line.
+   * Write a single output row.
+   * <p>
+   * Synchronized, because the scaling functions are stateful, and results are
+   * written by multiple threads.
    *
-   * @param out Output stream
+   * @param out Output function
    * @param ids DBIDs
    * @param result Outlier result
    * @param scaling Scaling function
    * @param label Identification label
    */
-  void writeResult(PrintStream out, DBIDs ids, OutlierResult result, ScalingFunction scaling, String label) {
+  synchronized void writeResult(BiConsumer<String, double[]> out, DBIDs ids, OutlierResult result, ScalingFunction scaling, String label) {
     if(scaling instanceof OutlierScalingFunction) {
       ((OutlierScalingFunction) scaling).prepare(result);
     }
-    out.append(label);
     DoubleRelation scores = result.getScores();
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+    double[] row = new double[ids.size()];
+    int i = 0;
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance(), i++) {
       double value = scores.doubleValue(iter);
-      value = scaling != null ? scaling.getScaled(value) : value;
-      out.append(' ').append(Double.toString(value));
+      row[i] = scaling != null ? scaling.getScaled(value) : value;
     }
-    out.append(FormatUtil.NEWLINE);
+    out.accept(label, row);
   }
 
   /**
-   * Iterate over the k range.
+   * Iterate over the k range, adding one task for each k.
    *
+   * @param tasks Output task list
    * @param prefix Prefix string
    * @param startk Start k
    * @param stepk Step k
@@ -361,22 +425,27 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractApp
    * @param runner Runner to run
    * @param out Output function
    */
-  private void runForEachK(String prefix, int startk, int stepk, int maxk, IntFunction<OutlierResult> runner, BiConsumer<String, OutlierResult> out) {
+  private void runForEachK(List<Callable<Void>> tasks, String prefix, int startk, int stepk, int maxk, IntFunction<OutlierResult> runner, BiConsumer<String, OutlierResult> out) {
     if(isDisabled(prefix)) {
       LOG.verbose("Skipping (disabled): " + prefix);
       return; // Disabled
     }
-    LOG.verbose("Running " + prefix);
     final int digits = (int) FastMath.ceil(FastMath.log10(maxk + 1));
     final String format = "%s-%0" + digits + "d";
     for(int k = startk; k <= maxk; k += stepk) {
-      Duration time = LOG.newDuration(this.getClass().getCanonicalName() + "." + prefix + ".k" + k + ".runtime").begin();
-      OutlierResult result = runner.apply(k);
-      LOG.statistics(time.end());
-      if(result != null) {
-        out.accept(String.format(Locale.ROOT, format, prefix, k), result);
-        result.getHierarchy().removeSubtree(result);
-      }
+      final int fk = k;
+      tasks.add(() -> {
+        final String label = String.format(Locale.ROOT, format, prefix, fk);
+        LOG.verbose("Running " + label);
+        Duration time = LOG.newDuration(this.getClass().getCanonicalName() + "." + prefix + ".k" + fk + ".runtime").begin();
+        OutlierResult result = runner.apply(fk);
+        LOG.statistics(time.end());
+        if(result != null) {
+          out.accept(label, result);
+          result.getHierarchy().removeSubtree(result);
+        }
+        return null;
+      });
     }
   }
 
@@ -423,6 +492,11 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractApp
      */
     public static final OptionID DISABLE_ID = new OptionID("disable", "Disable methods (regular expression, case insensitive, anchored).");
 
+    /**
+     * Option ID for binary output.
+     */
+    public static final OptionID BINARY_ID = new OptionID("binary", "Write a binary score matrix instead of text output.");
+
     /**
      * k step size
      */
@@ -468,6 +542,11 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractApp
      */
     Pattern disable = null;
 
+    /**
+     * Write a binary score matrix.
+     */
+    boolean binary = false;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -512,11 +591,14 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractApp
       if(config.grab(disableP)) {
         disable = disableP.getValue();
       }
+
+      Flag binaryF = new Flag(BINARY_ID);
+      binary = config.grab(binaryF) && binaryF.isTrue();
     }
 
     @Override
     protected ComputeKNNOutlierScores<O> makeInstance() {
-      return new ComputeKNNOutlierScores<>(inputstep, distf, startk, stepk, maxk, bylabel, outfile, scaling, disable);
+      return new ComputeKNNOutlierScores<>(inputstep, distf, startk, stepk, maxk, bylabel, outfile, scaling, disable, binary);
     }
   }
 
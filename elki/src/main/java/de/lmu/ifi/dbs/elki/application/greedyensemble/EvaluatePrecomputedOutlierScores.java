@@ -25,6 +25,7 @@ import java.nio.channels.FileChannel;
 import java.util.regex.Pattern;
 
 import de.lmu.ifi.dbs.elki.application.AbstractApplication;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
@@ -61,6 +62,10 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.StringParameter;
  * indicates an outlier</li>
  * </ul>
  *
+ * Alternatively, the input may be a {@link BinaryScoreMatrix}, which is
+ * detected automatically, and whose rows are read on demand with positional
+ * reads.
+ *
  * The evaluation assumes that high scores correspond to outliers, unless the
  * method name matches the pattern given using {@link Parameterizer#REVERSED_ID}
  * (Default: <tt>(ODIN|ABOD)</tt>).
@@ -130,13 +135,9 @@ public class EvaluatePrecomputedOutlierScores extends AbstractApplication {
 
   @Override
   public void run() {
-    try (FileInputStream fis = new FileInputStream(infile); //
-        InputStream is = new BufferedInputStream(FileUtil.tryGzipInput(fis)); //
-        FileOutputStream fosResult = new FileOutputStream(outfile, true);
+    try (FileOutputStream fosResult = new FileOutputStream(outfile, true);
         PrintStream fout = new PrintStream(fosResult);
         FileChannel chan = fosResult.getChannel()) {
-      // Setup the input stream.
-      parser.initStream(is);
       // Lock the output file:
       chan.lock();
       if(chan.position() == 0L) {
@@ -145,6 +146,45 @@ public class EvaluatePrecomputedOutlierScores extends AbstractApplication {
       else {
         LOG.info("Appending to existing output " + outfile);
       }
+      if(BinaryScoreMatrix.isBinary(infile)) {
+        processBinary(fout);
+      }
+      else {
+        processText(fout);
+      }
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error.", e);
+    }
+  }
+
+  /**
+   * Process a binary score matrix, as written by
+   * {@link ComputeKNNOutlierScores}.
+   *
+   * @param fout Output stream
+   * @throws IOException on read errors
+   */
+  private void processBinary(PrintStream fout) throws IOException {
+    try (BinaryScoreMatrix matrix = new BinaryScoreMatrix(infile)) {
+      final int n = matrix.getNumberOfObjects();
+      for(int i = 0; i < matrix.size(); i++) {
+        processRow(fout, DoubleVector.wrap(matrix.getRow(i, new double[n])), matrix.getLabel(i));
+      }
+    }
+  }
+
+  /**
+   * Process a text input file, using the streaming parser.
+   *
+   * @param fout Output stream
+   * @throws IOException on read errors
+   */
+  private void processText(PrintStream fout) throws IOException {
+    try (FileInputStream fis = new FileInputStream(infile); //
+        InputStream is = new BufferedInputStream(FileUtil.tryGzipInput(fis))) {
+      // Setup the input stream.
+      parser.initStream(is);
       int lcol = -1, dcol = -1;
       loop: while(true) {
         BundleStreamSource.Event ev = parser.nextEvent();
@@ -186,9 +226,6 @@ public class EvaluatePrecomputedOutlierScores extends AbstractApplication {
         }
       }
     }
-    catch(IOException e) {
-      throw new AbortException("IO error.", e);
-    }
   }
 
   private void writeHeader(PrintStream fout) {
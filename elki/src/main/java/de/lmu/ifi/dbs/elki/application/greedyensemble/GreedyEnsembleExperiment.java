@@ -22,6 +22,9 @@ package de.lmu.ifi.dbs.elki.application.greedyensemble;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.IntConsumer;
 
 import de.lmu.ifi.dbs.elki.application.AbstractApplication;
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
@@ -32,6 +35,8 @@ import de.lmu.ifi.dbs.elki.database.DatabaseUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -53,6 +58,8 @@ import de.lmu.ifi.dbs.elki.evaluation.scores.adapter.DecreasingVectorIter;
 import de.lmu.ifi.dbs.elki.evaluation.scores.adapter.VectorNonZero;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.ArrayLikeUtil;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.ensemble.EnsembleVoting;
@@ -84,6 +91,9 @@ import de.lmu.ifi.dbs.elki.workflow.InputStep;
  * This still leaves quite a bit of room for improvement. If you build upon this
  * basic approach, please acknowledge our proof of concept work.
  *
+ * The individual candidates and the random baseline ensembles are evaluated
+ * in parallel.
+ *
  * Reference:
  * <p>
  * E. Schubert, R. Wojdanowski, A. Zimek, H.-P. Kriegel<br />
@@ -273,18 +283,29 @@ public class GreedyEnsembleExperiment extends AbstractApplication {
     DBID bestid = null;
     double bestest = Double.POSITIVE_INFINITY;
     {
-      final double[] greedyensemble = new double[dim];
-      // Compute individual scores
+      // Evaluate the individual candidates concurrently
+      final ArrayModifiableDBIDs cands = DBIDUtil.newArray(numcand);
       for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-        if(DBIDUtil.equal(firstid, iditer)) {
-          continue;
+        if(!DBIDUtil.equal(firstid, iditer)) {
+          cands.add(iditer);
         }
-        // fout.append(labels.get(id));
-        final NumberVector vec = relation.get(iditer);
-        singleEnsemble(greedyensemble, vec);
-        double auc = ROCEvaluation.computeROCAUC(positive, new DecreasingVectorIter(DoubleVector.wrap(greedyensemble)));
-        double estimated = wdist.distance(DoubleVector.wrap(greedyensemble), estimated_truth_vec);
-        double cost = tdist.distance(DoubleVector.wrap(greedyensemble), refvec);
+      }
+      final double[] aucs = new double[cands.size()];
+      final double[] ests = new double[cands.size()];
+      final double[] costs = new double[cands.size()];
+      final Relation<NumberVector> frelation = relation;
+      final DoubleVector ftruth = estimated_truth_vec;
+      parallelFor(cands.size(), i -> {
+        final double[] greedyensemble = new double[dim];
+        singleEnsemble(greedyensemble, frelation.get(cands.iter().seek(i)));
+        aucs[i] = ROCEvaluation.computeROCAUC(positive, new DecreasingVectorIter(DoubleVector.wrap(greedyensemble)));
+        ests[i] = wdist.distance(DoubleVector.wrap(greedyensemble), ftruth);
+        costs[i] = tdist.distance(DoubleVector.wrap(greedyensemble), refvec);
+      });
+      // Choose the best, in the original order
+      int i = 0;
+      for(DBIDIter iditer = cands.iter(); iditer.valid(); iditer.advance(), i++) {
+        final double auc = aucs[i], estimated = ests[i], cost = costs[i];
         LOG.verbose("ROC AUC: " + auc + " estimated " + estimated + " cost " + cost + " " + labels.get(iditer));
         if(auc > bestauc) {
           bestauc = auc;
@@ -447,17 +468,22 @@ public class GreedyEnsembleExperiment extends AbstractApplication {
       MeanVariance meancost = new MeanVariance();
       HashSetModifiableDBIDs candidates = DBIDUtil.newHashSet(relation.getDBIDs());
       candidates.remove(firstid);
-      for(int i = 0; i < 1000; i++) {
+      // Array copy, shared by all samples.
+      final ArrayDBIDs acandidates = DBIDUtil.ensureArray(candidates);
+      final int enssize = ensemble.size();
+      final Relation<NumberVector> frelation = relation;
+      final double[] rndaucs = new double[1000], rndcosts = new double[1000];
+      parallelFor(rndaucs.length, i -> {
         // Build the improved ensemble:
         final double[] randomensemble = new double[dim];
         {
-          DBIDs random = DBIDUtil.randomSample(candidates, ensemble.size(), (long) i);
+          DBIDs random = DBIDUtil.randomSample(acandidates, enssize, (long) i);
           double[] buf = new double[random.size()];
           for(int d = 0; d < dim; d++) {
             int j = 0;
             for(DBIDIter iter = random.iter(); iter.valid(); iter.advance()) {
               assert (!DBIDUtil.equal(firstid, iter));
-              final NumberVector vec = relation.get(iter);
+              final NumberVector vec = frelation.get(iter);
               buf[j] = vec.doubleValue(d);
               j++;
             }
@@ -466,10 +492,12 @@ public class GreedyEnsembleExperiment extends AbstractApplication {
         }
         applyScaling(randomensemble, scaling);
         NumberVector randomvec = DoubleVector.wrap(randomensemble);
-        double auc = ROCEvaluation.computeROCAUC(positive, new DecreasingVectorIter(randomvec));
-        meanauc.put(auc);
-        double cost = tdist.distance(randomvec, refvec);
-        meancost.put(cost);
+        rndaucs[i] = ROCEvaluation.computeROCAUC(positive, new DecreasingVectorIter(randomvec));
+        rndcosts[i] = tdist.distance(randomvec, refvec);
+      });
+      for(int i = 0; i < rndaucs.length; i++) {
+        meanauc.put(rndaucs[i]);
+        meancost.put(rndcosts[i]);
       }
       LOG.verbose("Random ensemble AUC:  " + meanauc.getMean() + " + stddev: " + meanauc.getSampleStddev() + " = " + (meanauc.getMean() + meanauc.getSampleStddev()));
       LOG.verbose("Random ensemble Gain: " + gain(meanauc.getMean(), bestauc, 1));
@@ -532,18 +560,44 @@ public class GreedyEnsembleExperiment extends AbstractApplication {
     if(scaling == null) {
       return;
     }
-    if(scaling instanceof OutlierScalingFunction) {
-      ((OutlierScalingFunction) scaling).prepare(raw, ArrayLikeUtil.DOUBLEARRAYADAPTER);
-    }
-    for(int i = 0; i < raw.length; i++) {
-      final double newval = scaling.getScaled(raw[i]);
-      if(Double.isNaN(newval)) {
-        LOG.warning("NaN after prescaling: " + raw[i] + " " + scaling.toString() + " -> " + newval);
+    // Outlier scaling functions are stateful.
+    synchronized(scaling) {
+      if(scaling instanceof OutlierScalingFunction) {
+        ((OutlierScalingFunction) scaling).prepare(raw, ArrayLikeUtil.DOUBLEARRAYADAPTER);
+      }
+      for(int i = 0; i < raw.length; i++) {
+        final double newval = scaling.getScaled(raw[i]);
+        if(Double.isNaN(newval)) {
+          LOG.warning("NaN after prescaling: " + raw[i] + " " + scaling.toString() + " -> " + newval);
+        }
+        raw[i] = newval;
       }
-      raw[i] = newval;
     }
   }
 
+  /**
+   * Run a loop body for the indexes {@code 0..n-1} concurrently, striped over
+   * the available processors. The body must only write to index {@code i} of
+   * shared arrays.
+   *
+   * @param n Number of iterations
+   * @param body Loop body
+   */
+  private static void parallelFor(final int n, final IntConsumer body) {
+    final int p = Math.max(1, Math.min(ParallelCore.getCore().getParallelism(), n));
+    List<Callable<Void>> tasks = new ArrayList<>(p);
+    for(int t = 0; t < p; t++) {
+      final int first = t;
+      tasks.add(() -> {
+        for(int i = first; i < n; i += p) {
+          body.accept(i);
+        }
+        return null;
+      });
+    }
+    ParallelExecutor.run(tasks);
+  }
+
   protected void updateEstimations(final int[] outliers, int numoutliers, final double[] weights, final double[] truth) {
     final double oweight = .5 / numoutliers;
     final double iweight = .5 / (outliers.length - numoutliers);
@@ -0,0 +1,102 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.application.greedyensemble;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test the binary score matrix file format.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class BinaryScoreMatrixTest {
+  @Test
+  public void testRoundtrip() throws IOException {
+    File tmp = File.createTempFile("elki-scores", ".bin");
+    tmp.deleteOnExit();
+    double[][] rows = { { 0., 1., 0., Double.NaN }, { .5, -1.25, 1e300, 0. }, { 1., 2., 3., 4. } };
+    String[] labels = { "bylabel", "LOF-01", "KNN-ä" };
+    try (BinaryScoreMatrix.Writer w = new BinaryScoreMatrix.Writer(tmp, 4)) {
+      for(int i = 0; i < rows.length; i++) {
+        w.write(labels[i], rows[i]);
+      }
+    }
+    assertTrue(BinaryScoreMatrix.isBinary(tmp));
+    try (BinaryScoreMatrix m = new BinaryScoreMatrix(tmp)) {
+      assertEquals("Number of rows", rows.length, m.size());
+      assertEquals("Number of objects", 4, m.getNumberOfObjects());
+      double[] buf = new double[4];
+      for(int i = 0; i < rows.length; i++) {
+        assertEquals("Label", labels[i], m.getLabel(i));
+        assertArrayEquals("Scores", rows[i], m.getRow(i, buf), 0.);
+      }
+    }
+  }
+
+  /**
+   * Rows larger than the internal buffers, read in arbitrary order.
+   */
+  @Test
+  public void testLargeRows() throws IOException {
+    File tmp = File.createTempFile("elki-scores", ".bin");
+    tmp.deleteOnExit();
+    final int n = 20011, numrows = 5;
+    Random r = new Random(0L);
+    double[][] rows = new double[numrows][n];
+    try (BinaryScoreMatrix.Writer w = new BinaryScoreMatrix.Writer(tmp, n)) {
+      for(int i = 0; i < numrows; i++) {
+        for(int j = 0; j < n; j++) {
+          rows[i][j] = r.nextDouble();
+        }
+        w.write("row" + i, rows[i]);
+      }
+    }
+    try (BinaryScoreMatrix m = new BinaryScoreMatrix(tmp)) {
+      assertEquals("Number of rows", numrows, m.size());
+      double[] buf = new double[n];
+      for(int i : new int[] { 3, 0, 4, 1, 2, 3 }) {
+        assertEquals("Label", "row" + i, m.getLabel(i));
+        assertArrayEquals("Scores", rows[i], m.getRow(i, buf), 0.);
+      }
+    }
+  }
+
+  @Test
+  public void testText() throws IOException {
+    File tmp = File.createTempFile("elki-scores", ".txt");
+    tmp.deleteOnExit();
+    try (PrintStream out = new PrintStream(tmp)) {
+      out.println("bylabel 0 1 0");
+    }
+    assertFalse(BinaryScoreMatrix.isBinary(tmp));
+  }
+}
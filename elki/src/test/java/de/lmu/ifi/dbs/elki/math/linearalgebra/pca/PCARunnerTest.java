@@ -0,0 +1,78 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.math.linearalgebra.pca;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+
+/**
+ * Test the workspace-based local PCA against the general code path.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class PCARunnerTest {
+  /**
+   * Compare eigenvalues and eigenvectors of local neighborhoods.
+   */
+  @Test
+  public void testWorkspace() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase("elki/testdata/unittests/hierarchical-3d2d1d.csv", 600);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    KNNQuery<NumberVector> knnq = db.getKNNQuery(db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC), 20);
+    final int dim = RelationUtil.dimensionality(rel);
+    PCARunner pca = new PCARunner(new StandardCovarianceMatrixBuilder());
+    PCARunner.Workspace ws = pca.newWorkspace(dim);
+    ArrayDBIDs ids = DBIDUtil.ensureArray(rel.getDBIDs());
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance(10)) {
+      KNNList knn = knnq.getKNNForDBID(it, 20);
+      SortedEigenPairs exp = pca.processIds(knn, rel).getEigenPairs();
+      SortedEigenPairs act = pca.processQueryResult(knn, rel, ws).getEigenPairs();
+      for(int i = 0; i < dim; i++) {
+        assertEquals("Eigenvalue", exp.eigenValue(i), act.eigenValue(i), 1e-12);
+        // Eigenvectors are only unique up to their sign:
+        double[] ev = exp.getEigenPair(i).getEigenvector(), av = act.getEigenPair(i).getEigenvector();
+        double sign = 0.;
+        for(int j = 0; j < dim; j++) {
+          sign += ev[j] * av[j];
+        }
+        sign = sign < 0 ? -1. : 1.;
+        for(int j = 0; j < dim; j++) {
+          assertEquals("Eigenvector", ev[j], sign * av[j], 1e-8);
+        }
+      }
+    }
+  }
+}
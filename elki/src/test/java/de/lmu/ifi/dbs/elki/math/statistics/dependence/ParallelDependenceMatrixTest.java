@@ -0,0 +1,84 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.math.statistics.dependence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArrayAdapter;
+
+/**
+ * Validate the parallel dependence matrix against the serial computation.
+ *
+ * @author agent
+ * @since 0.7.5
+ */
+public class ParallelDependenceMatrixTest {
+  /**
+   * Generate a data set with some dependent columns.
+   *
+   * @return Data
+   */
+  private static List<double[]> makeData() {
+    Random r = new Random(0L);
+    double[][] data = new double[20][100];
+    for(int i = 0; i < data[0].length; i++) {
+      for(int d = 0; d < data.length; d++) {
+        data[d][i] = d > 0 && (d & 1) == 0 ? data[d - 1][i] + r.nextGaussian() : r.nextInt(d + 2);
+      }
+    }
+    return Arrays.asList(data);
+  }
+
+  @Test
+  public void testBatch() {
+    List<double[]> data = makeData();
+    for(DependenceMeasure m : new DependenceMeasure[] { //
+        SpearmanCorrelationDependenceMeasure.STATIC, //
+        HoeffdingsDDependenceMeasure.STATIC, //
+        MCEDependenceMeasure.STATIC, //
+        DistanceCorrelationDependenceMeasure.STATIC }) {
+      double[] exp = m.dependence(DoubleArrayAdapter.STATIC, data);
+      double[] par = ParallelDependenceMatrix.dependence(m, DoubleArrayAdapter.STATIC, data);
+      assertEquals(exp.length, par.length);
+      for(int i = 0; i < exp.length; i++) {
+        assertEquals(m.getClass().getSimpleName() + " " + i, exp[i], par[i], 0.);
+      }
+    }
+  }
+
+  @Test
+  public void testPairwise() {
+    List<double[]> data = makeData();
+    DependenceMeasure m = CorrelationDependenceMeasure.STATIC;
+    double[] par = ParallelDependenceMatrix.dependence(m, DoubleArrayAdapter.STATIC, data);
+    for(int y = 1, c = 0; y < data.size(); y++) {
+      for(int x = 0; x < y; x++) {
+        assertEquals("Pair " + x + "," + y, m.dependence(data.get(x), data.get(y)), par[c++], 1e-15);
+      }
+    }
+  }
+}